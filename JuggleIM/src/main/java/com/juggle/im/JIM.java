@@ -14,6 +14,7 @@ import com.juggle.im.internal.MessageManager;
 import com.juggle.im.internal.UploadManager;
 import com.juggle.im.internal.UserInfoManager;
 import com.juggle.im.internal.core.JIMCore;
+import com.juggle.im.internal.downloader.MediaDownloadEngine;
 import com.juggle.im.internal.logger.JLogConfig;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.internal.util.JUtility;
@@ -54,6 +55,12 @@ public class JIM {
         JLogger.getInstance().init(initConfig.getJLogConfig());
         //初始化push
         PushManager.getInstance().init(initConfig.getPushConfig());
+        //数据库存储模式
+        mCore.getDbManager().setEnableWAL(initConfig.isEnableWAL());
+        //发送队列上限
+        mCore.getWebSocket().setSendQueueLimits(initConfig.getMaxInFlightCommands(), initConfig.getMaxQueuedBytes());
+        //图片上传前的预处理
+        mUploadManager.setImagePreprocessConfig(initConfig.getImageMaxDimension(), initConfig.getImageQuality());
         //初始化appKey
         JLogger.i("J-Init", "appKey is " + appKey);
         if (appKey.equals(mCore.getAppKey())) {
@@ -105,6 +112,9 @@ public class JIM {
         mConnectionManager = new ConnectionManager(core, mConversationManager, mMessageManager, mUserInfoManager);
         mUploadManager = new UploadManager(core);
         mMessageManager.setDefaultMessageUploadProvider(mUploadManager);
+        //下载和日志上传共用 JIMCore 的 HTTP 连接
+        MediaDownloadEngine.getInstance().setHttpTransport(core.getHttpTransport());
+        JLogger.getInstance().setHttpTransport(core.getHttpTransport());
     }
 
     private final ConnectionManager mConnectionManager;
@@ -117,10 +127,20 @@ public class JIM {
     public static class InitConfig {
         private JLogConfig mJLogConfig;
         private PushConfig mPushConfig;
+        private boolean mEnableWAL;
+        private int mMaxInFlightCommands;
+        private int mMaxQueuedBytes;
+        private int mImageMaxDimension;
+        private int mImageQuality;
 
         public InitConfig(Builder builder) {
             this.mJLogConfig = builder.mJLogConfig;
             this.mPushConfig = builder.mPushConfig;
+            this.mEnableWAL = builder.mEnableWAL;
+            this.mMaxInFlightCommands = builder.mMaxInFlightCommands;
+            this.mMaxQueuedBytes = builder.mMaxQueuedBytes;
+            this.mImageMaxDimension = builder.mImageMaxDimension;
+            this.mImageQuality = builder.mImageQuality;
         }
 
         public void setJLogConfig(JLogConfig jLogConfig) {
@@ -139,9 +159,34 @@ public class JIM {
             return mJLogConfig;
         }
 
+        public boolean isEnableWAL() {
+            return mEnableWAL;
+        }
+
+        public int getMaxInFlightCommands() {
+            return mMaxInFlightCommands;
+        }
+
+        public int getMaxQueuedBytes() {
+            return mMaxQueuedBytes;
+        }
+
+        public int getImageMaxDimension() {
+            return mImageMaxDimension;
+        }
+
+        public int getImageQuality() {
+            return mImageQuality;
+        }
+
         public static class Builder {
             private JLogConfig mJLogConfig;
             private PushConfig mPushConfig;
+            private boolean mEnableWAL;
+            private int mMaxInFlightCommands;
+            private int mMaxQueuedBytes;
+            private int mImageMaxDimension;
+            private int mImageQuality;
 
             public Builder() {
             }
@@ -156,6 +201,36 @@ public class JIM {
                 return this;
             }
 
+            //开启数据库 WAL 模式，同步写入大批消息时会话列表、消息列表的读取不再被阻塞，默认关闭
+            public Builder setEnableWAL(boolean enableWAL) {
+                this.mEnableWAL = enableWAL;
+                return this;
+            }
+
+            //已发送还未收到 ack 的信令数上限，超出时后续信令在发送队列中等待，默认 32
+            public Builder setMaxInFlightCommands(int maxInFlightCommands) {
+                this.mMaxInFlightCommands = maxInFlightCommands;
+                return this;
+            }
+
+            //发送队列中排队的字节数上限，超出时新的信令回调 SEND_QUEUE_FULL，默认 1MB
+            public Builder setMaxQueuedBytes(int maxQueuedBytes) {
+                this.mMaxQueuedBytes = maxQueuedBytes;
+                return this;
+            }
+
+            //图片消息上传前把原图缩放到最长边不超过 maxDimension 并重新编码（同时去掉 EXIF），默认为 0，上传原图
+            public Builder setImageMaxDimension(int maxDimension) {
+                this.mImageMaxDimension = maxDimension;
+                return this;
+            }
+
+            //重新编码图片时的 JPEG 质量，1~100，默认 85
+            public Builder setImageQuality(int quality) {
+                this.mImageQuality = quality;
+                return this;
+            }
+
             public InitConfig build() {
                 return new InitConfig(this);
             }
@@ -22,6 +22,10 @@ public interface IConnectionManager {
         void onDbOpen();
 
         void onDbClose();
+
+        //断线重连成功时回调，attemptCount 为本次断线后的重连次数，duration 为从断线到重新连上的耗时（毫秒）
+        default void onReconnected(int attemptCount, long duration) {
+        }
     }
 }
 
@@ -2,6 +2,7 @@ package com.juggle.im.interfaces;
 
 import com.juggle.im.JIMConst;
 import com.juggle.im.model.Conversation;
+import com.juggle.im.model.ConversationChange;
 import com.juggle.im.model.ConversationInfo;
 
 import java.util.List;
@@ -53,6 +54,8 @@ public interface IConversationManager {
 
     int getTotalUnreadCount();
 
+    int getUnreadCountWithTypes(int[] conversationTypes);
+
     void clearUnreadCount(Conversation conversation, ISimpleCallback callback);
 
     void clearTotalUnreadCount(ISimpleCallback callback);
@@ -67,6 +70,10 @@ public interface IConversationManager {
 
     void removeSyncListener(String key);
 
+    void addChangeListener(String key, IConversationChangeListener listener);
+
+    void removeChangeListener(String key);
+
     interface IConversationListener {
         void onConversationInfoAdd(List<ConversationInfo> conversationInfoList);
 
@@ -80,4 +87,10 @@ public interface IConversationManager {
     interface IConversationSyncListener {
         void onConversationSyncComplete();
     }
+
+    //会话列表的位置变化，按顺序依次应用到完整的会话列表上，得到与 getConversationInfoList() 一致的顺序
+    //清空全部未读数等批量操作不改变顺序，不会产生位置变化
+    interface IConversationChangeListener {
+        void onConversationChange(List<ConversationChange> changes);
+    }
 }
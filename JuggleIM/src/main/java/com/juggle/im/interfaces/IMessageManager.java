@@ -104,6 +104,10 @@ public interface IMessageManager {
         void onError(int errorCode);
     }
 
+    interface IMessageContentFactory {
+        MessageContent create();
+    }
+
     Message sendMessage(MessageContent content,
                         Conversation conversation,
                         ISendMessageCallback callback);
@@ -263,6 +267,13 @@ public interface IMessageManager {
 
     void registerContentType(Class<? extends MessageContent> messageContentClass);
 
+    /**
+     * 通过工厂注册自定义消息，解码时直接调用工厂创建对象，不经过反射。
+     *
+     * @param factory 返回新的消息对象，例如 CustomMessage::new
+     */
+    void registerContentType(IMessageContentFactory factory);
+
     void addListener(String key, IMessageListener listener);
 
     void removeListener(String key);
@@ -16,8 +16,6 @@ import com.juggle.im.push.PushManager;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSocketConnectListener {
@@ -120,6 +118,11 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
         this.mConversationManager = conversationManager;
         this.mMessageManager = messageManager;
         this.mUserInfoManager = userInfoManager;
+        this.mReconnectScheduler = new ReconnectScheduler(mCore.getSendHandler(), () -> {
+            if (mCore.getConnectionStatus() == JIMCore.ConnectionStatusInternal.WAITING_FOR_CONNECTING) {
+                internalConnect(mCore.getToken());
+            }
+        });
     }
 
     @Override
@@ -127,6 +130,7 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
         if (errorCode == ConstInternal.ErrorCode.NONE) {
             mCore.setUserId(userId);
             openDB();
+            saveFastestServer();
             mMessageManager.connectSuccess();
             mConversationManager.connectSuccess();
             changeStatus(JIMCore.ConnectionStatusInternal.CONNECTED, ConstInternal.ErrorCode.NONE, extra);
@@ -161,8 +165,53 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
         handleWebsocketFail();
     }
 
+    @Override
+    public void onServerHandshake(String server, long handshakeTime) {
+        mHandshakeServer = server;
+        mHandshakeTime = handshakeTime;
+    }
+
+    @Override
+    public void onHeartbeatIntervalSettled(String networkType, long interval) {
+        if (networkType == null || !mCore.getDbManager().isOpen()) {
+            return;
+        }
+        mCore.getDbManager().setHeartbeatInterval(networkType, interval);
+    }
+
+    //优先连接当前网络类型下历史最快的服务器
     private void connectWebSocket(String token) {
-        mCore.getWebSocket().connect(mCore.getAppKey(), token, mCore.getDeviceId(), mCore.getPackageName(), mCore.getNetworkType(), mCore.getCarrier(), mPushChannel, mPushToken, mCore.getServers());
+        String networkType = mCore.getNetworkType();
+        mConnectNetworkType = networkType;
+        mHandshakeServer = null;
+        String fastestServer = mCore.getDbManager().getFastestServer(networkType);
+        long handshakeTime = 0;
+        if (TextUtils.isEmpty(fastestServer)) {
+            fastestServer = null;
+        } else {
+            handshakeTime = mCore.getDbManager().getFastestServerHandshakeTime(networkType);
+        }
+        mCore.getWebSocket().connect(mCore.getAppKey(), token, mCore.getDeviceId(), mCore.getPackageName(), networkType, mCore.getCarrier(), mPushChannel, mPushToken, mCore.getServers(), fastestServer, handshakeTime);
+    }
+
+    //连接成功后数据库已打开，使用当前网络类型上次保存的心跳间隔
+    private void startHeartbeat() {
+        String networkType = mConnectNetworkType;
+        long interval = 0;
+        if (networkType != null && mCore.getDbManager().isOpen()) {
+            interval = mCore.getDbManager().getHeartbeatInterval(networkType);
+        }
+        mCore.getWebSocket().startHeartbeat(interval);
+    }
+
+    //连接成功（数据库已打开）后记录本次胜出的服务器
+    private void saveFastestServer() {
+        String server = mHandshakeServer;
+        String networkType = mConnectNetworkType;
+        if (TextUtils.isEmpty(server) || networkType == null || !mCore.getDbManager().isOpen()) {
+            return;
+        }
+        mCore.getDbManager().setFastestServer(networkType, server, mHandshakeTime);
     }
 
     private void handleWebsocketFail() {
@@ -198,7 +247,8 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
             }
             if (status == JIMCore.ConnectionStatusInternal.CONNECTED
                     && mCore.getConnectionStatus() != JIMCore.ConnectionStatusInternal.CONNECTED) {
-                mCore.getWebSocket().startHeartbeat();
+                startHeartbeat();
+                reconnectFinish();
             }
             if (status != JIMCore.ConnectionStatusInternal.CONNECTED
                     && mCore.getConnectionStatus() == JIMCore.ConnectionStatusInternal.CONNECTED) {
@@ -212,12 +262,12 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
                     break;
                 case JIMCore.ConnectionStatusInternal.DISCONNECTED:
                     closeDB();
-                    stopReconnectTimer();
+                    mReconnectScheduler.cancel();
                     outStatus = JIMConst.ConnectionStatus.DISCONNECTED;
                     break;
 
                 case JIMCore.ConnectionStatusInternal.WAITING_FOR_CONNECTING:
-                    reconnect();
+                    mReconnectScheduler.schedule();
                     //无需 break，跟 CONNECTING 一起处理
                 case JIMCore.ConnectionStatusInternal.CONNECTING:
                     //已经在连接中，不需要再对外抛回调
@@ -229,6 +279,7 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
                     outStatus = JIMConst.ConnectionStatus.CONNECTING;
                     break;
                 case JIMCore.ConnectionStatusInternal.FAILURE:
+                    mReconnectScheduler.cancel();
                     outStatus = JIMConst.ConnectionStatus.FAILURE;
                 default:
                     break;
@@ -247,37 +298,31 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
         });
     }
 
-    private void stopReconnectTimer() {
-        if (mReconnectTimer != null) {
-            mReconnectTimer.cancel();
-            mReconnectTimer = null;
-        }
-    }
-
-    private void reconnect() {
-        JLogger.i("CON-Reconnect", "reconnect");
-        //todo 线程控制，间隔控制
-        if (mReconnectTimer != null) {
+    //重连成功后对外通知本次断线的重连次数和耗时
+    private void reconnectFinish() {
+        int attemptCount = mReconnectScheduler.getAttemptCount();
+        long duration = mReconnectScheduler.getDuration();
+        mReconnectScheduler.onConnected();
+        if (attemptCount == 0) {
             return;
         }
-        mReconnectTimer = new Timer();
-        mReconnectTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                stopReconnectTimer();
-                //todo 重连整理
-                if (mCore.getConnectionStatus() == JIMCore.ConnectionStatusInternal.WAITING_FOR_CONNECTING) {
-                    internalConnect(mCore.getToken());
-                }
+        JLogger.i("CON-Reconnect", "reconnect success, attempt count is " + attemptCount + ", duration is " + duration);
+        if (mConnectionStatusListenerMap != null) {
+            for (Map.Entry<String, IConnectionStatusListener> entry :
+                    mConnectionStatusListenerMap.entrySet()) {
+                mCore.getCallbackHandler().post(() -> {
+                    entry.getValue().onReconnected(attemptCount, duration);
+                });
             }
-        }, RECONNECT_INTERVAL);
+        }
     }
 
     private void internalConnect(String token) {
+        mCore.getSendHandler().post(() -> mReconnectScheduler.startNetworkMonitor(mCore.getContext()));
         openDB();
         changeStatus(JIMCore.ConnectionStatusInternal.CONNECTING, ConstInternal.ErrorCode.NONE, "");
 
-        NaviTask task = new NaviTask(mCore.getNaviUrls(), mCore.getAppKey(), mCore.getToken(), new NaviTask.IRequestCallback() {
+        NaviTask task = new NaviTask(mCore.getHttpTransport().getClient(), mCore.getNaviUrls(), mCore.getAppKey(), mCore.getToken(), new NaviTask.IRequestCallback() {
             @Override
             public void onSuccess(String userId, List<String> servers) {
                 mCore.getSendHandler().post(() -> {
@@ -338,6 +383,7 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
             if (!TextUtils.isEmpty(mCore.getUserId())) {
                 if (mCore.getDbManager().openIMDB(mCore.getContext(), mCore.getAppKey(), mCore.getUserId())) {
                     dbStatusNotice(true);
+                    mCore.getSendHandler().post(mMessageManager::backfillSearchIndex);
                 } else {
                     JLogger.e("CON-Db", "open db fail");
                 }
@@ -356,8 +402,10 @@ public class ConnectionManager implements IConnectionManager, JWebSocket.IWebSoc
     private final MessageManager mMessageManager;
     private final UserInfoManager mUserInfoManager;
     private ConcurrentHashMap<String, IConnectionStatusListener> mConnectionStatusListenerMap;
-    private Timer mReconnectTimer;
+    private final ReconnectScheduler mReconnectScheduler;
     private PushChannel mPushChannel;
     private String mPushToken;
-    private static final int RECONNECT_INTERVAL = 5 * 1000;
+    private volatile String mConnectNetworkType;
+    private volatile String mHandshakeServer;
+    private volatile long mHandshakeTime;
 }
@@ -2,8 +2,30 @@ package com.juggle.im.internal;
 
 import android.text.TextUtils;
 
+import com.juggle.im.interfaces.IMessageManager;
+import com.juggle.im.internal.model.messages.AddConvMessage;
+import com.juggle.im.internal.model.messages.CleanMsgMessage;
+import com.juggle.im.internal.model.messages.ClearTotalUnreadMessage;
+import com.juggle.im.internal.model.messages.ClearUnreadMessage;
+import com.juggle.im.internal.model.messages.DeleteConvMessage;
+import com.juggle.im.internal.model.messages.DeleteMsgMessage;
+import com.juggle.im.internal.model.messages.GroupReadNtfMessage;
+import com.juggle.im.internal.model.messages.LogCommandMessage;
+import com.juggle.im.internal.model.messages.ReadNtfMessage;
+import com.juggle.im.internal.model.messages.RecallCmdMessage;
+import com.juggle.im.internal.model.messages.TopConvMessage;
+import com.juggle.im.internal.model.messages.UnDisturbConvMessage;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.model.MessageContent;
+import com.juggle.im.model.messages.FileMessage;
+import com.juggle.im.model.messages.ImageMessage;
+import com.juggle.im.model.messages.MergeMessage;
+import com.juggle.im.model.messages.RecallInfoMessage;
+import com.juggle.im.model.messages.SnapshotPackedVideoMessage;
+import com.juggle.im.model.messages.TextMessage;
+import com.juggle.im.model.messages.ThumbnailPackedImageMessage;
+import com.juggle.im.model.messages.VideoMessage;
+import com.juggle.im.model.messages.VoiceMessage;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -18,54 +40,105 @@ public class ContentTypeCenter {
         static final ContentTypeCenter sInstance = new ContentTypeCenter();
     }
 
+    //只有 Class 的注册走反射，构造函数在注册时查找一次并缓存
     public void registerContentType(Class<? extends MessageContent> cls) {
         try {
             Constructor<? extends MessageContent> constructor = cls.getDeclaredConstructor();
             MessageContent content = constructor.newInstance();
-            String type = content.getContentType();
-            if (TextUtils.isEmpty(type)) {
-                JLogger.e("MSG-Register", "registerContentType error, type is empty when class is " + cls);
-                return;
-            }
-            mContentTypeMap.put(type, cls);
+            register(content, new ContentTypeInfo(null, constructor, content.getFlags()));
         } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException |
                  InstantiationException e) {
             JLogger.e("MSG-Register", "registerContentType error, class is " + cls + ", exception is " + e.getMessage());
         }
     }
 
+    public void registerContentType(IMessageManager.IMessageContentFactory factory) {
+        MessageContent content = factory.create();
+        if (content == null) {
+            JLogger.e("MSG-Register", "registerContentType error, factory create null");
+            return;
+        }
+        register(content, new ContentTypeInfo(factory, null, content.getFlags()));
+    }
+
+    //SDK 内置的消息类型
+    void registerBuiltinContentTypes() {
+        registerContentType(TextMessage::new);
+        registerContentType(ImageMessage::new);
+        registerContentType(FileMessage::new);
+        registerContentType(VoiceMessage::new);
+        registerContentType(VideoMessage::new);
+        registerContentType(RecallInfoMessage::new);
+        registerContentType(RecallCmdMessage::new);
+        registerContentType(DeleteConvMessage::new);
+        registerContentType(ReadNtfMessage::new);
+        registerContentType(GroupReadNtfMessage::new);
+        registerContentType(MergeMessage::new);
+        registerContentType(CleanMsgMessage::new);
+        registerContentType(DeleteMsgMessage::new);
+        registerContentType(ClearUnreadMessage::new);
+        registerContentType(TopConvMessage::new);
+        registerContentType(UnDisturbConvMessage::new);
+        registerContentType(LogCommandMessage::new);
+        registerContentType(ThumbnailPackedImageMessage::new);
+        registerContentType(SnapshotPackedVideoMessage::new);
+        registerContentType(AddConvMessage::new);
+        registerContentType(ClearTotalUnreadMessage::new);
+    }
+
     public MessageContent getContent(byte[] data, String type) {
-        Class<? extends MessageContent> cls = mContentTypeMap.get(type);
-        if (cls == null) {
+        ContentTypeInfo info = mContentTypeMap.get(type);
+        if (info == null) {
             return null;
         }
         MessageContent content = null;
         try {
-            Constructor<? extends MessageContent> constructor = cls.getDeclaredConstructor();
-            content = constructor.newInstance();
-            content.decode(data);
-        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException |
-                 InstantiationException e) {
+            content = info.newContent();
+            if (content != null) {
+                content.decode(data);
+            }
+        } catch (InvocationTargetException | IllegalAccessException | InstantiationException e) {
             JLogger.e("MSG-Register", "getContent error, type is " + type + ", exception is " + e.getMessage());
         }
         return content;
     }
 
+    //flags 在注册时读取一次，不再为了读取 flags 创建对象
     public int flagsWithType(String type) {
-        Class<? extends MessageContent> cls = mContentTypeMap.get(type);
-        if (cls == null) {
+        ContentTypeInfo info = mContentTypeMap.get(type);
+        if (info == null) {
             return -1;
         }
-        try {
-            Constructor<? extends MessageContent> constructor = cls.getDeclaredConstructor();
-            MessageContent content = constructor.newInstance();
-            return content.getFlags();
-        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException |
-                 InstantiationException e) {
-            JLogger.e("MSG-Register", "flagsWithType error, type is " + type + ", exception is " + e.getMessage());
+        return info.mFlags;
+    }
+
+    private void register(MessageContent content, ContentTypeInfo info) {
+        String type = content.getContentType();
+        if (TextUtils.isEmpty(type)) {
+            JLogger.e("MSG-Register", "registerContentType error, type is empty when class is " + content.getClass());
+            return;
+        }
+        mContentTypeMap.put(type, info);
+    }
+
+    private static class ContentTypeInfo {
+        ContentTypeInfo(IMessageManager.IMessageContentFactory factory, Constructor<? extends MessageContent> constructor, int flags) {
+            mFactory = factory;
+            mConstructor = constructor;
+            mFlags = flags;
+        }
+
+        MessageContent newContent() throws InvocationTargetException, IllegalAccessException, InstantiationException {
+            if (mFactory != null) {
+                return mFactory.create();
+            }
+            return mConstructor.newInstance();
         }
-        return -1;
+
+        private final IMessageManager.IMessageContentFactory mFactory;
+        private final Constructor<? extends MessageContent> mConstructor;
+        private final int mFlags;
     }
 
-    private final ConcurrentHashMap<String, Class<? extends MessageContent>> mContentTypeMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ContentTypeInfo> mContentTypeMap = new ConcurrentHashMap<>();
 }
@@ -17,6 +17,7 @@ import com.juggle.im.internal.model.messages.TopConvMessage;
 import com.juggle.im.internal.model.messages.UnDisturbConvMessage;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.model.Conversation;
+import com.juggle.im.model.ConversationChange;
 import com.juggle.im.model.ConversationInfo;
 import com.juggle.im.model.ConversationMentionInfo;
 import com.juggle.im.model.GroupInfo;
@@ -39,6 +40,7 @@ public class ConversationManager implements IConversationManager, MessageManager
         this.mUserInfoManager = userInfoManager;
         this.mMessageManager = messageManager;
         this.mCachedSyncTime = -1;
+        this.mCore.getDbManager().setConversationChangeListener(this::noticeConversationChange);
     }
 
     @Override
@@ -240,6 +242,11 @@ public class ConversationManager implements IConversationManager, MessageManager
         return mCore.getDbManager().getTotalUnreadCount();
     }
 
+    @Override
+    public int getUnreadCountWithTypes(int[] conversationTypes) {
+        return mCore.getDbManager().getUnreadCountWithTypes(conversationTypes);
+    }
+
     @Override
     public void clearUnreadCount(Conversation conversation, ISimpleCallback callback) {
         if (mCore.getWebSocket() == null) {
@@ -404,6 +411,24 @@ public class ConversationManager implements IConversationManager, MessageManager
         }
     }
 
+    @Override
+    public void addChangeListener(String key, IConversationChangeListener listener) {
+        if (listener == null || TextUtils.isEmpty(key)) {
+            return;
+        }
+        if (mChangeListenerMap == null) {
+            mChangeListenerMap = new ConcurrentHashMap<>();
+        }
+        mChangeListenerMap.put(key, listener);
+    }
+
+    @Override
+    public void removeChangeListener(String key) {
+        if (!TextUtils.isEmpty(key) && mChangeListenerMap != null) {
+            mChangeListenerMap.remove(key);
+        }
+    }
+
     void connectSuccess() {
         mSyncProcessing = true;
     }
@@ -476,6 +501,8 @@ public class ConversationManager implements IConversationManager, MessageManager
                     syncConversations(callback);
                 } else {
                     mSyncProcessing = false;
+                    //每轮同步结束后全量重算一次未读数汇总
+                    mCore.getDbManager().recountUnreadCount();
                     if (mCachedSyncTime > 0) {
                         mCore.setConversationSyncTime(mCachedSyncTime);
                         mCachedSyncTime = -1;
@@ -961,6 +988,14 @@ public class ConversationManager implements IConversationManager, MessageManager
         mUserInfoManager.insertGroupInfoList(new ArrayList<>(groupInfoMap.values()));
     }
 
+    private void noticeConversationChange(List<ConversationChange> changes) {
+        if (mChangeListenerMap != null) {
+            for (Map.Entry<String, IConversationChangeListener> entry : mChangeListenerMap.entrySet()) {
+                mCore.getCallbackHandler().post(() -> entry.getValue().onConversationChange(changes));
+            }
+        }
+    }
+
     private void noticeTotalUnreadCountChange() {
         int count = mCore.getDbManager().getTotalUnreadCount();
         if (count < 0) {
@@ -1016,6 +1051,7 @@ public class ConversationManager implements IConversationManager, MessageManager
     private final MessageManager mMessageManager;
     private ConcurrentHashMap<String, IConversationListener> mListenerMap;
     private ConcurrentHashMap<String, IConversationSyncListener> mSyncListenerMap;
+    private ConcurrentHashMap<String, IConversationChangeListener> mChangeListenerMap;
     private boolean mSyncProcessing = true;
     private long mCachedSyncTime;
     private static final int CONVERSATION_SYNC_COUNT = 100;
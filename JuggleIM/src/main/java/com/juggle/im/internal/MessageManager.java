@@ -44,13 +44,9 @@ import com.juggle.im.model.MessageOptions;
 import com.juggle.im.model.MessageQueryOptions;
 import com.juggle.im.model.TimePeriod;
 import com.juggle.im.model.UserInfo;
-import com.juggle.im.model.messages.FileMessage;
 import com.juggle.im.model.messages.ImageMessage;
 import com.juggle.im.model.messages.MergeMessage;
 import com.juggle.im.model.messages.RecallInfoMessage;
-import com.juggle.im.model.messages.SnapshotPackedVideoMessage;
-import com.juggle.im.model.messages.TextMessage;
-import com.juggle.im.model.messages.ThumbnailPackedImageMessage;
 import com.juggle.im.model.messages.VideoMessage;
 import com.juggle.im.model.messages.VoiceMessage;
 
@@ -58,6 +54,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -69,27 +66,7 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
         this.mCore = core;
         this.mCore.getWebSocket().setMessageListener(this);
         this.mUserInfoManager = userInfoManager;
-        ContentTypeCenter.getInstance().registerContentType(TextMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(ImageMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(FileMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(VoiceMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(VideoMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(RecallInfoMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(RecallCmdMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(DeleteConvMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(ReadNtfMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(GroupReadNtfMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(MergeMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(CleanMsgMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(DeleteMsgMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(ClearUnreadMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(TopConvMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(UnDisturbConvMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(LogCommandMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(ThumbnailPackedImageMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(SnapshotPackedVideoMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(AddConvMessage.class);
-        ContentTypeCenter.getInstance().registerContentType(ClearTotalUnreadMessage.class);
+        ContentTypeCenter.getInstance().registerBuiltinContentTypes();
     }
 
     private ConcreteMessage saveMessageWithContent(MessageContent content,
@@ -419,7 +396,8 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
                 messageQueryOptions != null ? messageQueryOptions.getContentTypes() : null,
                 messageQueryOptions != null ? messageQueryOptions.getSenderUserIds() : null,
                 messageQueryOptions != null ? messageQueryOptions.getStates() : null,
-                messageQueryOptions != null ? messageQueryOptions.getConversations() : null);
+                messageQueryOptions != null ? messageQueryOptions.getConversations() : null,
+                messageQueryOptions != null && messageQueryOptions.isMetadataOnly());
     }
 
     @Override
@@ -1353,6 +1331,15 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
         ContentTypeCenter.getInstance().registerContentType(messageContentClass);
     }
 
+    @Override
+    public void registerContentType(IMessageContentFactory factory) {
+        if (factory == null) {
+            return;
+        }
+        JLogger.i("MSG-Register", "factory is " + factory);
+        ContentTypeCenter.getInstance().registerContentType(factory);
+    }
+
     @Override
     public void addListener(String key, IMessageListener listener) {
         if (listener == null || TextUtils.isEmpty(key)) {
@@ -1429,11 +1416,14 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
 
     @Override
     public void onMessageReceive(List<ConcreteMessage> messages, boolean isFinished) {
+        //先请求下一页再落库，下一页的网络往返与本页的写入重叠进行
+        //同步位置在本页写入之后才更新，写入失败时下次仍从原位置同步，已存在的消息会被忽略
+        if (!isFinished) {
+            prefetchNextPage(messages);
+        }
         handleReceiveMessages(messages, true);
 
-        if (!isFinished) {
-            sync();
-        } else {
+        if (isFinished) {
             mSyncProcessing = false;
             if (mCachedSendTime > 0) {
                 mCore.setMessageSendSyncTime(mCachedSendTime);
@@ -1525,6 +1515,13 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
         mSyncProcessing = true;
     }
 
+    //分批回填消息搜索索引，每批之间让出发送线程，数据库关闭后自动停止
+    void backfillSearchIndex() {
+        if (mCore.getDbManager().backfillSearchIndex(SEARCH_INDEX_BACKFILL_COUNT)) {
+            mCore.getSendHandler().postDelayed(this::backfillSearchIndex, SEARCH_INDEX_BACKFILL_INTERVAL);
+        }
+    }
+
     private List<ConcreteMessage> messagesToSave(List<ConcreteMessage> messages) {
         List<ConcreteMessage> list = new ArrayList<>();
         for (ConcreteMessage message : messages) {
@@ -1575,6 +1572,10 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
 
         //合并同一类型不同会话的cmd消息列表
         Map<String, Map<Conversation, List<ConcreteMessage>>> mergeSameTypeMessages = new HashMap<>();
+        //按会话合并的 cmd 消息，整批只写一次数据库，每种类型每个监听只回调一次
+        Map<Conversation, Long> deleteConvTimeMap = new LinkedHashMap<>();
+        Map<Conversation, List<String>> readMessageIdsMap = new LinkedHashMap<>();
+        Map<Conversation, Map<String, GroupMessageReadInfo>> groupReadInfoMap = new LinkedHashMap<>();
         long sendTime = 0;
         long receiveTime = 0;
         for (ConcreteMessage message : messages) {
@@ -1600,60 +1601,52 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
                 continue;
             }
 
-            //delete conversation
+            //delete conversation，连续的删除按会话合并，保留时间最新的一条
+            //之后出现其它会话级 cmd 时先执行已合并的删除，保持与逐条处理相同的顺序
             if (message.getContentType().equals(DeleteConvMessage.CONTENT_TYPE)) {
                 DeleteConvMessage deleteConvMessage = (DeleteConvMessage) message.getContent();
-
-                List<Conversation> deletedList = new ArrayList<>();
                 for (Conversation deleteConv : deleteConvMessage.getConversations()) {
-                    //从消息表中获取指定会话的最新一条消息
-                    ConcreteConversationInfo conversationInfo = mCore.getDbManager().getConversationInfo(deleteConv);
-                    if (conversationInfo == null) {
-                        continue;
+                    Long deleteTime = deleteConvTimeMap.get(deleteConv);
+                    if (deleteTime == null || deleteTime < message.getTimestamp()) {
+                        deleteConvTimeMap.put(deleteConv, message.getTimestamp());
                     }
-                    Message lastMessage = conversationInfo.getLastMessage();
-                    //当DeleteConvMessage的时间戳小于它指定的会话的最后一条消息的时间戳时，进行抛弃处理
-                    if (lastMessage != null && message.getTimestamp() <= lastMessage.getTimestamp())
-                        continue;
-                    deletedList.add(deleteConv);
-                }
-                //进行删除操作
-                mCore.getDbManager().deleteConversationInfo(deletedList);
-                if (!deletedList.isEmpty() && mSendReceiveListener != null) {
-                    mSendReceiveListener.onConversationsDelete(deletedList);
                 }
                 continue;
             }
 
-            //read ntf
+            //read ntf，按会话合并已读的消息 id
             if (message.getContentType().equals(ReadNtfMessage.CONTENT_TYPE)) {
                 ReadNtfMessage readNtfMessage = (ReadNtfMessage) message.getContent();
-                mCore.getDbManager().setMessagesRead(readNtfMessage.getMessageIds());
-                if (mReadReceiptListenerMap != null) {
-                    for (Map.Entry<String, IMessageReadReceiptListener> entry : mReadReceiptListenerMap.entrySet()) {
-                        mCore.getCallbackHandler().post(() -> entry.getValue().onMessagesRead(message.getConversation(), readNtfMessage.getMessageIds()));
-                    }
+                if (readNtfMessage.getMessageIds() == null || readNtfMessage.getMessageIds().isEmpty()) {
+                    continue;
                 }
-                if (mSendReceiveListener != null) {
-                    mSendReceiveListener.onMessagesRead(message.getConversation(), readNtfMessage.getMessageIds());
+                List<String> messageIds = readMessageIdsMap.get(message.getConversation());
+                if (messageIds == null) {
+                    messageIds = new ArrayList<>();
+                    readMessageIdsMap.put(message.getConversation(), messageIds);
                 }
+                messageIds.addAll(readNtfMessage.getMessageIds());
                 continue;
             }
 
-            //group read ntf
+            //group read ntf，按会话合并，同一条消息保留后到的已读信息
             if (message.getContentType().equals(GroupReadNtfMessage.CONTENT_TYPE)) {
                 GroupReadNtfMessage groupReadNtfMessage = (GroupReadNtfMessage) message.getContent();
-                mCore.getDbManager().setGroupMessageReadInfo(groupReadNtfMessage.getMessages());
-                if (mReadReceiptListenerMap != null) {
-                    for (Map.Entry<String, IMessageReadReceiptListener> entry : mReadReceiptListenerMap.entrySet()) {
-                        mCore.getCallbackHandler().post(() -> entry.getValue().onGroupMessagesRead(message.getConversation(), groupReadNtfMessage.getMessages()));
-                    }
+                if (groupReadNtfMessage.getMessages() == null || groupReadNtfMessage.getMessages().isEmpty()) {
+                    continue;
+                }
+                Map<String, GroupMessageReadInfo> readInfoMap = groupReadInfoMap.get(message.getConversation());
+                if (readInfoMap == null) {
+                    readInfoMap = new HashMap<>();
+                    groupReadInfoMap.put(message.getConversation(), readInfoMap);
                 }
+                readInfoMap.putAll(groupReadNtfMessage.getMessages());
                 continue;
             }
 
             //clear history message
             if (message.getContentType().equals(CleanMsgMessage.CONTENT_TYPE)) {
+                flushDeleteConvMessages(deleteConvTimeMap);
                 CleanMsgMessage cleanMsgMessage = (CleanMsgMessage) message.getContent();
                 handleClearHistoryMessageCmdMessage(message.getConversation(), cleanMsgMessage.getCleanTime(), cleanMsgMessage.getSenderId());
                 continue;
@@ -1688,6 +1681,7 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
 
             //clear total unread message
             if (message.getContentType().equals(ClearTotalUnreadMessage.CONTENT_TYPE)) {
+                flushDeleteConvMessages(deleteConvTimeMap);
                 ClearTotalUnreadMessage clearTotalUnreadMessage = (ClearTotalUnreadMessage) message.getContent();
                 handleClearTotalUnreadMessageCmdMessage(clearTotalUnreadMessage.getClearTime());
                 continue;
@@ -1695,6 +1689,7 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
 
             //top conversation
             if (message.getContentType().equals(TopConvMessage.CONTENT_TYPE)) {
+                flushDeleteConvMessages(deleteConvTimeMap);
                 TopConvMessage topConvMessage = (TopConvMessage) message.getContent();
                 handleTopConversationCmdMessage(topConvMessage.getConversations());
                 continue;
@@ -1702,6 +1697,7 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
 
             //unDisturb conversation
             if (message.getContentType().equals(UnDisturbConvMessage.CONTENT_TYPE)) {
+                flushDeleteConvMessages(deleteConvTimeMap);
                 UnDisturbConvMessage unDisturbConvMessage = (UnDisturbConvMessage) message.getContent();
                 handleUnDisturbConversationCmdMessage(unDisturbConvMessage.getConversations());
                 continue;
@@ -1716,6 +1712,7 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
 
             //add conversation
             if (message.getContentType().equals(AddConvMessage.CONTENT_TYPE)) {
+                flushDeleteConvMessages(deleteConvTimeMap);
                 AddConvMessage addConvMessage = (AddConvMessage) message.getContent();
                 handleAddConvMessage(addConvMessage.getConversationInfo());
                 continue;
@@ -1738,6 +1735,11 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
                 }
             }
         }
+        //剩余的合并删除会话和已读回执在普通消息更新会话之前执行
+        //（逐条处理时删除会话在循环中执行，普通消息在循环结束后才更新会话）
+        flushDeleteConvMessages(deleteConvTimeMap);
+        handleReadNtfMessages(readMessageIdsMap);
+        handleGroupReadNtfMessages(groupReadInfoMap);
         //处理合并的普通消息
         if (mSendReceiveListener != null) {
             mSendReceiveListener.onMessageReceive(messagesToSave);
@@ -1880,6 +1882,85 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
         }
     }
 
+    //执行并清空已经合并的删除会话
+    private void flushDeleteConvMessages(Map<Conversation, Long> deleteConvTimeMap) {
+        if (deleteConvTimeMap.isEmpty()) {
+            return;
+        }
+        handleDeleteConvMessages(deleteConvTimeMap);
+        deleteConvTimeMap.clear();
+    }
+
+    private void handleDeleteConvMessages(Map<Conversation, Long> deleteConvTimeMap) {
+        List<Conversation> deletedList = new ArrayList<>();
+        for (Map.Entry<Conversation, Long> entry : deleteConvTimeMap.entrySet()) {
+            //从消息表中获取指定会话的最新一条消息
+            ConcreteConversationInfo conversationInfo = mCore.getDbManager().getConversationInfo(entry.getKey());
+            if (conversationInfo == null) {
+                continue;
+            }
+            Message lastMessage = conversationInfo.getLastMessage();
+            //当DeleteConvMessage的时间戳小于它指定的会话的最后一条消息的时间戳时，进行抛弃处理
+            if (lastMessage != null && entry.getValue() <= lastMessage.getTimestamp()) {
+                continue;
+            }
+            deletedList.add(entry.getKey());
+        }
+        if (deletedList.isEmpty()) {
+            return;
+        }
+        //进行删除操作
+        mCore.getDbManager().deleteConversationInfo(deletedList);
+        if (mSendReceiveListener != null) {
+            mSendReceiveListener.onConversationsDelete(deletedList);
+        }
+    }
+
+    private void handleReadNtfMessages(Map<Conversation, List<String>> readMessageIdsMap) {
+        if (readMessageIdsMap.isEmpty()) {
+            return;
+        }
+        List<String> allMessageIds = new ArrayList<>();
+        for (List<String> messageIds : readMessageIdsMap.values()) {
+            allMessageIds.addAll(messageIds);
+        }
+        mCore.getDbManager().setMessagesRead(allMessageIds);
+        if (mReadReceiptListenerMap != null) {
+            for (Map.Entry<String, IMessageReadReceiptListener> entry : mReadReceiptListenerMap.entrySet()) {
+                mCore.getCallbackHandler().post(() -> {
+                    for (Map.Entry<Conversation, List<String>> readEntry : readMessageIdsMap.entrySet()) {
+                        entry.getValue().onMessagesRead(readEntry.getKey(), readEntry.getValue());
+                    }
+                });
+            }
+        }
+        if (mSendReceiveListener != null) {
+            for (Map.Entry<Conversation, List<String>> readEntry : readMessageIdsMap.entrySet()) {
+                mSendReceiveListener.onMessagesRead(readEntry.getKey(), readEntry.getValue());
+            }
+        }
+    }
+
+    private void handleGroupReadNtfMessages(Map<Conversation, Map<String, GroupMessageReadInfo>> groupReadInfoMap) {
+        if (groupReadInfoMap.isEmpty()) {
+            return;
+        }
+        Map<String, GroupMessageReadInfo> allReadInfo = new HashMap<>();
+        for (Map<String, GroupMessageReadInfo> readInfoMap : groupReadInfoMap.values()) {
+            allReadInfo.putAll(readInfoMap);
+        }
+        mCore.getDbManager().setGroupMessageReadInfo(allReadInfo);
+        if (mReadReceiptListenerMap != null) {
+            for (Map.Entry<String, IMessageReadReceiptListener> entry : mReadReceiptListenerMap.entrySet()) {
+                mCore.getCallbackHandler().post(() -> {
+                    for (Map.Entry<Conversation, Map<String, GroupMessageReadInfo>> readEntry : groupReadInfoMap.entrySet()) {
+                        entry.getValue().onGroupMessagesRead(readEntry.getKey(), readEntry.getValue());
+                    }
+                });
+            }
+        }
+    }
+
     //通知会话更新最新信息
     private void notifyMessageCleared(Conversation conversation, long startTime, String sendUserId) {
         if (mSendReceiveListener != null) {
@@ -1889,6 +1970,23 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
         }
     }
 
+    //下一页的起始时间与本页写入后的同步时间一致：各方向最后一条消息的时间
+    private void prefetchNextPage(List<ConcreteMessage> messages) {
+        long receiveTime = mCore.getMessageReceiveTime();
+        long sendTime = mCore.getMessageSendSyncTime();
+        for (ConcreteMessage message : messages) {
+            if (message.getDirection() == Message.MessageDirection.SEND) {
+                sendTime = message.getTimestamp();
+            } else if (message.getDirection() == Message.MessageDirection.RECEIVE) {
+                receiveTime = message.getTimestamp();
+            }
+        }
+        JLogger.i("MSG-Sync", "prefetch, receive time is " + receiveTime + ", send time is " + sendTime);
+        if (mCore.getWebSocket() != null) {
+            mCore.getWebSocket().syncMessages(receiveTime, sendTime, mCore.getUserId());
+        }
+    }
+
     private void sync() {
         JLogger.i("MSG-Sync", "receive time is " + mCore.getMessageReceiveTime() + ", send time is " + mCore.getMessageSendSyncTime());
         if (mCore.getWebSocket() != null) {
@@ -1937,4 +2035,6 @@ public class MessageManager implements IMessageManager, JWebSocket.IWebSocketMes
     private IMessageUploadProvider mMessageUploadProvider;
     private IMessageUploadProvider mDefaultMessageUploadProvider;
     private ISendReceiveListener mSendReceiveListener;
+    private static final int SEARCH_INDEX_BACKFILL_COUNT = 500;
+    private static final int SEARCH_INDEX_BACKFILL_INTERVAL = 200;
 }
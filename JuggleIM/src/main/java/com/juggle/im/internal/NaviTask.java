@@ -2,22 +2,23 @@ package com.juggle.im.internal;
 
 import android.text.TextUtils;
 import com.juggle.im.internal.util.JLogger;
+import com.juggle.im.internal.util.JThreadPoolExecutor;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
 class NaviTask {
-    NaviTask(List<String> urls, String appKey, String token, IRequestCallback callback) {
+    NaviTask(OkHttpClient client, List<String> urls, String appKey, String token, IRequestCallback callback) {
+        mClient = client;
         mRequestMap = new ConcurrentHashMap<>();
         if (urls.size() > MAX_CONCURRENT_COUNT) {
             urls = urls.subList(0, MAX_CONCURRENT_COUNT);
@@ -42,25 +43,25 @@ class NaviTask {
             mCallback.onError(ConstInternal.ErrorCode.SERVER_SET_ERROR);
             return;
         }
+        //在建连专用的线程池中请求，不再为每个 url 创建线程，也不会排在上传等任务之后
         for (String url : mRequestMap.keySet()) {
-            Thread t = new Thread(() -> request(url, mAppKey, mToken));
-            t.start();
+            JThreadPoolExecutor.runConnectTask(() -> request(url, mAppKey, mToken));
         }
     }
 
     private void request(String url, String appKey, String token) {
         JLogger.i("NAV-Request", "url is " + url);
         String realUrl = url + NAVI_SERVER_SUFFIX;
-        try {
-            URL u = new URL(realUrl);
-            HttpURLConnection con = (HttpURLConnection) u.openConnection();
-            con.setRequestMethod("GET");
-            con.setRequestProperty(APP_KEY, appKey);
-            con.setRequestProperty(TOKEN, token);
-            con.connect();
-            int responseCode = con.getResponseCode();
+        Request request = new Request.Builder()
+                .url(realUrl)
+                .get()
+                .header(APP_KEY, appKey)
+                .header(TOKEN, token)
+                .build();
+        try (Response response = mClient.newCall(request).execute()) {
+            int responseCode = response.code();
             if (responseCode != 200) {
-                JLogger.e("NAV-Request", "get navi error, url is " + con.getURL() + ", responseCode is " + responseCode);
+                JLogger.e("NAV-Request", "get navi error, url is " + realUrl + ", responseCode is " + responseCode);
                 if (responseCode == 401) {
                     responseError(url, ConstInternal.ErrorCode.TOKEN_ILLEGAL);
                 } else {
@@ -68,16 +69,10 @@ class NaviTask {
                 }
                 return;
             }
-            InputStream is = con.getInputStream();
-            BufferedInputStream stream = new BufferedInputStream(is);
-            ByteArrayOutputStream responseData = new ByteArrayOutputStream(512);
-            int c;
-            while ((c = stream.read()) != -1) {
-                responseData.write(c);
-            }
-            String s = new String(responseData.toByteArray(), StandardCharsets.UTF_8).trim();
+            ResponseBody body = response.body();
+            String s = body == null ? "" : body.string().trim();
             if (TextUtils.isEmpty(s)) {
-                JLogger.e("NAV-Request", "get navi error, url is " + con.getURL() + ", response is empty");
+                JLogger.e("NAV-Request", "get navi error, url is " + realUrl + ", response is empty");
                 responseError(url, ConstInternal.ErrorCode.NAVI_FAILURE);
                 return;
             }
@@ -155,6 +150,7 @@ class NaviTask {
     private static final String CODE = "code";
     private static final int MAX_CONCURRENT_COUNT = 5;
     private boolean mIsFinish = false;
+    private final OkHttpClient mClient;
     private final ConcurrentHashMap<String, TaskStatus> mRequestMap;
     private final String mAppKey;
     private final String mToken;
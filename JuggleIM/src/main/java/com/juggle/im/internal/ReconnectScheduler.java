@@ -0,0 +1,195 @@
+package com.juggle.im.internal;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.juggle.im.internal.util.JLogger;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+//断线重连调度：在发送线程的 Handler 上按指数退避（带随机抖动）安排重连，不再为每次重连创建 Timer 线程
+//无网络时挂起，不再定时唤醒；网络恢复时立即重连并把退避间隔重置为初始值
+//除了网络回调（转发到 Handler 后处理），所有方法都在 Handler 所在线程调用，不需要加锁
+class ReconnectScheduler {
+    interface IReconnectListener {
+        //到时间执行一次重连
+        void onReconnect();
+    }
+
+    ReconnectScheduler(Handler handler, IReconnectListener listener) {
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    //注册网络变化回调，只注册一次
+    void startNetworkMonitor(Context context) {
+        if (mNetworkCallback != null || context == null) {
+            return;
+        }
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (manager == null) {
+            return;
+        }
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        mOnline = info != null && info.isConnected();
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                mHandler.post(() -> networkAvailable(network));
+            }
+
+            @Override
+            public void onLost(Network network) {
+                mHandler.post(() -> networkLost(network));
+            }
+        };
+        try {
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            manager.registerNetworkCallback(request, callback);
+            mNetworkCallback = callback;
+        } catch (RuntimeException e) {
+            //缺少权限或者系统限制时按一直有网络处理
+            JLogger.e("CON-Reconnect", "register network callback error, exception is " + e.getMessage());
+            mOnline = true;
+        }
+    }
+
+    //进入等待重连状态时调用，已经安排了重连或者无网络挂起时忽略
+    void schedule() {
+        if (!mWaiting) {
+            mWaiting = true;
+            if (mDisconnectTime == 0) {
+                mDisconnectTime = SystemClock.elapsedRealtime();
+            }
+        }
+        if (mPending) {
+            return;
+        }
+        if (!mOnline) {
+            JLogger.i("CON-Reconnect", "network unavailable, reconnect suspended");
+            return;
+        }
+        long delay = nextDelay();
+        JLogger.i("CON-Reconnect", "reconnect after " + delay + "ms, attempt is " + (mAttemptCount + 1));
+        mPending = true;
+        mHandler.postDelayed(mReconnectRunnable, delay);
+    }
+
+    //主动断开或者连接失败（不再重连）时调用
+    void cancel() {
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mPending = false;
+        mWaiting = false;
+        reset();
+    }
+
+    //本次断线后已经执行的重连次数
+    int getAttemptCount() {
+        return mAttemptCount;
+    }
+
+    //从断线到现在的耗时（毫秒）
+    long getDuration() {
+        return mDisconnectTime == 0 ? 0 : SystemClock.elapsedRealtime() - mDisconnectTime;
+    }
+
+    //连接成功时调用，需要先读取 getAttemptCount / getDuration
+    void onConnected() {
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mPending = false;
+        mWaiting = false;
+        reset();
+    }
+
+    private void networkAvailable(Network network) {
+        mNetworks.add(network);
+        boolean wasOnline = mOnline;
+        mOnline = true;
+        if (wasOnline || !mWaiting) {
+            return;
+        }
+        //网络恢复，取消尚未执行的重连，立即重连
+        JLogger.i("CON-Reconnect", "network available, reconnect now");
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mBackoffLevel = 0;
+        mPending = true;
+        mHandler.post(mReconnectRunnable);
+    }
+
+    private void networkLost(Network network) {
+        mNetworks.remove(network);
+        if (!mNetworks.isEmpty()) {
+            return;
+        }
+        mOnline = false;
+        if (mPending) {
+            //无网络时挂起，等网络恢复再重连
+            JLogger.i("CON-Reconnect", "network lost, reconnect suspended");
+            mHandler.removeCallbacks(mReconnectRunnable);
+            mPending = false;
+        }
+    }
+
+    private long nextDelay() {
+        long delay = backoffDelay(mBackoffLevel, mRandom.nextDouble());
+        if (backoffInterval(mBackoffLevel) < RECONNECT_MAX_INTERVAL) {
+            mBackoffLevel++;
+        }
+        return delay;
+    }
+
+    //间隔为 BASE * 2^level，上限 MAX
+    static long backoffInterval(int level) {
+        return Math.min(RECONNECT_MAX_INTERVAL, RECONNECT_BASE_INTERVAL << Math.min(level, 16));
+    }
+
+    //random 为 [0, 1) 的随机数，实际取 [间隔/2, 间隔) 之间的值，避免大量客户端同时重连
+    static long backoffDelay(int level, double random) {
+        long half = backoffInterval(level) / 2;
+        return half + (long) (random * half);
+    }
+
+    private void reset() {
+        mBackoffLevel = 0;
+        mAttemptCount = 0;
+        mDisconnectTime = 0;
+    }
+
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPending = false;
+            if (!mWaiting) {
+                return;
+            }
+            mAttemptCount++;
+            mListener.onReconnect();
+        }
+    };
+
+    private final Handler mHandler;
+    private final IReconnectListener mListener;
+    private final Random mRandom = new Random();
+    private final Set<Network> mNetworks = new HashSet<>();
+    private ConnectivityManager.NetworkCallback mNetworkCallback;
+    private boolean mOnline = true;
+    //处于等待重连状态（包括无网络挂起）
+    private boolean mWaiting;
+    //已经 post 了重连任务
+    private boolean mPending;
+    private int mBackoffLevel;
+    private int mAttemptCount;
+    private long mDisconnectTime;
+    static final long RECONNECT_BASE_INTERVAL = 1000;
+    static final long RECONNECT_MAX_INTERVAL = 64 * 1000;
+}
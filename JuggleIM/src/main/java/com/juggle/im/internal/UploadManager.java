@@ -1,5 +1,6 @@
 package com.juggle.im.internal;
 
+import android.content.Context;
 import android.text.TextUtils;
 
 import com.juggle.im.interfaces.IMessageUploadProvider;
@@ -11,10 +12,13 @@ import com.juggle.im.internal.model.upload.UploadPreSignCred;
 import com.juggle.im.internal.model.upload.UploadQiNiuCred;
 import com.juggle.im.internal.uploader.FileUtil;
 import com.juggle.im.internal.uploader.IUploader;
+import com.juggle.im.internal.uploader.MediaPreprocessor;
 import com.juggle.im.internal.uploader.UploaderFactory;
 import com.juggle.im.internal.util.JLogger;
+import com.juggle.im.internal.util.JThreadPoolExecutor;
 import com.juggle.im.model.MediaMessageContent;
 import com.juggle.im.model.Message;
+import com.juggle.im.model.MessageContent;
 import com.juggle.im.model.messages.FileMessage;
 import com.juggle.im.model.messages.ImageMessage;
 import com.juggle.im.model.messages.SnapshotPackedVideoMessage;
@@ -22,6 +26,8 @@ import com.juggle.im.model.messages.ThumbnailPackedImageMessage;
 import com.juggle.im.model.messages.VideoMessage;
 import com.juggle.im.model.messages.VoiceMessage;
 
+import java.io.File;
+
 /**
  * @author Ye_Guli
  * @create 2024-05-28 16:39
@@ -32,6 +38,15 @@ public class UploadManager implements IMessageUploadProvider {
     }
 
     private final JIMCore mCore;
+    private final MediaPreprocessor mMediaPreprocessor = new MediaPreprocessor();
+    private UploaderFactory mUploaderFactory;
+    private static final String UPLOAD_RECORD_DIR = "jet_im/upload_record";//分片上传断点记录目录
+    private static final String PREPROCESS_DIR = "jet_im/upload_preprocess";//预处理后的图片目录
+
+    //图片上传前按最长边缩放并重新编码，maxDimension 小于等于 0 时上传原图
+    public void setImagePreprocessConfig(int maxDimension, int quality) {
+        mMediaPreprocessor.setImageConfig(maxDimension, quality);
+    }
 
     @Override
     public void uploadMessage(Message message, UploadCallback uploadCallback) {
@@ -84,16 +99,60 @@ public class UploadManager implements IMessageUploadProvider {
             uploadCallback.onError();
             return;
         }
-        //有缩略图的情况下先上传缩略图
+        //有缩略图的情况下缩略图和原文件并行上传
         if (needPreUpload) {
-            doRequestUploadFileCred(message, UploadFileType.IMAGE, preUploadLocalPath, true, new PreUploadCallback(uploadFileType, uploadCallback));
+            ParallelUploadCallback parallelCallback = new ParallelUploadCallback(uploadCallback);
+            prepareUpload(message, UploadFileType.IMAGE, preUploadLocalPath, true, parallelCallback.getCallback(true));
+            prepareUpload(message, uploadFileType, content.getLocalPath(), false, parallelCallback.getCallback(false));
             return;
         }
         //没有缩略图的情况下直接上传
-        doRequestUploadFileCred(message, uploadFileType, content.getLocalPath(), false, uploadCallback);
+        prepareUpload(message, uploadFileType, content.getLocalPath(), false, uploadCallback);
+    }
+
+    //在后台线程预处理图片并计算文件内容 hash（大文件不计算），同样内容已经上传过时直接复用 url，不再请求凭证和上传
+    private void prepareUpload(Message message, UploadFileType fileType, String localPath, boolean isPreUpload, UploadCallback uploadCallback) {
+        JThreadPoolExecutor.runInBackground(() -> {
+            String uploadPath = localPath;
+            //缩略图和封面已经很小，只处理原图
+            if (fileType == UploadFileType.IMAGE && !isPreUpload) {
+                uploadPath = mMediaPreprocessor.preprocessImage(localPath, getPreprocessDir());
+                if (!TextUtils.equals(uploadPath, localPath)) {
+                    updateImageInfo(message.getContent(), uploadPath);
+                }
+            }
+            String hash = MediaPreprocessor.getDedupeHash(uploadPath);
+            String url = mMediaPreprocessor.getUploadedUrl(hash);
+            if (url != null) {
+                JLogger.i("J-Uploader", "reuse uploaded url, localPath= " + localPath + ", url= " + url);
+                onUploadSuccess(message, url, isPreUpload, uploadCallback);
+                return;
+            }
+            doRequestUploadFileCred(message, fileType, uploadPath, isPreUpload, hash, uploadCallback);
+        });
+    }
+
+    //图片经过缩放、旋转后按实际上传的文件更新宽高和大小，上传成功后随消息内容一起保存、发送
+    private void updateImageInfo(MessageContent content, String path) {
+        int[] size = MediaPreprocessor.getImageSize(path);
+        if (size == null) {
+            return;
+        }
+        long length = new File(path).length();
+        if (content instanceof ImageMessage) {
+            ImageMessage imageMessage = (ImageMessage) content;
+            imageMessage.setWidth(size[0]);
+            imageMessage.setHeight(size[1]);
+            imageMessage.setSize(length);
+        } else if (content instanceof ThumbnailPackedImageMessage) {
+            ThumbnailPackedImageMessage imageMessage = (ThumbnailPackedImageMessage) content;
+            imageMessage.setWidth(size[0]);
+            imageMessage.setHeight(size[1]);
+            imageMessage.setSize(length);
+        }
     }
 
-    private void doRequestUploadFileCred(Message message, UploadFileType fileType, String localPath, boolean isPreUpload, UploadCallback uploadCallback) {
+    private void doRequestUploadFileCred(Message message, UploadFileType fileType, String localPath, boolean isPreUpload, String hash, UploadCallback uploadCallback) {
         //获取文件后缀
         String ext = FileUtil.getFileExtension(localPath);
         //判空文件后缀
@@ -113,7 +172,7 @@ public class UploadManager implements IMessageUploadProvider {
             @Override
             public void onSuccess(UploadOssType ossType, UploadQiNiuCred qiNiuCred, UploadPreSignCred preSignCred) {
                 JLogger.i("J-Uploader", "getUploadFileCred success, localPath= " + localPath + ", ossType= " + ossType + ", qiNiuCred= " + qiNiuCred.toString() + ", preSignCred= " + preSignCred.toString());
-                doRealUpload(message, uploadCallback, ossType, qiNiuCred, preSignCred, localPath, isPreUpload);
+                doRealUpload(message, uploadCallback, ossType, qiNiuCred, preSignCred, localPath, isPreUpload, hash);
             }
 
             @Override
@@ -124,7 +183,7 @@ public class UploadManager implements IMessageUploadProvider {
         });
     }
 
-    private void doRealUpload(Message message, UploadCallback uploadCallback, UploadOssType ossType, UploadQiNiuCred qiNiuCred, UploadPreSignCred preSignCred, String localPath, boolean isPreUpload) {
+    private void doRealUpload(Message message, UploadCallback uploadCallback, UploadOssType ossType, UploadQiNiuCred qiNiuCred, UploadPreSignCred preSignCred, String localPath, boolean isPreUpload, String hash) {
         //声明回调
         IUploader.UploaderCallback callback = new IUploader.UploaderCallback() {
             @Override
@@ -134,18 +193,8 @@ public class UploadManager implements IMessageUploadProvider {
 
             @Override
             public void onSuccess(String url) {
-                MediaMessageContent content = (MediaMessageContent) message.getContent();
-                if (!isPreUpload) {
-                    content.setUrl(url);
-                    uploadCallback.onSuccess(message);
-                    return;
-                }
-                if (message.getContent() instanceof ImageMessage) {
-                    ((ImageMessage) message.getContent()).setThumbnailUrl(url);
-                } else if (message.getContent() instanceof VideoMessage) {
-                    ((VideoMessage) message.getContent()).setSnapshotUrl(url);
-                }
-                uploadCallback.onSuccess(message);
+                mMediaPreprocessor.putUploadedUrl(hash, url);
+                onUploadSuccess(message, url, isPreUpload, uploadCallback);
             }
             @Override
             public void onError() {
@@ -158,7 +207,7 @@ public class UploadManager implements IMessageUploadProvider {
             }
         };
         //获取Uploader
-        IUploader uploader = new UploaderFactory().getUploader(localPath, callback, ossType, qiNiuCred, preSignCred);
+        IUploader uploader = getUploaderFactory().getUploader(localPath, callback, ossType, qiNiuCred, preSignCred, mCore.getHttpTransport());
         if (uploader == null) {
             JLogger.e("J-Uploader", "doRealUpload failed, uploader is null, localPath= " + localPath);
             uploadCallback.onError();
@@ -168,49 +217,130 @@ public class UploadManager implements IMessageUploadProvider {
         uploader.start();
     }
 
-    class PreUploadCallback implements UploadCallback {
-        private volatile boolean mIsPreUpload;
-        private final UploadFileType mUploadFileType;
+    private void onUploadSuccess(Message message, String url, boolean isPreUpload, UploadCallback uploadCallback) {
+        MediaMessageContent content = (MediaMessageContent) message.getContent();
+        if (!isPreUpload) {
+            content.setUrl(url);
+            uploadCallback.onSuccess(message);
+            return;
+        }
+        if (message.getContent() instanceof ImageMessage) {
+            ((ImageMessage) message.getContent()).setThumbnailUrl(url);
+        } else if (message.getContent() instanceof VideoMessage) {
+            ((VideoMessage) message.getContent()).setSnapshotUrl(url);
+        }
+        uploadCallback.onSuccess(message);
+    }
+
+    //预处理后的图片放在缓存目录，没有 context 时不做预处理
+    private String getPreprocessDir() {
+        Context context = mCore.getContext();
+        if (context == null) {
+            return null;
+        }
+        return new File(context.getCacheDir(), PREPROCESS_DIR).getAbsolutePath();
+    }
+
+    //共用一个 UploaderFactory，分片上传的断点记录保存在 filesDir 下，App 重启后可以继续上传
+    private synchronized UploaderFactory getUploaderFactory() {
+        if (mUploaderFactory != null) {
+            return mUploaderFactory;
+        }
+        Context context = mCore.getContext();
+        if (context == null) {
+            //还没有 context 时不记录断点，也不缓存
+            return new UploaderFactory(null);
+        }
+        mUploaderFactory = new UploaderFactory(new File(context.getFilesDir(), UPLOAD_RECORD_DIR).getAbsolutePath());
+        return mUploaderFactory;
+    }
+
+    //缩略图（封面）和原文件并行上传：两个上传凭证同时请求，拿到后各自开始上传
+    //两个 url 都设置到 content 之后才回调 onSuccess，任意一个失败或取消只回调一次
+    class ParallelUploadCallback {
+        private static final float PRE_PROGRESS_PERCENT = 0.2f;
+
         private final UploadCallback mInternalUploadCallback;
+        private int mPreProgress;
+        private int mProgress;
+        private boolean mPreUploadSuccess;
+        private boolean mUploadSuccess;
+        private boolean mIsFinished;
 
-        public PreUploadCallback(UploadFileType uploadFileType, UploadCallback uploadCallback) {
-            this.mIsPreUpload = true;
-            this.mUploadFileType = uploadFileType;
+        public ParallelUploadCallback(UploadCallback uploadCallback) {
             this.mInternalUploadCallback = uploadCallback;
         }
 
-        @Override
-        public void onProgress(int progress) {
-            float preProgressPercent = 0.2f;
+        UploadCallback getCallback(boolean isPreUpload) {
+            return new UploadCallback() {
+                @Override
+                public void onProgress(int progress) {
+                    onPartProgress(isPreUpload, progress);
+                }
+
+                @Override
+                public void onSuccess(Message message) {
+                    onPartSuccess(isPreUpload, message);
+                }
+
+                @Override
+                public void onError() {
+                    onPartFinish(false);
+                }
+
+                @Override
+                public void onCancel() {
+                    onPartFinish(true);
+                }
+            };
+        }
+
+        private void onPartProgress(boolean isPreUpload, int progress) {
             int realProgress;
-            if (mIsPreUpload) {
-                realProgress = (int) (progress * preProgressPercent);
-            } else {
-                realProgress = (int) (100 * preProgressPercent + progress * (1 - preProgressPercent));
+            synchronized (this) {
+                if (mIsFinished) {
+                    return;
+                }
+                if (isPreUpload) {
+                    mPreProgress = progress;
+                } else {
+                    mProgress = progress;
+                }
+                realProgress = (int) (mPreProgress * PRE_PROGRESS_PERCENT + mProgress * (1 - PRE_PROGRESS_PERCENT));
             }
             mInternalUploadCallback.onProgress(realProgress);
         }
 
-        @Override
-        public void onSuccess(Message message) {
-            if (mIsPreUpload) {
-                //缩略图上传成功，继续上传localPath
-                mIsPreUpload = false;
-                MediaMessageContent content = (MediaMessageContent) message.getContent();
-                doRequestUploadFileCred(message, mUploadFileType, content.getLocalPath(), false, this);
-            } else {
-                mInternalUploadCallback.onSuccess(message);
+        private void onPartSuccess(boolean isPreUpload, Message message) {
+            synchronized (this) {
+                if (mIsFinished) {
+                    return;
+                }
+                if (isPreUpload) {
+                    mPreUploadSuccess = true;
+                } else {
+                    mUploadSuccess = true;
+                }
+                if (!mPreUploadSuccess || !mUploadSuccess) {
+                    return;
+                }
+                mIsFinished = true;
             }
+            mInternalUploadCallback.onSuccess(message);
         }
 
-        @Override
-        public void onError() {
-            mInternalUploadCallback.onError();
-        }
-
-        @Override
-        public void onCancel() {
-            mInternalUploadCallback.onCancel();
+        private void onPartFinish(boolean isCancel) {
+            synchronized (this) {
+                if (mIsFinished) {
+                    return;
+                }
+                mIsFinished = true;
+            }
+            if (isCancel) {
+                mInternalUploadCallback.onCancel();
+            } else {
+                mInternalUploadCallback.onError();
+            }
         }
     }
 }
\ No newline at end of file
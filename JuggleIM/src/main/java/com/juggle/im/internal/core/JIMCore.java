@@ -10,6 +10,7 @@ import androidx.annotation.NonNull;
 
 import com.juggle.im.internal.ConstInternal;
 import com.juggle.im.internal.core.db.DBManager;
+import com.juggle.im.internal.core.network.JHttpTransport;
 import com.juggle.im.internal.core.network.JWebSocket;
 import com.juggle.im.internal.util.JUtility;
 
@@ -24,12 +25,17 @@ public class JIMCore {
         mSendHandler = new Handler(sendThread.getLooper());
         mCallbackHandler = new Handler(Looper.getMainLooper());
         mWebSocket = new JWebSocket(mSendHandler);
+        mHttpTransport = new JHttpTransport();
     }
 
     public JWebSocket getWebSocket() {
         return mWebSocket;
     }
 
+    public JHttpTransport getHttpTransport() {
+        return mHttpTransport;
+    }
+
     public String getDeviceId() {
         if (mContext == null) {
             return "";
@@ -216,6 +222,7 @@ public class JIMCore {
     }
 
     private final JWebSocket mWebSocket;
+    private final JHttpTransport mHttpTransport;
     private List<String> mNaviUrls;
     private List<String> mServers;
     private String mAppKey;
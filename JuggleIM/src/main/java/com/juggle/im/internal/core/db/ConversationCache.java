@@ -0,0 +1,186 @@
+package com.juggle.im.internal.core.db;
+
+import com.juggle.im.JIMConst;
+import com.juggle.im.internal.model.ConcreteConversationInfo;
+import com.juggle.im.model.Conversation;
+import com.juggle.im.model.ConversationChange;
+import com.juggle.im.model.ConversationInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//会话列表的内存缓存，顺序与 SQL 中的 ORDER BY is_top DESC, top_time DESC, timestamp DESC 一致
+//缓存中的对象只会被整体替换不会被修改，返回给调用方的都是拷贝，调用方修改返回的对象不会破坏缓存的排序
+//所有方法都不访问数据库，加锁期间不会等待数据库连接
+class ConversationCache {
+    //加载之前取得版本号，加载期间有更新时放弃本次加载
+    synchronized long getVersion() {
+        return mVersion;
+    }
+
+    synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    synchronized void load(List<ConcreteConversationInfo> list, long version) {
+        if (mLoaded || version != mVersion) {
+            return;
+        }
+        mList.clear();
+        mMap.clear();
+        mTickets.clear();
+        for (ConcreteConversationInfo info : list) {
+            if (info.getConversation() != null) {
+                mMap.put(info.getConversation(), info);
+            }
+        }
+        mList.addAll(mMap.values());
+        Collections.sort(mList, COMPARATOR);
+        mLoaded = true;
+    }
+
+    synchronized void invalidate() {
+        mVersion++;
+        mLoaded = false;
+        mList.clear();
+        mMap.clear();
+        mTickets.clear();
+    }
+
+    //在写入数据库之后、重新读取会话之前取号，同一会话只接受号码更大的结果
+    synchronized long nextTicket() {
+        return ++mTicket;
+    }
+
+    //info 为 null 表示会话已删除，返回位置变化，没有变化时返回 null
+    synchronized ConversationChange update(Conversation conversation, ConcreteConversationInfo info, long ticket) {
+        mVersion++;
+        if (!mLoaded) {
+            return null;
+        }
+        Long applied = mTickets.get(conversation);
+        if (applied != null && applied > ticket) {
+            return null;
+        }
+        mTickets.put(conversation, ticket);
+
+        int fromIndex = -1;
+        ConcreteConversationInfo old = mMap.remove(conversation);
+        if (old != null) {
+            fromIndex = Collections.binarySearch(mList, old, COMPARATOR);
+            if (fromIndex >= 0) {
+                mList.remove(fromIndex);
+            }
+        }
+        if (info == null) {
+            return fromIndex < 0 ? null : new ConversationChange(ConversationChange.ChangeType.REMOVE, fromIndex, -1, old);
+        }
+        int toIndex = Collections.binarySearch(mList, info, COMPARATOR);
+        if (toIndex < 0) {
+            toIndex = -toIndex - 1;
+        }
+        mList.add(toIndex, info);
+        mMap.put(conversation, info);
+        if (fromIndex < 0) {
+            return new ConversationChange(ConversationChange.ChangeType.INSERT, -1, toIndex, info.copy());
+        } else if (fromIndex == toIndex) {
+            return new ConversationChange(ConversationChange.ChangeType.UPDATE, fromIndex, toIndex, info.copy());
+        } else {
+            return new ConversationChange(ConversationChange.ChangeType.MOVE, fromIndex, toIndex, info.copy());
+        }
+    }
+
+    interface Filter {
+        boolean accept(ConcreteConversationInfo info);
+    }
+
+    //批量更新数据库前找出受影响的会话，更新后逐个刷新
+    synchronized List<Conversation> getConversations(Filter filter) {
+        List<Conversation> result = new ArrayList<>();
+        for (ConcreteConversationInfo info : mList) {
+            if (filter.accept(info)) {
+                result.add(info.getConversation());
+            }
+        }
+        return result;
+    }
+
+    synchronized List<ConversationInfo> getAll() {
+        List<ConversationInfo> result = new ArrayList<>(mList.size());
+        for (ConcreteConversationInfo info : mList) {
+            result.add(info.copy());
+        }
+        return result;
+    }
+
+    //与 sqlGetConversationsBy / sqlGetTopConversationsBy 的过滤、排序、数量一致
+    synchronized List<ConversationInfo> query(int[] conversationTypes, int count, long timestamp, JIMConst.PullDirection direction, boolean topOnly) {
+        List<ConversationInfo> result = new ArrayList<>();
+        for (ConcreteConversationInfo info : mList) {
+            if (result.size() >= count) {
+                break;
+            }
+            if (topOnly && !info.isTop()) {
+                //置顶会话都排在前面
+                break;
+            }
+            if (direction == JIMConst.PullDirection.OLDER) {
+                if (info.getSortTime() >= timestamp) continue;
+            } else {
+                if (info.getSortTime() <= timestamp) continue;
+            }
+            if (!containsType(conversationTypes, info.getConversation().getConversationType().getValue())) {
+                continue;
+            }
+            result.add(info.copy());
+        }
+        return result;
+    }
+
+    private static boolean containsType(int[] conversationTypes, int type) {
+        if (conversationTypes == null || conversationTypes.length == 0) {
+            return true;
+        }
+        for (int conversationType : conversationTypes) {
+            if (conversationType == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //置顶在前，置顶时间、排序时间倒序，最后按会话类型和 id 区分，保证每个会话在列表中的位置唯一
+    private static final Comparator<ConcreteConversationInfo> COMPARATOR = (o1, o2) -> {
+        if (o1.isTop() != o2.isTop()) {
+            return o1.isTop() ? -1 : 1;
+        }
+        int result = Long.compare(o2.getTopTime(), o1.getTopTime());
+        if (result != 0) {
+            return result;
+        }
+        result = Long.compare(o2.getSortTime(), o1.getSortTime());
+        if (result != 0) {
+            return result;
+        }
+        Conversation c1 = o1.getConversation();
+        Conversation c2 = o2.getConversation();
+        result = Integer.compare(c1.getConversationType().getValue(), c2.getConversationType().getValue());
+        if (result != 0) {
+            return result;
+        }
+        String id1 = c1.getConversationId() == null ? "" : c1.getConversationId();
+        String id2 = c2.getConversationId() == null ? "" : c2.getConversationId();
+        return id1.compareTo(id2);
+    };
+
+    private final List<ConcreteConversationInfo> mList = new ArrayList<>();
+    private final Map<Conversation, ConcreteConversationInfo> mMap = new HashMap<>();
+    private final Map<Conversation, Long> mTickets = new HashMap<>();
+    private boolean mLoaded;
+    private long mVersion;
+    private long mTicket;
+}
@@ -4,7 +4,6 @@ import android.database.Cursor;
 import android.text.TextUtils;
 
 import com.juggle.im.JIMConst;
-import com.juggle.im.internal.ContentTypeCenter;
 import com.juggle.im.internal.model.ConcreteConversationInfo;
 import com.juggle.im.internal.model.ConcreteMessage;
 import com.juggle.im.model.Conversation;
@@ -12,65 +11,124 @@ import com.juggle.im.model.ConversationMentionInfo;
 import com.juggle.im.model.Message;
 import com.juggle.im.model.MessageMentionInfo;
 
-import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 class ConversationSql {
+    //查询会话时的列清单（列常量在后面声明，这里需要带类名引用）
+    private static final String[] COLUMNS = {
+            ConversationSql.COL_CONVERSATION_TYPE,
+            ConversationSql.COL_CONVERSATION_ID,
+            ConversationSql.COL_DRAFT,
+            ConversationSql.COL_TIMESTAMP,
+            ConversationSql.COL_LAST_MESSAGE_ID,
+            ConversationSql.COL_LAST_READ_MESSAGE_INDEX,
+            ConversationSql.COL_LAST_MESSAGE_INDEX,
+            ConversationSql.COL_IS_TOP,
+            ConversationSql.COL_TOP_TIME,
+            ConversationSql.COL_MUTE,
+            ConversationSql.COL_MENTION_INFO,
+            ConversationSql.COL_LAST_MESSAGE_TYPE,
+            ConversationSql.COL_LAST_MESSAGE_CLIENT_UID,
+            ConversationSql.COL_LAST_MESSAGE_CLIENT_MSG_NO,
+            ConversationSql.COL_LAST_MESSAGE_DIRECTION,
+            ConversationSql.COL_LAST_MESSAGE_STATE,
+            ConversationSql.COL_LAST_MESSAGE_HAS_READ,
+            ConversationSql.COL_LAST_MESSAGE_TIMESTAMP,
+            ConversationSql.COL_LAST_MESSAGE_SENDER,
+            ConversationSql.COL_LAST_MESSAGE_CONTENT,
+            ConversationSql.COL_LAST_MESSAGE_SEQ_NO,
+            ConversationSql.COL_LAST_MESSAGE_MENTION_INFO,
+            ConversationSql.COL_UNREAD_TAG
+    };
+    static final String PROJECTION = CursorHelper.projection(COLUMNS);
+    private static final int INDEX_CONVERSATION_TYPE = 0;
+    private static final int INDEX_CONVERSATION_ID = 1;
+    private static final int INDEX_DRAFT = 2;
+    private static final int INDEX_TIMESTAMP = 3;
+    private static final int INDEX_LAST_MESSAGE_ID = 4;
+    private static final int INDEX_LAST_READ_MESSAGE_INDEX = 5;
+    private static final int INDEX_LAST_MESSAGE_INDEX = 6;
+    private static final int INDEX_IS_TOP = 7;
+    private static final int INDEX_TOP_TIME = 8;
+    private static final int INDEX_MUTE = 9;
+    private static final int INDEX_MENTION_INFO = 10;
+    private static final int INDEX_LAST_MESSAGE_TYPE = 11;
+    private static final int INDEX_LAST_MESSAGE_CLIENT_UID = 12;
+    private static final int INDEX_LAST_MESSAGE_CLIENT_MSG_NO = 13;
+    private static final int INDEX_LAST_MESSAGE_DIRECTION = 14;
+    private static final int INDEX_LAST_MESSAGE_STATE = 15;
+    private static final int INDEX_LAST_MESSAGE_HAS_READ = 16;
+    private static final int INDEX_LAST_MESSAGE_TIMESTAMP = 17;
+    private static final int INDEX_LAST_MESSAGE_SENDER = 18;
+    private static final int INDEX_LAST_MESSAGE_CONTENT = 19;
+    private static final int INDEX_LAST_MESSAGE_SEQ_NO = 20;
+    private static final int INDEX_LAST_MESSAGE_MENTION_INFO = 21;
+    private static final int INDEX_UNREAD_TAG = 22;
+
+    static CursorHelper.ColumnIndexes columnIndexes(Cursor cursor) {
+        return new CursorHelper.ColumnIndexes(cursor, COLUMNS);
+    }
 
     static ConcreteConversationInfo conversationInfoWithCursor(Cursor cursor) {
+        return conversationInfoWithCursor(cursor, columnIndexes(cursor));
+    }
+
+    //同一个 cursor 的多行共用 columns，列下标只解析一次
+    static ConcreteConversationInfo conversationInfoWithCursor(Cursor cursor, CursorHelper.ColumnIndexes columns) {
         ConcreteConversationInfo info = new ConcreteConversationInfo();
-        int type = CursorHelper.readInt(cursor, COL_CONVERSATION_TYPE);
-        String id = CursorHelper.readString(cursor, COL_CONVERSATION_ID);
+        int type = columns.readInt(cursor, INDEX_CONVERSATION_TYPE);
+        String id = columns.readString(cursor, INDEX_CONVERSATION_ID);
         Conversation c = new Conversation(Conversation.ConversationType.setValue(type), id);
         info.setConversation(c);
-        info.setDraft(CursorHelper.readString(cursor, COL_DRAFT));
-        info.setSortTime(CursorHelper.readLong(cursor, COL_TIMESTAMP));
-        info.setLastReadMessageIndex(CursorHelper.readLong(cursor, COL_LAST_READ_MESSAGE_INDEX));
-        info.setLastMessageIndex(CursorHelper.readLong(cursor, COL_LAST_MESSAGE_INDEX));
-        boolean isTop = CursorHelper.readInt(cursor, COL_IS_TOP) != 0;
+        info.setDraft(columns.readString(cursor, INDEX_DRAFT));
+        info.setSortTime(columns.readLong(cursor, INDEX_TIMESTAMP));
+        info.setLastReadMessageIndex(columns.readLong(cursor, INDEX_LAST_READ_MESSAGE_INDEX));
+        info.setLastMessageIndex(columns.readLong(cursor, INDEX_LAST_MESSAGE_INDEX));
+        boolean isTop = columns.readInt(cursor, INDEX_IS_TOP) != 0;
         info.setTop(isTop);
-        info.setTopTime(CursorHelper.readLong(cursor, COL_TOP_TIME));
-        boolean isMute = CursorHelper.readInt(cursor, COL_MUTE) != 0;
+        info.setTopTime(columns.readLong(cursor, INDEX_TOP_TIME));
+        boolean isMute = columns.readInt(cursor, INDEX_MUTE) != 0;
         info.setMute(isMute);
-        String mentionInfoJson = CursorHelper.readString(cursor, COL_MENTION_INFO);
+        String mentionInfoJson = columns.readString(cursor, INDEX_MENTION_INFO);
         if (!TextUtils.isEmpty(mentionInfoJson)) {
             info.setMentionInfo(new ConversationMentionInfo(mentionInfoJson));
         }
         int unreadCount = (int) (info.getLastMessageIndex() - info.getLastReadMessageIndex());
         info.setUnreadCount(unreadCount);
 
-        String lastMessageId = CursorHelper.readString(cursor, COL_LAST_MESSAGE_ID);
-        String lastMessageClientUid = CursorHelper.readString(cursor, COL_LAST_MESSAGE_CLIENT_UID);
-        long lastMessageClientMsgNo = CursorHelper.readLong(cursor, COL_LAST_MESSAGE_CLIENT_MSG_NO);
+        String lastMessageId = columns.readString(cursor, INDEX_LAST_MESSAGE_ID);
+        String lastMessageClientUid = columns.readString(cursor, INDEX_LAST_MESSAGE_CLIENT_UID);
+        long lastMessageClientMsgNo = columns.readLong(cursor, INDEX_LAST_MESSAGE_CLIENT_MSG_NO);
         if (TextUtils.isEmpty(lastMessageId) && TextUtils.isEmpty(lastMessageClientUid) && lastMessageClientMsgNo <= 0) {
             info.setLastMessage(null);
             return info;
         }
         ConcreteMessage lastMessage = new ConcreteMessage();
         lastMessage.setConversation(c);
-        lastMessage.setContentType(CursorHelper.readString(cursor, COL_LAST_MESSAGE_TYPE));
+        lastMessage.setContentType(columns.readString(cursor, INDEX_LAST_MESSAGE_TYPE));
         lastMessage.setMessageId(lastMessageId);
         lastMessage.setClientUid(lastMessageClientUid);
         lastMessage.setClientMsgNo(lastMessageClientMsgNo);
-        Message.MessageDirection direction = Message.MessageDirection.setValue(CursorHelper.readInt(cursor, COL_LAST_MESSAGE_DIRECTION));
+        Message.MessageDirection direction = Message.MessageDirection.setValue(columns.readInt(cursor, INDEX_LAST_MESSAGE_DIRECTION));
         lastMessage.setDirection(direction);
-        Message.MessageState state = Message.MessageState.setValue(CursorHelper.readInt(cursor, COL_LAST_MESSAGE_STATE));
+        Message.MessageState state = Message.MessageState.setValue(columns.readInt(cursor, INDEX_LAST_MESSAGE_STATE));
         lastMessage.setState(state);
-        boolean hasRead = CursorHelper.readInt(cursor, COL_LAST_MESSAGE_HAS_READ) != 0;
+        boolean hasRead = columns.readInt(cursor, INDEX_LAST_MESSAGE_HAS_READ) != 0;
         lastMessage.setHasRead(hasRead);
-        lastMessage.setTimestamp(CursorHelper.readLong(cursor, COL_LAST_MESSAGE_TIMESTAMP));
-        lastMessage.setSenderUserId(CursorHelper.readString(cursor, COL_LAST_MESSAGE_SENDER));
-        String content = CursorHelper.readString(cursor, COL_LAST_MESSAGE_CONTENT);
+        lastMessage.setTimestamp(columns.readLong(cursor, INDEX_LAST_MESSAGE_TIMESTAMP));
+        lastMessage.setSenderUserId(columns.readString(cursor, INDEX_LAST_MESSAGE_SENDER));
+        String content = columns.readString(cursor, INDEX_LAST_MESSAGE_CONTENT);
         if (content != null) {
-            lastMessage.setContent(ContentTypeCenter.getInstance().getContent(content.getBytes(StandardCharsets.UTF_8), lastMessage.getContentType()));
+            lastMessage.setRawContent(content);
         }
-        String mentionInfoStr = CursorHelper.readString(cursor, COL_LAST_MESSAGE_MENTION_INFO);
+        String mentionInfoStr = columns.readString(cursor, INDEX_LAST_MESSAGE_MENTION_INFO);
         if (!TextUtils.isEmpty(mentionInfoStr)) {
             lastMessage.setMentionInfo(new MessageMentionInfo(mentionInfoStr));
         }
-        lastMessage.setSeqNo(CursorHelper.readLong(cursor, COL_LAST_MESSAGE_SEQ_NO));
-        lastMessage.setMsgIndex(CursorHelper.readLong(cursor, COL_LAST_MESSAGE_INDEX));
+        lastMessage.setSeqNo(columns.readLong(cursor, INDEX_LAST_MESSAGE_SEQ_NO));
+        lastMessage.setMsgIndex(columns.readLong(cursor, INDEX_LAST_MESSAGE_INDEX));
         info.setLastMessage(lastMessage);
-        boolean hasUnread = CursorHelper.readInt(cursor, COL_UNREAD_TAG) != 0;
+        boolean hasUnread = columns.readInt(cursor, INDEX_UNREAD_TAG) != 0;
         info.setUnread(hasUnread);
         return info;
     }
@@ -202,62 +260,29 @@ class ConversationSql {
         return args;
     }
 
-    static String sqlGetConversation(int type) {
-        return String.format("SELECT * FROM conversation_info WHERE conversation_type = %s AND conversation_id = ?", type);
-    }
-
-    static String sqlDeleteConversation(int type) {
-        return String.format("DELETE FROM conversation_info WHERE conversation_type = %s AND conversation_id = ?", type);
-    }
-
-    static String sqlSetDraft(Conversation conversation, String draft) {
-        return String.format("UPDATE conversation_info SET draft = '%s' WHERE conversation_type = %s AND conversation_id = '%s'", draft, conversation.getConversationType().getValue(), conversation.getConversationId());
-    }
-
-    static String sqlClearUnreadCount(Conversation conversation, long msgIndex) {
-        return String.format("UPDATE conversation_info SET last_read_message_index = %s WHERE conversation_type = %s AND conversation_id = '%s'", msgIndex, conversation.getConversationType().getValue(), conversation.getConversationId());
-    }
-
-    static String sqlClearTotalUnreadCount() {
-        return "UPDATE conversation_info SET last_read_message_index = last_message_index";
-    }
-
-    static String sqlUpdateLastMessageHasRead(Conversation conversation, String messageId, boolean isHasRead) {
-        return String.format("UPDATE conversation_info SET last_message_has_read = %s WHERE conversation_type = %s AND conversation_id = '%s' AND last_message_id = '%s'", isHasRead ? 1 : 0, conversation.getConversationType().getValue(), conversation.getConversationId(), messageId);
-    }
-
-    static String sqlUpdateLastMessageState(Conversation conversation, long clientMsgNo, int state) {
-        return String.format("UPDATE conversation_info SET last_message_state = %s WHERE conversation_type = %s AND conversation_id = '%s' AND last_message_client_msg_no = %s", state, conversation.getConversationType().getValue(), conversation.getConversationId(), clientMsgNo);
-    }
-
-    static final String SQL_GET_TOTAL_UNREAD_COUNT = "SELECT SUM(CASE WHEN last_message_index - last_read_message_index >= 0 THEN last_message_index - last_read_message_index ELSE 0 END) AS total_count FROM conversation_info WHERE mute = 0";
-
-    static String sqlSetMute(Conversation conversation, boolean isMute) {
-        return String.format("UPDATE conversation_info SET mute = %s WHERE conversation_type = %s AND conversation_id = '%s'", isMute ? 1 : 0, conversation.getConversationType().getValue(), conversation.getConversationId());
-    }
-
-    static String sqlSetTop(Conversation conversation, boolean isTop, long topTime) {
-        return String.format("UPDATE conversation_info SET is_top = %s, top_time = %s WHERE conversation_type = %s AND conversation_id = '%s'", isTop ? 1 : 0, isTop ? topTime : 0, conversation.getConversationType().getValue(), conversation.getConversationId());
-    }
-
-    static String sqlSetUnread(Conversation conversation, boolean isUnread) {
-        return String.format("UPDATE conversation_info SET unread_tag = %s WHERE conversation_type = %s AND conversation_id = '%s'", isUnread ? 1 : 0, conversation.getConversationType().getValue(), conversation.getConversationId());
-    }
+    static final String SQL_GET_CONVERSATION = "SELECT " + PROJECTION + " FROM conversation_info WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_DELETE_CONVERSATION = "DELETE FROM conversation_info WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_SET_DRAFT = "UPDATE conversation_info SET draft = ? WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_CLEAR_UNREAD_COUNT = "UPDATE conversation_info SET last_read_message_index = ? WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_CLEAR_TOTAL_UNREAD_COUNT = "UPDATE conversation_info SET last_read_message_index = last_message_index";
+    static final String SQL_UPDATE_LAST_MESSAGE_HAS_READ = "UPDATE conversation_info SET last_message_has_read = ? WHERE conversation_type = ? AND conversation_id = ? AND last_message_id = ?";
+    static final String SQL_UPDATE_LAST_MESSAGE_STATE = "UPDATE conversation_info SET last_message_state = ? WHERE conversation_type = ? AND conversation_id = ? AND last_message_client_msg_no = ?";
 
-    static String sqlClearUnreadTag() {
-        return "UPDATE conversation_info SET unread_tag = 0";
-    }
-
-    static String sqlSetTopTime(Conversation conversation, long time) {
-        return String.format("UPDATE conversation_info SET top_time = %s WHERE conversation_type = %s AND conversation_id = '%s'", time, conversation.getConversationType().getValue(), conversation.getConversationId());
-    }
+    static final String SQL_SET_MUTE = "UPDATE conversation_info SET mute = ? WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_SET_TOP = "UPDATE conversation_info SET is_top = ?, top_time = ? WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_SET_UNREAD = "UPDATE conversation_info SET unread_tag = ? WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_CLEAR_UNREAD_TAG = "UPDATE conversation_info SET unread_tag = 0";
+    static final String SQL_SET_TOP_TIME = "UPDATE conversation_info SET top_time = ? WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_SET_MENTION = "UPDATE conversation_info SET mention_info = ? WHERE conversation_type = ? AND conversation_id = ?";
+    static final String SQL_UPDATE_SORT_TIME = "UPDATE conversation_info SET timestamp = ? WHERE conversation_type = ? AND conversation_id = ?";
 
-    static String sqlSetMention(Conversation conversation, String mentionInfoJson) {
-        return String.format("UPDATE conversation_info SET mention_info = '%s' WHERE conversation_type = %s AND conversation_id = '%s'", mentionInfoJson, conversation.getConversationType().getValue(), conversation.getConversationId());
-    }
-
-    static String sqlUpdateSortTime(Conversation conversation, long sortTime) {
-        return String.format("UPDATE conversation_info SET timestamp = %s WHERE conversation_type = %s AND conversation_id = '%s'", sortTime, conversation.getConversationType().getValue(), conversation.getConversationId());
+    //以 conversation_type, conversation_id 结尾的语句的参数
+    static Object[] argsWithConversation(Conversation conversation, Object... values) {
+        Object[] args = new Object[values.length + 2];
+        System.arraycopy(values, 0, args, 0, values.length);
+        args[values.length] = conversation.getConversationType().getValue();
+        args[values.length + 1] = conversation.getConversationId();
+        return args;
     }
 
     static final String SQL_CLEAR_MENTION_INFO = "UPDATE conversation_info SET mention_info = NULL";
@@ -303,7 +328,7 @@ class ConversationSql {
             + "last_message_has_read=?, last_message_timestamp=?, last_message_sender=?, "
             + "last_message_content=?, last_message_mention_info=?, last_message_seq_no=?, unread_tag=? WHERE conversation_type = ? "
             + "AND conversation_id = ?";
-    static final String SQL_GET_CONVERSATIONS = "SELECT * FROM conversation_info ORDER BY is_top DESC, top_time DESC, timestamp DESC";
+    static final String SQL_GET_CONVERSATIONS = "SELECT " + PROJECTION + " FROM conversation_info ORDER BY is_top DESC, top_time DESC, timestamp DESC";
     static final String SQL_UPDATE_LAST_MESSAGE = "UPDATE conversation_info SET last_message_id=?, last_message_type=?,"
             + "last_message_client_uid=?, last_message_client_msg_no=?, "
             + "last_message_direction=?, last_message_state=?, last_message_has_read=?, last_message_timestamp=?, "
@@ -319,47 +344,34 @@ class ConversationSql {
     static final String SQL_LAST_MESSAGE_EQUALS_QUESTION = ", last_message_index=?";
     static final String SQL_WHERE_CONVERSATION_IS = " WHERE conversation_type = ? AND conversation_id = ?";
 
-    static String sqlGetConversationsBy(int[] conversationTypes, int count, long timestamp, JIMConst.PullDirection direction) {
-        StringBuilder sql = new StringBuilder("SELECT * FROM conversation_info WHERE");
-        if (direction == JIMConst.PullDirection.OLDER) {
-            sql.append(" timestamp < ").append(timestamp);
-        } else {
-            sql.append(" timestamp > ").append(timestamp);
-        }
-        if (conversationTypes != null && conversationTypes.length > 0) {
-            sql.append(" AND conversation_type in (");
-            for (int i = 0; i < conversationTypes.length; i++) {
-                if (i > 0) {
-                    sql.append(", ");
-                }
-                sql.append(conversationTypes[i]);
-            }
-            sql.append(")");
-        }
+    static String sqlGetConversationsBy(int[] conversationTypes, int count, long timestamp, JIMConst.PullDirection direction, List<String> whereArgs) {
+        StringBuilder sql = new StringBuilder("SELECT " + PROJECTION + " FROM conversation_info WHERE");
+        appendTimestampAndTypes(sql, conversationTypes, timestamp, direction, whereArgs);
         sql.append(" ORDER BY is_top DESC, top_time DESC, timestamp DESC").append(" LIMIT ").append(count);
         return sql.toString();
     }
 
-    static String sqlGetTopConversationsBy(int[] conversationTypes, int count, long timestamp, JIMConst.PullDirection direction) {
-        StringBuilder sql = new StringBuilder("SELECT * FROM conversation_info WHERE");
-        sql.append(" is_top = 1 AND ");
+    static String sqlGetTopConversationsBy(int[] conversationTypes, int count, long timestamp, JIMConst.PullDirection direction, List<String> whereArgs) {
+        StringBuilder sql = new StringBuilder("SELECT " + PROJECTION + " FROM conversation_info WHERE");
+        sql.append(" is_top = 1 AND");
+        appendTimestampAndTypes(sql, conversationTypes, timestamp, direction, whereArgs);
+        sql.append(" ORDER BY top_time DESC").append(" LIMIT ").append(count);
+        return sql.toString();
+    }
+
+    private static void appendTimestampAndTypes(StringBuilder sql, int[] conversationTypes, long timestamp, JIMConst.PullDirection direction, List<String> whereArgs) {
         if (direction == JIMConst.PullDirection.OLDER) {
-            sql.append(" timestamp < ").append(timestamp);
+            sql.append(" timestamp < ?");
         } else {
-            sql.append(" timestamp > ").append(timestamp);
+            sql.append(" timestamp > ?");
         }
+        whereArgs.add(String.valueOf(timestamp));
         if (conversationTypes != null && conversationTypes.length > 0) {
-            sql.append(" AND conversation_type in (");
-            for (int i = 0; i < conversationTypes.length; i++) {
-                if (i > 0) {
-                    sql.append(", ");
-                }
-                sql.append(conversationTypes[i]);
+            sql.append(" AND conversation_type in ").append(CursorHelper.getQuestionMarkPlaceholder(conversationTypes.length));
+            for (int conversationType : conversationTypes) {
+                whereArgs.add(String.valueOf(conversationType));
             }
-            sql.append(")");
         }
-        sql.append(" ORDER BY top_time DESC").append(" LIMIT ").append(count);
-        return sql.toString();
     }
 
     static final String COL_CONVERSATION_TYPE = "conversation_type";
@@ -0,0 +1,50 @@
+package com.juggle.im.internal.core.db;
+
+//按会话类型汇总的未读数，由 conversation_info 上的触发器增量维护，与会话的写入处于同一事务
+//免打扰会话与 last_message_index 小于 last_read_message_index 的会话不计入，与原来的 SUM 统计口径一致
+//INSERT OR REPLACE 覆盖已有会话时不会触发 DELETE 触发器，汇总可能产生偏差，由定期全量重算修正
+class ConversationUnreadSql {
+    static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS conversation_unread ("
+            + "conversation_type SMALLINT PRIMARY KEY,"
+            + "unread_count INTEGER"
+            + ")";
+    static final String SQL_CREATE_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS trigger_conversation_unread_insert "
+            + "AFTER INSERT ON conversation_info BEGIN "
+            + insertTypeRow("NEW")
+            + addUnread("NEW", "+")
+            + "END";
+    static final String SQL_CREATE_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS trigger_conversation_unread_delete "
+            + "AFTER DELETE ON conversation_info BEGIN "
+            + addUnread("OLD", "-")
+            + "END";
+    static final String SQL_CREATE_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS trigger_conversation_unread_update "
+            + "AFTER UPDATE OF conversation_type, last_message_index, last_read_message_index, mute ON conversation_info BEGIN "
+            + insertTypeRow("NEW")
+            + addUnread("OLD", "-")
+            + addUnread("NEW", "+")
+            + "END";
+
+    static final String SQL_CLEAR = "DELETE FROM conversation_unread";
+    static final String SQL_RECOUNT = "INSERT INTO conversation_unread (conversation_type, unread_count) "
+            + "SELECT conversation_type, SUM(" + unreadOf("conversation_info") + ") FROM conversation_info GROUP BY conversation_type";
+    static final String SQL_GET_TOTAL_UNREAD_COUNT = "SELECT SUM(unread_count) AS total_count FROM conversation_unread";
+
+    static String sqlGetUnreadCountWithTypes(int count) {
+        return SQL_GET_TOTAL_UNREAD_COUNT + " WHERE conversation_type IN " + CursorHelper.getQuestionMarkPlaceholder(count);
+    }
+
+    private static String insertTypeRow(String row) {
+        return "INSERT OR IGNORE INTO conversation_unread (conversation_type, unread_count) VALUES (" + row + ".conversation_type, 0); ";
+    }
+
+    private static String addUnread(String row, String operator) {
+        return "UPDATE conversation_unread SET unread_count = unread_count " + operator + " " + unreadOf(row)
+                + " WHERE conversation_type = " + row + ".conversation_type; ";
+    }
+
+    //单个会话计入汇总的未读数
+    private static String unreadOf(String row) {
+        String unread = row + ".last_message_index - " + row + ".last_read_message_index";
+        return "(CASE WHEN " + row + ".mute = 0 AND " + unread + " > 0 THEN " + unread + " ELSE 0 END)";
+    }
+}
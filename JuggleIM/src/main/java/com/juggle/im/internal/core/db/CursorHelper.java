@@ -28,6 +28,49 @@ class CursorHelper {
         }
     }
 
+    //按列名解析一次列下标，之后逐行按下标读取，列不存在时与 readXxx 一样返回默认值
+    static class ColumnIndexes {
+        ColumnIndexes(Cursor cursor, String[] columns) {
+            mIndexes = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                mIndexes[i] = cursor.getColumnIndex(columns[i]);
+            }
+        }
+
+        boolean hasColumn(int column) {
+            return mIndexes[column] >= 0;
+        }
+
+        String readString(Cursor cursor, int column) {
+            int index = mIndexes[column];
+            return index < 0 ? "" : cursor.getString(index);
+        }
+
+        int readInt(Cursor cursor, int column) {
+            int index = mIndexes[column];
+            return index < 0 ? 0 : cursor.getInt(index);
+        }
+
+        long readLong(Cursor cursor, int column) {
+            int index = mIndexes[column];
+            return index < 0 ? 0L : cursor.getLong(index);
+        }
+
+        private final int[] mIndexes;
+    }
+
+    //由列名生成 SELECT 的列清单
+    static String projection(String[] columns) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                s.append(", ");
+            }
+            s.append(columns[i]);
+        }
+        return s.toString();
+    }
+
     public static String getQuestionMarkPlaceholder(int size) {
         StringBuilder s = new StringBuilder();
         s.append("(");
@@ -1,12 +1,38 @@
 package com.juggle.im.internal.core.db;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.juggle.im.internal.util.JLogger;
+
 public class DBHelper extends SQLiteOpenHelper {
-    DBHelper(Context context, String path) {
+    DBHelper(Context context, String path, boolean enableWAL) {
         super(context, path, null, version);
+        mEnableWAL = enableWAL;
+    }
+
+    //WAL 模式下系统为只读查询分配独立的读连接（连接池大小由系统限定），
+    //读操作不再排在同步写入的事务后面；以下 pragma 作用于写连接
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (!mEnableWAL) {
+            return;
+        }
+        try {
+            db.enableWriteAheadLogging();
+            db.execSQL(SQL_SYNCHRONOUS_NORMAL);
+            db.execSQL(SQL_CACHE_SIZE);
+            DatabaseUtils.longForQuery(db, SQL_MMAP_SIZE, null);
+        } catch (SQLException e) {
+            JLogger.e("DB-Open", "configure wal fail, " + e.getMessage());
+        }
+    }
+
+    boolean isWALEnabled() {
+        return mEnableWAL;
     }
 
     @Override
@@ -14,8 +40,11 @@ public class DBHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(ProfileSql.SQL_CREATE_TABLE);
         sqLiteDatabase.execSQL(ConversationSql.SQL_CREATE_TABLE);
         sqLiteDatabase.execSQL(ConversationSql.SQL_CREATE_INDEX);
+        createUnreadCounter(sqLiteDatabase);
         sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_TABLE);
         sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_INDEX);
+        createMessageQueryIndexes(sqLiteDatabase);
+        createSearchIndex(sqLiteDatabase, false);
         sqLiteDatabase.execSQL(UserInfoSql.SQL_CREATE_USER_TABLE);
         sqLiteDatabase.execSQL(UserInfoSql.SQL_CREATE_GROUP_TABLE);
         sqLiteDatabase.execSQL(UserInfoSql.SQL_CREATE_USER_INDEX);
@@ -24,11 +53,61 @@ public class DBHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        if (oldVersion == 1 && newVersion == 2) {
+        //逐版本升级，保证跨多个版本升级时每一步都会执行
+        if (oldVersion < 2) {
             sqLiteDatabase.execSQL(ConversationSql.SQL_ADD_COLUMN_UNREAD_TAG);
-//            oldVersion = 2;
+        }
+        if (oldVersion < 3) {
+            createMessageQueryIndexes(sqLiteDatabase);
+        }
+        if (oldVersion < 4) {
+            createSearchIndex(sqLiteDatabase, true);
+        }
+        if (oldVersion < 5) {
+            createUnreadCounter(sqLiteDatabase);
+            sqLiteDatabase.execSQL(ConversationUnreadSql.SQL_RECOUNT);
+        }
+        if (oldVersion < 6) {
+            sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_TIMESTAMP_INDEX);
+        }
+    }
+
+    //消息表的查询索引，覆盖分页拉取、按发送者/类型/状态/时间过滤以及 client_uid 查找
+    private void createMessageQueryIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_CONVERSATION_INDEX);
+        sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_SENDER_INDEX);
+        sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_TYPE_INDEX);
+        sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_STATE_INDEX);
+        sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_CLIENT_UID_INDEX);
+        sqLiteDatabase.execSQL(MessageSql.SQL_CREATE_TIMESTAMP_INDEX);
+    }
+
+    //按会话类型汇总的未读数及维护它的触发器
+    private void createUnreadCounter(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(ConversationUnreadSql.SQL_CREATE_TABLE);
+        sqLiteDatabase.execSQL(ConversationUnreadSql.SQL_CREATE_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(ConversationUnreadSql.SQL_CREATE_DELETE_TRIGGER);
+        sqLiteDatabase.execSQL(ConversationUnreadSql.SQL_CREATE_UPDATE_TRIGGER);
+    }
+
+    //消息搜索的全文索引，存量数据库需要记录回填起点，由 DBManager 分批回填
+    //设备上的 SQLite 不支持 FTS 时不建表，搜索退回到 LIKE 查询
+    private void createSearchIndex(SQLiteDatabase sqLiteDatabase, boolean needBackfill) {
+        try {
+            sqLiteDatabase.execSQL(MessageFtsSql.SQL_CREATE_TABLE);
+            if (needBackfill) {
+                sqLiteDatabase.execSQL(MessageFtsSql.SQL_INIT_BACKFILL);
+            }
+        } catch (SQLException e) {
+            JLogger.e("DB-Upgrade", "create search index fail, " + e.getMessage());
         }
     }
 
-    private final static int version = 2;
+    private final static int version = 6;
+    //WAL 下 NORMAL 不会损坏数据库，只在掉电时可能丢失最近提交的事务
+    private static final String SQL_SYNCHRONOUS_NORMAL = "PRAGMA synchronous = NORMAL";
+    //负数表示以 KB 为单位，即 4MB 页缓存
+    private static final String SQL_CACHE_SIZE = "PRAGMA cache_size = -4096";
+    private static final String SQL_MMAP_SIZE = "PRAGMA mmap_size = 33554432";
+    private final boolean mEnableWAL;
 }
@@ -3,7 +3,9 @@ package com.juggle.im.internal.core.db;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
@@ -14,6 +16,7 @@ import com.juggle.im.internal.model.ConcreteMessage;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.internal.util.JSortTimeCounter;
 import com.juggle.im.model.Conversation;
+import com.juggle.im.model.ConversationChange;
 import com.juggle.im.model.ConversationInfo;
 import com.juggle.im.model.GroupInfo;
 import com.juggle.im.model.GroupMessageReadInfo;
@@ -24,6 +27,7 @@ import com.juggle.im.model.UserInfo;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,19 +36,35 @@ public class DBManager {
     public synchronized boolean openIMDB(Context context, String appKey, String userId) {
         String path = getOrCreateDbPath(context, appKey, userId);
         closeDB();
+        mConversationCache.invalidate();
+        mReferredMessageCache.clear();
         if (!TextUtils.isEmpty(path)) {
-            mDBHelper = new DBHelper(context, path);
+            mDBHelper = new DBHelper(context, path, mEnableWAL);
             mDb = mDBHelper.getWritableDatabase();
+            mStatementCache.reset(mDb);
+            mSearchIndexEnabled = checkSearchIndex();
+            mSearchIndexBackfillId = getSearchIndexBackfillId();
+            recountUnreadCount();
         }
         mSortTimeCounter = new JSortTimeCounter(context, appKey, userId);
         JLogger.i("DB-Open", "open db, path is " + path + ", result is " + isOpen());
         return true;
     }
 
+    //需要在 openIMDB 之前设置，对下一次打开的数据库生效
+    public void setEnableWAL(boolean enableWAL) {
+        mEnableWAL = enableWAL;
+    }
+
     public synchronized void closeDB() {
         JLogger.i("DB-Close", "close db");
         if (mDBHelper != null) {
             mDb = null;
+            mStatementCache.reset(null);
+            mSearchIndexEnabled = false;
+            mSearchIndexBackfillId = 0;
+            mConversationCache.invalidate();
+            mReferredMessageCache.clear();
             mDBHelper.close();
             mDBHelper = null;
         }
@@ -108,6 +128,59 @@ public class DBManager {
         execSQL(ProfileSql.SQL_SET_VALUE, args);
     }
 
+    //按网络类型记录上次竞速胜出的服务器，没有记录时返回空字符串
+    public String getFastestServer(String networkType) {
+        String result = "";
+        String[] args = new String[]{ProfileSql.FASTEST_SERVER + networkType};
+        Cursor cursor = rawQuery(ProfileSql.SQL_GET_VALUE, args);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                result = CursorHelper.readString(cursor, ProfileSql.COLUMN_VALUE);
+            }
+            cursor.close();
+        }
+        return result;
+    }
+
+    public long getFastestServerHandshakeTime(String networkType) {
+        long result = 0;
+        String[] args = new String[]{ProfileSql.FASTEST_SERVER_HANDSHAKE_TIME + networkType};
+        Cursor cursor = rawQuery(ProfileSql.SQL_GET_VALUE, args);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                result = CursorHelper.readLong(cursor, ProfileSql.COLUMN_VALUE);
+            }
+            cursor.close();
+        }
+        return result;
+    }
+
+    public void setFastestServer(String networkType, String server, long handshakeTime) {
+        performTransaction(() -> {
+            execSQL(ProfileSql.SQL_SET_VALUE, new String[]{ProfileSql.FASTEST_SERVER + networkType, server});
+            execSQL(ProfileSql.SQL_SET_VALUE, new String[]{ProfileSql.FASTEST_SERVER_HANDSHAKE_TIME + networkType, String.valueOf(handshakeTime)});
+        });
+    }
+
+    //按网络类型记录探测后固定下来的心跳间隔，没有记录时返回 0
+    public long getHeartbeatInterval(String networkType) {
+        long result = 0;
+        String[] args = new String[]{ProfileSql.HEARTBEAT_INTERVAL + networkType};
+        Cursor cursor = rawQuery(ProfileSql.SQL_GET_VALUE, args);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                result = CursorHelper.readLong(cursor, ProfileSql.COLUMN_VALUE);
+            }
+            cursor.close();
+        }
+        return result;
+    }
+
+    public void setHeartbeatInterval(String networkType, long interval) {
+        String[] args = new String[]{ProfileSql.HEARTBEAT_INTERVAL + networkType, String.valueOf(interval)};
+        execSQL(ProfileSql.SQL_SET_VALUE, args);
+    }
+
     public interface IDbInsertConversationsCallback {
         void onComplete(List<ConcreteConversationInfo> insertList, List<ConcreteConversationInfo> updateList);
     }
@@ -133,6 +206,11 @@ public class DBManager {
                 }
             }
         });
+        List<Conversation> conversations = new ArrayList<>();
+        for (ConcreteConversationInfo info : list) {
+            conversations.add(info.getConversation());
+        }
+        refreshConversationCache(conversations);
         if (callback != null) {
             callback.onComplete(insertConversations, updateConversations);
         }
@@ -145,6 +223,9 @@ public class DBManager {
     }
 
     public List<ConversationInfo> getConversationInfoList() {
+        if (ensureConversationCache()) {
+            return mConversationCache.getAll();
+        }
         Cursor cursor = rawQuery(ConversationSql.SQL_GET_CONVERSATIONS, null);
         if (cursor == null) {
             return new ArrayList<>();
@@ -158,8 +239,12 @@ public class DBManager {
         if (timestamp == 0) {
             timestamp = Long.MAX_VALUE;
         }
-        String sql = ConversationSql.sqlGetConversationsBy(conversationTypes, count, timestamp, direction);
-        Cursor cursor = rawQuery(sql, null);
+        if (ensureConversationCache()) {
+            return mConversationCache.query(conversationTypes, count, timestamp, direction, false);
+        }
+        List<String> whereArgs = new ArrayList<>();
+        String sql = ConversationSql.sqlGetConversationsBy(conversationTypes, count, timestamp, direction, whereArgs);
+        Cursor cursor = rawQuery(sql, whereArgs.toArray(new String[0]));
         if (cursor == null) {
             return new ArrayList<>();
         }
@@ -172,8 +257,12 @@ public class DBManager {
         if (timestamp == 0) {
             timestamp = Long.MAX_VALUE;
         }
-        String sql = ConversationSql.sqlGetTopConversationsBy(conversationTypes, count, timestamp, direction);
-        Cursor cursor = rawQuery(sql, null);
+        if (ensureConversationCache()) {
+            return mConversationCache.query(conversationTypes, count, timestamp, direction, true);
+        }
+        List<String> whereArgs = new ArrayList<>();
+        String sql = ConversationSql.sqlGetTopConversationsBy(conversationTypes, count, timestamp, direction, whereArgs);
+        Cursor cursor = rawQuery(sql, whereArgs.toArray(new String[0]));
         if (cursor == null) {
             return new ArrayList<>();
         }
@@ -183,8 +272,8 @@ public class DBManager {
     }
 
     public ConcreteConversationInfo getConversationInfo(Conversation conversation) {
-        String[] args = new String[]{conversation.getConversationId()};
-        Cursor cursor = rawQuery(ConversationSql.sqlGetConversation(conversation.getConversationType().getValue()), args);
+        String[] args = new String[]{String.valueOf(conversation.getConversationType().getValue()), conversation.getConversationId()};
+        Cursor cursor = rawQuery(ConversationSql.SQL_GET_CONVERSATION, args);
         ConcreteConversationInfo result = null;
         if (cursor != null) {
             if (cursor.moveToFirst()) {
@@ -199,58 +288,97 @@ public class DBManager {
         performTransaction(() -> {
             if (mDb == null) return;
             for (Conversation conversation : conversations) {
-                String[] args = new String[]{conversation.getConversationId()};
-                mDb.execSQL(ConversationSql.sqlDeleteConversation(conversation.getConversationType().getValue()), args);
+                execSQL(ConversationSql.SQL_DELETE_CONVERSATION, ConversationSql.argsWithConversation(conversation));
             }
         });
+        refreshConversationCache(conversations);
     }
 
     public void setDraft(Conversation conversation, String draft) {
-        execSQL(ConversationSql.sqlSetDraft(conversation, draft));
+        execSQL(ConversationSql.SQL_SET_DRAFT, ConversationSql.argsWithConversation(conversation, draft));
+        refreshConversationCache(conversation);
     }
 
     public void setMute(Conversation conversation, boolean isMute) {
-        execSQL(ConversationSql.sqlSetMute(conversation, isMute));
+        execSQL(ConversationSql.SQL_SET_MUTE, ConversationSql.argsWithConversation(conversation, isMute));
+        refreshConversationCache(conversation);
     }
 
     public void setTop(Conversation conversation, boolean isTop, long topTime) {
-        execSQL(ConversationSql.sqlSetTop(conversation, isTop, topTime));
+        execSQL(ConversationSql.SQL_SET_TOP, ConversationSql.argsWithConversation(conversation, isTop, isTop ? topTime : 0));
+        refreshConversationCache(conversation);
     }
 
     public void setUnread(Conversation conversation, boolean isUnread) {
-        execSQL(ConversationSql.sqlSetUnread(conversation, isUnread));
+        execSQL(ConversationSql.SQL_SET_UNREAD, ConversationSql.argsWithConversation(conversation, isUnread));
+        refreshConversationCache(conversation);
     }
 
     public void clearUnreadTag() {
-        execSQL(ConversationSql.sqlClearUnreadTag());
+        execSQL(ConversationSql.SQL_CLEAR_UNREAD_TAG);
+        //缓存中还是批量更新前的状态，从中找出受影响的会话逐个刷新并通知变化
+        refreshConversationCache(getCachedConversations(ConversationInfo::hasUnread));
     }
 
     public void setMentionInfo(Conversation conversation, String mentionInfoJson) {
-        execSQL(ConversationSql.sqlSetMention(conversation, mentionInfoJson));
+        execSQL(ConversationSql.SQL_SET_MENTION, ConversationSql.argsWithConversation(conversation, mentionInfoJson));
+        refreshConversationCache(conversation);
     }
 
     public void clearMentionInfo() {
         execSQL(ConversationSql.SQL_CLEAR_MENTION_INFO);
+        refreshConversationCache(getCachedConversations(info -> info.getMentionInfo() != null));
     }
 
     public void clearUnreadCount(Conversation conversation, long msgIndex) {
-        execSQL(ConversationSql.sqlClearUnreadCount(conversation, msgIndex));
+        execSQL(ConversationSql.SQL_CLEAR_UNREAD_COUNT, ConversationSql.argsWithConversation(conversation, msgIndex));
+        refreshConversationCache(conversation);
     }
 
     public void clearTotalUnreadCount() {
-        execSQL(ConversationSql.sqlClearTotalUnreadCount());
+        execSQL(ConversationSql.SQL_CLEAR_TOTAL_UNREAD_COUNT);
+        refreshConversationCache(getCachedConversations(info -> info.getLastReadMessageIndex() != info.getLastMessageIndex()));
     }
 
     public void updateConversationLastMessageHasRead(Conversation conversation, String messageId, boolean isHasRead) {
-        execSQL(ConversationSql.sqlUpdateLastMessageHasRead(conversation, messageId, isHasRead));
+        Object[] args = new Object[]{isHasRead, conversation.getConversationType().getValue(), conversation.getConversationId(), messageId};
+        execSQL(ConversationSql.SQL_UPDATE_LAST_MESSAGE_HAS_READ, args);
+        refreshConversationCache(conversation);
     }
 
     public void updateConversationLastMessageState(Conversation conversation, long clientMsgNo, Message.MessageState state) {
-        execSQL(ConversationSql.sqlUpdateLastMessageState(conversation, clientMsgNo, state.getValue()));
+        Object[] args = new Object[]{state.getValue(), conversation.getConversationType().getValue(), conversation.getConversationId(), clientMsgNo};
+        execSQL(ConversationSql.SQL_UPDATE_LAST_MESSAGE_STATE, args);
+        refreshConversationCache(conversation);
     }
 
+    //读取触发器维护的汇总值，不再遍历 conversation_info
     public int getTotalUnreadCount() {
-        Cursor cursor = rawQuery(ConversationSql.SQL_GET_TOTAL_UNREAD_COUNT, null);
+        Cursor cursor = rawQuery(ConversationUnreadSql.SQL_GET_TOTAL_UNREAD_COUNT, null);
+        return readTotalCount(cursor);
+    }
+
+    public int getUnreadCountWithTypes(int[] conversationTypes) {
+        if (conversationTypes == null || conversationTypes.length == 0) {
+            return getTotalUnreadCount();
+        }
+        String[] args = new String[conversationTypes.length];
+        for (int i = 0; i < conversationTypes.length; i++) {
+            args[i] = String.valueOf(conversationTypes[i]);
+        }
+        Cursor cursor = rawQuery(ConversationUnreadSql.sqlGetUnreadCountWithTypes(conversationTypes.length), args);
+        return readTotalCount(cursor);
+    }
+
+    //全量重算未读数汇总，修正增量维护可能产生的偏差
+    public void recountUnreadCount() {
+        performTransaction(() -> {
+            execSQL(ConversationUnreadSql.SQL_CLEAR);
+            execSQL(ConversationUnreadSql.SQL_RECOUNT);
+        });
+    }
+
+    private int readTotalCount(Cursor cursor) {
         int count = 0;
         if (cursor != null) {
             if (cursor.moveToFirst()) {
@@ -262,7 +390,8 @@ public class DBManager {
     }
 
     public void updateSortTime(Conversation conversation, long sortTime) {
-        execSQL(ConversationSql.sqlUpdateSortTime(conversation, sortTime));
+        execSQL(ConversationSql.SQL_UPDATE_SORT_TIME, ConversationSql.argsWithConversation(conversation, sortTime));
+        refreshConversationCache(conversation);
     }
 
     public void updateLastMessageWithoutIndex(ConcreteMessage message) {
@@ -270,12 +399,14 @@ public class DBManager {
         sql = sql + ConversationSql.SQL_WHERE_CONVERSATION_IS;
         Object[] args = ConversationSql.argsWithUpdateLastMessage(message, false, false);
         execSQL(sql, args);
+        refreshConversationCache(message.getConversation());
     }
 
     public void clearLastMessage(Conversation conversation) {
         String sql = ConversationSql.SQL_CLEAR_LAST_MESSAGE + ConversationSql.SQL_WHERE_CONVERSATION_IS;
         Object[] args = new Object[]{conversation.getConversationType().getValue(), conversation.getConversationId()};
         execSQL(sql, args);
+        refreshConversationCache(conversation);
     }
 
     public ConcreteMessage getMessageWithMessageId(String messageId) {
@@ -287,28 +418,77 @@ public class DBManager {
         Cursor cursor = rawQuery(MessageSql.SQL_GET_MESSAGE_WITH_MESSAGE_ID, args);
         if (cursor != null) {
             if (cursor.moveToFirst()) {
-                message = getMessageWithCursor(cursor);
+                message = MessageSql.messageWithCursor(cursor);
             }
             cursor.close();
         }
+        if (message != null) {
+            resolveReferredMessages(Collections.singletonList(message));
+        }
         return message;
     }
 
-    private ConcreteMessage getMessageWithCursor(Cursor cursor) {
-        ConcreteMessage message;
-        if (cursor == null) {
-            return null;
+    //游标关闭之后再统一查询被引用的消息：每一层引用只查一次（IN 查询），最多解析 MAX_REFER_DEPTH 层
+    //缓存命中的被引用消息在放入缓存时已经解析过，只有新查出来的消息需要继续解析下一层
+    //缓存中和同一次查询中的被引用消息是共用的，最后给每条消息挂上自己的一份引用链
+    private void resolveReferredMessages(List<ConcreteMessage> messages) {
+        long version = mReferredMessageCache.getVersion();
+        List<ConcreteMessage> pending = messages;
+        List<ConcreteMessage> loadedMessages = new ArrayList<>();
+        for (int depth = 0; depth < MAX_REFER_DEPTH && !pending.isEmpty(); depth++) {
+            Map<String, ConcreteMessage> referredMap = new HashMap<>();
+            List<String> missingIds = new ArrayList<>();
+            for (ConcreteMessage message : pending) {
+                String referMsgId = message.getReferMsgId();
+                if (TextUtils.isEmpty(referMsgId) || referredMap.containsKey(referMsgId) || missingIds.contains(referMsgId)) {
+                    continue;
+                }
+                ConcreteMessage cached = mReferredMessageCache.get(referMsgId);
+                if (cached != null) {
+                    referredMap.put(referMsgId, cached);
+                } else {
+                    missingIds.add(referMsgId);
+                }
+            }
+            List<ConcreteMessage> loaded = getReferredMessages(missingIds);
+            for (ConcreteMessage referMsg : loaded) {
+                referredMap.put(referMsg.getMessageId(), referMsg);
+            }
+            for (ConcreteMessage message : pending) {
+                ConcreteMessage referMsg = TextUtils.isEmpty(message.getReferMsgId()) ? null : referredMap.get(message.getReferMsgId());
+                if (referMsg != null) {
+                    message.setReferredMessage(referMsg);
+                }
+            }
+            loadedMessages.addAll(loaded);
+            pending = loaded;
         }
-        message = MessageSql.messageWithCursor(cursor);
-        if (TextUtils.isEmpty(message.getReferMsgId())) {
-            return message;
+        //解析完成后再放入缓存，避免其它线程取到还没挂上引用的对象
+        for (ConcreteMessage message : loadedMessages) {
+            mReferredMessageCache.put(message, version);
         }
-        //查询被引用的消息
-        ConcreteMessage referMsg = getMessageWithMessageId(message.getReferMsgId());
-        if (referMsg != null) {
-            message.setReferredMessage(referMsg);
+        for (ConcreteMessage message : messages) {
+            if (message.getReferredMessage() instanceof ConcreteMessage) {
+                message.setReferredMessage(((ConcreteMessage) message.getReferredMessage()).copy());
+            }
         }
-        return message;
+    }
+
+    private List<ConcreteMessage> getReferredMessages(List<String> messageIds) {
+        List<ConcreteMessage> result = new ArrayList<>();
+        for (int start = 0; start < messageIds.size(); start += MessageSql.MAX_IN_ARGS_COUNT) {
+            List<String> subList = messageIds.subList(start, Math.min(start + MessageSql.MAX_IN_ARGS_COUNT, messageIds.size()));
+            Cursor cursor = rawQuery(MessageSql.sqlGetReferredMessages(subList.size()), subList.toArray(new String[0]));
+            if (cursor == null) {
+                continue;
+            }
+            CursorHelper.ColumnIndexes columns = MessageSql.columnIndexes(cursor);
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                result.add(MessageSql.messageWithCursor(cursor, columns));
+            }
+            cursor.close();
+        }
+        return result;
     }
 
     public List<Message> getMessages(
@@ -320,7 +500,8 @@ public class DBManager {
             List<String> contentTypes,
             List<String> senderUserIds,
             List<Message.MessageState> messageStates,
-            List<Conversation> conversations
+            List<Conversation> conversations,
+            boolean metadataOnly
     ) {
         List<Message> result = new ArrayList<>();
         if (count < 1) return result;
@@ -329,15 +510,24 @@ public class DBManager {
         }
         //处理sql及查询条件
         List<String> whereArgs = new ArrayList<>();
-        String sql = MessageSql.sqlGetMessages(count, timestamp, pullDirection, searchContent, direction, contentTypes, senderUserIds, messageStates, conversations, whereArgs);
+        //索引回填完成前，全文索引里缺少存量消息，只能走 LIKE 查询
+        boolean useSearchIndex = mSearchIndexEnabled && mSearchIndexBackfillId <= 0;
+        String sql = MessageSql.sqlGetMessages(count, timestamp, pullDirection, searchContent, direction, contentTypes, senderUserIds, messageStates, conversations, useSearchIndex, metadataOnly, whereArgs);
         //执行查询
         Cursor cursor = rawQuery(sql, whereArgs.toArray(new String[0]));
         if (cursor == null) {
             return result;
         }
-        //解析查询结果
-        addMessagesFromCursor(result, cursor);
-        cursor.close();
+        //解析查询结果，只查询元数据时不读取内容，也不解析被引用的消息
+        if (metadataOnly) {
+            CursorHelper.ColumnIndexes columns = MessageSql.columnIndexes(cursor);
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                result.add(MessageSql.messageWithCursor(cursor, columns));
+            }
+            cursor.close();
+        } else {
+            addMessagesFromCursor(result, cursor);
+        }
         //按需反转结果列表
         if (JIMConst.PullDirection.OLDER == pullDirection) {
             Collections.reverse(result);
@@ -358,7 +548,6 @@ public class DBManager {
             return result;
         }
         addMessagesFromCursor(result, cursor);
-        cursor.close();
         List<Message> messages = new ArrayList<>();
         for (String messageId : messageIds) {
             for (Message message : result) {
@@ -383,7 +572,6 @@ public class DBManager {
             return result;
         }
         addConcreteMessagesFromCursor(result, cursor);
-        cursor.close();
         List<ConcreteMessage> messages = new ArrayList<>();
         for (String messageId : messageIds) {
             for (ConcreteMessage message : result) {
@@ -402,13 +590,16 @@ public class DBManager {
         if (clientMsgNos.length == 0) {
             return result;
         }
-        String sql = MessageSql.sqlGetMessagesByClientMsgNos(clientMsgNos);
-        Cursor cursor = rawQuery(sql, null);
+        String[] args = new String[clientMsgNos.length];
+        for (int i = 0; i < clientMsgNos.length; i++) {
+            args[i] = String.valueOf(clientMsgNos[i]);
+        }
+        String sql = MessageSql.sqlGetMessagesByClientMsgNos(clientMsgNos.length);
+        Cursor cursor = rawQuery(sql, args);
         if (cursor == null) {
             return result;
         }
         addMessagesFromCursor(result, cursor);
-        cursor.close();
         List<Message> messages = new ArrayList<>();
         for (long clientMsgNo : clientMsgNos) {
             for (Message message : result) {
@@ -423,27 +614,28 @@ public class DBManager {
 
     //从消息表中获取会话中最新一条消息
     public Message getLastMessage(Conversation conversation) {
-        String sql = MessageSql.sqlGetLastMessageInConversation(conversation);
-        Cursor cursor = rawQuery(sql, null);
+        String[] args = new String[]{String.valueOf(conversation.getConversationType().getValue()), conversation.getConversationId()};
+        Cursor cursor = rawQuery(MessageSql.SQL_GET_LAST_MESSAGE_IN_CONVERSATION, args);
         List<Message> list = new ArrayList<>();
         if (cursor == null) {
             return null;
         }
         addMessagesFromCursor(list, cursor);
-        cursor.close();
         if (list.isEmpty()) return null;
         return list.get(0);
     }
 
     public void updateLocalAttribute(String messageId, String attribute) {
         if (TextUtils.isEmpty(messageId)) return;
-        execSQL(MessageSql.sqlUpdateLocalAttribute(messageId, attribute == null ? "" : attribute));
+        Object[] args = new Object[]{attribute == null ? "" : attribute, messageId};
+        execSQL(MessageSql.SQL_UPDATE_LOCAL_ATTRIBUTE_WITH_MESSAGE_ID, args);
+        mReferredMessageCache.remove(messageId);
     }
 
     public String getLocalAttribute(String messageId) {
         if (TextUtils.isEmpty(messageId)) return "";
-        String sql = MessageSql.sqlGetLocalAttribute(messageId);
-        Cursor cursor = rawQuery(sql, null);
+        String[] args = new String[]{messageId};
+        Cursor cursor = rawQuery(MessageSql.SQL_GET_LOCAL_ATTRIBUTE_WITH_MESSAGE_ID, args);
         String result = "";
         if (cursor != null) {
             if (cursor.moveToFirst()) {
@@ -455,12 +647,14 @@ public class DBManager {
     }
 
     public void updateLocalAttribute(long clientMsgNo, String attribute) {
-        execSQL(MessageSql.sqlUpdateLocalAttribute(clientMsgNo, attribute == null ? "" : attribute));
+        Object[] args = new Object[]{attribute == null ? "" : attribute, clientMsgNo};
+        execSQL(MessageSql.SQL_UPDATE_LOCAL_ATTRIBUTE_WITH_MESSAGE_NO, args);
+        mReferredMessageCache.clear();
     }
 
     public String getLocalAttribute(long clientMsgNo) {
-        String sql = MessageSql.sqlGetLocalAttribute(clientMsgNo);
-        Cursor cursor = rawQuery(sql, null);
+        String[] args = new String[]{String.valueOf(clientMsgNo)};
+        Cursor cursor = rawQuery(MessageSql.SQL_GET_LOCAL_ATTRIBUTE_WITH_MESSAGE_NO, args);
         String result = "";
         if (cursor != null) {
             if (cursor.moveToFirst()) {
@@ -471,41 +665,84 @@ public class DBManager {
         return result;
     }
 
+    //已存在的消息回填 clientMsgNo 并标记 existed，其余消息插入后回填新的 clientMsgNo
     public void insertMessages(List<ConcreteMessage> list) {
+        if (list == null || list.isEmpty()) return;
         performTransaction(() -> {
             if (mDb == null) return;
-            for (ConcreteMessage message : list) {
-                ConcreteMessage m = null;
-                if (!TextUtils.isEmpty(message.getMessageId())) {
-                    m = getMessageWithMessageId(message.getMessageId());
-                }
-                if (m != null) {
-                    message.setClientMsgNo(m.getClientMsgNo());
-                    message.setExisted(true);
-                } else {
-                    ContentValues cv = MessageSql.getMessageInsertCV(message);
-                    long clientMsgNo = insert(MessageSql.TABLE, cv);
+            //整批查询已存在的消息，避免逐条查询
+            Map<String, Long> existedMap = getExistedClientMsgNos(list);
+            SQLiteDatabase db = mDb;
+            SQLiteStatement statement = mStatementCache.acquire(db, MessageSql.SQL_INSERT_MESSAGE);
+            try {
+                for (ConcreteMessage message : list) {
+                    String messageId = message.getMessageId();
+                    Long existedClientMsgNo = TextUtils.isEmpty(messageId) ? null : existedMap.get(messageId);
+                    if (existedClientMsgNo != null) {
+                        message.setClientMsgNo(existedClientMsgNo);
+                        message.setExisted(true);
+                        continue;
+                    }
+                    MessageSql.bindMessageInsert(statement, message);
+                    long clientMsgNo = statement.executeInsert();
                     message.setClientMsgNo(clientMsgNo);
+                    insertSearchIndex(clientMsgNo, message.getContent());
+                    //同一批次中重复的消息按已存在处理
+                    if (!TextUtils.isEmpty(messageId) && clientMsgNo > 0) {
+                        existedMap.put(messageId, clientMsgNo);
+                    }
                 }
+            } finally {
+                mStatementCache.release(db, MessageSql.SQL_INSERT_MESSAGE, statement);
             }
         });
     }
 
+    private Map<String, Long> getExistedClientMsgNos(List<ConcreteMessage> list) {
+        Map<String, Long> result = new HashMap<>();
+        List<String> messageIds = new ArrayList<>();
+        for (ConcreteMessage message : list) {
+            if (!TextUtils.isEmpty(message.getMessageId())) {
+                messageIds.add(message.getMessageId());
+            }
+        }
+        for (int start = 0; start < messageIds.size(); start += MessageSql.MAX_IN_ARGS_COUNT) {
+            List<String> subList = messageIds.subList(start, Math.min(start + MessageSql.MAX_IN_ARGS_COUNT, messageIds.size()));
+            Cursor cursor = rawQuery(MessageSql.sqlGetExistedMessages(subList.size()), subList.toArray(new String[0]));
+            if (cursor == null) {
+                continue;
+            }
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                result.put(CursorHelper.readString(cursor, MessageSql.COL_MESSAGE_UID), CursorHelper.readLong(cursor, MessageSql.COL_MESSAGE_ID));
+            }
+            cursor.close();
+        }
+        return result;
+    }
+
     public void updateMessage(ConcreteMessage message) {
         performTransaction(() -> {
             if (mDb == null) return;
             ContentValues cv = MessageSql.getMessageUpdateCV(message);
             update(message.getClientMsgNo(), MessageSql.TABLE, cv);
+            if (message.getContent() != null) {
+                updateSearchIndex(message.getClientMsgNo(), message.getContent());
+            }
         });
+        if (TextUtils.isEmpty(message.getMessageId())) {
+            mReferredMessageCache.clear();
+        } else {
+            mReferredMessageCache.remove(message.getMessageId());
+        }
     }
 
     public void updateMessageAfterSend(long clientMsgNo,
                                        String msgId,
                                        long timestamp,
                                        long seqNo) {
-        Object[] args = new Object[]{msgId};
-        String sql = MessageSql.sqlUpdateMessageAfterSend(Message.MessageState.SENT.getValue(), clientMsgNo, timestamp, seqNo);
-        execSQL(sql, args);
+        Object[] args = new Object[]{msgId, Message.MessageState.SENT.getValue(), timestamp, seqNo, clientMsgNo};
+        execSQL(MessageSql.SQL_UPDATE_MESSAGE_AFTER_SEND, args);
+        mReferredMessageCache.remove(msgId);
     }
 
     public void updateMessageContentWithMessageId(MessageContent content, String type, String messageId) {
@@ -520,6 +757,15 @@ public class DBManager {
         args[1] = type;
         args[3] = messageId;
         execSQL(MessageSql.SQL_UPDATE_MESSAGE_CONTENT_WITH_MESSAGE_ID, args);
+        mReferredMessageCache.remove(messageId);
+        if (mSearchIndexEnabled) {
+            String tokens = MessageFtsSql.tokenize((String) args[2]);
+            if (tokens.isEmpty()) {
+                execSQL(MessageFtsSql.SQL_DELETE_WITH_MESSAGE_ID, new Object[]{messageId});
+            } else {
+                execSQL(MessageFtsSql.SQL_INSERT_WITH_MESSAGE_ID, new Object[]{tokens, messageId});
+            }
+        }
     }
 
     public void updateMessageContentWithClientMsgNo(MessageContent content, String type, long clientMsgNo) {
@@ -534,38 +780,107 @@ public class DBManager {
         args[1] = type;
         args[3] = clientMsgNo;
         execSQL(MessageSql.SQL_UPDATE_MESSAGE_CONTENT_WITH_MESSAGE_NO, args);
+        mReferredMessageCache.clear();
+        updateSearchIndex(clientMsgNo, content);
     }
 
     public void setMessageState(long clientMsgNo, Message.MessageState state) {
-        execSQL(MessageSql.sqlUpdateMessageState(state.getValue(), clientMsgNo));
+        Object[] args = new Object[]{state.getValue(), clientMsgNo};
+        execSQL(MessageSql.SQL_UPDATE_MESSAGE_STATE, args);
+        mReferredMessageCache.clear();
     }
 
+    //批量已读回执可能超过 SQLite 的参数个数限制，分段更新，整体在一个事务中
     public void setMessagesRead(List<String> messageIds) {
-        String[] args = messageIds.toArray(new String[0]);
-        execSQL(MessageSql.sqlSetMessagesRead(messageIds.size()), args);
+        if (messageIds.size() <= MessageSql.MAX_IN_ARGS_COUNT) {
+            String[] args = messageIds.toArray(new String[0]);
+            execSQL(MessageSql.sqlSetMessagesRead(messageIds.size()), args);
+        } else {
+            performTransaction(() -> {
+                for (int start = 0; start < messageIds.size(); start += MessageSql.MAX_IN_ARGS_COUNT) {
+                    List<String> subList = messageIds.subList(start, Math.min(start + MessageSql.MAX_IN_ARGS_COUNT, messageIds.size()));
+                    execSQL(MessageSql.sqlSetMessagesRead(subList.size()), subList.toArray(new String[0]));
+                }
+            });
+        }
+        //写入之后再移除，之前开始的查询不会把旧数据放回缓存
+        mReferredMessageCache.remove(messageIds);
     }
 
     public void setGroupMessageReadInfo(Map<String, GroupMessageReadInfo> messages) {
         performTransaction(() -> {
             if (mDb == null) return;
             for (Map.Entry<String, GroupMessageReadInfo> entry : messages.entrySet()) {
-                mDb.execSQL(MessageSql.sqlSetGroupReadInfo(entry.getValue().getReadCount(), entry.getValue().getMemberCount(), entry.getKey()));
+                Object[] args = new Object[]{entry.getValue().getReadCount(), entry.getValue().getMemberCount(), entry.getKey()};
+                execSQL(MessageSql.SQL_SET_GROUP_READ_INFO, args);
             }
         });
+        mReferredMessageCache.remove(messages.keySet());
     }
 
     public void deleteMessageByClientMsgNo(List<Long> clientMsgNos) {
         Long[] args = clientMsgNos.toArray(new Long[0]);
         execSQL(MessageSql.sqlDeleteMessagesByClientMsgNo(clientMsgNos.size()), args);
+        mReferredMessageCache.clear();
+        if (mSearchIndexEnabled) {
+            execSQL(MessageFtsSql.sqlDeleteByClientMsgNos(clientMsgNos.size()), args);
+        }
     }
 
     public void deleteMessagesByMessageIds(List<String> messageIds) {
         String[] args = messageIds.toArray(new String[0]);
         execSQL(MessageSql.sqlDeleteMessagesByMessageId(messageIds.size()), args);
+        mReferredMessageCache.remove(messageIds);
+        if (mSearchIndexEnabled) {
+            execSQL(MessageFtsSql.sqlDeleteByMessageIds(messageIds.size()), args);
+        }
     }
 
     public void clearMessages(Conversation conversation, long startTime, String senderId) {
-        execSQL(MessageSql.sqlClearMessages(conversation, startTime, senderId));
+        boolean hasSender = !TextUtils.isEmpty(senderId);
+        Object[] args = new Object[hasSender ? 4 : 3];
+        args[0] = conversation.getConversationType().getValue();
+        args[1] = conversation.getConversationId();
+        args[2] = startTime;
+        if (hasSender) {
+            args[3] = senderId;
+        }
+        execSQL(MessageSql.sqlClearMessages(hasSender), args);
+        mReferredMessageCache.clear();
+        if (mSearchIndexEnabled) {
+            execSQL(MessageFtsSql.sqlDeleteByClear(hasSender), args);
+        }
+    }
+
+    //分批回填存量消息的搜索索引，返回 true 表示还有未回填的消息
+    public boolean backfillSearchIndex(int count) {
+        if (mDb == null || !mSearchIndexEnabled || mSearchIndexBackfillId <= 0) {
+            return false;
+        }
+        long[] nextId = new long[]{mSearchIndexBackfillId};
+        boolean success = performTransaction(() -> {
+            if (mDb == null) return;
+            String[] args = new String[]{String.valueOf(mSearchIndexBackfillId), String.valueOf(count)};
+            Cursor cursor = rawQuery(MessageFtsSql.SQL_GET_BACKFILL_MESSAGES, args);
+            if (cursor == null) return;
+            long minId = 0;
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                minId = CursorHelper.readLong(cursor, MessageFtsSql.COL_ID);
+                String tokens = MessageFtsSql.tokenize(CursorHelper.readString(cursor, MessageSql.COL_SEARCH_CONTENT));
+                if (!tokens.isEmpty()) {
+                    execSQL(MessageFtsSql.SQL_INSERT, new Object[]{minId, tokens});
+                }
+            }
+            cursor.close();
+            //没有查到数据说明已经回填完成
+            nextId[0] = minId > 0 ? minId - 1 : 0;
+            execSQL(ProfileSql.SQL_SET_VALUE, new String[]{ProfileSql.SEARCH_INDEX_BACKFILL_ID, String.valueOf(nextId[0])});
+        });
+        if (success) {
+            mSearchIndexBackfillId = nextId[0];
+        }
+        JLogger.i("DB-Search", "backfill search index, next id is " + mSearchIndexBackfillId);
+        return mSearchIndexBackfillId > 0;
     }
 
     public UserInfo getUserInfo(String userId) {
@@ -622,6 +937,51 @@ public class DBManager {
         });
     }
 
+    private boolean checkSearchIndex() {
+        Cursor cursor = rawQuery(MessageFtsSql.SQL_CHECK_TABLE, null);
+        boolean result = false;
+        if (cursor != null) {
+            result = cursor.moveToFirst();
+            cursor.close();
+        }
+        return result;
+    }
+
+    private long getSearchIndexBackfillId() {
+        long result = 0;
+        String[] args = new String[]{ProfileSql.SEARCH_INDEX_BACKFILL_ID};
+        Cursor cursor = rawQuery(ProfileSql.SQL_GET_VALUE, args);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                result = CursorHelper.readLong(cursor, ProfileSql.COLUMN_VALUE);
+            }
+            cursor.close();
+        }
+        return result;
+    }
+
+    private void insertSearchIndex(long clientMsgNo, MessageContent content) {
+        if (!mSearchIndexEnabled || clientMsgNo <= 0 || content == null) {
+            return;
+        }
+        String tokens = MessageFtsSql.tokenize(content.getSearchContent());
+        if (!tokens.isEmpty()) {
+            execSQL(MessageFtsSql.SQL_INSERT, new Object[]{clientMsgNo, tokens});
+        }
+    }
+
+    private void updateSearchIndex(long clientMsgNo, MessageContent content) {
+        if (!mSearchIndexEnabled || clientMsgNo <= 0) {
+            return;
+        }
+        String tokens = content == null ? "" : MessageFtsSql.tokenize(content.getSearchContent());
+        if (tokens.isEmpty()) {
+            execSQL(MessageFtsSql.SQL_DELETE, new Object[]{clientMsgNo});
+        } else {
+            execSQL(MessageFtsSql.SQL_INSERT, new Object[]{clientMsgNo, tokens});
+        }
+    }
+
     private Cursor rawQuery(String sql, String[] selectionArgs) {
         if (mDb == null) {
             return null;
@@ -636,18 +996,24 @@ public class DBManager {
         mDb.execSQL(sql);
     }
 
+    //参数化语句走编译缓存，sql 文本只与语句形状有关，参数值全部绑定
     private void execSQL(String sql, Object[] bindArgs) {
-        if (mDb == null) {
+        SQLiteDatabase db = mDb;
+        if (db == null) {
             return;
         }
-        mDb.execSQL(sql, bindArgs);
-    }
-
-    private long insert(String table, ContentValues cv) {
-        if (mDb == null) {
-            return -1;
+        SQLiteStatement statement = mStatementCache.acquire(db, sql);
+        try {
+            statement.clearBindings();
+            if (bindArgs != null) {
+                for (int i = 0; i < bindArgs.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+                }
+            }
+            statement.execute();
+        } finally {
+            mStatementCache.release(db, sql, statement);
         }
-        return mDb.insertWithOnConflict(table, "", cv, SQLiteDatabase.CONFLICT_IGNORE);
     }
 
     //执行事务
@@ -656,7 +1022,12 @@ public class DBManager {
 
         boolean success = false;
         try {
-            mDb.beginTransaction();
+            //WAL 模式下使用 IMMEDIATE 事务，读连接不受写事务影响
+            if (mDBHelper != null && mDBHelper.isWALEnabled()) {
+                mDb.beginTransactionNonExclusive();
+            } else {
+                mDb.beginTransaction();
+            }
             operation.execute();
             mDb.setTransactionSuccessful();
             success = true;
@@ -691,24 +1062,99 @@ public class DBManager {
         return path;
     }
 
+    //读取后关闭游标，再批量解析这一页消息的被引用消息
     private void addMessagesFromCursor(@NonNull List<Message> list, @NonNull Cursor cursor) {
+        CursorHelper.ColumnIndexes columns = MessageSql.columnIndexes(cursor);
+        List<ConcreteMessage> messages = new ArrayList<>();
         for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-            ConcreteMessage message = getMessageWithCursor(cursor);
-            list.add(message);
+            messages.add(MessageSql.messageWithCursor(cursor, columns));
         }
+        cursor.close();
+        resolveReferredMessages(messages);
+        list.addAll(messages);
     }
 
     private void addConcreteMessagesFromCursor(@NonNull List<ConcreteMessage> list, @NonNull Cursor cursor) {
+        CursorHelper.ColumnIndexes columns = MessageSql.columnIndexes(cursor);
+        List<ConcreteMessage> messages = new ArrayList<>();
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            messages.add(MessageSql.messageWithCursor(cursor, columns));
+        }
+        cursor.close();
+        resolveReferredMessages(messages);
+        list.addAll(messages);
+    }
+
+    public interface IConversationChangeListener {
+        void onConversationChange(List<ConversationChange> changes);
+    }
+
+    public void setConversationChangeListener(IConversationChangeListener listener) {
+        mConversationChangeListener = listener;
+    }
+
+    //会话列表缓存未加载时从数据库加载，加载期间有会话更新则放弃，本次读取走数据库
+    private boolean ensureConversationCache() {
+        if (mConversationCache.isLoaded()) {
+            return true;
+        }
+        long version = mConversationCache.getVersion();
+        Cursor cursor = rawQuery(ConversationSql.SQL_GET_CONVERSATIONS, null);
+        if (cursor == null) {
+            return false;
+        }
+        List<ConcreteConversationInfo> list = new ArrayList<>();
+        CursorHelper.ColumnIndexes columns = ConversationSql.columnIndexes(cursor);
         for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-            ConcreteMessage message = getMessageWithCursor(cursor);
-            list.add(message);
+            list.add(ConversationSql.conversationInfoWithCursor(cursor, columns));
+        }
+        cursor.close();
+        mConversationCache.load(list, version);
+        return mConversationCache.isLoaded();
+    }
+
+    //缓存未加载时返回空列表，refreshConversationCache 会使正在进行的加载失效
+    private List<Conversation> getCachedConversations(ConversationCache.Filter filter) {
+        if (!mConversationCache.isLoaded()) {
+            return new ArrayList<>();
+        }
+        return mConversationCache.getConversations(filter);
+    }
+
+    private void refreshConversationCache(Conversation conversation) {
+        refreshConversationCache(Collections.singletonList(conversation));
+    }
+
+    //会话写入数据库后重新读取该会话（按唯一索引查询），更新缓存中的位置并通知位置变化
+    private void refreshConversationCache(List<Conversation> conversations) {
+        if (!mConversationCache.isLoaded()) {
+            //使正在进行的加载失效
+            mConversationCache.invalidate();
+            return;
+        }
+        List<ConversationChange> changes = new ArrayList<>();
+        for (Conversation conversation : conversations) {
+            if (conversation == null) {
+                continue;
+            }
+            long ticket = mConversationCache.nextTicket();
+            ConcreteConversationInfo info = getConversationInfo(conversation);
+            ConversationChange change = mConversationCache.update(conversation, info, ticket);
+            if (change != null) {
+                changes.add(change);
+            }
+        }
+        IConversationChangeListener listener = mConversationChangeListener;
+        if (listener != null && !changes.isEmpty()) {
+            listener.onConversationChange(changes);
         }
     }
 
     private List<ConversationInfo> conversationListFromCursor(@NonNull Cursor cursor) {
         List<ConversationInfo> list = new ArrayList<>();
+        CursorHelper.ColumnIndexes columns = ConversationSql.columnIndexes(cursor);
         for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-            ConcreteConversationInfo info = ConversationSql.conversationInfoWithCursor(cursor);
+            ConcreteConversationInfo info = ConversationSql.conversationInfoWithCursor(cursor, columns);
             list.add(info);
         }
         return list;
@@ -716,9 +1162,19 @@ public class DBManager {
 
     private DBHelper mDBHelper;
     private SQLiteDatabase mDb;
+    private volatile boolean mEnableWAL;
     private JSortTimeCounter mSortTimeCounter;
+    private final ConversationCache mConversationCache = new ConversationCache();
+    private IConversationChangeListener mConversationChangeListener;
+    private final ReferredMessageCache mReferredMessageCache = new ReferredMessageCache();
+    private final StatementCache mStatementCache = new StatementCache(STATEMENT_CACHE_SIZE);
+    private boolean mSearchIndexEnabled;
+    private long mSearchIndexBackfillId;
     private static final String PATH_JET_IM = "jet_im";
     private static final String DB_NAME = "jetimdb";
+    private static final int STATEMENT_CACHE_SIZE = 48;
+    //引用链最多解析的层数，超过的部分不再挂载
+    private static final int MAX_REFER_DEPTH = 3;
 
     private interface TransactionOperation {
         void execute() throws Exception;
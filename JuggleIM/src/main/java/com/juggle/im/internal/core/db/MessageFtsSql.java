@@ -0,0 +1,117 @@
+package com.juggle.im.internal.core.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+//消息搜索的全文索引（FTS4 影子表，docid 对应 message.id）
+//索引内容为 search_content 按字母数字片段切分后的二元组（bigram），中日韩文本无需分词也能命中，
+//一个长度不少于 2 的子串必然对应一组连续的 bigram，所以 MATCH 的结果总是 LIKE '%x%' 结果的超集，
+//查询时仍保留 LIKE 条件做精确过滤，搜索语义与原来保持一致
+class MessageFtsSql {
+    static final String SQL_CREATE_TABLE = "CREATE VIRTUAL TABLE IF NOT EXISTS message_fts USING fts4(tokens)";
+    static final String SQL_CHECK_TABLE = "SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'message_fts'";
+    static final String SQL_INSERT = "INSERT OR REPLACE INTO message_fts (docid, tokens) VALUES (?, ?)";
+    static final String SQL_INSERT_WITH_MESSAGE_ID = "INSERT OR REPLACE INTO message_fts (docid, tokens) SELECT id, ? FROM message WHERE message_uid = ?";
+    static final String SQL_DELETE = "DELETE FROM message_fts WHERE docid = ?";
+    static final String SQL_DELETE_WITH_MESSAGE_ID = "DELETE FROM message_fts WHERE docid IN (SELECT id FROM message WHERE message_uid = ?)";
+    static final String SQL_WHERE_MATCH = "id IN (SELECT docid FROM message_fts WHERE message_fts MATCH ?)";
+    //存量数据回填：记录尚未建立索引的最大 message.id，回填从新到旧进行，为 0 时表示回填完成
+    static final String SQL_INIT_BACKFILL = "INSERT OR REPLACE INTO profile (key, value) SELECT '" + ProfileSql.SEARCH_INDEX_BACKFILL_ID + "', IFNULL(MAX(id), 0) FROM message";
+    static final String SQL_GET_BACKFILL_MESSAGES = "SELECT id, search_content FROM message WHERE id <= ? AND is_deleted = 0 ORDER BY id DESC LIMIT ?";
+    static final String COL_ID = "id";
+
+    static String sqlDeleteByClientMsgNos(int count) {
+        return "DELETE FROM message_fts WHERE docid IN " + CursorHelper.getQuestionMarkPlaceholder(count);
+    }
+
+    static String sqlDeleteByMessageIds(int count) {
+        return "DELETE FROM message_fts WHERE docid IN (SELECT id FROM message WHERE message_uid IN " + CursorHelper.getQuestionMarkPlaceholder(count) + ")";
+    }
+
+    static String sqlDeleteByClear(boolean hasSender) {
+        String sql = "DELETE FROM message_fts WHERE docid IN (SELECT id FROM message WHERE conversation_type = ? AND conversation_id = ? AND timestamp <= ?";
+        if (hasSender) {
+            sql = sql + " AND sender = ?";
+        }
+        return sql + ")";
+    }
+
+    //生成写入索引的文本，searchContent 为空时返回空串
+    static String tokenize(String searchContent) {
+        List<int[]> segments = segments(searchContent);
+        StringBuilder sb = new StringBuilder();
+        for (int[] codePoints : segments) {
+            if (codePoints.length == 1) {
+                appendToken(sb, codePoints, 0, 1);
+                continue;
+            }
+            for (int i = 0; i < codePoints.length - 1; i++) {
+                appendToken(sb, codePoints, i, 2);
+            }
+        }
+        return sb.toString();
+    }
+
+    //生成 MATCH 表达式，每个片段是一个短语，片段之间是 AND 关系
+    //所有片段都只有一个字符时无法用 bigram 表达，返回 null，调用方退回到 LIKE 查询
+    static String matchQuery(String searchContent) {
+        List<int[]> segments = segments(searchContent);
+        StringBuilder sb = new StringBuilder();
+        for (int[] codePoints : segments) {
+            if (codePoints.length < 2) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append('"');
+            StringBuilder phrase = new StringBuilder();
+            for (int i = 0; i < codePoints.length - 1; i++) {
+                appendToken(phrase, codePoints, i, 2);
+            }
+            sb.append(phrase).append('"');
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    //按字母、数字切分出连续片段（以 code point 表示），统一转小写
+    //只使用 JDK 方法，可以直接在 JVM 单元测试中运行
+    private static List<int[]> segments(String text) {
+        List<int[]> result = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return result;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int[] segment = new int[lower.length()];
+        int length = 0;
+        int i = 0;
+        while (i < lower.length()) {
+            int codePoint = lower.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                segment[length++] = codePoint;
+            } else if (length > 0) {
+                result.add(Arrays.copyOf(segment, length));
+                length = 0;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (length > 0) {
+            result.add(Arrays.copyOf(segment, length));
+        }
+        return result;
+    }
+
+    private static void appendToken(StringBuilder sb, int[] codePoints, int start, int length) {
+        if (sb.length() > 0) {
+            sb.append(' ');
+        }
+        for (int i = start; i < start + length; i++) {
+            sb.appendCodePoint(codePoints[i]);
+        }
+    }
+}
@@ -2,77 +2,132 @@ package com.juggle.im.internal.core.db;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import com.juggle.im.JIMConst;
-import com.juggle.im.internal.ContentTypeCenter;
 import com.juggle.im.internal.model.ConcreteMessage;
 import com.juggle.im.model.Conversation;
 import com.juggle.im.model.GroupMessageReadInfo;
 import com.juggle.im.model.Message;
-import com.juggle.im.model.MessageContent;
 import com.juggle.im.model.MessageMentionInfo;
-import com.juggle.im.model.messages.MergeMessage;
 
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 class MessageSql {
+    //查询消息时的列清单，不包含 search_content 等读取消息时用不到的列（列常量在后面声明，这里需要带类名引用）
+    private static final String[] COLUMNS = {
+            MessageSql.COL_CONVERSATION_TYPE,
+            MessageSql.COL_CONVERSATION_ID,
+            MessageSql.COL_CONTENT_TYPE,
+            MessageSql.COL_MESSAGE_ID,
+            MessageSql.COL_MESSAGE_UID,
+            MessageSql.COL_MESSAGE_CLIENT_UID,
+            MessageSql.COL_DIRECTION,
+            MessageSql.COL_STATE,
+            MessageSql.COL_HAS_READ,
+            MessageSql.COL_TIMESTAMP,
+            MessageSql.COL_SENDER,
+            MessageSql.COL_CONTENT,
+            MessageSql.COL_SEQ_NO,
+            MessageSql.COL_MESSAGE_INDEX,
+            MessageSql.COL_READ_COUNT,
+            MessageSql.COL_MEMBER_COUNT,
+            MessageSql.COL_LOCAL_ATTRIBUTE,
+            MessageSql.COL_IS_DELETED,
+            MessageSql.COL_MENTION_INFO,
+            MessageSql.COL_REFER_MSG_ID
+    };
+    static final String PROJECTION = CursorHelper.projection(COLUMNS);
+    //只查询元数据时的列清单，不读取 content 列
+    static final String METADATA_PROJECTION = CursorHelper.projection(metadataColumns());
+    private static final int INDEX_CONVERSATION_TYPE = 0;
+    private static final int INDEX_CONVERSATION_ID = 1;
+    private static final int INDEX_CONTENT_TYPE = 2;
+    private static final int INDEX_MESSAGE_ID = 3;
+    private static final int INDEX_MESSAGE_UID = 4;
+    private static final int INDEX_MESSAGE_CLIENT_UID = 5;
+    private static final int INDEX_DIRECTION = 6;
+    private static final int INDEX_STATE = 7;
+    private static final int INDEX_HAS_READ = 8;
+    private static final int INDEX_TIMESTAMP = 9;
+    private static final int INDEX_SENDER = 10;
+    private static final int INDEX_CONTENT = 11;
+    private static final int INDEX_SEQ_NO = 12;
+    private static final int INDEX_MESSAGE_INDEX = 13;
+    private static final int INDEX_READ_COUNT = 14;
+    private static final int INDEX_MEMBER_COUNT = 15;
+    private static final int INDEX_LOCAL_ATTRIBUTE = 16;
+    private static final int INDEX_IS_DELETED = 17;
+    private static final int INDEX_MENTION_INFO = 18;
+    private static final int INDEX_REFER_MSG_ID = 19;
+    static CursorHelper.ColumnIndexes columnIndexes(Cursor cursor) {
+        return new CursorHelper.ColumnIndexes(cursor, COLUMNS);
+    }
+
+    private static String[] metadataColumns() {
+        List<String> columns = new ArrayList<>();
+        for (String column : COLUMNS) {
+            if (!MessageSql.COL_CONTENT.equals(column)) {
+                columns.add(column);
+            }
+        }
+        return columns.toArray(new String[0]);
+    }
+
     static ConcreteMessage messageWithCursor(Cursor cursor) {
+        return messageWithCursor(cursor, columnIndexes(cursor));
+    }
+
+    //同一个 cursor 的多行共用 columns，列下标只解析一次
+    static ConcreteMessage messageWithCursor(Cursor cursor, CursorHelper.ColumnIndexes columns) {
         ConcreteMessage message = new ConcreteMessage();
-        int type = CursorHelper.readInt(cursor, COL_CONVERSATION_TYPE);
-        String conversationId = CursorHelper.readString(cursor, COL_CONVERSATION_ID);
+        int type = columns.readInt(cursor, INDEX_CONVERSATION_TYPE);
+        String conversationId = columns.readString(cursor, INDEX_CONVERSATION_ID);
         Conversation c = new Conversation(Conversation.ConversationType.setValue(type), conversationId);
         message.setConversation(c);
-        message.setContentType(CursorHelper.readString(cursor, COL_CONTENT_TYPE));
-        message.setClientMsgNo(CursorHelper.readLong(cursor, COL_MESSAGE_ID));
-        message.setMessageId(CursorHelper.readString(cursor, COL_MESSAGE_UID));
-        message.setClientUid(CursorHelper.readString(cursor, COL_MESSAGE_CLIENT_UID));
-        Message.MessageDirection direction = Message.MessageDirection.setValue(CursorHelper.readInt(cursor, COL_DIRECTION));
+        message.setContentType(columns.readString(cursor, INDEX_CONTENT_TYPE));
+        message.setClientMsgNo(columns.readLong(cursor, INDEX_MESSAGE_ID));
+        message.setMessageId(columns.readString(cursor, INDEX_MESSAGE_UID));
+        message.setClientUid(columns.readString(cursor, INDEX_MESSAGE_CLIENT_UID));
+        Message.MessageDirection direction = Message.MessageDirection.setValue(columns.readInt(cursor, INDEX_DIRECTION));
         message.setDirection(direction);
-        Message.MessageState state = Message.MessageState.setValue(CursorHelper.readInt(cursor, COL_STATE));
+        Message.MessageState state = Message.MessageState.setValue(columns.readInt(cursor, INDEX_STATE));
         message.setState(state);
-        boolean hasRead = CursorHelper.readInt(cursor, COL_HAS_READ) != 0;
+        boolean hasRead = columns.readInt(cursor, INDEX_HAS_READ) != 0;
         message.setHasRead(hasRead);
-        message.setTimestamp(CursorHelper.readLong(cursor, COL_TIMESTAMP));
-        message.setSenderUserId(CursorHelper.readString(cursor, COL_SENDER));
-        String content = CursorHelper.readString(cursor, COL_CONTENT);
-        MessageContent messageContent;
-        if (content != null) {
-            messageContent = ContentTypeCenter.getInstance().getContent(content.getBytes(StandardCharsets.UTF_8), message.getContentType());
-            message.setContent(messageContent);
-            if (messageContent instanceof MergeMessage) {
-                if (TextUtils.isEmpty(((MergeMessage) messageContent).getContainerMsgId())) {
-                    ((MergeMessage) messageContent).setContainerMsgId(message.getMessageId());
-                }
+        message.setTimestamp(columns.readLong(cursor, INDEX_TIMESTAMP));
+        message.setSenderUserId(columns.readString(cursor, INDEX_SENDER));
+        //只查询元数据时没有 content 列，消息内容为空
+        if (columns.hasColumn(INDEX_CONTENT)) {
+            String content = columns.readString(cursor, INDEX_CONTENT);
+            if (content != null) {
+                message.setRawContent(content);
             }
         }
-        message.setSeqNo(CursorHelper.readLong(cursor, COL_SEQ_NO));
-        message.setMsgIndex(CursorHelper.readLong(cursor, COL_MESSAGE_INDEX));
+        message.setSeqNo(columns.readLong(cursor, INDEX_SEQ_NO));
+        message.setMsgIndex(columns.readLong(cursor, INDEX_MESSAGE_INDEX));
         GroupMessageReadInfo info = new GroupMessageReadInfo();
-        info.setReadCount(CursorHelper.readInt(cursor, COL_READ_COUNT));
-        info.setMemberCount(CursorHelper.readInt(cursor, COL_MEMBER_COUNT));
+        info.setReadCount(columns.readInt(cursor, INDEX_READ_COUNT));
+        info.setMemberCount(columns.readInt(cursor, INDEX_MEMBER_COUNT));
         message.setGroupMessageReadInfo(info);
-        message.setLocalAttribute(CursorHelper.readString(cursor, COL_LOCAL_ATTRIBUTE));
-        boolean isDelete = CursorHelper.readInt(cursor, COL_IS_DELETED) != 0;
+        message.setLocalAttribute(columns.readString(cursor, INDEX_LOCAL_ATTRIBUTE));
+        boolean isDelete = columns.readInt(cursor, INDEX_IS_DELETED) != 0;
         message.setDelete(isDelete);
-        String mentionInfoStr = CursorHelper.readString(cursor, COL_MENTION_INFO);
+        String mentionInfoStr = columns.readString(cursor, INDEX_MENTION_INFO);
         if (!TextUtils.isEmpty(mentionInfoStr)) {
             message.setMentionInfo(new MessageMentionInfo(mentionInfoStr));
         }
-        String referMsgId = CursorHelper.readString(cursor, COL_REFER_MSG_ID);
+        String referMsgId = columns.readString(cursor, INDEX_REFER_MSG_ID);
         if (!TextUtils.isEmpty(referMsgId)) {
             message.setReferMsgId(referMsgId);
         }
         return message;
     }
 
-    static ContentValues getMessageInsertCV(Message message) {
-        ContentValues cv = new ContentValues();
-        if (message == null) {
-            return cv;
-        }
+    static void bindMessageInsert(SQLiteStatement statement, Message message) {
+        statement.clearBindings();
         long seqNo = 0;
         long msgIndex = 0;
         String clientUid = "";
@@ -82,40 +137,50 @@ class MessageSql {
             msgIndex = c.getMsgIndex();
             clientUid = c.getClientUid();
         }
-        cv.put(COL_CONVERSATION_TYPE, message.getConversation().getConversationType().getValue());
-        cv.put(COL_CONVERSATION_ID, message.getConversation().getConversationId());
-        cv.put(COL_CONTENT_TYPE, message.getContentType());
-        cv.put(COL_MESSAGE_UID, message.getMessageId());
-        cv.put(COL_MESSAGE_CLIENT_UID, clientUid);
-        cv.put(COL_DIRECTION, message.getDirection().getValue());
-        cv.put(COL_STATE, message.getState().getValue());
-        cv.put(COL_HAS_READ, message.isHasRead());
-        cv.put(COL_TIMESTAMP, message.getTimestamp());
-        cv.put(COL_SENDER, message.getSenderUserId());
+        statement.bindLong(1, message.getConversation().getConversationType().getValue());
+        bindString(statement, 2, message.getConversation().getConversationId());
+        bindString(statement, 3, message.getContentType());
+        bindString(statement, 4, message.getMessageId());
+        bindString(statement, 5, clientUid);
+        statement.bindLong(6, message.getDirection().getValue());
+        statement.bindLong(7, message.getState().getValue());
+        statement.bindLong(8, message.isHasRead() ? 1 : 0);
+        statement.bindLong(9, message.getTimestamp());
+        bindString(statement, 10, message.getSenderUserId());
         if (message.getContent() != null) {
-            cv.put(COL_CONTENT, new String(message.getContent().encode()));
-            cv.put(COL_SEARCH_CONTENT, message.getContent().getSearchContent());
-        }
-        cv.put(COL_SEQ_NO, seqNo);
-        cv.put(COL_MESSAGE_INDEX, msgIndex);
-        if (message.getLocalAttribute() != null) {
-            cv.put(COL_LOCAL_ATTRIBUTE, message.getLocalAttribute());
+            statement.bindString(11, new String(message.getContent().encode()));
+            bindString(statement, 12, message.getContent().getSearchContent());
         }
+        statement.bindLong(13, seqNo);
+        statement.bindLong(14, msgIndex);
+        bindString(statement, 15, message.getLocalAttribute());
         if (message.hasMentionInfo()) {
-            cv.put(COL_MENTION_INFO, message.getMentionInfo().encodeToJson());
+            bindString(statement, 16, message.getMentionInfo().encodeToJson());
         }
+        //未设置时与建表时的默认值保持一致
+        int readCount = 0;
+        int memberCount = -1;
         if (message.getGroupMessageReadInfo() != null) {
-            cv.put(COL_READ_COUNT, message.getGroupMessageReadInfo().getReadCount());
-            int memberCount = message.getGroupMessageReadInfo().getMemberCount();
+            readCount = message.getGroupMessageReadInfo().getReadCount();
+            memberCount = message.getGroupMessageReadInfo().getMemberCount();
             if (memberCount == 0) {
                 memberCount = -1;
             }
-            cv.put(COL_MEMBER_COUNT, memberCount);
         }
+        statement.bindLong(17, readCount);
+        statement.bindLong(18, memberCount);
         if (message.hasReferredInfo()) {
-            cv.put(COL_REFER_MSG_ID, message.getReferredMessage().getMessageId());
+            bindString(statement, 19, message.getReferredMessage().getMessageId());
+        }
+    }
+
+    //clearBindings 之后未绑定的参数即为 NULL
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
         }
-        return cv;
     }
 
     static ContentValues getMessageUpdateCV(Message message) {
@@ -167,7 +232,26 @@ class MessageSql {
 
     static final String TABLE = "message";
     static final String SQL_CREATE_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS idx_message ON message(message_uid)";
-    static final String SQL_GET_MESSAGE_WITH_MESSAGE_ID = "SELECT * FROM message WHERE message_uid = ? AND is_deleted = 0";
+    //按会话分页拉取消息、取会话最后一条消息
+    static final String SQL_CREATE_CONVERSATION_INDEX = "CREATE INDEX IF NOT EXISTS idx_message_conversation ON message(conversation_type, conversation_id, timestamp)";
+    //按会话 + 发送者查询、清理消息
+    static final String SQL_CREATE_SENDER_INDEX = "CREATE INDEX IF NOT EXISTS idx_message_sender ON message(conversation_type, conversation_id, sender, timestamp)";
+    static final String SQL_CREATE_TYPE_INDEX = "CREATE INDEX IF NOT EXISTS idx_message_type ON message(type, timestamp)";
+    static final String SQL_CREATE_STATE_INDEX = "CREATE INDEX IF NOT EXISTS idx_message_state ON message(state)";
+    static final String SQL_CREATE_CLIENT_UID_INDEX = "CREATE INDEX IF NOT EXISTS idx_message_client_uid ON message(client_uid)";
+    //不限定会话的分页拉取（全部消息、只按方向或发送者过滤）沿时间索引取前 count 条
+    static final String SQL_CREATE_TIMESTAMP_INDEX = "CREATE INDEX IF NOT EXISTS idx_message_timestamp ON message(timestamp)";
+    static final String SQL_GET_MESSAGE_WITH_MESSAGE_ID = "SELECT " + PROJECTION + " FROM message WHERE message_uid = ? AND is_deleted = 0";
+    static final String SQL_INSERT_MESSAGE = "INSERT OR IGNORE INTO message"
+            + "(conversation_type, conversation_id, type, message_uid, client_uid, direction, state, has_read, timestamp, sender,"
+            + "content, search_content, seq_no, message_index, local_attribute, mention_info, read_count, member_count, refer_msg_id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    //SQLite 单条语句默认最多 999 个参数，IN 查询按批拆分
+    static final int MAX_IN_ARGS_COUNT = 500;
+
+    static String sqlGetExistedMessages(int count) {
+        return "SELECT id, message_uid FROM message WHERE is_deleted = 0 AND message_uid in " + CursorHelper.getQuestionMarkPlaceholder(count);
+    }
 
     static String sqlGetMessages(
             int count,
@@ -179,6 +263,8 @@ class MessageSql {
             List<String> senderUserIds,
             List<Message.MessageState> messageStates,
             List<Conversation> conversations,
+            boolean useSearchIndex,
+            boolean metadataOnly,
             List<String> whereArgs
     ) {
         List<String> whereClauses = new ArrayList<>();
@@ -223,56 +309,45 @@ class MessageSql {
         }
         //添加 search_content 条件
         if (searchContent != null) {
+            //全文索引先缩小候选集，LIKE 保证结果与原来的子串匹配一致
+            String matchQuery = useSearchIndex ? MessageFtsSql.matchQuery(searchContent) : null;
+            if (matchQuery != null) {
+                whereClauses.add(MessageFtsSql.SQL_WHERE_MATCH);
+                whereArgs.add(matchQuery);
+            }
             whereClauses.add("search_content LIKE ?");
             whereArgs.add("%" + searchContent + "%");
         }
         //合并查询条件
         String whereClause = whereClauses.isEmpty() ? "" : "WHERE " + String.join(" AND ", whereClauses);
         //返回sql
-        return "SELECT * FROM message " + whereClause + " ORDER BY timestamp " + (JIMConst.PullDirection.NEWER == pullDirection ? "ASC" : "DESC") + " LIMIT " + count;
+        return "SELECT " + (metadataOnly ? METADATA_PROJECTION : PROJECTION) + " FROM message " + whereClause + " ORDER BY timestamp " + (JIMConst.PullDirection.NEWER == pullDirection ? "ASC" : "DESC") + " LIMIT " + count;
     }
 
-    static String sqlGetLastMessageInConversation(Conversation conversation) {
-        String sql = String.format("SELECT * FROM message WHERE conversation_type = '%s' AND conversation_id = '%s' AND is_deleted = 0", conversation.getConversationType().getValue(), conversation.getConversationId());
-        sql = sql + SQL_ORDER_BY_TIMESTAMP + SQL_DESC + SQL_LIMIT + 1;
-        return sql;
-    }
+    static final String SQL_GET_LAST_MESSAGE_IN_CONVERSATION = "SELECT " + PROJECTION + " FROM message WHERE conversation_type = ? AND conversation_id = ? AND is_deleted = 0 ORDER BY timestamp DESC LIMIT 1";
 
     static String sqlGetMessagesByMessageIds(int count) {
-        return "SELECT * FROM message WHERE message_uid in " + CursorHelper.getQuestionMarkPlaceholder(count);
+        return "SELECT " + PROJECTION + " FROM message WHERE message_uid in " + CursorHelper.getQuestionMarkPlaceholder(count);
     }
 
-    static String sqlUpdateMessageState(int state, long clientMsgNo) {
-        return String.format("UPDATE message SET state = %s WHERE id = %s", state, clientMsgNo);
+    //与 SQL_GET_MESSAGE_WITH_MESSAGE_ID 一致，被删除的消息不作为被引用消息
+    static String sqlGetReferredMessages(int count) {
+        return "SELECT " + PROJECTION + " FROM message WHERE message_uid in " + CursorHelper.getQuestionMarkPlaceholder(count) + " AND is_deleted = 0";
     }
 
+    static final String SQL_UPDATE_MESSAGE_STATE = "UPDATE message SET state = ? WHERE id = ?";
+
     static String sqlSetMessagesRead(int count) {
         return "UPDATE message SET has_read = 1 WHERE message_uid in " + CursorHelper.getQuestionMarkPlaceholder(count);
     }
 
-    static String sqlSetGroupReadInfo(int readCount, int memberCount, String messageId) {
-        return String.format("UPDATE message SET read_count = %s, member_count = %s WHERE message_uid = '%s'", readCount, memberCount, messageId);
-    }
+    static final String SQL_SET_GROUP_READ_INFO = "UPDATE message SET read_count = ?, member_count = ? WHERE message_uid = ?";
 
-    static String sqlGetMessagesByClientMsgNos(long[] nos) {
-        StringBuilder sql = new StringBuilder("SELECT * FROM message WHERE id in (");
-        for (int i = 0; i < nos.length; i++) {
-            if (i > 0) {
-                sql.append(", ");
-            }
-            sql.append(nos[i]);
-        }
-        sql.append(")");
-        return sql.toString();
+    static String sqlGetMessagesByClientMsgNos(int count) {
+        return "SELECT " + PROJECTION + " FROM message WHERE id in " + CursorHelper.getQuestionMarkPlaceholder(count);
     }
 
-    static final String SQL_ORDER_BY_TIMESTAMP = " ORDER BY timestamp";
-    static final String SQL_DESC = " DESC";
-    static final String SQL_LIMIT = " LIMIT ";
-
-    static String sqlUpdateMessageAfterSend(int state, long clientMsgNo, long timestamp, long seqNo) {
-        return String.format("UPDATE message SET message_uid = ?, state = %s, timestamp = %s, seq_no = %s WHERE id = %s", state, timestamp, seqNo, clientMsgNo);
-    }
+    static final String SQL_UPDATE_MESSAGE_AFTER_SEND = "UPDATE message SET message_uid = ?, state = ?, timestamp = ?, seq_no = ? WHERE id = ?";
 
     static final String SQL_UPDATE_MESSAGE_CONTENT_WITH_MESSAGE_ID = "UPDATE message SET content = ?, type = ?, search_content = ? WHERE message_uid = ?";
     static final String SQL_UPDATE_MESSAGE_CONTENT_WITH_MESSAGE_NO = "UPDATE message SET content = ?, type = ?, search_content = ? WHERE id = ?";
@@ -285,29 +360,18 @@ class MessageSql {
         return "UPDATE message SET is_deleted = 1 WHERE id in " + CursorHelper.getQuestionMarkPlaceholder(count);
     }
 
-    static String sqlClearMessages(Conversation conversation, long startTime, String senderId) {
-        String sql = String.format("UPDATE message SET is_deleted = 1 WHERE conversation_type = %s AND conversation_id = '%s' AND timestamp <= %s", conversation.getConversationType().getValue(), conversation.getConversationId(), startTime);
-        if (!TextUtils.isEmpty(senderId)) {
-            sql = sql + String.format(" AND sender = '%s'", senderId);
+    static String sqlClearMessages(boolean hasSender) {
+        String sql = "UPDATE message SET is_deleted = 1 WHERE conversation_type = ? AND conversation_id = ? AND timestamp <= ?";
+        if (hasSender) {
+            sql = sql + " AND sender = ?";
         }
         return sql;
     }
 
-    static String sqlUpdateLocalAttribute(String messageId, String localAttribute) {
-        return String.format("UPDATE message SET local_attribute = '%s' WHERE message_uid = '%s'", localAttribute, messageId);
-    }
-
-    static String sqlUpdateLocalAttribute(long clientMsgNo, String localAttribute) {
-        return String.format("UPDATE message SET local_attribute = '%s' WHERE id = '%s'", localAttribute, clientMsgNo);
-    }
-
-    static String sqlGetLocalAttribute(String messageId) {
-        return String.format("SELECT local_attribute FROM message WHERE message_uid = '%s'", messageId);
-    }
-
-    static String sqlGetLocalAttribute(long clientMsgNo) {
-        return String.format("SELECT local_attribute FROM message WHERE id = '%s'", clientMsgNo);
-    }
+    static final String SQL_UPDATE_LOCAL_ATTRIBUTE_WITH_MESSAGE_ID = "UPDATE message SET local_attribute = ? WHERE message_uid = ?";
+    static final String SQL_UPDATE_LOCAL_ATTRIBUTE_WITH_MESSAGE_NO = "UPDATE message SET local_attribute = ? WHERE id = ?";
+    static final String SQL_GET_LOCAL_ATTRIBUTE_WITH_MESSAGE_ID = "SELECT local_attribute FROM message WHERE message_uid = ?";
+    static final String SQL_GET_LOCAL_ATTRIBUTE_WITH_MESSAGE_NO = "SELECT local_attribute FROM message WHERE id = ?";
 
     static final String COL_CONVERSATION_TYPE = "conversation_type";
     static final String COL_CONVERSATION_ID = "conversation_id";
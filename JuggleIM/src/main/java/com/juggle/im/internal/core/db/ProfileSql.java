@@ -11,5 +11,10 @@ class ProfileSql {
     static final String CONVERSATION_TIME = "conversation_time";
     static final String SEND_TIME = "send_time";
     static final String RECEIVE_TIME = "receive_time";
+    static final String SEARCH_INDEX_BACKFILL_ID = "search_index_backfill_id";
+    //后面拼接网络类型
+    static final String FASTEST_SERVER = "fastest_server_";
+    static final String FASTEST_SERVER_HANDSHAKE_TIME = "fastest_server_handshake_time_";
+    static final String HEARTBEAT_INTERVAL = "heartbeat_interval_";
 
 }
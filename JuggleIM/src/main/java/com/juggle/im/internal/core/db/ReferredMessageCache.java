@@ -0,0 +1,66 @@
+package com.juggle.im.internal.core.db;
+
+import com.juggle.im.internal.model.ConcreteMessage;
+import com.juggle.im.model.Message;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+//最近解析过的被引用消息（包含已经挂好的引用链），按 messageId 做 LRU，跨分页共享
+//缓存中的对象不会交给调用方，DBManager 挂到消息上的都是 ConcreteMessage.copy() 复制出来的引用链
+//消息被修改、删除时由 DBManager 按 messageId 移除，引用链中包含该消息的缓存项一起移除；无法确定 messageId 的修改直接清空
+class ReferredMessageCache {
+    //查询数据库之前取得版本号，期间有消息被修改时不放入本次查出的消息
+    synchronized long getVersion() {
+        return mVersion;
+    }
+
+    synchronized ConcreteMessage get(String messageId) {
+        return mCache.get(messageId);
+    }
+
+    synchronized void put(ConcreteMessage message, long version) {
+        if (version != mVersion) {
+            return;
+        }
+        mCache.put(message.getMessageId(), message);
+    }
+
+    synchronized void remove(String messageId) {
+        remove(Collections.singleton(messageId));
+    }
+
+    synchronized void remove(Collection<String> messageIds) {
+        mVersion++;
+        Set<String> ids = messageIds instanceof Set ? (Set<String>) messageIds : new HashSet<>(messageIds);
+        Iterator<ConcreteMessage> iterator = mCache.values().iterator();
+        while (iterator.hasNext()) {
+            //引用链最多 MAX_REFER_DEPTH 层
+            for (Message message = iterator.next(); message != null; message = message.getReferredMessage()) {
+                if (ids.contains(message.getMessageId())) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mVersion++;
+        mCache.clear();
+    }
+
+    private final LinkedHashMap<String, ConcreteMessage> mCache = new LinkedHashMap<String, ConcreteMessage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ConcreteMessage> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private long mVersion;
+    private static final int CACHE_SIZE = 128;
+}
@@ -0,0 +1,64 @@
+package com.juggle.im.internal.core.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//参数化语句的编译缓存，key 是 sql 文本，按 LRU 淘汰
+//使用期间语句从缓存中取出，并发调用同一形状时各自编译，避免共用绑定参数，也不需要在执行时加锁
+//被淘汰的语句不在使用中，可以直接关闭
+class StatementCache {
+    StatementCache(int capacity) {
+        mCapacity = capacity;
+    }
+
+    SQLiteStatement acquire(SQLiteDatabase db, String sql) {
+        SQLiteStatement statement;
+        synchronized (this) {
+            statement = mCache.remove(sql);
+        }
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+        }
+        return statement;
+    }
+
+    void release(SQLiteDatabase db, String sql, SQLiteStatement statement) {
+        synchronized (this) {
+            //数据库已关闭或重新打开时不再放回缓存
+            if (db == mDb && !mCache.containsKey(sql)) {
+                mCache.put(sql, statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    //关闭缓存中的语句，之后只缓存在 db 上编译的语句，db 为 null 表示数据库已关闭
+    synchronized void reset(SQLiteDatabase db) {
+        for (SQLiteStatement statement : mCache.values()) {
+            statement.close();
+        }
+        mCache.clear();
+        mDb = db;
+    }
+
+    synchronized int size() {
+        return mCache.size();
+    }
+
+    private final int mCapacity;
+    private SQLiteDatabase mDb;
+    private final LinkedHashMap<String, SQLiteStatement> mCache = new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if (size() > mCapacity) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+}
@@ -1,99 +1,212 @@
 package com.juggle.im.internal.core.network;
 
+import android.os.Handler;
+import android.os.SystemClock;
+
 import com.juggle.im.internal.util.JLogger;
-import com.juggle.im.internal.util.JSimpleTimer;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.HashMap;
+import java.util.Map;
 
+//自适应心跳：
+//1. 收到任何下行数据都说明连接可用，只在空闲超过心跳间隔时才发送 ping
+//2. 按网络类型探测 NAT 能容忍的最长空闲时间，连续成功若干次后增大间隔，探测中超时则退回上一个成功的间隔并固定下来
+//   固定下来的间隔通过 JWebSocket 回调给上层保存，下次启动时直接使用，不再重新探测
+//3. 超时检测合并到 ping 的调度中，同一时间只有一个定时任务，ping 之后等待 PONG_TIME_OUT，期间收到数据即取消
+//所有状态只在 mHandler 所在线程读写，mLastMessageReceivedTime 和 mIsAwaitingPong 由接收线程更新
 public class HeartbeatManager {
-    private final static String TAG = HeartbeatManager.class.getSimpleName();
-    private final static int HEARTBEAT_INTERVAL = 30 * 1000;
-    private final static int HEARTBEAT_DETECTION_INTERVAL = 10 * 1000;
-    private final static int HEARTBEAT_DETECTION_TIME_OUT = HEARTBEAT_INTERVAL * 3;
+    private final static int MIN_HEARTBEAT_INTERVAL = 30 * 1000;
+    private final static int MAX_HEARTBEAT_INTERVAL = 270 * 1000;
+    private final static int HEARTBEAT_INTERVAL_STEP = 30 * 1000;
+    private final static int PONG_TIME_OUT = 15 * 1000;
+    //同一个间隔连续成功的次数达到后才继续增大
+    private final static int PROBE_CONFIRM_COUNT = 2;
 
     private final JWebSocket mJWebsocket;
-    private JSimpleTimer mHeartbeatTimer = null;
-    private JSimpleTimer mHeartbeatDetectionTimer = null;
-    private final AtomicLong mLastMessageReceivedTime = new AtomicLong(0);
-    private boolean mIsInit = false;
-    private boolean mIsRunning = false;
-
-    public HeartbeatManager(JWebSocket jWebSocket) {
+    private final Handler mHandler;
+    private final Map<String, NetworkState> mNetworkStateMap = new HashMap<>();
+    private NetworkState mNetworkState;
+    private String mNetworkType;
+    //本次 ping 之前的空闲时长，用来确认探测是否成功
+    private long mPingIdleTime;
+    private long mPingSentTime;
+    private volatile long mLastMessageReceivedTime = 0;
+    private volatile boolean mIsAwaitingPong = false;
+    private volatile boolean mIsRunning = false;
+
+    public HeartbeatManager(JWebSocket jWebSocket, Handler handler) {
         this.mJWebsocket = jWebSocket;
-        init();
-    }
-
-    public boolean isInit() {
-        return mIsInit;
+        this.mHandler = handler;
     }
 
     public boolean isRunning() {
         return mIsRunning;
     }
 
-    public void start(boolean immediately) {
-        JLogger.i("HB-Start", "start, immediately is " + immediately);
-        stop();
-        mHeartbeatTimer.start(immediately);
-        mHeartbeatDetectionTimer.start(immediately);
-        mIsRunning = true;
+    //settledInterval 为该网络类型上次保存的固定间隔，没有时传 0，本进程内已经有探测状态时忽略
+    public void start(boolean immediately, String networkType, long settledInterval) {
+        JLogger.i("HB-Start", "start, immediately is " + immediately + ", networkType is " + networkType + ", settledInterval is " + settledInterval);
+        mHandler.post(() -> {
+            cancel();
+            String key = networkType == null ? "" : networkType;
+            NetworkState state = mNetworkStateMap.get(key);
+            if (state == null) {
+                state = new NetworkState(settledInterval);
+                mNetworkStateMap.put(key, state);
+            }
+            mNetworkState = state;
+            mNetworkType = key;
+            mLastMessageReceivedTime = SystemClock.elapsedRealtime();
+            mIsRunning = true;
+            schedule(immediately ? 0 : state.currentInterval());
+        });
     }
 
     public void stop() {
         JLogger.i("HB-Stop", "stop");
-        mHeartbeatTimer.stop();
-        mHeartbeatDetectionTimer.stop();
-        mIsRunning = false;
+        mHandler.post(() -> {
+            cancel();
+            mIsRunning = false;
+        });
     }
 
+    //在接收线程调用
     public void updateLastMessageReceivedTime() {
-        mLastMessageReceivedTime.set(System.currentTimeMillis());
+        mLastMessageReceivedTime = SystemClock.elapsedRealtime();
+        if (mIsAwaitingPong) {
+            mIsAwaitingPong = false;
+            mHandler.post(mPongRunnable);
+        }
     }
 
-    private void init() {
-        if (mIsInit) return;
-
-        mHeartbeatTimer = new JSimpleTimer(HEARTBEAT_INTERVAL) {
-            @Override
-            protected void doAction() {
-                doHeartbeat();
-            }
-        };
-        mHeartbeatTimer.init();
-
-        mHeartbeatDetectionTimer = new JSimpleTimer(HEARTBEAT_DETECTION_INTERVAL) {
-            @Override
-            protected void doAction() {
-                doHeartbeatDetection();
-            }
-        };
-        mHeartbeatDetectionTimer.init();
+    private void schedule(long delay) {
+        mHandler.removeCallbacks(mTickRunnable);
+        mHandler.postDelayed(mTickRunnable, Math.max(0, delay));
+    }
 
-        mIsInit = true;
+    private void cancel() {
+        mHandler.removeCallbacks(mTickRunnable);
+        mHandler.removeCallbacks(mPongRunnable);
+        mIsAwaitingPong = false;
+        mPingSentTime = 0;
     }
 
-    private void doHeartbeat() {
+    private void onTick() {
+        if (!mIsRunning) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mPingSentTime != 0) {
+            //等待 pong 超时
+            if (mLastMessageReceivedTime < mPingSentTime) {
+                JLogger.e("HB-TimeOut", "timeout, interval is " + mNetworkState.currentInterval());
+                if (mNetworkState.onFailure()) {
+                    notifyIntervalSettled();
+                }
+                notifyHeartbeatTimeout();
+                return;
+            }
+            mPingSentTime = 0;
+        }
+        long interval = mNetworkState.currentInterval();
+        long idle = now - mLastMessageReceivedTime;
+        if (idle < interval) {
+            //空闲时间不足，最近有下行数据，不需要 ping
+            schedule(interval - idle);
+            return;
+        }
+        mPingIdleTime = idle;
+        mPingSentTime = now;
+        mIsAwaitingPong = true;
         if (mJWebsocket != null) {
             mJWebsocket.ping();
         }
+        schedule(PONG_TIME_OUT);
     }
 
-    private void doHeartbeatDetection() {
-        if (mLastMessageReceivedTime.longValue() != 0) {
-            //获取当前系统时间
-            long now = System.currentTimeMillis();
-            //如果当前时系统时间和lastMessageReceivedTime的差值大于HEARTBEAT_DETECTION_TIME_OUT，认为心跳超时，执行timeout回调
-            if (now - mLastMessageReceivedTime.longValue() >= HEARTBEAT_DETECTION_TIME_OUT) {
-                JLogger.e("HB-TimeOut", "timeout");
-                notifyHeartbeatTimeout();
-            }
+    private void onPong() {
+        if (!mIsRunning || mPingSentTime == 0) {
+            return;
+        }
+        mPingSentTime = 0;
+        if (mNetworkState.onSuccess(mPingIdleTime)) {
+            notifyIntervalSettled();
+        }
+        schedule(mNetworkState.currentInterval());
+    }
+
+    private void notifyIntervalSettled() {
+        if (mJWebsocket != null) {
+            mJWebsocket.handleHeartbeatIntervalSettled(mNetworkType, mNetworkState.currentInterval());
         }
     }
 
     private void notifyHeartbeatTimeout() {
-        stop();
+        cancel();
+        mIsRunning = false;
         if (mJWebsocket != null) {
             mJWebsocket.handleHeartbeatTimeout();
         }
     }
-}
\ No newline at end of file
+
+    private final Runnable mTickRunnable = this::onTick;
+    private final Runnable mPongRunnable = this::onPong;
+
+    //某个网络类型下的心跳间隔探测状态
+    private static class NetworkState {
+        //settledInterval 为上次保存的固定间隔，有效时直接固定，不再探测
+        NetworkState(long settledInterval) {
+            if (settledInterval > 0) {
+                mStableInterval = Math.max(MIN_HEARTBEAT_INTERVAL, Math.min(MAX_HEARTBEAT_INTERVAL, settledInterval));
+                mProbeInterval = mStableInterval;
+                mSettled = true;
+            }
+        }
+
+        long currentInterval() {
+            return mSettled ? mStableInterval : mProbeInterval;
+        }
+
+        //idleTime 为 ping 之前连接实际空闲的时长，返回是否在这次成功后固定下来
+        boolean onSuccess(long idleTime) {
+            if (mSettled || idleTime < mProbeInterval) {
+                return false;
+            }
+            mSuccessCount++;
+            if (mSuccessCount < PROBE_CONFIRM_COUNT) {
+                return false;
+            }
+            mSuccessCount = 0;
+            mStableInterval = mProbeInterval;
+            if (mProbeInterval >= MAX_HEARTBEAT_INTERVAL) {
+                mSettled = true;
+            } else {
+                mProbeInterval = Math.min(MAX_HEARTBEAT_INTERVAL, mProbeInterval + HEARTBEAT_INTERVAL_STEP);
+            }
+            JLogger.i("HB-Probe", "stable interval is " + mStableInterval + ", probe interval is " + mProbeInterval);
+            return mSettled;
+        }
+
+        //返回固定的间隔是否有变化
+        boolean onFailure() {
+            long oldInterval = mSettled ? mStableInterval : 0;
+            mSuccessCount = 0;
+            if (!mSettled && mProbeInterval > mStableInterval) {
+                //探测的间隔超出了 NAT 的容忍时间，退回上一个成功的间隔
+                mProbeInterval = mStableInterval;
+            } else {
+                //已经固定的间隔也失败了，说明网络环境变化，缩短一级
+                mStableInterval = Math.max(MIN_HEARTBEAT_INTERVAL, mStableInterval - HEARTBEAT_INTERVAL_STEP);
+                mProbeInterval = mStableInterval;
+            }
+            mSettled = true;
+            JLogger.i("HB-Probe", "settled, interval is " + mStableInterval);
+            return mStableInterval != oldInterval;
+        }
+
+        private long mStableInterval = MIN_HEARTBEAT_INTERVAL;
+        private long mProbeInterval = MIN_HEARTBEAT_INTERVAL;
+        private int mSuccessCount;
+        private boolean mSettled;
+    }
+}
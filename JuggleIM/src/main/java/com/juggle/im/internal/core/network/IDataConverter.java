@@ -5,4 +5,9 @@ public interface IDataConverter {
     byte[] encode(byte[] data);
 
     byte[] decode(byte[] data);
+
+    //原地转换 data 中 [offset, offset + length) 的数据，不分配新数组
+    void encode(byte[] data, int offset, int length);
+
+    void decode(byte[] data, int offset, int length);
 }
@@ -0,0 +1,198 @@
+package com.juggle.im.internal.core.network;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.juggle.im.internal.util.JLogger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+//SDK 内所有 HTTP 请求（导航、上传、下载、日志上传）共用的传输层，由 JIMCore 持有
+//所有 OkHttpClient 都从同一个 client 派生，共享连接池、调度器、DNS 缓存和 TLS 会话缓存，同一个 host 的请求复用连接，HTTP/2 下多路复用
+//按 host 统计请求数、新建连接数和 TLS 握手数，用来观察连接复用情况
+public class JHttpTransport {
+    public JHttpTransport() {
+        mClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MILLISECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .dns(mDns)
+                .eventListener(mMetricsListener)
+                .connectTimeout(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .writeTimeout(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public OkHttpClient getClient() {
+        return mClient;
+    }
+
+    //指定超时时间的 client，同样的超时只创建一次
+    public synchronized OkHttpClient getClient(int connectTimeout, int readTimeout, int writeTimeout) {
+        String key = connectTimeout + "_" + readTimeout + "_" + writeTimeout;
+        OkHttpClient client = mTimeoutClientMap.get(key);
+        if (client == null) {
+            client = mClient.newBuilder()
+                    .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                    .writeTimeout(writeTimeout, TimeUnit.MILLISECONDS)
+                    .build();
+            mTimeoutClientMap.put(key, client);
+        }
+        return client;
+    }
+
+    public List<HostMetrics> getHostMetrics() {
+        return new ArrayList<>(mHostMetricsMap.values());
+    }
+
+    public static class HostMetrics {
+        HostMetrics(String host) {
+            mHost = host;
+        }
+
+        public String getHost() {
+            return mHost;
+        }
+
+        //发起的请求数
+        public int getRequestCount() {
+            return mRequestCount.get();
+        }
+
+        //新建的连接数
+        public int getConnectCount() {
+            return mConnectCount.get();
+        }
+
+        //完成的 TLS 握手数
+        public int getTlsHandshakeCount() {
+            return mTlsHandshakeCount.get();
+        }
+
+        //复用已有连接（包括 HTTP/2 多路复用）的次数
+        public int getReuseCount() {
+            return Math.max(0, mAcquireCount.get() - mConnectCount.get());
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "host is " + mHost + ", request count is " + getRequestCount() + ", connect count is " + getConnectCount()
+                    + ", tls handshake count is " + getTlsHandshakeCount() + ", reuse count is " + getReuseCount();
+        }
+
+        private final String mHost;
+        private final AtomicInteger mRequestCount = new AtomicInteger();
+        private final AtomicInteger mConnectCount = new AtomicInteger();
+        private final AtomicInteger mTlsHandshakeCount = new AtomicInteger();
+        private final AtomicInteger mAcquireCount = new AtomicInteger();
+    }
+
+    private HostMetrics metricsFor(Call call) {
+        String host = call.request().url().host();
+        HostMetrics metrics = mHostMetricsMap.get(host);
+        if (metrics == null) {
+            metrics = new HostMetrics(host);
+            HostMetrics old = mHostMetricsMap.putIfAbsent(host, metrics);
+            if (old != null) {
+                metrics = old;
+            }
+        }
+        return metrics;
+    }
+
+    //系统 DNS 的结果缓存 DNS_CACHE_TTL，连接失败时清除对应 host 的缓存
+    private static class CachedDns implements Dns {
+        @NonNull
+        @Override
+        public List<InetAddress> lookup(@NonNull String hostname) throws UnknownHostException {
+            long now = SystemClock.elapsedRealtime();
+            DnsEntry entry = mCache.get(hostname);
+            if (entry != null && now < entry.mExpireTime) {
+                return entry.mAddresses;
+            }
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            mCache.put(hostname, new DnsEntry(addresses, now + DNS_CACHE_TTL));
+            return addresses;
+        }
+
+        void evict(String hostname) {
+            mCache.remove(hostname);
+        }
+
+        private final ConcurrentHashMap<String, DnsEntry> mCache = new ConcurrentHashMap<>();
+    }
+
+    private static class DnsEntry {
+        DnsEntry(List<InetAddress> addresses, long expireTime) {
+            mAddresses = addresses;
+            mExpireTime = expireTime;
+        }
+
+        private final List<InetAddress> mAddresses;
+        private final long mExpireTime;
+    }
+
+    private final EventListener mMetricsListener = new EventListener() {
+        @Override
+        public void callStart(@NonNull Call call) {
+            metricsFor(call).mRequestCount.incrementAndGet();
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol) {
+            HostMetrics metrics = metricsFor(call);
+            metrics.mConnectCount.incrementAndGet();
+            JLogger.v("HTTP-Connect", "new connection, protocol is " + protocol + ", " + metrics);
+        }
+
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol, @NonNull IOException ioe) {
+            JLogger.w("HTTP-Connect", "connect failed, host is " + call.request().url().host() + ", exception is " + ioe.getMessage());
+            mDns.evict(call.request().url().host());
+        }
+
+        @Override
+        public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+            metricsFor(call).mTlsHandshakeCount.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+            metricsFor(call).mAcquireCount.incrementAndGet();
+        }
+    };
+
+    private final CachedDns mDns = new CachedDns();
+    private final ConcurrentHashMap<String, HostMetrics> mHostMetricsMap = new ConcurrentHashMap<>();
+    private final Map<String, OkHttpClient> mTimeoutClientMap = new HashMap<>();
+    private final OkHttpClient mClient;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION = 5 * 60 * 1000;
+    private static final int DEFAULT_TIMEOUT = 10 * 1000;
+    private static final long DNS_CACHE_TTL = 60 * 1000;
+}
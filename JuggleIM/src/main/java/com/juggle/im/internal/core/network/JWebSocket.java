@@ -2,6 +2,7 @@ package com.juggle.im.internal.core.network;
 
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 
@@ -12,6 +13,7 @@ import com.juggle.im.internal.model.ConcreteMessage;
 import com.juggle.im.internal.model.MergeInfo;
 import com.juggle.im.internal.model.upload.UploadFileType;
 import com.juggle.im.internal.util.JLogger;
+import com.juggle.im.internal.util.JThreadPoolExecutor;
 import com.juggle.im.model.Conversation;
 import com.juggle.im.model.MediaMessageContent;
 import com.juggle.im.model.MessageContent;
@@ -26,22 +28,26 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListener, JWebSocketClient.IWebSocketClientListener {
     public JWebSocket(Handler sendHandler) {
         mSendHandler = sendHandler;
-        mPbData = new PBData();
-        mHeartbeatManager = new HeartbeatManager(this);
-        mWebSocketCommandManager = new WebSocketCommandManager(this);
+        mWebSocketCommandManager = new WebSocketCommandManager(this, sendHandler);
+        mPbData = new PBData(mWebSocketCommandManager);
+        mSendQueue = new SendQueue(sendHandler, mSendQueueListener);
+        mHeartbeatManager = new HeartbeatManager(this, sendHandler);
         mWebSocketCommandManager.start(false);
         mCompeteWSCList = new ArrayList<>();
         mCompeteStatusList = new ArrayList<>();
+        mCompeteServerList = new ArrayList<>();
+        mCompeteStartTimeList = new ArrayList<>();
+        mPendingServerList = new ArrayList<>();
     }
 
-    public void connect(String appKey, String token, String deviceId, String packageName, String networkType, String carrier, PushChannel pushChannel, String pushToken, List<String> servers) {
-        JLogger.i("WS-Connect", "appKey is " + appKey + ", token is " + token + ", servers is " + servers);
+    //preferredServer 为当前网络下历史最快的服务器，先单独连接，preferredHandshakeTime 为它上次的握手耗时，
+    //据此给它一段领先时间，超时或者失败后再并发连接其它服务器
+    public void connect(String appKey, String token, String deviceId, String packageName, String networkType, String carrier, PushChannel pushChannel, String pushToken, List<String> servers, String preferredServer, long preferredHandshakeTime) {
+        JLogger.i("WS-Connect", "appKey is " + appKey + ", token is " + token + ", servers is " + servers + ", preferred is " + preferredServer);
         mSendHandler.post(() -> {
             mAppKey = appKey;
             mToken = token;
@@ -53,18 +59,45 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
             mCarrier = carrier;
 
             resetWebSocketClient();
-            ExecutorService executorService = Executors.newFixedThreadPool(MAX_CONCURRENT_COUNT);
-
-            for (String server : servers) {
-                URI uri = createWebSocketUri(server);
-                JWebSocketClient wsc = new JWebSocketClient(uri, JWebSocket.this);
-                mCompeteWSCList.add(wsc);
-                mCompeteStatusList.add(WebSocketStatus.IDLE);
-                executorService.execute(wsc::connect);
+            List<String> competeServers = new ArrayList<>(servers);
+            if (preferredServer != null && competeServers.size() > 1 && competeServers.remove(preferredServer)) {
+                startCompete(preferredServer);
+                mPendingServerList.addAll(competeServers);
+                long headStart = Math.max(MIN_HEAD_START, Math.min(MAX_HEAD_START, preferredHandshakeTime * 2));
+                mSendHandler.postDelayed(mFanOutRunnable, headStart);
+                return;
+            }
+            for (String server : competeServers) {
+                startCompete(server);
             }
         });
     }
 
+    //在建连专用的线程池中发起连接，不再为每次连接创建线程池
+    private void startCompete(String server) {
+        URI uri = createWebSocketUri(server);
+        JWebSocketClient wsc = new JWebSocketClient(uri, JWebSocket.this);
+        mCompeteWSCList.add(wsc);
+        mCompeteStatusList.add(WebSocketStatus.IDLE);
+        mCompeteServerList.add(server);
+        mCompeteStartTimeList.add(SystemClock.elapsedRealtime());
+        JThreadPoolExecutor.runConnectTask(wsc::connect);
+    }
+
+    //领先时间结束（或者优先的服务器已经失败）仍未连上时，并发连接其余服务器
+    private void fanOut() {
+        mSendHandler.removeCallbacks(mFanOutRunnable);
+        if (mIsCompeteFinish || mPendingServerList.isEmpty()) {
+            return;
+        }
+        JLogger.i("WS-Connect", "fan out, servers is " + mPendingServerList);
+        List<String> pending = new ArrayList<>(mPendingServerList);
+        mPendingServerList.clear();
+        for (String server : pending) {
+            startCompete(server);
+        }
+    }
+
     public void disconnect(Boolean receivePush) {
         JLogger.i("WS-Disconnect", "receivePush is " + receivePush);
         sendDisconnectMsg(receivePush);
@@ -113,7 +146,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
                 referMsg);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "send message");
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, content instanceof MediaMessageContent ? SendQueue.LANE_LOW : SendQueue.LANE_NORMAL, key);
     }
 
     public void recallMessage(String messageId,
@@ -125,7 +158,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.recallMessageData(messageId, conversation, timestamp, extras, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "recallMessage, messageId is " + messageId);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void syncConversations(long startTime,
@@ -136,15 +169,16 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.syncConversationsData(startTime, count, userId, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "syncConversations, startTime is " + startTime + ", count is " + count);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void syncMessages(long receiveTime,
                              long sendTime,
                              String userId) {
+        Integer key = mCmdIndex;
         byte[] bytes = mPbData.syncMessagesData(receiveTime, sendTime, userId, mCmdIndex++);
         JLogger.i("WS-Send", "syncMessages, receiveTime is " + receiveTime + ", sendTime is " + sendTime);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void sendReadReceipt(Conversation conversation,
@@ -154,7 +188,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.sendReadReceiptData(conversation, messageIds, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "sendReadReceipt");
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void getGroupMessageReadDetail(Conversation conversation,
@@ -164,7 +198,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.getGroupMessageReadDetail(conversation, messageId, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "getGroupMessageReadDetail, messageId is " + messageId);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void deleteConversationInfo(Conversation conversation,
@@ -174,7 +208,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.deleteConversationData(conversation, userId, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "getGroupMessageReadDetail, conversation is " + conversation);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void clearUnreadCount(Conversation conversation,
@@ -185,7 +219,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.clearUnreadCountData(conversation, userId, msgIndex, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "clearUnreadCount, conversation is " + conversation + ", msgIndex is " + msgIndex);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void clearTotalUnreadCount(String userId, long time, WebSocketTimestampCallback callback) {
@@ -193,7 +227,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.clearTotalUnreadCountData(userId, time, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "clearTotalUnreadCount, time is " + time);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void addConversationInfo(Conversation conversation, String userId, AddConversationCallback callback) {
@@ -201,7 +235,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.addConversationInfo(conversation, userId, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "addConversationInfo, conversation is " + conversation);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void queryHisMsg(Conversation conversation, long startTime, int count, JIMConst.PullDirection direction, List<String> contentTypes, QryHisMsgCallback callback) {
@@ -209,7 +243,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.queryHisMsgData(conversation, startTime, count, direction, contentTypes, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "queryHisMsg, conversation is " + conversation + ", startTime is " + startTime + ", count is " + count + ", direction is " + direction);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void queryHisMsgByIds(Conversation conversation, List<String> messageIds, QryHisMsgCallback callback) {
@@ -217,7 +251,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.queryHisMsgDataByIds(conversation, messageIds, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "queryHisMsgByIds, conversation is " + conversation);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void setMute(Conversation conversation, boolean isMute, String userId, WebSocketTimestampCallback callback) {
@@ -225,7 +259,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.disturbData(conversation, userId, isMute, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "setMute, conversation is " + conversation + ", isMute is " + isMute);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void setTop(Conversation conversation, boolean isTop, String userId, WebSocketTimestampCallback callback) {
@@ -233,7 +267,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.topConversationData(conversation, userId, isTop, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "setTop, conversation is " + conversation + ", isTop is " + isTop);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void setUnread(Conversation conversation, String userId, WebSocketTimestampCallback callback) {
@@ -241,7 +275,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.markUnread(conversation, userId, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "setUnread, conversation is " + conversation);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void getMergedMessageList(String containerMsgId,
@@ -253,7 +287,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.getMergedMessageList(containerMsgId, timestamp, count, direction, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "getMergedMessageList, containerMsgId is " + containerMsgId + ", timestamp is " + timestamp + ", count is " + count + ", direction is " + direction);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void getMentionMessageList(Conversation conversation,
@@ -266,7 +300,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.getMentionMessages(conversation, time, count, direction, lastReadIndex, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "getMentionMessageList, conversation is " + conversation + ", time is " + time + ", count is " + count + ", direction is " + direction);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void registerPushToken(PushChannel channel, String token, String deviceId, String packageName, String userId, WebSocketSimpleCallback callback) {
@@ -279,7 +313,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
                 mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "registerPushToken, channel is " + channel.getName() + ", token is " + token);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void clearHistoryMessage(Conversation conversation, long time, WebSocketTimestampCallback callback) {
@@ -287,7 +321,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.clearHistoryMessage(conversation, time, 0, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "clearHistoryMessage, conversation is " + conversation + ", time is " + time);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void deleteMessage(Conversation conversation, List<ConcreteMessage> msgList, WebSocketTimestampCallback callback) {
@@ -295,7 +329,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.deleteMessage(conversation, msgList, mCmdIndex++);
         mWebSocketCommandManager.putCommand(key, callback);
         JLogger.i("WS-Send", "deleteMessage, conversation is " + conversation);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void getUploadFileCred(String userId, UploadFileType fileType, String ext, QryUploadFileCredCallback callback) {
@@ -303,7 +337,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.getUploadFileCred(userId, fileType, ext, mCmdIndex++);
         JLogger.i("WS-Send", "getUploadFileCred, file type is " + fileType);
         mWebSocketCommandManager.putCommand(key, callback);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void setGlobalMute(boolean isMute, String userId, String timezone, List<TimePeriod> periods, WebSocketTimestampCallback callback) {
@@ -311,7 +345,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.setGlobalMute(isMute, userId, timezone, periods, mCmdIndex++);
         JLogger.i("WS-Send", "setGlobalMute, isMute is " + isMute);
         mWebSocketCommandManager.putCommand(key, callback);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
     public void getGlobalMute(String userId, GetGlobalMuteCallback callback) {
@@ -319,11 +353,12 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         byte[] bytes = mPbData.getGlobalMute(userId, mCmdIndex++);
         JLogger.i("WS-Send", "getGlobalMute");
         mWebSocketCommandManager.putCommand(key, callback);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_NORMAL, key);
     }
 
-    public void startHeartbeat() {
-        mHeartbeatManager.start(false);
+    //settledInterval 为当前网络类型上次保存的心跳间隔，没有时传 0
+    public void startHeartbeat(long settledInterval) {
+        mHeartbeatManager.start(false, mNetworkType, settledInterval);
     }
 
     public void stopHeartbeat() {
@@ -336,6 +371,12 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         }
     }
 
+    public void handleHeartbeatIntervalSettled(String networkType, long interval) {
+        if (mConnectListener != null) {
+            mConnectListener.onHeartbeatIntervalSettled(networkType, interval);
+        }
+    }
+
     public synchronized void pushRemainCmdAndCallbackError() {
         ArrayList<IWebSocketCallback> errorList = mWebSocketCommandManager.clearCommand();
         for (int i = 0; i < errorList.size(); i++) {
@@ -346,7 +387,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
     public void ping() {
         JLogger.v("WS-Send", "ping");
         byte[] bytes = mPbData.pingData();
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_HIGH, -1);
     }
 
     @Override
@@ -354,6 +395,16 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         onCommandError(callback, JErrorCode.OPERATION_TIMEOUT);
     }
 
+    @Override
+    public void onCommandFinish() {
+        mSendQueue.onCommandFinish();
+    }
+
+    //小于等于 0 时使用默认值
+    public void setSendQueueLimits(int maxInFlightCommands, int maxQueuedBytes) {
+        mSendQueue.setLimits(maxInFlightCommands, maxQueuedBytes);
+    }
+
     private void onCommandError(IWebSocketCallback callback, int errorCode) {
         if (callback == null) return;
         if (callback instanceof SendMessageCallback) {
@@ -393,6 +444,12 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         void onWebSocketClose();
 
         void onTimeOut();
+
+        //连接竞速胜出的服务器及其握手耗时（毫秒）
+        void onServerHandshake(String server, long handshakeTime);
+
+        //心跳间隔探测后固定下来的间隔（毫秒）
+        void onHeartbeatIntervalSettled(String networkType, long interval);
     }
 
     public interface IWebSocketMessageListener {
@@ -413,10 +470,17 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
             for (int i = 0; i < mCompeteWSCList.size(); i++) {
                 JWebSocketClient wsc = mCompeteWSCList.get(i);
                 if (wsc == client) {
-                    JLogger.i("WS-Connect", "onOpen");
+                    String server = mCompeteServerList.get(i);
+                    long handshakeTime = SystemClock.elapsedRealtime() - mCompeteStartTimeList.get(i);
+                    JLogger.i("WS-Connect", "onOpen, server is " + server + ", handshake time is " + handshakeTime);
                     mIsCompeteFinish = true;
                     mCompeteStatusList.set(i, WebSocketStatus.SUCCESS);
                     mWebSocketClient = client;
+                    mPendingServerList.clear();
+                    mSendHandler.removeCallbacks(mFanOutRunnable);
+                    if (mConnectListener != null) {
+                        mConnectListener.onServerHandshake(server, handshakeTime);
+                    }
                     sendConnectMsg();
                     break;
                 }
@@ -512,6 +576,11 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
                         break;
                     }
                 }
+                //优先的服务器失败时不再等待领先时间
+                if (!mPendingServerList.isEmpty()) {
+                    fanOut();
+                    return;
+                }
                 boolean allFailed = true;
                 for (WebSocketStatus status : mCompeteStatusList) {
                     if (WebSocketStatus.FAILURE != status) {
@@ -565,19 +634,19 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
                 mNetworkType,
                 mCarrier,
                 "");
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_HIGH, -1);
     }
 
     private void sendDisconnectMsg(boolean receivePush) {
         byte[] bytes = mPbData.disconnectData(receivePush);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_HIGH, -1);
         mSendHandler.post(this::resetWebSocketClient);
     }
 
     private void sendPublishAck(int index) {
         JLogger.v("WS-Send", "publish ack");
         byte[] bytes = mPbData.publishAckData(index);
-        sendWhenOpen(bytes);
+        sendWhenOpen(bytes, SendQueue.LANE_HIGH, -1);
     }
 
     private void handleConnectAckMsg(@NonNull PBRcvObj.ConnectAck ack) {
@@ -631,6 +700,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
 
     private void handleSyncMsgAck(PBRcvObj.QryHisMsgAck ack) {
         JLogger.i("WS-Receive", "handleSyncMsgAck");
+        mWebSocketCommandManager.removeCommand(ack.index);
         if (mMessageListener != null) {
             mMessageListener.onMessageReceive(ack.msgList, ack.isFinished);
         }
@@ -764,22 +834,51 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
         }
     }
 
-    private void sendWhenOpen(byte[] bytes) {
-        mSendHandler.post(() -> {
-            if (mWebSocketClient != null && mWebSocketClient.isOpen()) {
-                mWebSocketClient.send(bytes);
-                return;
-            }
-            JLogger.e("WS-Send", mWebSocketClient == null ? "mWebSocketClient is null" : "mWebSocketClient is not open");
+    //放入发送队列，index 为信令的 index，不需要 ack 的传 -1
+    private void sendWhenOpen(byte[] bytes, int lane, int index) {
+        if (mSendQueue.offer(bytes, lane, index)) {
+            return;
+        }
+        mSendHandler.post(() -> onCommandError(mWebSocketCommandManager.removeCommand(index), JErrorCode.SEND_QUEUE_FULL));
+    }
+
+    private final SendQueue.ISendQueueListener mSendQueueListener = new SendQueue.ISendQueueListener() {
+        @Override
+        public JWebSocketClient getClient() {
+            return mWebSocketClient;
+        }
+
+        @Override
+        public int getInFlightCount() {
+            return mWebSocketCommandManager.getInFlightCount();
+        }
+
+        @Override
+        public void onFrameSent(int index) {
+            mWebSocketCommandManager.markSent(index);
+        }
+
+        @Override
+        public void onSendFail() {
             pushRemainCmdAndCallbackError();
-            mConnectListener.onWebSocketClose();
-        });
-    } 
+            if (mConnectListener != null) {
+                mConnectListener.onWebSocketClose();
+            }
+        }
+    };
 
     private void resetWebSocketClient() {
         mWebSocketClient = null;
+        //未发送的信令不会再发送
+        for (Integer index : mSendQueue.clear()) {
+            onCommandError(mWebSocketCommandManager.removeCommand(index), JErrorCode.CONNECTION_UNAVAILABLE);
+        }
         mCompeteWSCList.clear();
         mCompeteStatusList.clear();
+        mCompeteServerList.clear();
+        mCompeteStartTimeList.clear();
+        mPendingServerList.clear();
+        mSendHandler.removeCallbacks(mFanOutRunnable);
         mIsCompeteFinish = false;
     }
 
@@ -805,6 +904,7 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
     private String mPushToken;
     private final PBData mPbData;
     private final WebSocketCommandManager mWebSocketCommandManager;
+    private final SendQueue mSendQueue;
     private final HeartbeatManager mHeartbeatManager;
     private IWebSocketConnectListener mConnectListener;
     private IWebSocketMessageListener mMessageListener;
@@ -813,10 +913,16 @@ public class JWebSocket implements WebSocketCommandManager.CommandTimeoutListene
     private boolean mIsCompeteFinish;
     private final List<JWebSocketClient> mCompeteWSCList;
     private final List<WebSocketStatus> mCompeteStatusList;
+    private final List<String> mCompeteServerList;
+    private final List<Long> mCompeteStartTimeList;
+    //等待领先时间结束后再连接的服务器
+    private final List<String> mPendingServerList;
+    private final Runnable mFanOutRunnable = this::fanOut;
     private final Handler mSendHandler;
     private static final String PROTOCOL_HEAD = "://";
     private static final String WS_HEAD_PREFIX = "ws://";
     private static final String WSS_HEAD_PREFIX = "wss://";
     private static final String WEB_SOCKET_SUFFIX = "/im";
-    private static final int MAX_CONCURRENT_COUNT = 5;
+    private static final long MIN_HEAD_START = 500;
+    private static final long MAX_HEAD_START = 2000;
 }
@@ -1,10 +1,14 @@
 package com.juggle.im.internal.core.network;
 
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 public class JWebSocketClient extends WebSocketClient {
     JWebSocketClient(URI serverUri, IWebSocketClientListener listener) {
@@ -20,6 +24,18 @@ public class JWebSocketClient extends WebSocketClient {
         void onError(JWebSocketClient client, Exception ex);
     }
 
+    //一次写入多个二进制帧
+    void sendFrames(List<byte[]> frames) {
+        List<Framedata> list = new ArrayList<>(frames.size());
+        for (byte[] bytes : frames) {
+            BinaryFrame frame = new BinaryFrame();
+            frame.setFin(true);
+            frame.setPayload(ByteBuffer.wrap(bytes));
+            list.add(frame);
+        }
+        sendFrame(list);
+    }
+
     @Override
     public void onOpen(ServerHandshake handshakedata) {
         if (mWebSocketClientListener != null) {
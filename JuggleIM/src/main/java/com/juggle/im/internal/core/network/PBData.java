@@ -5,7 +5,10 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.UnsafeByteOperations;
 import com.juggle.im.JIMConst;
 import com.juggle.im.internal.ContentTypeCenter;
 import com.juggle.im.internal.model.ConcreteConversationInfo;
@@ -16,6 +19,7 @@ import com.juggle.im.internal.model.upload.UploadOssType;
 import com.juggle.im.internal.model.upload.UploadPreSignCred;
 import com.juggle.im.internal.model.upload.UploadQiNiuCred;
 import com.juggle.im.internal.util.JLogger;
+import com.juggle.im.internal.util.JThreadPoolExecutor;
 import com.juggle.im.model.Conversation;
 import com.juggle.im.model.ConversationMentionInfo;
 import com.juggle.im.model.GroupInfo;
@@ -28,18 +32,33 @@ import com.juggle.im.model.UserInfo;
 import com.juggle.im.model.messages.MergeMessage;
 import com.juggle.im.push.PushChannel;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import app_messages.Appmessages;
 import app_messages.Connect;
 import app_messages.Pushtoken;
 
 class PBData {
+    PBData(WebSocketCommandManager commandManager) {
+        this(commandManager, new SimpleDataConverter());
+    }
+
+    PBData(WebSocketCommandManager commandManager, IDataConverter converter) {
+        mCommandManager = commandManager;
+        mConverter = converter;
+    }
+
     void resetDataConverter() {
         mConverter = new SimpleDataConverter();
     }
@@ -85,13 +104,13 @@ class PBData {
             }
         }
         Connect.ConnectMsgBody body = builder.build();
-        byte[] payload = mConverter.encode(body.toByteArray());
+        ByteString payload = encodePayload(body);
 
         Connect.ImWebsocketMsg msg = Connect.ImWebsocketMsg.newBuilder()
                 .setVersion(PROTOCOL_VERSION)
                 .setCmd(CmdType.connect)
                 .setQos(Qos.yes)
-                .setPayload(ByteString.copyFrom(payload))
+                .setPayload(payload)
                 .build();
         return msg.toByteArray();
     }
@@ -102,12 +121,12 @@ class PBData {
                 .setCode(code)
                 .setTimestamp(System.currentTimeMillis())
                 .build();
-        byte[] payload = mConverter.encode(body.toByteArray());
+        ByteString payload = encodePayload(body);
         Connect.ImWebsocketMsg msg = Connect.ImWebsocketMsg.newBuilder()
                 .setVersion(PROTOCOL_VERSION)
                 .setCmd(CmdType.disconnect)
                 .setQos(Qos.no)
-                .setPayload(ByteString.copyFrom(payload))
+                .setPayload(payload)
                 .build();
         return msg.toByteArray();
     }
@@ -196,7 +215,7 @@ class PBData {
                 .setData(upMsg.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, topic);
+        cacheCmd(index, topic);
 
         Connect.ImWebsocketMsg msg = createImWebsocketMsgWithPublishMsg(publishMsgBody);
         return msg.toByteArray();
@@ -227,7 +246,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, RECALL_MSG);
+        cacheCmd(index, RECALL_MSG);
 
         Connect.ImWebsocketMsg msg = createImWebsocketMsgWithQueryMsg(body);
         return msg.toByteArray();
@@ -246,7 +265,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -264,7 +283,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -284,7 +303,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -301,7 +320,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -316,7 +335,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -334,7 +353,7 @@ class PBData {
                 .setTargetId(userId)
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -357,7 +376,7 @@ class PBData {
                 .setTargetId(conversation.getConversationId())
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -376,7 +395,7 @@ class PBData {
                 .setTargetId(conversation.getConversationId())
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -400,7 +419,7 @@ class PBData {
                 .setTargetId(conversation.getConversationId())
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -419,7 +438,7 @@ class PBData {
                 .setTargetId(conversation.getConversationId())
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -439,7 +458,7 @@ class PBData {
                 .setTargetId(userId)
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -462,7 +481,7 @@ class PBData {
                 .setTargetId(userId)
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -482,7 +501,7 @@ class PBData {
                 .setTargetId(userId)
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -504,7 +523,7 @@ class PBData {
                 .setTargetId(containerMsgId)
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -528,7 +547,7 @@ class PBData {
                 .setTargetId(userId)
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -554,7 +573,7 @@ class PBData {
                 .setTargetId(conversation.getConversationId())
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -574,7 +593,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -599,7 +618,7 @@ class PBData {
                 .setTargetId(conversation.getConversationId())
                 .setData(req.toByteString())
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -616,7 +635,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -641,7 +660,7 @@ class PBData {
                 .setData(req.toByteString())
                 .build();
 
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -652,7 +671,7 @@ class PBData {
                 .setTopic(GET_USER_UNDISTURB)
                 .setTargetId(userId)
                 .build();
-        mMsgCmdMap.put(index, body.getTopic());
+        cacheCmd(index, body.getTopic());
         Connect.ImWebsocketMsg m = createImWebsocketMsgWithQueryMsg(body);
         return m.toByteArray();
     }
@@ -670,16 +689,40 @@ class PBData {
         Connect.PublishAckMsgBody body = Connect.PublishAckMsgBody.newBuilder()
                 .setIndex(index)
                 .build();
-        byte[] payload = mConverter.encode(body.toByteArray());
+        ByteString payload = encodePayload(body);
         Connect.ImWebsocketMsg msg = Connect.ImWebsocketMsg.newBuilder()
                 .setVersion(PROTOCOL_VERSION)
                 .setCmd(CmdType.publishAck)
                 .setQos(Qos.no)
-                .setPayload(ByteString.copyFrom(payload))
+                .setPayload(payload)
                 .build();
         return msg.toByteArray();
     }
 
+    //序列化后原地混淆，直接包装为 ByteString，不再额外复制
+    private ByteString encodePayload(MessageLite body) {
+        byte[] payload = body.toByteArray();
+        mConverter.encode(payload, 0, payload.length);
+        return UnsafeByteOperations.unsafeWrap(payload);
+    }
+
+    //复制到可复用的缓冲区后原地还原，再直接从缓冲区解析
+    //CodedInputStream 默认不引用输入数组（解析出的 bytes 字段都是复制的），缓冲区可以安全复用
+    //竞速连接时多个 WebSocket 的接收线程会同时调用，每个线程使用自己的缓冲区
+    private CodedInputStream decodePayload(ByteString payload) {
+        int length = payload.size();
+        byte[] buffer = sDecodeBuffer.get();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            if (length <= MAX_DECODE_BUFFER_SIZE) {
+                sDecodeBuffer.set(buffer);
+            }
+        }
+        payload.copyTo(buffer, 0);
+        mConverter.decode(buffer, 0, length);
+        return CodedInputStream.newInstance(buffer, 0, length);
+    }
+
     PBRcvObj rcvObjWithBytes(ByteBuffer byteBuffer) {
         PBRcvObj obj = new PBRcvObj();
         try {
@@ -693,7 +736,7 @@ class PBData {
                 obj.setRcvType(PBRcvObj.PBRcvType.pong);
                 return obj;
             }
-            byte[] decodeData = mConverter.decode(msg.getPayload().toByteArray());
+            CodedInputStream decodeData = decodePayload(msg.getPayload());
             switch (msg.getCmd()) {
                 case CmdType.connectAck:
                     obj.setRcvType(PBRcvObj.PBRcvType.connectAck);
@@ -796,7 +839,7 @@ class PBData {
                     obj.mDisconnectMsg = m;
                     break;
             }
-        } catch (InvalidProtocolBufferException e) {
+        } catch (IOException e) {
             JLogger.e("PB-Parse", "rcvObjWithBytes msg parse error, msgType is " + obj.getRcvType() + ", exception is " + e.getMessage());
             obj.setRcvType(PBRcvObj.PBRcvType.parseError);
         }
@@ -810,12 +853,7 @@ class PBData {
         obj.setRcvType(PBRcvObj.PBRcvType.qryHisMessagesAck);
         PBRcvObj.QryHisMsgAck a = new PBRcvObj.QryHisMsgAck(body);
         a.isFinished = set.getIsFinished();
-        List<ConcreteMessage> list = new ArrayList<>();
-        for (Appmessages.DownMsg downMsg : set.getMsgsList()) {
-            ConcreteMessage concreteMessage = messageWithDownMsg(downMsg);
-            list.add(concreteMessage);
-        }
-        a.msgList = list;
+        a.msgList = messagesWithDownMsgList(set.getMsgsList());
         obj.mQryHisMsgAck = a;
         return obj;
     }
@@ -849,12 +887,7 @@ class PBData {
         //sync 和 query history 共用一个 ack
         PBRcvObj.QryHisMsgAck a = new PBRcvObj.QryHisMsgAck(body);
         a.isFinished = set.getIsFinished();
-        List<ConcreteMessage> list = new ArrayList<>();
-        for (Appmessages.DownMsg downMsg : set.getMsgsList()) {
-            ConcreteMessage concreteMessage = messageWithDownMsg(downMsg);
-            list.add(concreteMessage);
-        }
-        a.msgList = list;
+        a.msgList = messagesWithDownMsgList(set.getMsgsList());
         obj.mQryHisMsgAck = a;
         return obj;
     }
@@ -955,25 +988,63 @@ class PBData {
     }
 
     private Connect.ImWebsocketMsg createImWebsocketMsgWithPublishMsg(Connect.PublishMsgBody publishMsgBody) {
-        byte[] payload = mConverter.encode(publishMsgBody.toByteArray());
+        ByteString payload = encodePayload(publishMsgBody);
         return Connect.ImWebsocketMsg.newBuilder()
                 .setVersion(PROTOCOL_VERSION)
                 .setCmd(CmdType.publish)
                 .setQos(Qos.yes)
-                .setPayload(ByteString.copyFrom(payload))
+                .setPayload(payload)
                 .build();
     }
 
     private Connect.ImWebsocketMsg createImWebsocketMsgWithQueryMsg(Connect.QueryMsgBody body) {
-        byte[] payload = mConverter.encode(body.toByteArray());
+        ByteString payload = encodePayload(body);
         return Connect.ImWebsocketMsg.newBuilder()
                 .setVersion(PROTOCOL_VERSION)
                 .setCmd(CmdType.query)
                 .setQos(Qos.yes)
-                .setPayload(ByteString.copyFrom(payload))
+                .setPayload(payload)
                 .build();
     }
 
+    //消息较多时（离线同步的整页消息）分段并行解析，结果保持原有顺序
+    private List<ConcreteMessage> messagesWithDownMsgList(List<Appmessages.DownMsg> downMsgList) {
+        int size = downMsgList.size();
+        if (size < PARALLEL_DECODE_THRESHOLD) {
+            List<ConcreteMessage> list = new ArrayList<>(size);
+            for (Appmessages.DownMsg downMsg : downMsgList) {
+                list.add(messageWithDownMsg(downMsg));
+            }
+            return list;
+        }
+        int segmentSize = (size + DECODE_POOL_SIZE - 1) / DECODE_POOL_SIZE;
+        List<Callable<List<ConcreteMessage>>> tasks = new ArrayList<>();
+        for (int start = 0; start < size; start += segmentSize) {
+            List<Appmessages.DownMsg> segment = downMsgList.subList(start, Math.min(start + segmentSize, size));
+            tasks.add(() -> {
+                List<ConcreteMessage> list = new ArrayList<>(segment.size());
+                for (Appmessages.DownMsg downMsg : segment) {
+                    list.add(messageWithDownMsg(downMsg));
+                }
+                return list;
+            });
+        }
+        List<ConcreteMessage> result = new ArrayList<>(size);
+        try {
+            for (Future<List<ConcreteMessage>> future : sDecodeExecutor.invokeAll(tasks)) {
+                result.addAll(future.get());
+            }
+            return result;
+        } catch (InterruptedException | ExecutionException e) {
+            JLogger.w("PB-Parse", "parallel decode fail, fallback, exception is " + e.getMessage());
+        }
+        result.clear();
+        for (Appmessages.DownMsg downMsg : downMsgList) {
+            result.add(messageWithDownMsg(downMsg));
+        }
+        return result;
+    }
+
     private ConcreteMessage messageWithDownMsg(Appmessages.DownMsg downMsg) {
         ConcreteMessage message = new ConcreteMessage();
         Conversation.ConversationType type = conversationTypeFromChannelType(downMsg.getChannelType());
@@ -1313,8 +1384,14 @@ class PBData {
                 .setChannelTypeValue(conversation.getConversationType().getValue());
     }
 
+    //在途信令表中登记 index 对应的 topic，超时时间按 topic 区分
+    private void cacheCmd(int index, String topic) {
+        Integer timeout = sCmdTimeoutMap.get(topic);
+        mCommandManager.putTopic(index, topic, timeout == null ? DEFAULT_CMD_TIME_OUT : timeout);
+    }
+
     private int getTypeInCmdMap(Integer index) {
-        String cachedCmd = mMsgCmdMap.remove(index);
+        String cachedCmd = mCommandManager.getTopic(index);
         if (TextUtils.isEmpty(cachedCmd)) {
             JLogger.w("PB-Match", "rcvObjWithBytes ack can't match a cached cmd");
             return PBRcvObj.PBRcvType.cmdMatchError;
@@ -1376,6 +1453,39 @@ class PBData {
     private static final String C_MSG = "c_msg";
     private static final String NTF = "ntf";
     private static final String MSG = "msg";
+    private static final int DEFAULT_CMD_TIME_OUT = 5 * 1000;
+    //拉取消息、同步会话等返回数据较多的信令
+    private static final int LONG_CMD_TIME_OUT = 10 * 1000;
+    private static final HashMap<String, Integer> sCmdTimeoutMap = new HashMap<String, Integer>() {
+        {
+            put(QRY_HIS_MSG, LONG_CMD_TIME_OUT);
+            put(QRY_HISMSG_BY_IDS, LONG_CMD_TIME_OUT);
+            put(SYNC_CONV, LONG_CMD_TIME_OUT);
+            put(SYNC_MSG, LONG_CMD_TIME_OUT);
+            put(QRY_MERGED_MSGS, LONG_CMD_TIME_OUT);
+            put(QRY_MENTION_MSGS, LONG_CMD_TIME_OUT);
+        }
+    };
+    private static final int DECODE_BUFFER_SIZE = 4 * 1024;
+    //超过该大小的帧（例如整页同步消息）使用临时缓冲区，避免长期占用内存
+    private static final int MAX_DECODE_BUFFER_SIZE = 256 * 1024;
+    private static final int PARALLEL_DECODE_THRESHOLD = 32;
+    private static final int DECODE_POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    //解析消息内容的线程池，空闲时线程自动回收
+    private static final ThreadPoolExecutor sDecodeExecutor = createDecodeExecutor();
+    private static final ThreadLocal<byte[]> sDecodeBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[DECODE_BUFFER_SIZE];
+        }
+    };
+
+    private static ThreadPoolExecutor createDecodeExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DECODE_POOL_SIZE, DECODE_POOL_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new JThreadPoolExecutor.CThreadFactory("JDecode"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
     private static final HashMap<String, Integer> sCmdAckMap = new HashMap<String, Integer>() {
         {
             put(QRY_HIS_MSG, PBRcvObj.PBRcvType.qryHisMessagesAck);
@@ -1406,7 +1516,7 @@ class PBData {
         }
     };
 
-    private final ConcurrentHashMap<Integer, String> mMsgCmdMap = new ConcurrentHashMap<>();
-    private IDataConverter mConverter = new SimpleDataConverter();
+    private final WebSocketCommandManager mCommandManager;
+    private IDataConverter mConverter;
 
 }
\ No newline at end of file
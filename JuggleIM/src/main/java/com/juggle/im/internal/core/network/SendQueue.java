@@ -0,0 +1,263 @@
+package com.juggle.im.internal.core.network;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.juggle.im.internal.util.JLogger;
+
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+//长连接的发送队列
+//1. 分优先级：ack、ping、连接信令不会排在大量消息之后
+//2. 同一时间只 post 一个写任务，一次写出多帧；socket 还有未写完的数据时不再写入普通信令，留在队列里等待，重试间隔按指数退避
+//3. 已发送未收到 ack 的信令数和排队字节数有上限，超出字节上限时拒绝新的信令，由调用方回调错误
+//offer 可以在任意线程调用，写出只在 mHandler 所在线程执行
+class SendQueue {
+    //ack、ping、连接、断开
+    static final int LANE_HIGH = 0;
+    //查询信令、普通消息
+    static final int LANE_NORMAL = 1;
+    //媒体消息
+    static final int LANE_LOW = 2;
+
+    interface ISendQueueListener {
+        //返回 null 表示连接不可用
+        JWebSocketClient getClient();
+
+        //已发送还未收到 ack 的信令数
+        int getInFlightCount();
+
+        void onFrameSent(int index);
+
+        //连接不可用，队列已经清空，由调用方回调所有信令的错误
+        void onSendFail();
+    }
+
+    SendQueue(Handler handler, ISendQueueListener listener) {
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    //小于等于 0 时使用默认值
+    synchronized void setLimits(int maxInFlightCount, int maxQueuedBytes) {
+        mMaxInFlightCount = maxInFlightCount > 0 ? maxInFlightCount : DEFAULT_MAX_IN_FLIGHT_COUNT;
+        mMaxQueuedBytes = maxQueuedBytes > 0 ? maxQueuedBytes : DEFAULT_MAX_QUEUED_BYTES;
+    }
+
+    //index 为信令的 index，不需要 ack 的传 -1；返回 false 表示超出字节上限被拒绝（高优先级不受限制）
+    synchronized boolean offer(byte[] bytes, int lane, int index) {
+        if (lane != LANE_HIGH && mQueuedBytes + bytes.length > mMaxQueuedBytes) {
+            JLogger.w("WS-Queue", "queue is full, depth is " + mDepth + ", bytes is " + mQueuedBytes);
+            return false;
+        }
+        mLanes[lane].add(new Frame(bytes, index, SystemClock.elapsedRealtime()));
+        mDepth++;
+        mQueuedBytes += bytes.length;
+        if (mDepth > mMaxDepth) {
+            mMaxDepth = mDepth;
+        }
+        if (lane == LANE_HIGH && mFlushPosted && mFlushDelayed) {
+            //高优先级的帧不等待 socket 忙时的退避，否则之后 post 的任务（如断开连接时的 reset）会先于它执行
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushPosted = false;
+        }
+        scheduleFlushLocked(0);
+        return true;
+    }
+
+    //有信令完成，可能可以继续发送
+    synchronized void onCommandFinish() {
+        if (mBlocked) {
+            mBlocked = false;
+            scheduleFlushLocked(0);
+        }
+    }
+
+    //丢弃所有未发送的帧，返回其中信令的 index
+    synchronized List<Integer> clear() {
+        List<Integer> indexes = new ArrayList<>();
+        for (ArrayDeque<Frame> lane : mLanes) {
+            for (Frame frame : lane) {
+                if (frame.mIndex >= 0) {
+                    indexes.add(frame.mIndex);
+                }
+            }
+            lane.clear();
+        }
+        mDepth = 0;
+        mQueuedBytes = 0;
+        mBlocked = false;
+        mBusyRetryDelay = BUSY_RETRY_DELAY;
+        return indexes;
+    }
+
+    synchronized int getDepth() {
+        return mDepth;
+    }
+
+    synchronized int getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    private void scheduleFlushLocked(long delay) {
+        if (mFlushPosted) {
+            return;
+        }
+        mFlushPosted = true;
+        mFlushDelayed = delay > 0;
+        if (delay > 0) {
+            mHandler.postDelayed(mFlushRunnable, delay);
+        } else {
+            mHandler.post(mFlushRunnable);
+        }
+    }
+
+    private void flush() {
+        synchronized (this) {
+            mFlushPosted = false;
+            if (mDepth == 0) {
+                return;
+            }
+        }
+        JWebSocketClient client = mListener.getClient();
+        if (client == null || !client.isOpen()) {
+            JLogger.e("WS-Send", client == null ? "mWebSocketClient is null" : "mWebSocketClient is not open");
+            clear();
+            mListener.onSendFail();
+            return;
+        }
+        //socket 还有未写完的数据时只写高优先级的帧
+        boolean socketBusy = client.hasBufferedData();
+        List<Frame> batch = new ArrayList<>();
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            ArrayDeque<Frame> high = mLanes[LANE_HIGH];
+            while (!high.isEmpty()) {
+                batch.add(pollLocked(high));
+            }
+            long retryDelay = BUSY_RETRY_DELAY;
+            if (socketBusy) {
+                //socket 持续忙时逐步拉长重试间隔，避免长时间卡住时频繁唤醒
+                retryDelay = mBusyRetryDelay;
+                mBusyRetryDelay = Math.min(mBusyRetryDelay * 2, MAX_BUSY_RETRY_DELAY);
+            } else {
+                mBusyRetryDelay = BUSY_RETRY_DELAY;
+                mBlocked = false;
+                //在锁内读取，避免与 onCommandFinish 交错时错过唤醒
+                int quota = mMaxInFlightCount - mListener.getInFlightCount();
+                int count = 0;
+                for (int lane = LANE_NORMAL; lane <= LANE_LOW; lane++) {
+                    ArrayDeque<Frame> queue = mLanes[lane];
+                    while (!queue.isEmpty() && count < MAX_BATCH_COUNT) {
+                        if (queue.peek().mIndex >= 0) {
+                            if (quota <= 0) {
+                                mBlocked = true;
+                                break;
+                            }
+                            quota--;
+                        }
+                        batch.add(pollLocked(queue));
+                        count++;
+                    }
+                }
+            }
+            for (Frame frame : batch) {
+                long wait = now - frame.mEnqueueTime;
+                if (wait > mMaxWaitTime) {
+                    mMaxWaitTime = wait;
+                }
+            }
+            reportLocked(now);
+            if (mDepth > 0 && !mBlocked) {
+                //socket 忙时稍后再写；被 in-flight 上限阻塞时等待信令完成
+                scheduleFlushLocked(socketBusy || batch.isEmpty() ? retryDelay : 0);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<byte[]> frames = new ArrayList<>(batch.size());
+        for (Frame frame : batch) {
+            frames.add(frame.mBytes);
+        }
+        try {
+            client.sendFrames(frames);
+        } catch (WebsocketNotConnectedException e) {
+            JLogger.e("WS-Send", "send frames error, mWebSocketClient is not open");
+            clear();
+            mListener.onSendFail();
+            return;
+        }
+        for (Frame frame : batch) {
+            if (frame.mIndex >= 0) {
+                mListener.onFrameSent(frame.mIndex);
+            }
+        }
+    }
+
+    private Frame pollLocked(ArrayDeque<Frame> lane) {
+        Frame frame = lane.poll();
+        mDepth--;
+        mQueuedBytes -= frame.mBytes.length;
+        return frame;
+    }
+
+    //队列积压或者等待时间过长时输出队列深度和排队时间，最多每 REPORT_INTERVAL 一次
+    private void reportLocked(long now) {
+        if (mMaxDepth < REPORT_DEPTH && mMaxWaitTime < REPORT_WAIT_TIME) {
+            return;
+        }
+        if (now - mLastReportTime < REPORT_INTERVAL) {
+            return;
+        }
+        JLogger.i("WS-Queue", "depth is " + mDepth + ", max depth is " + mMaxDepth + ", bytes is " + mQueuedBytes + ", max wait is " + mMaxWaitTime);
+        mLastReportTime = now;
+        mMaxDepth = mDepth;
+        mMaxWaitTime = 0;
+    }
+
+    private final Runnable mFlushRunnable = this::flush;
+
+    private static class Frame {
+        Frame(byte[] bytes, int index, long enqueueTime) {
+            mBytes = bytes;
+            mIndex = index;
+            mEnqueueTime = enqueueTime;
+        }
+
+        private final byte[] mBytes;
+        private final int mIndex;
+        private final long mEnqueueTime;
+    }
+
+    private final Handler mHandler;
+    private final ISendQueueListener mListener;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Frame>[] mLanes = new ArrayDeque[]{new ArrayDeque<>(), new ArrayDeque<>(), new ArrayDeque<>()};
+    private int mMaxInFlightCount = DEFAULT_MAX_IN_FLIGHT_COUNT;
+    private int mMaxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private int mDepth;
+    private int mQueuedBytes;
+    private boolean mFlushPosted;
+    //已经 post 的写任务是否是延迟执行的
+    private boolean mFlushDelayed;
+    private long mBusyRetryDelay = BUSY_RETRY_DELAY;
+    //被 in-flight 上限阻塞，等待信令完成
+    private boolean mBlocked;
+    private int mMaxDepth;
+    private long mMaxWaitTime;
+    private long mLastReportTime;
+    private static final int DEFAULT_MAX_IN_FLIGHT_COUNT = 32;
+    private static final int DEFAULT_MAX_QUEUED_BYTES = 1024 * 1024;
+    //一次最多写出的普通帧数，避免 socket 卡住时大量数据进入底层队列
+    private static final int MAX_BATCH_COUNT = 16;
+    private static final long BUSY_RETRY_DELAY = 20;
+    private static final long MAX_BUSY_RETRY_DELAY = 1000;
+    private static final int REPORT_DEPTH = 64;
+    private static final long REPORT_WAIT_TIME = 1000;
+    private static final long REPORT_INTERVAL = 10 * 1000;
+}
@@ -21,6 +21,27 @@ public class SimpleDataConverter implements IDataConverter{
         return xorDataWithKey(data, mKey);
     }
 
+    @Override
+    public void encode(byte[] data, int offset, int length) {
+        xorDataWithKeyInPlace(data, offset, length, mKey);
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length) {
+        xorDataWithKeyInPlace(data, offset, length, mKey);
+    }
+
+    private void xorDataWithKeyInPlace(byte[] data, int offset, int length, byte[] key) {
+        int keyLen = key.length;
+        int k = 0;
+        for (int i = offset; i < offset + length; i++) {
+            data[i] = (byte)(data[i] ^ key[k]);
+            if (++k == keyLen) {
+                k = 0;
+            }
+        }
+    }
+
     private byte[] xorDataWithKey(byte[] sourceData, byte[] key) {
         int keyLen = key.length;
         byte[] result = new byte[sourceData.length];
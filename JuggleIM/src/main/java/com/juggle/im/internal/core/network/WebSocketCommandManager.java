@@ -1,142 +1,226 @@
 package com.juggle.im.internal.core.network;
 
-import com.juggle.im.internal.util.JSimpleTimer;
+import android.os.Handler;
+import android.os.SystemClock;
+
 import com.juggle.im.internal.util.JLogger;
 
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.HashMap;
+import java.util.PriorityQueue;
 
 /**
  * @author Ye_Guli
  * @create 2024-05-11 16:33
  * <p>
  * 分两部分逻辑，信令超时和消息重发
- * 信令超时（包含发消息的）（超时时间 5 s）
- * WebSocketCommandManager（对应图中的 MessageTimeoutManager），把 mCmdCallbackMap 放进去，改造一下，加上时间戳。WebSocketCommandManager 暴露 put 和 remove 接口给 JWebSocket 使用，暴露一个 CommandListnener 给 JWebSocket 设置，用来回调 onTimeOut
- * WebSocketCommandManager 维护一个常驻 Timer，5s 检测一次，检查 mCmdCallbackMap 里面是否有超时的 index，超时则 remove 对应的 index，直接回调 JWebSocket onTimeOut，JWebSocket 直接回调上层 onError(OPERATION_TIMEOUT)
- * 要补充一个逻辑：在 ConnectionManager 里调用 stopHeartbeat 的这个时机（也就是长连接从 connected 到断开的这个时机），调用 JWebSocket 的接口 pushRemainCmdAndCallbackError，把 mCmdCallbackMap 剩余所有的 cmd 取出来回调 onError(CONNECTION_UNAVAILABLE)
+ * 信令超时（包含发消息的）
+ * WebSocketCommandManager 维护唯一的在途信令表，每个 index 一条记录（callback、topic、截止时间），PBData 解析 ack 时也从这里按 index 取 topic
+ * 信令真正写出时（markSent）才开始计时，在发送队列中排队的时间不计入超时
+ * 记录按截止时间放进优先队列，只在最早的截止时间唤醒一次，超时则 remove 对应的 index，直接回调 JWebSocket onTimeOut，JWebSocket 直接回调上层 onError(OPERATION_TIMEOUT)
+ * 超时时间按 topic 区分，由 PBData 在生成信令时给出
+ * 要补充一个逻辑：在 ConnectionManager 里调用 stopHeartbeat 的这个时机（也就是长连接从 connected 到断开的这个时机），调用 JWebSocket 的接口 pushRemainCmdAndCallbackError，把剩余所有的 cmd 取出来回调 onError(CONNECTION_UNAVAILABLE)
  * <p>
  * 重发：可以做到业务层
  */
 public class WebSocketCommandManager {
     private final static String TAG = "WS-Command";
-    private final static int COMMAND_TIME_OUT = 5 * 1000;
-    private final static int COMMAND_DETECTION_INTERVAL = 5 * 1000;
 
     private final CommandTimeoutListener mCommandListener;
-    private final ConcurrentHashMap<Integer, Long> mCmdCallbackTimestampMap = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, IWebSocketCallback> mCmdCallbackMap = new ConcurrentHashMap<>();
-
-    private JSimpleTimer mCommandDetectionTimer = null;
-    private boolean mIsInit = false;
+    private final Handler mHandler;
+    //以下字段都在 this 锁内访问
+    private final HashMap<Integer, Command> mCommandMap = new HashMap<>();
+    //已经完成的记录不从队列中删除，出队时跳过
+    private final PriorityQueue<Command> mDeadlineQueue = new PriorityQueue<>(16, (o1, o2) -> Long.compare(o1.mDeadline, o2.mDeadline));
+    //已经安排的唤醒时间，0 表示没有安排
+    private long mScheduledDeadline = 0;
+    //已经写出还未完成的信令数
+    private int mInFlightCount = 0;
     private boolean mIsRunning = false;
 
-    public WebSocketCommandManager(CommandTimeoutListener mCommandListener) {
+    public WebSocketCommandManager(CommandTimeoutListener mCommandListener, Handler handler) {
         this.mCommandListener = mCommandListener;
-        init();
-    }
-
-    public boolean isInit() {
-        return mIsInit;
+        this.mHandler = handler;
     }
 
-    public boolean isRunning() {
+    public synchronized boolean isRunning() {
         return mIsRunning;
     }
 
-    public void start(boolean immediately) {
-        stop();
-        mCommandDetectionTimer.start(immediately);
+    public synchronized void start(boolean immediately) {
         mIsRunning = true;
+        mScheduledDeadline = 0;
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        if (immediately) {
+            mHandler.post(mTimeoutRunnable);
+        } else {
+            scheduleLocked();
+        }
     }
 
-    public void stop() {
-        mCommandDetectionTimer.stop();
+    public synchronized void stop() {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mScheduledDeadline = 0;
         mIsRunning = false;
     }
 
-    public void putCommand(Integer mCmdIndex, IWebSocketCallback callback) {
+    //PBData 生成信令时登记 topic 和超时时间
+    public synchronized void putTopic(int index, String topic, long timeout) {
+        Command command = new Command(index, topic, timeout);
+        Command old = mCommandMap.put(index, command);
+        if (old != null) {
+            JLogger.w(TAG, "putTopic, replace the command with the same index, mCmdIndex= " + index);
+            if (old.mSent) {
+                mInFlightCount--;
+            }
+        }
+    }
+
+    //信令已经写出，开始计时
+    public synchronized void markSent(int index) {
+        Command command = mCommandMap.get(index);
+        if (command == null || command.mSent) {
+            return;
+        }
+        command.mSent = true;
+        command.mDeadline = SystemClock.elapsedRealtime() + command.mTimeout;
+        mInFlightCount++;
+        mDeadlineQueue.offer(command);
+        scheduleLocked();
+    }
+
+    public synchronized int getInFlightCount() {
+        return mInFlightCount;
+    }
+
+    public synchronized void putCommand(Integer mCmdIndex, IWebSocketCallback callback) {
         if (mCmdIndex == null || callback == null) {
             JLogger.e(TAG, "putCommand failed, mCmdIndex= " + mCmdIndex + ", callback= " + callback);
             return;
         }
-        if (mCmdCallbackMap.get(mCmdIndex) != null) {
+        Command command = mCommandMap.get(mCmdIndex);
+        if (command == null) {
+            JLogger.e(TAG, "putCommand failed, the topic is not added, mCmdIndex= " + mCmdIndex + ", callback= " + callback);
+            return;
+        }
+        if (command.mCallback != null) {
             JLogger.e(TAG, "putCommand failed, the mCmdIndex is already added, mCmdIndex= " + mCmdIndex + ", callback= " + callback);
             return;
         }
         JLogger.v(TAG, "putCommand success, mCmdIndex= " + mCmdIndex + ", callback= " + callback);
-        mCmdCallbackMap.put(mCmdIndex, callback);
-        mCmdCallbackTimestampMap.put(mCmdIndex, System.currentTimeMillis());
+        command.mCallback = callback;
+    }
+
+    //解析 ack 时使用，不移除记录，记录由 removeCommand 或者超时移除
+    public synchronized String getTopic(int index) {
+        Command command = mCommandMap.get(index);
+        return command == null ? null : command.mTopic;
     }
 
     public IWebSocketCallback removeCommand(Integer mCmdIndex) {
         if (mCmdIndex == null) {
             return null;
         }
-        mCmdCallbackTimestampMap.remove(mCmdIndex);
-        IWebSocketCallback removedCallback = mCmdCallbackMap.remove(mCmdIndex);
+        Command command;
+        synchronized (this) {
+            command = mCommandMap.remove(mCmdIndex);
+            if (command != null && command.mSent) {
+                mInFlightCount--;
+            }
+            if (mCommandMap.isEmpty()) {
+                mDeadlineQueue.clear();
+            }
+        }
+        IWebSocketCallback removedCallback = command == null ? null : command.mCallback;
         JLogger.v(TAG, "removeCommand success, mCmdIndex= " + mCmdIndex + ", removedCallback= " + removedCallback);
+        if (command != null && command.mSent) {
+            notifyCommandFinish();
+        }
         return removedCallback;
     }
 
     public synchronized ArrayList<IWebSocketCallback> clearCommand() {
-        ArrayList<IWebSocketCallback> commandList = new ArrayList<>(mCmdCallbackMap.values());
-        this.mCmdCallbackMap.clear();
-        this.mCmdCallbackTimestampMap.clear();
+        ArrayList<IWebSocketCallback> commandList = new ArrayList<>(mCommandMap.size());
+        for (Command command : mCommandMap.values()) {
+            if (command.mCallback != null) {
+                commandList.add(command.mCallback);
+            }
+        }
+        mCommandMap.clear();
+        mDeadlineQueue.clear();
+        mInFlightCount = 0;
         JLogger.v(TAG, "clearCommand success, the commandList.size= " + commandList.size());
         return commandList;
     }
 
-    public int size() {
-        return mCmdCallbackMap.size();
+    public synchronized int size() {
+        return mCommandMap.size();
+    }
+
+    //按最早的截止时间安排唤醒，已经安排了更早（或相同）的唤醒时不重复安排
+    private void scheduleLocked() {
+        if (!mIsRunning) {
+            return;
+        }
+        Command head = peekLocked();
+        if (head == null) {
+            return;
+        }
+        if (mScheduledDeadline != 0 && mScheduledDeadline <= head.mDeadline) {
+            return;
+        }
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mScheduledDeadline = head.mDeadline;
+        mHandler.postDelayed(mTimeoutRunnable, Math.max(0, head.mDeadline - SystemClock.elapsedRealtime()));
     }
 
-    private void init() {
-        if (mIsInit) return;
+    //跳过已经完成的记录
+    private Command peekLocked() {
+        Command head = mDeadlineQueue.peek();
+        while (head != null && mCommandMap.get(head.mIndex) != head) {
+            mDeadlineQueue.poll();
+            head = mDeadlineQueue.peek();
+        }
+        return head;
+    }
 
-        mCommandDetectionTimer = new JSimpleTimer(COMMAND_DETECTION_INTERVAL) {
-            @Override
-            protected void doAction() {
-                ArrayList<IWebSocketCallback> realTimeoutMessages = doCommandDetection();
-                afterCommandDetection(realTimeoutMessages);
+    private void doCommandDetection() {
+        ArrayList<IWebSocketCallback> timeoutMessages = null;
+        synchronized (this) {
+            mScheduledDeadline = 0;
+            if (!mIsRunning) {
+                return;
             }
-        };
-        mCommandDetectionTimer.init();
-
-        mIsInit = true;
-    }
-
-    private ArrayList<IWebSocketCallback> doCommandDetection() {
-        JLogger.v(TAG, "command detection executing, the cmdCallbackMap.size= " + mCmdCallbackMap.size());
-        ArrayList<IWebSocketCallback> timeoutMessages = new ArrayList<>();
-        try {
-            for (Integer key : mCmdCallbackMap.keySet()) {
-                final IWebSocketCallback callback = mCmdCallbackMap.get(key);
-                if (callback == null) {
-                    JLogger.e(TAG, "command detection executing, removeCommand because the callback is null, mCmdIndex= " + key);
-                    removeCommand(key);
-                } else {
-                    Long sendMessageTimestamp = mCmdCallbackTimestampMap.get(key);
-                    long delta = System.currentTimeMillis() - (sendMessageTimestamp == null ? 0 : sendMessageTimestamp);
-                    if (delta > COMMAND_TIME_OUT) {
-                        JLogger.e(TAG, "command detection executing, removeCommand because the command is timeout, mCmdIndex= " + key + ", callback= " + callback);
-                        timeoutMessages.add(callback);
-                        removeCommand(key);
+            long now = SystemClock.elapsedRealtime();
+            Command head = peekLocked();
+            while (head != null && head.mDeadline <= now) {
+                mDeadlineQueue.poll();
+                mCommandMap.remove(head.mIndex);
+                mInFlightCount--;
+                JLogger.e(TAG, "command timeout, mCmdIndex= " + head.mIndex + ", topic= " + head.mTopic + ", callback= " + head.mCallback);
+                if (head.mCallback != null) {
+                    if (timeoutMessages == null) {
+                        timeoutMessages = new ArrayList<>();
                     }
+                    timeoutMessages.add(head.mCallback);
                 }
+                head = peekLocked();
             }
-        } catch (Exception e) {
-            JLogger.e(TAG, "command detection error, exception= " + e.getMessage());
+            scheduleLocked();
         }
-        return timeoutMessages;
-    }
-
-    private void afterCommandDetection(ArrayList<IWebSocketCallback> timeoutMessages) {
-        if (timeoutMessages != null && timeoutMessages.size() > 0) {
+        if (timeoutMessages != null) {
             for (int i = 0; i < timeoutMessages.size(); i++) {
                 notifyCommandTimeout(timeoutMessages.get(i));
             }
         }
+        notifyCommandFinish();
+    }
+
+    //在锁外回调，发送队列会在自己的锁内读取 getInFlightCount
+    private void notifyCommandFinish() {
+        if (mCommandListener != null) {
+            mCommandListener.onCommandFinish();
+        }
     }
 
     private void notifyCommandTimeout(IWebSocketCallback callback) {
@@ -145,7 +229,27 @@ public class WebSocketCommandManager {
         }
     }
 
+    private final Runnable mTimeoutRunnable = this::doCommandDetection;
+
+    private static class Command {
+        Command(int index, String topic, long timeout) {
+            mIndex = index;
+            mTopic = topic;
+            mTimeout = timeout;
+        }
+
+        private final int mIndex;
+        private final String mTopic;
+        private final long mTimeout;
+        private long mDeadline;
+        private boolean mSent;
+        private IWebSocketCallback mCallback;
+    }
+
     public interface CommandTimeoutListener {
         void onCommandTimeOut(IWebSocketCallback callback);
+
+        //已经写出的信令完成（收到 ack 或者超时）
+        void onCommandFinish();
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,6 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.juggle.im.internal.exception.HttpException;
-import com.juggle.im.internal.util.NetUtils;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -14,6 +13,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
 /**
  * 多媒体下载基类
  *
@@ -46,34 +49,29 @@ public abstract class BaseDownloadRequest<V extends IDownloadInfo>
         if (!MediaDownloadEngine.getInstance().existsTask(tag)) {
             return;
         }
-        HttpURLConnection conn = null;
-        try {
-            conn = NetUtils.createURLConnection(downloadInfo.getDownloadUrl());
-            conn.setConnectTimeout(TIMEOUT);
-            conn.setReadTimeout(TIMEOUT);
-            conn.setUseCaches(false);
-            conn.setRequestMethod(METHOD_GET);
-            conn.setDoInput(true);
-            conn.setRequestProperty(HEADER_CONNECTION, CONNECTION_CLOSE);
-            conn.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING_IDENTITY);
-            setRequestProperty(conn);
-            conn.connect();
-            int responseCode = conn.getResponseCode();
+        // 不再设置 Connection: close，下载完成后连接回到共享的连接池
+        Request.Builder builder = new Request.Builder()
+                .url(downloadInfo.getDownloadUrl())
+                .get()
+                .header(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING_IDENTITY);
+        setRequestProperty(builder);
+        try (Response response = MediaDownloadEngine.getInstance().getHttpClient(TIMEOUT)
+                .newCall(builder.build()).execute()) {
+            int responseCode = response.code();
+            ResponseBody body = response.body();
             if (responseCode < HttpURLConnection.HTTP_OK
-                    || responseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
+                    || responseCode >= HttpURLConnection.HTTP_MULT_CHOICE
+                    || body == null) {
                 callback.onError(this, new HttpException(responseCode));
                 return;
             }
-            try (OutputStream out =
-                         new BufferedOutputStream(
-                                 new FileOutputStream(
-                                         downloadInfo.getSavePath(), appendOutputStream()));
-                 InputStream inputStream = new BufferedInputStream(conn.getInputStream())) {
+            try (OutputStream out = openOutputStream();
+                 InputStream inputStream = new BufferedInputStream(body.byteStream())) {
                 if (!writeInputStream(
                         inputStream,
                         out,
                         downloadInfo.getCurrentLength(),
-                        getContentLength(conn))) {
+                        getContentLength(response))) {
                     return;
                 }
             }
@@ -81,18 +79,26 @@ public abstract class BaseDownloadRequest<V extends IDownloadInfo>
 
         } catch (Exception e) {
             callback.onError(this, e);
-            disconnect(conn);
-        } finally {
-            disconnect(conn);
         }
     }
 
     /**
      * 可以通过此方法设置头信息等
      *
-     * @param conn HttpURLConnection 对象
+     * @param builder Request.Builder 对象
      */
-    protected abstract void setRequestProperty(HttpURLConnection conn);
+    protected abstract void setRequestProperty(Request.Builder builder);
+
+    /**
+     * 打开写入文件的输出流，默认按 appendOutputStream 覆盖或追加写入 getSavePath
+     *
+     * @return 输出流
+     * @throws IOException 打开文件失败
+     */
+    protected OutputStream openOutputStream() throws IOException {
+        return new BufferedOutputStream(
+                new FileOutputStream(downloadInfo.getSavePath(), appendOutputStream()));
+    }
 
     /**
      * 确认文件是覆盖写入还是继续写入
@@ -133,8 +139,8 @@ public abstract class BaseDownloadRequest<V extends IDownloadInfo>
         return true;
     }
 
-    private long getContentLength(HttpURLConnection conn) {
-        String contentLength = conn.getHeaderField(HEADER_FILED_CONTENT_LENGTH);
+    private long getContentLength(Response response) {
+        String contentLength = response.header(HEADER_FILED_CONTENT_LENGTH);
         if (TextUtils.isEmpty(contentLength)) {
             return downloadInfo.getFileLength();
         }
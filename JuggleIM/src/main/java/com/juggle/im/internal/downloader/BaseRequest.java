@@ -1,6 +1,5 @@
 package com.juggle.im.internal.downloader;
 
-import java.net.HttpURLConnection;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -34,13 +33,6 @@ public abstract class BaseRequest<T extends RequestCallback> {
         this.requestCallback = requestCallback;
     }
 
-    public static void disconnect(HttpURLConnection conn) {
-        if (conn == null) {
-            return;
-        }
-        conn.disconnect();
-    }
-
     public String getTag() {
         return tag;
     }
@@ -14,8 +14,12 @@ public class DownloadInfo{
     private String tag;
     // 文件流存储路径
     private String filePath;
-    // 文件信息存储路径
+    // 下载中的文件路径，预分配为完整大小，各分片直接写入自己的位置，完成后重命名为 filePath
+    private String downloadPath;
+    // 断点索引存储路径
     private String infoPath;
+    // 上次保存断点索引的时间
+    private long lastIndexSaveTime;
 
     // 下载地址
     private String url;
@@ -25,20 +29,11 @@ public class DownloadInfo{
     private boolean isDownLoading;
 
     private List<SliceInfo> sliceInfoList = new ArrayList<>();
-    private List<String> sliceInfoPathList = new ArrayList<>();
-
-    public List<String> getSliceInfoPathList() {
-        return sliceInfoPathList;
-    }
 
     public void addSliceInfo(SliceInfo info) {
         this.sliceInfoList.add(info);
     }
 
-    public void addSliceInfoPath(String infoPath) {
-        this.sliceInfoPathList.add(infoPath);
-    }
-
     public List<SliceInfo> getSliceInfoList() {
         return sliceInfoList;
     }
@@ -61,6 +56,22 @@ public class DownloadInfo{
         this.infoPath = infoPath;
     }
 
+    public String getDownloadPath() {
+        return downloadPath;
+    }
+
+    public void setDownloadPath(String downloadPath) {
+        this.downloadPath = downloadPath;
+    }
+
+    public long getLastIndexSaveTime() {
+        return lastIndexSaveTime;
+    }
+
+    public void setLastIndexSaveTime(long lastIndexSaveTime) {
+        this.lastIndexSaveTime = lastIndexSaveTime;
+    }
+
     public void setTag(String tag) {
         this.tag = tag;
     }
@@ -101,8 +112,22 @@ public class DownloadInfo{
         return true;
     }
 
+    /**
+     * 所有分片的数据是否都已经写入文件，用来判断是否可以完成下载
+     *
+     * @return true 全部写入
+     */
+    public boolean isPersisted() {
+        for (SliceInfo info : sliceInfoList) {
+            if (!info.isPersisted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public long currentFileLength() {
-        int result = 0;
+        long result = 0;
         for (SliceInfo info : sliceInfoList) {
             result += info.getCurrentLength();
         }
@@ -176,14 +201,14 @@ public class DownloadInfo{
         private long maxLength;
         // 当前已下载大小
         private long currentLength;
+        // 已经写入文件的大小，断点索引中保存的是这个值
+        private volatile long persistedLength;
         // 当前下载开始节点
         private long startRange;
         // 当前下载结束节点
         private long endRange;
-        // 分片缓存流存放地址
-        private String slicePath;
-        // 分片信息存放地址
-        private String infoPath;
+        // 分片写入的文件地址（所有分片写入同一个文件）
+        private String savePath;
 
         private String url;
         private String tag;
@@ -200,12 +225,8 @@ public class DownloadInfo{
             this.proportion = proportion;
         }
 
-        public void setSlicePath(String slicePath) {
-            this.slicePath = slicePath;
-        }
-
-        public void setInfoPath(String infoPath) {
-            this.infoPath = infoPath;
+        public void setSavePath(String savePath) {
+            this.savePath = savePath;
         }
 
         public void setUrl(String url) {
@@ -220,12 +241,13 @@ public class DownloadInfo{
             return currentLength >= maxLength;
         }
 
-        public int getPartNumber() {
-            return partNumber;
+        // currentLength 包含还在缓冲区中的数据，persistedLength 只统计已经写入文件的数据
+        public boolean isPersisted() {
+            return persistedLength >= maxLength;
         }
 
-        public String getSlicePath() {
-            return slicePath;
+        public int getPartNumber() {
+            return partNumber;
         }
 
         public long getStartRange() {
@@ -260,8 +282,12 @@ public class DownloadInfo{
             this.currentLength = currentLength;
         }
 
-        public String getInfoPath() {
-            return infoPath;
+        public long getPersistedLength() {
+            return persistedLength;
+        }
+
+        public void setPersistedLength(long persistedLength) {
+            this.persistedLength = persistedLength;
         }
 
         public int getCurrentProportion() {
@@ -278,7 +304,7 @@ public class DownloadInfo{
 
         @Override
         public String getSavePath() {
-            return getSlicePath();
+            return savePath;
         }
 
         @Override
@@ -1,45 +1,46 @@
 package com.juggle.im.internal.downloader;
 
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.juggle.im.JErrorCode;
+import com.juggle.im.internal.core.network.JHttpTransport;
 import com.juggle.im.internal.exception.HttpException;
-import com.juggle.im.internal.util.FileUtils;
-import com.juggle.im.internal.util.NetUtils;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
-import java.nio.channels.FileChannel;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
 public class MediaDownloadEngine {
     protected TaskDispatcher taskDispatcher = new TaskDispatcher();
+    private volatile JHttpTransport mHttpTransport;
 
     private static final int SLICE_COUNT = 4;
     private static final int TIMEOUT = 5 * 1000;
     private static final String TAG = MediaDownloadEngine.class.getSimpleName();
-    private static final String FILE_PATH = "filePath";
-    private static final String INFO_PATH = "infoPath";
-    private static final String URL = "url";
-    private static final String LENGTH = "length";
-    private static final String TASK_TAG = "tag";
-    private static final String IS_DOWN_LOADING = "isDownLoading";
-    private static final String SLICE_INFO_PATH_LIST = "sliceInfoPathList";
-    private static final String PART_NUMBER = "partNumber";
-    private static final String SLICE_PATH = "slicePath";
-    private static final String START_RANGE = "startRange";
-    private static final String END_RANGE = "endRange";
-    private static final String MAX_LENGTH = "maxLength";
-    private static final String PROPORTION = "proportion";
+    // 断点索引格式：魔数、版本、文件大小、下载地址、分片数，每个分片依次为序号、进度占比、开始位置、结束位置、已落盘大小
+    private static final int INDEX_MAGIC = 0x4A444958;
+    private static final int INDEX_VERSION = 1;
+    // 下载过程中保存断点索引的最小间隔，分片完成或中断时立即保存
+    private static final long INDEX_SAVE_INTERVAL = 1000;
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String DOWNLOAD_SUFFIX = ".download";
 
     private MediaDownloadEngine() {
         // default implementation ignored
@@ -49,82 +50,114 @@ public class MediaDownloadEngine {
         return SingletonHolder.INSTANCE;
     }
 
-    public static DownloadInfo getFileInfoFromJson(String jsonString) {
-        try {
-            DownloadInfo downloadInfo = new DownloadInfo();
-            JSONObject jsonObject = new JSONObject(jsonString);
-            downloadInfo.setFilePath(jsonObject.getString(FILE_PATH));
-            downloadInfo.setInfoPath(jsonObject.getString(INFO_PATH));
-            downloadInfo.setUrl(jsonObject.getString(URL));
-            downloadInfo.setLength(jsonObject.getLong(LENGTH));
-            downloadInfo.setTag(jsonObject.getString(TASK_TAG));
-            downloadInfo.setDownLoading(jsonObject.getBoolean(IS_DOWN_LOADING));
-            JSONArray sliceInfoPathList = jsonObject.getJSONArray(SLICE_INFO_PATH_LIST);
-            for (int i = 0; i < sliceInfoPathList.length(); i++) {
-                String sliceInfoPath = sliceInfoPathList.getString(i);
-                String sliceInfoString = FileUtils.getStringFromFile(sliceInfoPath);
-                DownloadInfo.SliceInfo sliceInfo = getSliceInfoFromJson(sliceInfoString);
-                sliceInfo.setTag(downloadInfo.getTag());
-                sliceInfo.setUrl(downloadInfo.getUrl());
-                downloadInfo.addSliceInfo(sliceInfo);
-                downloadInfo.addSliceInfoPath(sliceInfoPath);
+    public void setHttpTransport(JHttpTransport httpTransport) {
+        mHttpTransport = httpTransport;
+    }
+
+    //下载使用共享的连接池，同一个存储服务的分片和文件复用连接
+    OkHttpClient getHttpClient(int timeout) {
+        return mHttpTransport.getClient(timeout, timeout, timeout);
+    }
+
+    /**
+     * 保存断点索引，先写临时文件再重命名，避免中断时留下不完整的索引
+     *
+     * @param info  文件信息
+     * @param force false 时距离上次保存不足 INDEX_SAVE_INTERVAL 不保存
+     */
+    static void saveDownloadIndex(DownloadInfo info, boolean force) {
+        synchronized (info) {
+            long now = SystemClock.elapsedRealtime();
+            if (!force && now - info.getLastIndexSaveTime() < INDEX_SAVE_INTERVAL) {
+                return;
+            }
+            if (!info.isDownLoading()) {
+                return;
+            }
+            info.setLastIndexSaveTime(now);
+            try {
+                writeIndex(info, new File(info.getInfoPath()));
+            } catch (IOException e) {
+                Log.e(TAG, "saveDownloadIndex", e);
             }
-            return downloadInfo;
-        } catch (JSONException e) {
-            Log.e(TAG, "getFileInfoFromJson", e);
         }
-        return null;
     }
 
-    public static String getFileInfoToJson(DownloadInfo info) {
-        JSONObject jsonObject = new JSONObject();
-        try {
-            jsonObject.put(FILE_PATH, info.getFilePath());
-            jsonObject.put(TASK_TAG, info.getTag());
-            jsonObject.put(INFO_PATH, info.getInfoPath());
-            jsonObject.put(URL, info.getUrl());
-            jsonObject.put(LENGTH, info.getLength());
-            jsonObject.put(IS_DOWN_LOADING, info.isDownLoading());
-            JSONArray jsonArray = new JSONArray();
-            for (String sliceInfoPath : info.getSliceInfoPathList()) {
-                jsonArray.put(sliceInfoPath);
+    static void writeIndex(DownloadInfo info, File indexFile) throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(info.getLength());
+            out.writeUTF(info.getUrl());
+            List<DownloadInfo.SliceInfo> sliceInfoList = info.getSliceInfoList();
+            out.writeInt(sliceInfoList.size());
+            for (DownloadInfo.SliceInfo sliceInfo : sliceInfoList) {
+                out.writeInt(sliceInfo.getPartNumber());
+                out.writeInt(sliceInfo.getProportion());
+                out.writeLong(sliceInfo.getStartRange());
+                out.writeLong(sliceInfo.getEndRange());
+                out.writeLong(sliceInfo.getPersistedLength());
             }
-            jsonObject.put(SLICE_INFO_PATH_LIST, jsonArray);
-        } catch (JSONException e) {
-            Log.e(TAG, "getSaveJsonString", e);
         }
-        return jsonObject.toString();
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("rename fail, path is " + indexFile.getPath());
+        }
     }
 
-    public static DownloadInfo.SliceInfo getSliceInfoFromJson(String json) throws JSONException {
-        DownloadInfo.SliceInfo sliceInfo = new DownloadInfo.SliceInfo();
-        JSONObject jsonObject = new JSONObject(json);
-        sliceInfo.setPartNumber(jsonObject.getInt(PART_NUMBER));
-        sliceInfo.setInfoPath(jsonObject.getString(INFO_PATH));
-        sliceInfo.setSlicePath(jsonObject.getString(SLICE_PATH));
-        sliceInfo.setStartRange(jsonObject.getLong(START_RANGE));
-        sliceInfo.setEndRange(jsonObject.getLong(END_RANGE));
-        sliceInfo.setMaxLength(jsonObject.getLong(MAX_LENGTH));
-        sliceInfo.setProportion(jsonObject.getInt(PROPORTION));
-        sliceInfo.setCurrentLength(new File(sliceInfo.getSlicePath()).length());
-        return sliceInfo;
+    /**
+     * 读取断点索引，索引不存在、损坏或与当前文件不一致时返回 null
+     */
+    private static DownloadInfo readDownloadIndex(
+            String tag, String indexPath, long fileLength, String filePath, String downloadUrl) {
+        File indexFile = new File(indexPath);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        if (new File(filePath + DOWNLOAD_SUFFIX).length() != fileLength) {
+            return null;
+        }
+        try {
+            return readIndex(indexFile, tag, fileLength, filePath, downloadUrl);
+        } catch (IOException e) {
+            Log.e(TAG, "readDownloadIndex", e);
+        }
+        return null;
     }
 
-    public static String getSliceInfoToJson(DownloadInfo.SliceInfo info) {
-        JSONObject jsonObject = new JSONObject();
-        try {
-            jsonObject.put(PART_NUMBER, info.getPartNumber());
-            jsonObject.put(INFO_PATH, info.getInfoPath());
-            jsonObject.put(SLICE_PATH, info.getSlicePath());
-            jsonObject.put(MAX_LENGTH, info.getMaxLength());
-            jsonObject.put(START_RANGE, info.getStartRange());
-            jsonObject.put(END_RANGE, info.getEndRange());
-            jsonObject.put(MAX_LENGTH, info.getMaxLength());
-            jsonObject.put(PROPORTION, info.getProportion());
-        } catch (JSONException e) {
-            Log.e(TAG, "getSaveJsonString", e);
-        }
-        return jsonObject.toString();
+    static DownloadInfo readIndex(
+            File indexFile, String tag, long fileLength, String filePath, String downloadUrl)
+            throws IOException {
+        String downloadPath = filePath + DOWNLOAD_SUFFIX;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                return null;
+            }
+            if (in.readLong() != fileLength || !downloadUrl.equals(in.readUTF())) {
+                return null;
+            }
+            DownloadInfo downloadInfo = new DownloadInfo(filePath, downloadUrl, tag);
+            downloadInfo.setInfoPath(indexFile.getPath());
+            downloadInfo.setDownloadPath(downloadPath);
+            downloadInfo.setLength(fileLength);
+            int sliceCount = in.readInt();
+            for (int i = 0; i < sliceCount; i++) {
+                DownloadInfo.SliceInfo sliceInfo = new DownloadInfo.SliceInfo();
+                sliceInfo.setPartNumber(in.readInt());
+                sliceInfo.setProportion(in.readInt());
+                sliceInfo.setStartRange(in.readLong());
+                sliceInfo.setEndRange(in.readLong());
+                sliceInfo.setMaxLength(sliceInfo.getEndRange() - sliceInfo.getStartRange() + 1);
+                long persistedLength = in.readLong();
+                sliceInfo.setCurrentLength(persistedLength);
+                sliceInfo.setPersistedLength(persistedLength);
+                sliceInfo.setSavePath(downloadPath);
+                sliceInfo.setUrl(downloadUrl);
+                sliceInfo.setTag(tag);
+                downloadInfo.addSliceInfo(sliceInfo);
+            }
+            return downloadInfo;
+        }
     }
 
     public void download(
@@ -153,11 +186,20 @@ public class MediaDownloadEngine {
         // 使用分片下载支持断点续传
         // 获取分片的临界值，大于临界值时开始分4片，否则使用 1 片
         int sliceLength = getDownloadEachSliceLength();
-        // 获取文件暂存地址
-        final String pausePath = new File(new File(savePath).getParent(), tag + ".txt").getPath();
-        // 获取文件信息
+        // 获取断点索引地址
+        final String indexPath = new File(new File(savePath).getParent(), tag + INDEX_SUFFIX).getPath();
+        // 获取文件信息，所有分片写入同一个预分配的文件
         final DownloadInfo downloadInfo =
-                getFileInfo(tag, pausePath, mediaLength, savePath, url, sliceLength);
+                getFileInfo(tag, indexPath, mediaLength, savePath, url, sliceLength);
+        if (downloadInfo == null) {
+            callback.onError(JErrorCode.FILE_SAVED_FAILED);
+            return;
+        }
+        // 上次所有分片都已经写入文件，但在重命名之前中断，直接完成
+        if (downloadInfo.isPersisted()) {
+            completeDownload(downloadInfo, callback);
+            return;
+        }
 
         for (DownloadInfo.SliceInfo sliceInfo : downloadInfo.getSliceInfoList()) {
             if (sliceInfo.isFinish()) {
@@ -179,65 +221,42 @@ public class MediaDownloadEngine {
      * @return true 支持断点续传, false 不支持断点续传
      */
     public boolean checkSupportResumeTransfer(String url) {
-        HttpURLConnection conn = null;
-        try {
-            conn = NetUtils.createURLConnection(url);
-            conn.setRequestMethod(BaseRequest.METHOD_GET);
-            conn.setReadTimeout(TIMEOUT);
-            conn.setConnectTimeout(TIMEOUT);
-            conn.setRequestProperty(BaseRequest.HEADER_RANGE, BaseRequest.RANGE_0_1);
-            conn.setRequestProperty(
-                    BaseRequest.HEADER_ACCEPT_ENCODING, BaseRequest.ACCEPT_ENCODING_IDENTITY);
-            conn.connect();
-            int responseCode = conn.getResponseCode();
-
-            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
-                String contentRange = conn.getHeaderField(BaseRequest.HEADER_CONTENT_RANGE);
+        Request request = new Request.Builder()
+                .url(url)
+                .get()
+                .header(BaseRequest.HEADER_RANGE, BaseRequest.RANGE_0_1)
+                .header(BaseRequest.HEADER_ACCEPT_ENCODING, BaseRequest.ACCEPT_ENCODING_IDENTITY)
+                .build();
+        try (Response response = getHttpClient(TIMEOUT).newCall(request).execute()) {
+            if (response.code() == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = response.header(BaseRequest.HEADER_CONTENT_RANGE);
                 return !TextUtils.isEmpty(contentRange);
             }
         } catch (Exception e) {
             Log.e(TAG, "checkSupportResumeTransfer", e);
-        } finally {
-
-            if (conn != null) {
-                conn.disconnect();
-            }
         }
         return false;
     }
 
     private long getMediaLength(String url) {
         // 先使用 HEAD 请求，如果异常，使用 get 请求
-        HttpURLConnection connection = null;
         String[] methodList = new String[]{BaseRequest.METHOD_GET};
         for (String method : methodList) {
-            try {
-                // 连接网络
-                connection = NetUtils.createURLConnection(url);
-                connection.setRequestMethod(method);
-                connection.setConnectTimeout(TIMEOUT);
-                connection.setReadTimeout(TIMEOUT);
-                connection.setRequestProperty(
-                        BaseRequest.HEADER_ACCEPT_ENCODING, BaseRequest.ACCEPT_ENCODING_IDENTITY);
-                connection.setRequestProperty(
-                        BaseRequest.HEADER_CONNECTION, BaseRequest.CONNECTION_CLOSE);
-                connection.connect();
-                if (connection.getResponseCode() >= HttpURLConnection.HTTP_OK
-                        && connection.getResponseCode() < HttpURLConnection.HTTP_MULT_CHOICE) {
+            Request request = new Request.Builder()
+                    .url(url)
+                    .method(method, null)
+                    .header(BaseRequest.HEADER_ACCEPT_ENCODING, BaseRequest.ACCEPT_ENCODING_IDENTITY)
+                    .build();
+            // 连接网络，关闭 response 释放资源
+            try (Response response = getHttpClient(TIMEOUT).newCall(request).execute()) {
+                if (response.code() >= HttpURLConnection.HTTP_OK
+                        && response.code() < HttpURLConnection.HTTP_MULT_CHOICE) {
                     // 获得文件长度
-                    return connection.getContentLength();
+                    ResponseBody body = response.body();
+                    return body == null ? -1 : body.contentLength();
                 }
             } catch (Exception e) {
                 Log.e(TAG, "getMediaLength", e);
-            } finally {
-                // 释放资源
-                try {
-                    if (connection != null) {
-                        connection.disconnect();
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "getMediaLength", e);
-                }
             }
         }
         return 0;
@@ -253,44 +272,90 @@ public class MediaDownloadEngine {
     }
 
     /**
-     * 磁盘有，返回磁盘信息，没有则创建
+     * 磁盘有，返回磁盘信息，没有则预分配文件并创建
      *
      * @param tag         唯一标识（messageId）
-     * @param pausedPath  暂存地址
+     * @param indexPath   断点索引地址
      * @param fileLength  文件大小
      * @param filePath    文件存储地址
      * @param downloadUrl 服务端下载地址
      * @param sliceLimit  临界值
-     * @return 文件信息
+     * @return 文件信息，预分配文件失败时返回 null
      */
     private DownloadInfo getFileInfo(
             String tag,
-            String pausedPath,
+            String indexPath,
             long fileLength,
             String filePath,
             String downloadUrl,
             int sliceLimit) {
-        DownloadInfo downloadInfo = null;
-        try {
-            String savedFileInfoString = FileUtils.getStringFromFile(pausedPath);
-            if (!TextUtils.isEmpty(savedFileInfoString)) {
-                downloadInfo = getFileInfoFromJson(savedFileInfoString);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "getFileInfo", e);
-        }
+        DownloadInfo downloadInfo = readDownloadIndex(tag, indexPath, fileLength, filePath, downloadUrl);
         if (downloadInfo == null) {
+            deleteLegacyFiles(tag, filePath);
+            if (!preallocate(filePath + DOWNLOAD_SUFFIX, fileLength)) {
+                return null;
+            }
             downloadInfo =
-                    createFileInfo(tag, pausedPath, fileLength, filePath, downloadUrl, sliceLimit);
-            FileUtils.saveFile(getFileInfoToJson(downloadInfo), pausedPath);
+                    createFileInfo(tag, indexPath, fileLength, filePath, downloadUrl, sliceLimit);
+            downloadInfo.setDownLoading(true);
+            saveDownloadIndex(downloadInfo, true);
         }
         downloadInfo.setDownLoading(true);
         return downloadInfo;
     }
 
+    /**
+     * 预分配下载文件，空间不足时直接失败，不再下载到一半才发现写不进去
+     */
+    private boolean preallocate(String path, long length) {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            FileDescriptor fd = file.getFD();
+            try {
+                Os.posix_fallocate(fd, 0, length);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.ENOSPC) {
+                    Log.e(TAG, "preallocate fail, no space, length is " + length);
+                    return false;
+                }
+                // 文件系统不支持 fallocate 时只设置文件大小
+            }
+            file.setLength(length);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "preallocate", e);
+            return false;
+        }
+    }
+
+    /**
+     * 删除旧版本每个分片单独的缓存文件和信息文件
+     */
+    private void deleteLegacyFiles(String tag, String filePath) {
+        String parent = new File(filePath).getParent();
+        deleteFile(new File(parent, tag + ".txt").getPath());
+        for (int i = 0; i < SLICE_COUNT; i++) {
+            deleteFile(filePath + "_" + i);
+            deleteFile(new File(parent, tag + "_" + i).getPath());
+        }
+    }
+
+    private static void deleteFile(String path) {
+        File file = new File(path);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            if (!file.delete()) {
+                Log.d(TAG, "delete fail path is " + path);
+            }
+        } catch (SecurityException e) {
+            Log.d(TAG, "delete fail path is " + path);
+        }
+    }
+
     private DownloadInfo createFileInfo(
             String tag,
-            String pausedPath,
+            String indexPath,
             long fileLength,
             String filePath,
             String downloadUrl,
@@ -298,14 +363,13 @@ public class MediaDownloadEngine {
         DownloadInfo downloadInfo = new DownloadInfo();
         downloadInfo.setUrl(downloadUrl);
         downloadInfo.setFilePath(filePath);
-        downloadInfo.setInfoPath(pausedPath);
+        downloadInfo.setDownloadPath(filePath + DOWNLOAD_SUFFIX);
+        downloadInfo.setInfoPath(indexPath);
         downloadInfo.setLength(fileLength);
         downloadInfo.setTag(tag);
         if (sliceLimit >= fileLength) {
             DownloadInfo.SliceInfo sliceInfo = new DownloadInfo.SliceInfo();
-            final String pausePath = new File(new File(pausedPath).getParent(), tag + "_" + 0).getPath();
-            sliceInfo.setInfoPath(pausePath);
-            sliceInfo.setSlicePath(filePath + "_" + 0);
+            sliceInfo.setSavePath(downloadInfo.getDownloadPath());
             sliceInfo.setPartNumber(0);
             sliceInfo.setProportion(100);
             sliceInfo.setStartRange(0);
@@ -313,9 +377,7 @@ public class MediaDownloadEngine {
             sliceInfo.setMaxLength(fileLength);
             sliceInfo.setUrl(downloadUrl);
             sliceInfo.setTag(tag);
-            FileUtils.saveFile(getSliceInfoToJson(sliceInfo), pausePath);
             downloadInfo.addSliceInfo(sliceInfo);
-            downloadInfo.addSliceInfoPath(sliceInfo.getInfoPath());
             return downloadInfo;
         }
 
@@ -324,9 +386,7 @@ public class MediaDownloadEngine {
         long remainder = fileLength % 4;
         for (int i = 0; i < SLICE_COUNT; i++) {
             DownloadInfo.SliceInfo sliceInfo = new DownloadInfo.SliceInfo();
-            final String pausePath = new File(new File(pausedPath).getParent(), tag + "_" + i).getPath();
-            sliceInfo.setInfoPath(pausePath);
-            sliceInfo.setSlicePath(filePath + "_" + i);
+            sliceInfo.setSavePath(downloadInfo.getDownloadPath());
             sliceInfo.setPartNumber(i);
             sliceInfo.setProportion(25);
             sliceInfo.setUrl(downloadUrl);
@@ -342,9 +402,7 @@ public class MediaDownloadEngine {
             }
             currentRange = sliceInfo.getEndRange();
             currentRange++;
-            FileUtils.saveFile(getSliceInfoToJson(sliceInfo), pausePath);
             downloadInfo.addSliceInfo(sliceInfo);
-            downloadInfo.addSliceInfoPath(sliceInfo.getInfoPath());
         }
         return downloadInfo;
     }
@@ -378,6 +436,30 @@ public class MediaDownloadEngine {
         void onCanceled(String tag);
     }
 
+    /**
+     * 各分片已经写在最终位置，全部写入文件后重命名为目标文件，删除断点索引，返回完成
+     * 每个分片有自己的 SliceCallback，通过 downloadInfo 保证只完成一次
+     */
+    private static void completeDownload(DownloadInfo downloadInfo, DownloadEngineCallback callback) {
+        synchronized (downloadInfo) {
+            if (!downloadInfo.isPersisted() || !downloadInfo.isDownLoading()) {
+                return;
+            }
+            downloadInfo.setDownLoading(false);
+        }
+        File file = new File(downloadInfo.getFilePath());
+        if (file.exists()) {
+            deleteFile(file.getPath());
+        }
+        if (!new File(downloadInfo.getDownloadPath()).renameTo(file)) {
+            Log.e(TAG, "rename error, path is " + downloadInfo.getDownloadPath());
+            callback.onError(JErrorCode.FILE_SAVED_FAILED);
+            return;
+        }
+        deleteFile(downloadInfo.getInfoPath());
+        callback.onComplete(downloadInfo.getFilePath());
+    }
+
     private static class SingletonHolder {
         private static final MediaDownloadEngine INSTANCE = new MediaDownloadEngine();
     }
@@ -440,41 +522,9 @@ public class MediaDownloadEngine {
         }
 
         @Override
-        public synchronized void onSuccess(String sliceSavePath) {
-            // 合流，删除缓存文件，返回完成
-            if (!downloadInfo.isFinished()) {
-                return;
-            }
-            File file = new File(downloadInfo.getFilePath());
-            try (FileOutputStream fileOutputStream = new FileOutputStream(file);
-                 FileChannel outChannel = fileOutputStream.getChannel()) {
-                Collections.sort(
-                        downloadInfo.getSliceInfoList(),
-                        new Comparator<DownloadInfo.SliceInfo>() {
-                            @Override
-                            public int compare(
-                                    DownloadInfo.SliceInfo o1, DownloadInfo.SliceInfo o2) {
-                                return o1.getPartNumber() - o2.getPartNumber();
-                            }
-                        });
-                for (DownloadInfo.SliceInfo sliceInfo : downloadInfo.getSliceInfoList()) {
-                    try (FileInputStream fileInputStream =
-                                 new FileInputStream(sliceInfo.getSlicePath());
-                         FileChannel inChannel = fileInputStream.getChannel()) {
-                        outChannel.transferFrom(inChannel, outChannel.size(), inChannel.size());
-                    }
-                }
-                for (DownloadInfo.SliceInfo sliceInfo : downloadInfo.getSliceInfoList()) {
-                    deleteFile(sliceInfo.getSlicePath());
-                    deleteFile(sliceInfo.getInfoPath());
-                }
-                deleteFile(downloadInfo.getInfoPath());
-                downloadInfo.setDownLoading(false);
-                callback.onComplete(downloadInfo.getFilePath());
-            } catch (Exception e) {
-                Log.e(TAG, "compound error", e);
-                callback.onError(JErrorCode.FILE_SAVED_FAILED);
-            }
+        public void onSuccess(String sliceSavePath) {
+            // onSuccess 在分片的输出流关闭之后回调，此时该分片的 persistedLength 已经更新
+            completeDownload(downloadInfo, callback);
         }
 
         @Override
@@ -508,16 +558,6 @@ public class MediaDownloadEngine {
             isCancel = true;
             callback.onCanceled(tag);
         }
-
-        private void deleteFile(String path) {
-            try {
-                if (!new File(path).delete()) {
-                    Log.d(TAG, "delete fail path is " + path);
-                }
-            } catch (SecurityException e) {
-                Log.d(TAG, "delete fail path is " + path);
-            }
-        }
     }
 
     public boolean cancel(int id) {
@@ -1,6 +1,9 @@
 package com.juggle.im.internal.downloader;
 
-import java.net.HttpURLConnection;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import okhttp3.Request;
 
 /**
  * 分片下载
@@ -17,8 +20,8 @@ public class SliceDownloadRequest extends BaseDownloadRequest<DownloadInfo.Slice
     }
 
     @Override
-    protected void setRequestProperty(HttpURLConnection conn) {
-        conn.setRequestProperty(
+    protected void setRequestProperty(Request.Builder builder) {
+        builder.header(
                 "Range",
                 "bytes=" + downloadInfo.getCurrentRange() + "-" + downloadInfo.getEndRange());
     }
@@ -28,6 +31,20 @@ public class SliceDownloadRequest extends BaseDownloadRequest<DownloadInfo.Slice
         return true;
     }
 
+    /**
+     * 直接写入预分配文件中当前分片的位置，写出后更新已落盘大小并保存断点索引
+     */
+    @Override
+    protected OutputStream openOutputStream() throws IOException {
+        return new SliceOutputStream(
+                downloadInfo.getSavePath(),
+                downloadInfo.getCurrentRange(),
+                (position, closed) -> {
+                    downloadInfo.setPersistedLength(position - downloadInfo.getStartRange());
+                    MediaDownloadEngine.saveDownloadIndex(info, closed);
+                });
+    }
+
     @Override
     protected void onWriteFile(long total, long current, int length) {
         downloadInfo.setCurrentLength(current);
@@ -0,0 +1,92 @@
+package com.juggle.im.internal.downloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 分片直接写入预分配文件中自己的位置
+ * 数据先放进缓冲区，写满后通过 FileChannel 按位置写出，每次写出后回调已经落盘的位置
+ *
+ * @author lvhongzhen
+ */
+class SliceOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    interface FlushListener {
+        /**
+         * 缓冲区写出后的回调
+         *
+         * @param position 已经写入文件的结束位置
+         * @param closed   是否是关闭时的最后一次写出
+         */
+        void onFlush(long position, boolean closed);
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final FlushListener listener;
+    private long position;
+    private boolean closed;
+
+    SliceOutputStream(String path, long position, FlushListener listener) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        this.position = position;
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer(false);
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer(false);
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushBuffer(true);
+        } finally {
+            channel.close();
+            file.close();
+        }
+    }
+
+    private void flushBuffer(boolean closing) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        if (listener != null) {
+            listener.onFlush(position, closing);
+        }
+    }
+}
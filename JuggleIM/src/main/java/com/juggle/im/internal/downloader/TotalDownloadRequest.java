@@ -1,6 +1,6 @@
 package com.juggle.im.internal.downloader;
 
-import java.net.HttpURLConnection;
+import okhttp3.Request;
 
 /**
  * 基本的 request 不支持断点续传,只能取消，不能暂停 多媒体下载Reuqest
@@ -14,7 +14,7 @@ public class TotalDownloadRequest extends BaseDownloadRequest<IDownloadInfo> {
     }
 
     @Override
-    protected void setRequestProperty(HttpURLConnection conn) {
+    protected void setRequestProperty(Request.Builder builder) {
         // Do nothing
     }
 
@@ -2,6 +2,7 @@ package com.juggle.im.internal.logger.action;
 
 import android.os.Looper;
 
+import com.juggle.im.internal.core.network.JHttpTransport;
 import com.juggle.im.internal.logger.IJLog;
 import com.juggle.im.internal.logger.JLogConfig;
 import com.juggle.im.internal.logger.JLogLevel;
@@ -66,8 +67,8 @@ public class ActionManager {
         }
     }
 
-    public void addUploadAction(long startTime, long endTime, String url, Map<String, String> headers, IJLog.Callback callback) {
-        UploadDefaultRunnable runnable = new UploadDefaultRunnable();
+    public void addUploadAction(long startTime, long endTime, String url, Map<String, String> headers, JHttpTransport httpTransport, IJLog.Callback callback) {
+        UploadDefaultRunnable runnable = new UploadDefaultRunnable(httpTransport);
         runnable.setUploadUrl(url);
         runnable.setRequestHeader(headers);
         UploadAction action = new UploadAction.Builder()
@@ -16,8 +16,5 @@ class Constants {
     static final String LOG_TIMESTAMP_FORMAT_DETAILED = "yyyy-MM-dd HH:mm:ss SSSS";
 
     static final int LOG_UPLOAD_TIME_OUT = 15 * 1000;
-    static final String LOG_UPLOAD_PREFIX = "--";
-    static final String LOG_UPLOAD_LINE_END = "\r\n";
     static final String LOG_UPLOAD_CHARSET = "UTF-8";
-    static final String LOG_UPLOAD_KEEP_ALIVE = "keep-alive";
 }
\ No newline at end of file
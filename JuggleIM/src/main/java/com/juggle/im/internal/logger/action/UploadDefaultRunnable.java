@@ -2,24 +2,26 @@ package com.juggle.im.internal.logger.action;
 
 import android.annotation.SuppressLint;
 
+import com.juggle.im.internal.core.network.JHttpTransport;
+
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
 
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
 /**
  * @author Ye_Guli
  * @create 2024-05-23 11:23
@@ -28,6 +30,11 @@ class UploadDefaultRunnable extends UploadRunnable {
     private static final String TAG = "UploadDefaultRunnable";
     private String mUploadUrl;
     private final Map<String, String> mRequestHeaders = new HashMap<>();
+    private final JHttpTransport mHttpTransport;
+
+    UploadDefaultRunnable(JHttpTransport httpTransport) {
+        mHttpTransport = httpTransport;
+    }
 
     @Override
     public void doRealUpload(File logFile) {
@@ -56,75 +63,38 @@ class UploadDefaultRunnable extends UploadRunnable {
     }
 
     private void doPostRequest(String mUploadUrl, File file, Map<String, String> mRequestHeaders) {
-        String boundary = UUID.randomUUID().toString();
-        InputStream inputStream = null;
-        OutputStream outputStream = null;
-        HttpURLConnection connection = null;
-        ByteArrayOutputStream responseStream;
-        byte[] buffer = new byte[2048];
-        try {
-            URL url = new URL(mUploadUrl);
-            connection = (HttpURLConnection) url.openConnection();
-            if (connection instanceof HttpsURLConnection) {
-                ((HttpsURLConnection) connection).setHostnameVerifier(new HostnameVerifier() {
+        //共享连接池，保持原来不校验 hostname 的行为
+        OkHttpClient client = mHttpTransport.getClient(Constants.LOG_UPLOAD_TIME_OUT, Constants.LOG_UPLOAD_TIME_OUT, Constants.LOG_UPLOAD_TIME_OUT)
+                .newBuilder()
+                .hostnameVerifier(new HostnameVerifier() {
                     @SuppressLint("BadHostnameVerifier")
                     @Override
                     public boolean verify(String hostname, SSLSession session) {
                         return true;
                     }
-                });
-            }
-            connection.setReadTimeout(Constants.LOG_UPLOAD_TIME_OUT);
-            connection.setConnectTimeout(Constants.LOG_UPLOAD_TIME_OUT);
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-            connection.setUseCaches(false);
-            connection.setAllowUserInteraction(false);
-            connection.setChunkedStreamingMode(0);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Charset", Constants.LOG_UPLOAD_CHARSET);
-            connection.setRequestProperty("connection", Constants.LOG_UPLOAD_KEEP_ALIVE);
-            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-            //添加请求头
-            Set<Map.Entry<String, String>> entrySet = mRequestHeaders.entrySet();
-            for (Map.Entry<String, String> tempEntry : entrySet) {
-                connection.addRequestProperty(tempEntry.getKey(), tempEntry.getValue());
-            }
-            outputStream = connection.getOutputStream();
-            //写入文件参数
-            if (file != null) {
-                String fileParam = new StringBuilder()
-                        .append(Constants.LOG_UPLOAD_PREFIX)
-                        .append(boundary)
-                        .append(Constants.LOG_UPLOAD_LINE_END)
-                        .append("Content-Disposition: form-data; name=\"log\"; filename=\"").append(file.getName()).append("\"").append(Constants.LOG_UPLOAD_LINE_END)
-                        .append("Content-Type: application/octet-stream; charset=").append(Constants.LOG_UPLOAD_CHARSET).append(Constants.LOG_UPLOAD_LINE_END)
-                        .append(Constants.LOG_UPLOAD_LINE_END)
-                        .toString();
-                outputStream.write(fileParam.getBytes());
-                //写入文件
-                FileInputStream fileInputStream = new FileInputStream(file);
-                int bytesRead;
-                while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-                fileInputStream.close();
-                outputStream.write(Constants.LOG_UPLOAD_LINE_END.getBytes());
-            }
-            //请求结束标志
-            byte[] end_data = (Constants.LOG_UPLOAD_PREFIX + boundary + Constants.LOG_UPLOAD_PREFIX + Constants.LOG_UPLOAD_LINE_END).getBytes();
-            outputStream.write(end_data);
-            outputStream.flush();
+                })
+                .build();
+        MultipartBody.Builder bodyBuilder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        //写入文件参数
+        if (file != null) {
+            MediaType mediaType = MediaType.parse("application/octet-stream; charset=" + Constants.LOG_UPLOAD_CHARSET);
+            bodyBuilder.addFormDataPart("log", file.getName(), RequestBody.create(file, mediaType));
+        }
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(mUploadUrl)
+                .post(bodyBuilder.build())
+                .header("Charset", Constants.LOG_UPLOAD_CHARSET);
+        //添加请求头
+        Set<Map.Entry<String, String>> entrySet = mRequestHeaders.entrySet();
+        for (Map.Entry<String, String> tempEntry : entrySet) {
+            requestBuilder.addHeader(tempEntry.getKey(), tempEntry.getValue());
+        }
+        try (Response response = client.newCall(requestBuilder.build()).execute()) {
             //得到响应码
-            int statusCode = connection.getResponseCode();
+            int statusCode = response.code();
             if (statusCode / 100 == 2) {
-                responseStream = new ByteArrayOutputStream();
-                inputStream = connection.getInputStream();
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    responseStream.write(buffer, 0, bytesRead);
-                }
-                String resultData = responseStream.toString();
+                ResponseBody body = response.body();
+                String resultData = body == null ? "" : body.string();
                 JSONObject jsonResponse = new JSONObject(resultData);
                 int code = jsonResponse.getInt("code");
                 if (code == 0) {
@@ -139,27 +109,6 @@ class UploadDefaultRunnable extends UploadRunnable {
             e.printStackTrace();
             notifyUploadActionCallbackFail(-1, "doPostRequest failed, e= " + e.getMessage());
         } finally {
-            if (outputStream != null) {
-                try {
-                    outputStream.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-            if (connection != null) {
-                try {
-                    connection.disconnect();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
             //上传完成后删除文件
             if (file != null) {
                 try {
@@ -55,6 +55,28 @@ public class ConcreteConversationInfo extends ConversationInfo {
         this.mMentionUserList = mentionUserList;
     }
 
+    //浅拷贝，Conversation 不可变，排序相关的字段都是基本类型，修改拷贝不会影响原对象的排序位置
+    public ConcreteConversationInfo copy() {
+        ConcreteConversationInfo info = new ConcreteConversationInfo();
+        info.setConversation(getConversation());
+        info.setUnreadCount(getUnreadCount());
+        info.setUnread(hasUnread());
+        info.setSortTime(getSortTime());
+        info.setLastMessage(getLastMessage());
+        info.setTop(isTop());
+        info.setTopTime(getTopTime());
+        info.setMute(isMute());
+        info.setDraft(getDraft());
+        info.setMentionInfo(getMentionInfo());
+        info.mLastReadMessageIndex = mLastReadMessageIndex;
+        info.mLastMessageIndex = mLastMessageIndex;
+        info.mSyncTime = mSyncTime;
+        info.mGroupInfo = mGroupInfo;
+        info.mTargetUserInfo = mTargetUserInfo;
+        info.mMentionUserList = mMentionUserList;
+        return info;
+    }
+
     private long mLastReadMessageIndex;
     private long mLastMessageIndex;
     private long mSyncTime;
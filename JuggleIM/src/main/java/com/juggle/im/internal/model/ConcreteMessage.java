@@ -1,8 +1,15 @@
 package com.juggle.im.internal.model;
 
+import android.text.TextUtils;
+
+import com.juggle.im.internal.ContentTypeCenter;
 import com.juggle.im.model.GroupInfo;
 import com.juggle.im.model.Message;
+import com.juggle.im.model.MessageContent;
 import com.juggle.im.model.UserInfo;
+import com.juggle.im.model.messages.MergeMessage;
+
+import java.nio.charset.StandardCharsets;
 
 public class ConcreteMessage extends Message {
     public long getSeqNo() {
@@ -69,6 +76,89 @@ public class ConcreteMessage extends Message {
         this.mReferMsgId = referMsgId;
     }
 
+    //从数据库读出的消息先保存原始内容，第一次调用 getContent 时再解码，只用到元数据的场景不再解析 JSON
+    public void setRawContent(String rawContent) {
+        synchronized (this) {
+            mRawContent = rawContent;
+            mContentDecoded = false;
+        }
+    }
+
+    @Override
+    public MessageContent getContent() {
+        if (!mContentDecoded) {
+            synchronized (this) {
+                if (!mContentDecoded) {
+                    super.setContent(decodeContent(mRawContent));
+                    mRawContent = null;
+                    mContentDecoded = true;
+                }
+            }
+        }
+        return super.getContent();
+    }
+
+    @Override
+    public void setContent(MessageContent content) {
+        synchronized (this) {
+            mRawContent = null;
+            mContentDecoded = true;
+            super.setContent(content);
+        }
+    }
+
+    //复制消息和整条引用链，还没有解码的内容复制原始内容，各自解码；已经解码的内容对象是共用的
+    public ConcreteMessage copy() {
+        ConcreteMessage message = new ConcreteMessage();
+        message.setConversation(getConversation());
+        message.setContentType(getContentType());
+        message.setClientMsgNo(getClientMsgNo());
+        message.setMessageId(getMessageId());
+        message.setDirection(getDirection());
+        message.setState(getState());
+        message.setHasRead(isHasRead());
+        message.setTimestamp(getTimestamp());
+        message.setSenderUserId(getSenderUserId());
+        message.setGroupMessageReadInfo(getGroupMessageReadInfo());
+        message.setMentionInfo(getMentionInfo());
+        message.setLocalAttribute(getLocalAttribute());
+        message.setDelete(isDelete());
+        Message referredMessage = getReferredMessage();
+        if (referredMessage instanceof ConcreteMessage) {
+            referredMessage = ((ConcreteMessage) referredMessage).copy();
+        }
+        message.setReferredMessage(referredMessage);
+        message.mSeqNo = mSeqNo;
+        message.mMsgIndex = mMsgIndex;
+        message.mClientUid = mClientUid;
+        message.mFlags = mFlags;
+        message.mExisted = mExisted;
+        message.mGroupInfo = mGroupInfo;
+        message.mTargetUserInfo = mTargetUserInfo;
+        message.mReferMsgId = mReferMsgId;
+        synchronized (this) {
+            if (mContentDecoded) {
+                message.setContent(super.getContent());
+            } else {
+                message.setRawContent(mRawContent);
+            }
+        }
+        return message;
+    }
+
+    private MessageContent decodeContent(String rawContent) {
+        if (rawContent == null) {
+            return null;
+        }
+        MessageContent content = ContentTypeCenter.getInstance().getContent(rawContent.getBytes(StandardCharsets.UTF_8), getContentType());
+        if (content instanceof MergeMessage) {
+            if (TextUtils.isEmpty(((MergeMessage) content).getContainerMsgId())) {
+                ((MergeMessage) content).setContainerMsgId(getMessageId());
+            }
+        }
+        return content;
+    }
+
     private long mSeqNo;
     private long mMsgIndex;
     private String mClientUid;
@@ -77,4 +167,7 @@ public class ConcreteMessage extends Message {
     private GroupInfo mGroupInfo;
     private UserInfo mTargetUserInfo;
     private String mReferMsgId;
+    private String mRawContent;
+    //为 false 时 mRawContent 还没有解码，写入 content 之后才置为 true（volatile 保证其它线程能看到解码结果）
+    private volatile boolean mContentDecoded = true;
 }
@@ -10,19 +10,25 @@ public abstract class BaseUploader implements IUploader {
     private final UploaderCallback mUploaderCallback;
     protected final String mLocalPath;
     private volatile long mLastProgressCallbackTime = 0;//上次进度回调时间
+    private volatile int mLastProgress = -1;//上次回调的进度
 
     public BaseUploader(String localPath, UploaderCallback uploaderCallback) {
         this.mLocalPath = localPath;
         this.mUploaderCallback = uploaderCallback;
     }
 
-    protected void notifyProgress(int progress) {
+    //多个分片并发上传时会在不同线程回调，进度没有变化或者距上次回调不足间隔时忽略
+    protected synchronized void notifyProgress(int progress) {
+        if (progress == mLastProgress) {
+            return;
+        }
         long currentTime = System.currentTimeMillis();
         if (currentTime - mLastProgressCallbackTime >= PROGRESS_CALLBACK_INTERVAL) {
             if (mUploaderCallback != null) {
                 mUploaderCallback.onProgress(progress);
             }
             mLastProgressCallbackTime = currentTime;
+            mLastProgress = progress;
         }
     }
 
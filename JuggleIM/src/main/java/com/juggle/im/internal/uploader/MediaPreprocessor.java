@@ -0,0 +1,238 @@
+package com.juggle.im.internal.uploader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.text.TextUtils;
+
+import com.juggle.im.internal.util.JLogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 上传前的媒体预处理
+ * 1. 图片按最长边缩放并重新编码，重新编码后不再带有 EXIF（方向信息在编码前应用到图片上）
+ * 2. 计算待上传文件内容的 hash，同样内容的文件上传过一次后直接复用 url（只对不超过 MAX_DEDUPE_FILE_SIZE 的文件计算）
+ */
+public class MediaPreprocessor {
+    private static final int DEFAULT_IMAGE_QUALITY = 85;
+    private static final int MAX_URL_CACHE_COUNT = 256;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    //超过该大小的文件不计算 hash，大视频、大文件重复发送的概率低，完整读一遍的开销不值得
+    private static final long MAX_DEDUPE_FILE_SIZE = 10 * 1024 * 1024;
+
+    //maxDimension 小于等于 0 时不处理图片；quality 不在 1~100 之间时使用默认值
+    public synchronized void setImageConfig(int maxDimension, int quality) {
+        this.mImageMaxDimension = maxDimension;
+        this.mImageQuality = quality > 0 && quality <= 100 ? quality : DEFAULT_IMAGE_QUALITY;
+    }
+
+    //返回实际要上传的文件路径，不需要处理或者处理失败时返回原路径，在后台线程调用
+    public String preprocessImage(String localPath, String outputDir) {
+        int maxDimension;
+        int quality;
+        synchronized (this) {
+            maxDimension = mImageMaxDimension;
+            quality = mImageQuality;
+        }
+        if (maxDimension <= 0 || TextUtils.isEmpty(localPath) || TextUtils.isEmpty(outputDir)) {
+            return localPath;
+        }
+        File source = new File(localPath);
+        if (!source.exists()) {
+            return localPath;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(localPath, options);
+        //gif 重新编码会丢失动画
+        if (options.outWidth <= 0 || options.outHeight <= 0 || "image/gif".equals(options.outMimeType)) {
+            return localPath;
+        }
+        boolean isPng = "image/png".equals(options.outMimeType);
+        //同一个文件、同样的参数只处理一次
+        String outputName = sha256((localPath + "_" + source.length() + "_" + source.lastModified() + "_" + maxDimension + "_" + quality).getBytes(StandardCharsets.UTF_8));
+        if (outputName == null) {
+            return localPath;
+        }
+        File jpegOutput = new File(outputDir, outputName + ".jpg");
+        File pngOutput = new File(outputDir, outputName + ".png");
+        if (jpegOutput.exists() && jpegOutput.length() > 0) {
+            return jpegOutput.getAbsolutePath();
+        }
+        if (pngOutput.exists() && pngOutput.length() > 0) {
+            return pngOutput.getAbsolutePath();
+        }
+        Bitmap bitmap = decodeScaledBitmap(localPath, options.outWidth, options.outHeight, maxDimension);
+        if (bitmap == null) {
+            JLogger.e("J-Uploader", "preprocessImage decode fail, localPath= " + localPath);
+            return localPath;
+        }
+        File dir = new File(outputDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            bitmap.recycle();
+            return localPath;
+        }
+        //带透明通道的 png 保持 png，其它都编码成 jpeg
+        Bitmap.CompressFormat format = isPng && bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+        File output = format == Bitmap.CompressFormat.PNG ? pngOutput : jpegOutput;
+        File temp = new File(outputDir, output.getName() + ".tmp");
+        boolean success = false;
+        try (OutputStream out = new FileOutputStream(temp)) {
+            success = bitmap.compress(format, quality, out);
+        } catch (IOException e) {
+            JLogger.e("J-Uploader", "preprocessImage compress fail, exception is " + e.getMessage());
+        } finally {
+            bitmap.recycle();
+        }
+        if (!success || !temp.renameTo(output)) {
+            temp.delete();
+            return localPath;
+        }
+        JLogger.i("J-Uploader", "preprocessImage, localPath= " + localPath + ", size " + source.length() + " -> " + output.length());
+        return output.getAbsolutePath();
+    }
+
+    //读取图片的宽高（不解码像素），失败时返回 null
+    public static int[] getImageSize(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        return new int[]{options.outWidth, options.outHeight};
+    }
+
+    //用于去重的文件内容 SHA-256，文件过大或者失败时返回 null（不去重）
+    public static String getDedupeHash(String path) {
+        if (TextUtils.isEmpty(path)) {
+            return null;
+        }
+        File file = new File(path);
+        if (file.length() > MAX_DEDUPE_FILE_SIZE) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        } catch (Exception e) {
+            JLogger.e("J-Uploader", "getDedupeHash fail, exception is " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    public synchronized String getUploadedUrl(String hash) {
+        if (hash == null) {
+            return null;
+        }
+        return mUrlCache.get(hash);
+    }
+
+    public synchronized void putUploadedUrl(String hash, String url) {
+        if (hash == null || TextUtils.isEmpty(url)) {
+            return;
+        }
+        mUrlCache.put(hash, url);
+    }
+
+    //先按 2 的幂次采样解码，再缩放到最长边不超过 maxDimension，并按 EXIF 方向旋转
+    private Bitmap decodeScaledBitmap(String path, int width, int height, int maxDimension) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (OutOfMemoryError e) {
+            JLogger.e("J-Uploader", "decodeScaledBitmap out of memory, path= " + path);
+            return null;
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        Matrix matrix = new Matrix();
+        int decodedLongest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (decodedLongest > maxDimension) {
+            float scale = (float) maxDimension / decodedLongest;
+            matrix.postScale(scale, scale);
+        }
+        int rotation = getExifRotation(path);
+        if (rotation != 0) {
+            matrix.postRotate(rotation);
+        }
+        if (matrix.isIdentity()) {
+            return bitmap;
+        }
+        Bitmap result = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (result != bitmap) {
+            bitmap.recycle();
+        }
+        return result;
+    }
+
+    private int getExifRotation(String path) {
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    //内容 hash -> 已上传的 url，按访问顺序淘汰
+    private final Map<String, String> mUrlCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_URL_CACHE_COUNT;
+        }
+    };
+    private int mImageMaxDimension;
+    private int mImageQuality = DEFAULT_IMAGE_QUALITY;
+}
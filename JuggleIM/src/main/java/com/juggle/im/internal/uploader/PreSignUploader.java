@@ -5,13 +5,13 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.juggle.im.internal.core.network.JHttpTransport;
 import com.juggle.im.internal.model.upload.UploadPreSignCred;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.internal.util.JThreadPoolExecutor;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.MediaType;
@@ -28,18 +28,20 @@ import okio.Source;
  * @create 2024-05-29 9:12
  */
 public class PreSignUploader extends BaseUploader {
-    private static final int BUFFER_SIZE = 4096; //缓冲区大小
+    private static final int BUFFER_SIZE = 256 * 1024; //每次从文件读取的大小
     private static final int CONNECT_TIMEOUT = 20 * 1000; //连接超时时间
     private static final int READ_TIMEOUT = 20 * 1000; //读取超时时间
     private static final int WRITE_TIMEOUT = 20 * 1000; //读取超时时间
 
     private final UploadPreSignCred mPreSignCred;
+    private final JHttpTransport mHttpTransport;
     private volatile boolean mIsCancelled = false;
     private Call currentCall;
 
-    public PreSignUploader(String localPath, UploaderCallback uploaderCallback, UploadPreSignCred preSignCred) {
+    public PreSignUploader(String localPath, UploaderCallback uploaderCallback, UploadPreSignCred preSignCred, JHttpTransport httpTransport) {
         super(localPath, uploaderCallback);
         this.mPreSignCred = preSignCred;
+        this.mHttpTransport = httpTransport;
     }
 
     @Override
@@ -67,12 +69,8 @@ public class PreSignUploader extends BaseUploader {
         }
         //开始上传
         JThreadPoolExecutor.runInBackground(() -> {
-            //构造OkHttpClient
-            OkHttpClient client = new OkHttpClient.Builder()
-                    .connectTimeout(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
-                    .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
-                    .writeTimeout(WRITE_TIMEOUT, TimeUnit.MILLISECONDS)
-                    .build();
+            //使用共享的OkHttpClient，同一个存储服务的上传复用连接和TLS会话
+            OkHttpClient client = mHttpTransport.getClient(CONNECT_TIMEOUT, READ_TIMEOUT, WRITE_TIMEOUT);
             //构造RequestBody
             File file = new File(mLocalPath);
             RequestBody requestBody = new RequestBody() {
@@ -99,7 +97,8 @@ public class PreSignUploader extends BaseUploader {
                                 return;
                             }
                             uploaded += read;
-                            sink.flush();
+                            //只写出完整的 segment，不逐块 flush，由 OkHttp 在请求体写完后统一 flush
+                            sink.emitCompleteSegments();
                             //计算上传进度
                             if (fileLength == -1) {
                                 notifyProgress(0);
@@ -119,16 +118,18 @@ public class PreSignUploader extends BaseUploader {
             //发起网络请求
             try {
                 currentCall = client.newCall(request);
-                Response response = currentCall.execute();
-                if (response.isSuccessful()) {
-                    //获取预签名上传地址去除query部分
-                    String modifiedUrl = removeQueryFromUrl(mPreSignCred.getUrl());
-                    //回调上传成功
-                    notifySuccess(modifiedUrl);
-                } else {
-                    JLogger.e("J-Uploader, PreSignUploader error, responseCode is " + response.code() + ", responseMessage is " + response.message());
-                    //回调上传失败
-                    notifyFail();
+                //关闭response，连接才能回到连接池
+                try (Response response = currentCall.execute()) {
+                    if (response.isSuccessful()) {
+                        //获取预签名上传地址去除query部分
+                        String modifiedUrl = removeQueryFromUrl(mPreSignCred.getUrl());
+                        //回调上传成功
+                        notifySuccess(modifiedUrl);
+                    } else {
+                        JLogger.e("J-Uploader, PreSignUploader error, responseCode is " + response.code() + ", responseMessage is " + response.message());
+                        //回调上传失败
+                        notifyFail();
+                    }
                 }
             } catch (Exception e) {
                 JLogger.e("J-Uploader, PreSignUploader error, exception is " + e.getMessage());
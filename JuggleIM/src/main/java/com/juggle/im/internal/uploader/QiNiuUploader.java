@@ -14,11 +14,13 @@ import com.qiniu.android.storage.UploadOptions;
  */
 public class QiNiuUploader extends BaseUploader {
     private final UploadQiNiuCred mQiNiuCred;
+    private final UploadManager mUploadManager;
     private volatile boolean mIsCancelled = false;
 
-    public QiNiuUploader(String localPath, UploaderCallback uploaderCallback, UploadQiNiuCred qiNiuCred) {
+    public QiNiuUploader(String localPath, UploaderCallback uploaderCallback, UploadQiNiuCred qiNiuCred, UploadManager uploadManager) {
         super(localPath, uploaderCallback);
         this.mQiNiuCred = qiNiuCred;
+        this.mUploadManager = uploadManager;
     }
 
     @Override
@@ -64,16 +66,15 @@ public class QiNiuUploader extends BaseUploader {
             }
             notifyFail();
         };
-        //声明进度回调
+        //声明进度回调，分片并发上传时 percent 为所有分片汇总后的进度
         UploadOptions options = new UploadOptions(null, null, false,
                 (key, percent) -> {
                     if (!fileName.equals(key)) return;
                     notifyProgress((int) (percent * 100));
                 },
                 () -> mIsCancelled);
-        //开始上传
-        UploadManager uploadManager = new UploadManager();
-        uploadManager.put(mLocalPath, fileName, mQiNiuCred.getToken(), completionHandler, options);
+        //开始上传，取消后已完成的分片保留在断点记录中
+        mUploadManager.put(mLocalPath, fileName, mQiNiuCred.getToken(), completionHandler, options);
     }
 
     @Override
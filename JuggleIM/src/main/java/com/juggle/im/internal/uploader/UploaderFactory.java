@@ -1,28 +1,70 @@
 package com.juggle.im.internal.uploader;
 
+import com.juggle.im.internal.core.network.JHttpTransport;
 import com.juggle.im.internal.model.upload.UploadOssType;
 import com.juggle.im.internal.model.upload.UploadPreSignCred;
 import com.juggle.im.internal.model.upload.UploadQiNiuCred;
+import com.juggle.im.internal.util.JLogger;
+import com.qiniu.android.storage.Configuration;
+import com.qiniu.android.storage.FileRecorder;
+import com.qiniu.android.storage.UploadManager;
+
+import java.io.IOException;
 
 /**
  * @author Ye_Guli
  * @create 2024-05-29 9:07
  */
 public class UploaderFactory {
-    public BaseUploader getUploader(String localPath, IUploader.UploaderCallback uploaderCallback, UploadOssType ossType, UploadQiNiuCred qiNiuCred, UploadPreSignCred preSignCred) {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;//分片大小
+    private static final int PUT_THRESHOLD = 4 * 1024 * 1024;//超过该大小的文件分片上传
+    private static final int CONCURRENT_TASK_COUNT = 3;//同一个文件同时上传的分片数
+
+    //recordDir 为分片上传断点记录的保存目录，为空时不记录断点
+    public UploaderFactory(String recordDir) {
+        this.mRecordDir = recordDir;
+    }
+
+    public BaseUploader getUploader(String localPath, IUploader.UploaderCallback uploaderCallback, UploadOssType ossType, UploadQiNiuCred qiNiuCred, UploadPreSignCred preSignCred, JHttpTransport httpTransport) {
         BaseUploader uploader = null;
         switch (ossType) {
             case QINIU:
-                uploader = new QiNiuUploader(localPath, uploaderCallback, qiNiuCred);
+                uploader = new QiNiuUploader(localPath, uploaderCallback, qiNiuCred, getQiNiuUploadManager());
                 break;
             case S3:
             case MINIO:
             case OSS:
-                uploader = new PreSignUploader(localPath, uploaderCallback, preSignCred);
+                uploader = new PreSignUploader(localPath, uploaderCallback, preSignCred, httpTransport);
                 break;
             default:
                 break;
         }
         return uploader;
     }
-}
\ No newline at end of file
+
+    //所有七牛上传共用一个 UploadManager
+    //大文件按 CHUNK_SIZE 分片并发上传，每个分片完成后写入断点记录，上传中断（包括 App 重启）后再次上传同一个文件从已完成的分片继续
+    private synchronized UploadManager getQiNiuUploadManager() {
+        if (mQiNiuUploadManager != null) {
+            return mQiNiuUploadManager;
+        }
+        Configuration.Builder builder = new Configuration.Builder()
+                .resumeUploadVersion(Configuration.RESUME_UPLOAD_VERSION_V2)
+                .useConcurrentResumeUpload(true)
+                .concurrentTaskCount(CONCURRENT_TASK_COUNT)
+                .chunkSize(CHUNK_SIZE)
+                .putThreshold(PUT_THRESHOLD);
+        if (mRecordDir != null && !mRecordDir.isEmpty()) {
+            try {
+                builder.recorder(new FileRecorder(mRecordDir));
+            } catch (IOException e) {
+                JLogger.e("J-Uploader", "create upload recorder error, exception is " + e.getMessage());
+            }
+        }
+        mQiNiuUploadManager = new UploadManager(builder.build());
+        return mQiNiuUploadManager;
+    }
+
+    private final String mRecordDir;
+    private UploadManager mQiNiuUploadManager;
+}
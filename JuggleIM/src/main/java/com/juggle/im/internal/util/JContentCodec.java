@@ -0,0 +1,206 @@
+package com.juggle.im.internal.util;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+//内置消息的流式 JSON 编解码，不构建 JSONObject，解码时直接从 byte[] 读取字符，不再生成中间的 String
+//输出仍是同样字段、同样顺序的 JSON，与服务端和旧版本存储的数据兼容
+//取值规则与 JSONObject 的 optString / optInt / optLong 一致；遇到对象、数组等无法按相同规则取值的字段时，
+//read 返回 false，由调用方回退到 JSONObject 解析
+public class JContentCodec {
+    public interface IFieldReader {
+        //返回 false 表示不认识的字段，由 read 跳过
+        boolean readField(String name, JsonReader reader) throws IOException;
+    }
+
+    public interface IFieldWriter {
+        void writeFields(JsonWriter writer) throws IOException;
+    }
+
+    public static boolean read(byte[] data, IFieldReader fieldReader) {
+        try (JsonReader reader = new JsonReader(new Utf8Reader(data))) {
+            reader.setLenient(true);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!fieldReader.readField(name, reader)) {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return true;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public static byte[] write(IFieldWriter fieldWriter) {
+        StringWriter out = new StringWriter(128);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            fieldWriter.writeFields(writer);
+            writer.endObject();
+        } catch (IOException e) {
+            JLogger.e("MSG-Encode", "JContentCodec write IOException " + e.getMessage());
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    //与 optString 一致：数字、布尔值转为字符串，null 为 "null"
+    public static String readString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return "null";
+            default:
+                throw new IllegalStateException("unsupported token " + token);
+        }
+    }
+
+    //与 optInt 一致：数字和数字字符串截断为 int，其它值为 0
+    public static int readInt(JsonReader reader) throws IOException {
+        String value = readNumber(reader);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return (int) Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Double.parseDouble(value);
+            } catch (NumberFormatException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    //与 optLong 一致
+    public static long readLong(JsonReader reader) throws IOException {
+        String value = readNumber(reader);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(value);
+            } catch (NumberFormatException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private static String readNumber(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString().trim();
+            case BOOLEAN:
+            case NULL:
+                reader.skipValue();
+                return null;
+            default:
+                throw new IllegalStateException("unsupported token " + token);
+        }
+    }
+
+    //按 UTF-8 直接从 byte[] 解码字符，非法序列替换为 U+FFFD
+    static class Utf8Reader extends Reader {
+        Utf8Reader(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int count = 0;
+            if (mPendingLowSurrogate != 0) {
+                buffer[offset + count++] = mPendingLowSurrogate;
+                mPendingLowSurrogate = 0;
+            }
+            while (count < length && mPosition < mData.length) {
+                int b = mData[mPosition] & 0xFF;
+                if (b < 0x80) {
+                    buffer[offset + count++] = (char) b;
+                    mPosition++;
+                    continue;
+                }
+                int codePoint = decodeMultiByte(b);
+                if (codePoint < 0x10000) {
+                    buffer[offset + count++] = (char) codePoint;
+                } else {
+                    buffer[offset + count++] = Character.highSurrogate(codePoint);
+                    char low = Character.lowSurrogate(codePoint);
+                    if (count < length) {
+                        buffer[offset + count++] = low;
+                    } else {
+                        mPendingLowSurrogate = low;
+                    }
+                }
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        //读取一个多字节字符并移动位置，非法序列只消耗已经检查过的字节
+        private int decodeMultiByte(int b) {
+            int needed;
+            int codePoint;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                needed = 1;
+                codePoint = b & 0x1F;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                needed = 2;
+                codePoint = b & 0x0F;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                needed = 3;
+                codePoint = b & 0x07;
+                min = 0x10000;
+            } else {
+                mPosition++;
+                return REPLACEMENT;
+            }
+            int position = mPosition + 1;
+            for (int i = 0; i < needed; i++, position++) {
+                if (position >= mData.length || (mData[position] & 0xC0) != 0x80) {
+                    mPosition = position;
+                    return REPLACEMENT;
+                }
+                codePoint = (codePoint << 6) | (mData[position] & 0x3F);
+            }
+            mPosition = position;
+            if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                return REPLACEMENT;
+            }
+            return codePoint;
+        }
+
+        private final byte[] mData;
+        private int mPosition;
+        private char mPendingLowSurrogate;
+        private static final int REPLACEMENT = 0xFFFD;
+    }
+}
@@ -5,6 +5,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.juggle.im.internal.ConstInternal;
+import com.juggle.im.internal.core.network.JHttpTransport;
 import com.juggle.im.internal.logger.IJLog;
 import com.juggle.im.internal.logger.JLogConfig;
 import com.juggle.im.internal.logger.JLogLevel;
@@ -34,6 +35,12 @@ public class JLogger implements IJLog {
 
     private JLogConfig mJLogConfig;
     private ActionManager mActionManager;
+    private volatile JHttpTransport mHttpTransport;
+
+    //日志上传使用 SDK 共享的 HTTP 连接
+    public void setHttpTransport(JHttpTransport httpTransport) {
+        mHttpTransport = httpTransport;
+    }
 
     public static void e(String tag, String... msg) {
         String logTag = generateLogTag(tag);
@@ -131,7 +138,7 @@ public class JLogger implements IJLog {
 
     @Override
     public void uploadLog(long startTime, long endTime, String appKey, String token, Callback callback) {
-        if (mJLogConfig == null || mActionManager == null) {
+        if (mJLogConfig == null || mActionManager == null || mHttpTransport == null) {
             callback.onError(-1, "IJLog not initialized yet");
             return;
         }
@@ -142,7 +149,7 @@ public class JLogger implements IJLog {
         final Map<String, String> headers = new HashMap<>();
         headers.put(ConstInternal.LOG_UPLOAD_HEADER_APP_KEY, appKey);
         headers.put(ConstInternal.LOG_UPLOAD_HEADER_TOKEN, token);
-        mActionManager.addUploadAction(startTime, endTime, ConstInternal.LOG_UPLOAD_URL, headers, callback);
+        mActionManager.addUploadAction(startTime, endTime, ConstInternal.LOG_UPLOAD_URL, headers, mHttpTransport, callback);
     }
 
     @Override
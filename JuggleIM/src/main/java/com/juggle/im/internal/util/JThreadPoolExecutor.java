@@ -22,6 +22,24 @@ public class JThreadPoolExecutor {
 
     private static ThreadPoolExecutor mPool = createThreadPoolExecutor();
 
+    //导航请求、长连接建连使用的独立线程池，不与上传、图片处理等耗时任务共用，重连不会排在它们之后
+    private static final int CONNECT_POOL_SIZE = 4;
+    private static final int CONNECT_WAIT_COUNT = 64;
+    private static final ThreadPoolExecutor mConnectPool = createConnectPoolExecutor();
+
+    private static ThreadPoolExecutor createConnectPoolExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(CONNECT_POOL_SIZE, CONNECT_POOL_SIZE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(CONNECT_WAIT_COUNT),
+                new CThreadFactory("JConnect"),
+                (r, e) -> {
+                    //队列满时退回到单独的线程执行，不丢弃建连任务
+                    JLogger.w("J-ThreadPool", "connect pool is full, run in new thread");
+                    new CThreadFactory("JConnectExtra").newThread(r).start();
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     private static ThreadPoolExecutor createThreadPoolExecutor() {
         if (mPool == null) {
             mPool = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
@@ -75,6 +93,10 @@ public class JThreadPoolExecutor {
         mPool.execute(runnable);
     }
 
+    public static void runConnectTask(Runnable runnable) {
+        mConnectPool.execute(runnable);
+    }
+
     private static final Thread mMainThread;
     private static final Handler mMainHandler;
 
@@ -0,0 +1,43 @@
+package com.juggle.im.model;
+
+//会话列表的位置变化，位置为全部会话按 置顶、置顶时间、排序时间 排序后的下标
+public class ConversationChange {
+    public enum ChangeType {
+        //插入到 toIndex
+        INSERT,
+        //从 fromIndex 移除
+        REMOVE,
+        //从 fromIndex 移动到 toIndex（移除后再插入的下标）
+        MOVE,
+        //位置不变，内容更新
+        UPDATE
+    }
+
+    public ConversationChange(ChangeType type, int fromIndex, int toIndex, ConversationInfo conversationInfo) {
+        mType = type;
+        mFromIndex = fromIndex;
+        mToIndex = toIndex;
+        mConversationInfo = conversationInfo;
+    }
+
+    public ChangeType getType() {
+        return mType;
+    }
+
+    public int getFromIndex() {
+        return mFromIndex;
+    }
+
+    public int getToIndex() {
+        return mToIndex;
+    }
+
+    public ConversationInfo getConversationInfo() {
+        return mConversationInfo;
+    }
+
+    private final ChangeType mType;
+    private final int mFromIndex;
+    private final int mToIndex;
+    private final ConversationInfo mConversationInfo;
+}
@@ -13,6 +13,7 @@ public class MessageQueryOptions {
     private List<Conversation> mConversations;//指定会话
     private List<Message.MessageState> mStates;//指定消息状态
     private Message.MessageDirection mDirection;//指定消息方向
+    private boolean mMetadataOnly;//只查询消息的元数据（id、时间、状态等），不读取消息内容，返回消息的 content 为 null
 
     public MessageQueryOptions() {
     }
@@ -24,6 +25,7 @@ public class MessageQueryOptions {
         this.mConversations = builder.mConversations;
         this.mStates = builder.mStates;
         this.mDirection = builder.mDirection;
+        this.mMetadataOnly = builder.mMetadataOnly;
     }
 
     public String getSearchContent() {
@@ -74,6 +76,14 @@ public class MessageQueryOptions {
         this.mDirection = direction;
     }
 
+    public boolean isMetadataOnly() {
+        return mMetadataOnly;
+    }
+
+    public void setMetadataOnly(boolean metadataOnly) {
+        this.mMetadataOnly = metadataOnly;
+    }
+
     public static class Builder {
         private String mSearchContent;
         private List<String> mSenderUserIds;
@@ -81,6 +91,7 @@ public class MessageQueryOptions {
         private List<Conversation> mConversations;
         private List<Message.MessageState> mStates;
         private Message.MessageDirection mDirection;
+        private boolean mMetadataOnly;
 
         public Builder() {
         }
@@ -115,6 +126,11 @@ public class MessageQueryOptions {
             return this;
         }
 
+        public Builder setMetadataOnly(boolean metadataOnly) {
+            this.mMetadataOnly = metadataOnly;
+            return this;
+        }
+
         public MessageQueryOptions build() {
             return new MessageQueryOptions(this);
         }
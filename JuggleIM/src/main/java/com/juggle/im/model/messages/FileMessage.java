@@ -1,13 +1,16 @@
 package com.juggle.im.model.messages;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
 
+import com.juggle.im.internal.util.JContentCodec;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.model.MediaMessageContent;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 public class FileMessage extends MediaMessageContent {
@@ -17,28 +20,24 @@ public class FileMessage extends MediaMessageContent {
 
     @Override
     public byte[] encode() {
-        JSONObject jsonObject = new JSONObject();
-        try {
+        return JContentCodec.write(writer -> {
             if (!TextUtils.isEmpty(mName)) {
-                jsonObject.put(NAME, mName);
+                writer.name(NAME).value(mName);
             }
             if (!TextUtils.isEmpty(getUrl())) {
-                jsonObject.put(URL, getUrl());
+                writer.name(URL).value(getUrl());
             }
             if (!TextUtils.isEmpty(getLocalPath())) {
-                jsonObject.put(LOCAL, getLocalPath());
+                writer.name(LOCAL).value(getLocalPath());
             }
-            jsonObject.put(SIZE, mSize);
+            writer.name(SIZE).value(mSize);
             if (!TextUtils.isEmpty(mType)) {
-                jsonObject.put(TYPE, mType);
+                writer.name(TYPE).value(mType);
             }
             if (!TextUtils.isEmpty(mExtra)) {
-                jsonObject.put(EXTRA, mExtra);
+                writer.name(EXTRA).value(mExtra);
             }
-        } catch (JSONException e) {
-            JLogger.e("MSG-Encode", "FileMessage JSONException " + e.getMessage());
-        }
-        return jsonObject.toString().getBytes(StandardCharsets.UTF_8);
+        });
     }
 
     @Override
@@ -47,6 +46,10 @@ public class FileMessage extends MediaMessageContent {
             JLogger.e("MSG-Decode", "FileMessage decode data is null");
             return;
         }
+        if (JContentCodec.read(data, this::readField)) {
+            return;
+        }
+        //流式解析失败（字段值是对象、数组等）时按原来的方式解析
         String jsonStr = new String(data, StandardCharsets.UTF_8);
 
         try {
@@ -74,6 +77,31 @@ public class FileMessage extends MediaMessageContent {
         }
     }
 
+    private boolean readField(String name, JsonReader reader) throws IOException {
+        switch (name) {
+            case URL:
+                setUrl(JContentCodec.readString(reader));
+                return true;
+            case LOCAL:
+                setLocalPath(JContentCodec.readString(reader));
+                return true;
+            case NAME:
+                mName = JContentCodec.readString(reader);
+                return true;
+            case SIZE:
+                mSize = JContentCodec.readLong(reader);
+                return true;
+            case TYPE:
+                mType = JContentCodec.readString(reader);
+                return true;
+            case EXTRA:
+                mExtra = JContentCodec.readString(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public String conversationDigest() {
         return DIGEST;
@@ -1,13 +1,16 @@
 package com.juggle.im.model.messages;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
 
+import com.juggle.im.internal.util.JContentCodec;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.model.MediaMessageContent;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 public class ImageMessage extends MediaMessageContent {
@@ -18,30 +21,26 @@ public class ImageMessage extends MediaMessageContent {
 
     @Override
     public byte[] encode() {
-        JSONObject jsonObject = new JSONObject();
-        try {
+        return JContentCodec.write(writer -> {
             if (!TextUtils.isEmpty(getUrl())) {
-                jsonObject.put(URL, getUrl());
+                writer.name(URL).value(getUrl());
             }
             if (!TextUtils.isEmpty(getLocalPath())) {
-                jsonObject.put(LOCAL, getLocalPath());
+                writer.name(LOCAL).value(getLocalPath());
             }
             if (!TextUtils.isEmpty(mThumbnailUrl)) {
-                jsonObject.put(THUMBNAIL, mThumbnailUrl);
+                writer.name(THUMBNAIL).value(mThumbnailUrl);
             }
             if (!TextUtils.isEmpty(mThumbnailLocalPath)) {
-                jsonObject.put(THUMBNAIL_LOCAL, mThumbnailLocalPath);
+                writer.name(THUMBNAIL_LOCAL).value(mThumbnailLocalPath);
             }
-            jsonObject.put(HEIGHT, mHeight);
-            jsonObject.put(WIDTH, mWidth);
+            writer.name(HEIGHT).value(mHeight);
+            writer.name(WIDTH).value(mWidth);
             if (!TextUtils.isEmpty(mExtra)) {
-                jsonObject.put(EXTRA, mExtra);
+                writer.name(EXTRA).value(mExtra);
             }
-            jsonObject.put(SIZE, mSize);
-        } catch (JSONException e) {
-            JLogger.e("MSG-Encode", "ImageMessage JSONException " + e.getMessage());
-        }
-        return jsonObject.toString().getBytes(StandardCharsets.UTF_8);
+            writer.name(SIZE).value(mSize);
+        });
     }
 
     @Override
@@ -50,6 +49,10 @@ public class ImageMessage extends MediaMessageContent {
             JLogger.e("MSG-Decode", "ImageMessage decode data is null");
             return;
         }
+        if (JContentCodec.read(data, this::readField)) {
+            return;
+        }
+        //流式解析失败（字段值是对象、数组等）时按原来的方式解析
         String jsonStr = new String(data, StandardCharsets.UTF_8);
 
         try {
@@ -83,6 +86,37 @@ public class ImageMessage extends MediaMessageContent {
         }
     }
 
+    private boolean readField(String name, JsonReader reader) throws IOException {
+        switch (name) {
+            case URL:
+                setUrl(JContentCodec.readString(reader));
+                return true;
+            case LOCAL:
+                setLocalPath(JContentCodec.readString(reader));
+                return true;
+            case THUMBNAIL:
+                mThumbnailUrl = JContentCodec.readString(reader);
+                return true;
+            case THUMBNAIL_LOCAL:
+                mThumbnailLocalPath = JContentCodec.readString(reader);
+                return true;
+            case HEIGHT:
+                mHeight = JContentCodec.readInt(reader);
+                return true;
+            case WIDTH:
+                mWidth = JContentCodec.readInt(reader);
+                return true;
+            case EXTRA:
+                mExtra = JContentCodec.readString(reader);
+                return true;
+            case SIZE:
+                mSize = JContentCodec.readLong(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public String conversationDigest() {
         return DIGEST;
@@ -1,13 +1,16 @@
 package com.juggle.im.model.messages;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
 
+import com.juggle.im.internal.util.JContentCodec;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.model.MessageContent;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 public class TextMessage extends MessageContent {
@@ -24,18 +27,14 @@ public class TextMessage extends MessageContent {
 
     @Override
     public byte[] encode() {
-        JSONObject jsonObject = new JSONObject();
-        try {
+        return JContentCodec.write(writer -> {
             if (!TextUtils.isEmpty(mContent)) {
-                jsonObject.put(CONTENT, mContent);
+                writer.name(CONTENT).value(mContent);
             }
             if (!TextUtils.isEmpty(mExtra)) {
-                jsonObject.put(EXTRA, mExtra);
+                writer.name(EXTRA).value(mExtra);
             }
-        } catch (JSONException e) {
-            JLogger.e("MSG-Encode", "TextMessage JSONException " + e.getMessage());
-        }
-        return jsonObject.toString().getBytes(StandardCharsets.UTF_8);
+        });
     }
 
     @Override
@@ -44,6 +43,10 @@ public class TextMessage extends MessageContent {
             JLogger.e("MSG-Decode", "TextMessage decode data is null");
             return;
         }
+        if (JContentCodec.read(data, this::readField)) {
+            return;
+        }
+        //流式解析失败（字段值是对象、数组等）时按原来的方式解析
         String jsonStr = new String(data, StandardCharsets.UTF_8);
 
         try {
@@ -59,6 +62,19 @@ public class TextMessage extends MessageContent {
         }
     }
 
+    private boolean readField(String name, JsonReader reader) throws IOException {
+        switch (name) {
+            case CONTENT:
+                mContent = JContentCodec.readString(reader);
+                return true;
+            case EXTRA:
+                mExtra = JContentCodec.readString(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public String conversationDigest() {
         if (!TextUtils.isEmpty(mContent)) {
@@ -1,13 +1,16 @@
 package com.juggle.im.model.messages;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
 
+import com.juggle.im.internal.util.JContentCodec;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.model.MediaMessageContent;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 public class VideoMessage extends MediaMessageContent {
@@ -18,31 +21,27 @@ public class VideoMessage extends MediaMessageContent {
 
     @Override
     public byte[] encode() {
-        JSONObject jsonObject = new JSONObject();
-        try {
+        return JContentCodec.write(writer -> {
             if (!TextUtils.isEmpty(getUrl())) {
-                jsonObject.put(URL, getUrl());
+                writer.name(URL).value(getUrl());
             }
             if (!TextUtils.isEmpty(getLocalPath())) {
-                jsonObject.put(LOCAL, getLocalPath());
+                writer.name(LOCAL).value(getLocalPath());
             }
             if (!TextUtils.isEmpty(mSnapshotUrl)) {
-                jsonObject.put(POSTER, mSnapshotUrl);
+                writer.name(POSTER).value(mSnapshotUrl);
             }
             if (!TextUtils.isEmpty(mSnapshotLocalPath)) {
-                jsonObject.put(POSTER_LOCAL, mSnapshotLocalPath);
+                writer.name(POSTER_LOCAL).value(mSnapshotLocalPath);
             }
-            jsonObject.put(HEIGHT, mHeight);
-            jsonObject.put(WIDTH, mWidth);
+            writer.name(HEIGHT).value(mHeight);
+            writer.name(WIDTH).value(mWidth);
             if (!TextUtils.isEmpty(mExtra)) {
-                jsonObject.put(EXTRA, mExtra);
+                writer.name(EXTRA).value(mExtra);
             }
-            jsonObject.put(DURATION, mDuration);
-            jsonObject.put(SIZE, mSize);
-        } catch (JSONException e) {
-            JLogger.e("MSG-Encode", "VideoMessage JSONException " + e.getMessage());
-        }
-        return jsonObject.toString().getBytes(StandardCharsets.UTF_8);
+            writer.name(DURATION).value(mDuration);
+            writer.name(SIZE).value(mSize);
+        });
     }
 
     @Override
@@ -51,6 +50,10 @@ public class VideoMessage extends MediaMessageContent {
             JLogger.e("MSG-Decode", "VideoMessage decode data is null");
             return;
         }
+        if (JContentCodec.read(data, this::readField)) {
+            return;
+        }
+        //流式解析失败（字段值是对象、数组等）时按原来的方式解析
         String jsonStr = new String(data, StandardCharsets.UTF_8);
 
         try {
@@ -87,6 +90,40 @@ public class VideoMessage extends MediaMessageContent {
         }
     }
 
+    private boolean readField(String name, JsonReader reader) throws IOException {
+        switch (name) {
+            case URL:
+                setUrl(JContentCodec.readString(reader));
+                return true;
+            case LOCAL:
+                setLocalPath(JContentCodec.readString(reader));
+                return true;
+            case POSTER:
+                mSnapshotUrl = JContentCodec.readString(reader);
+                return true;
+            case POSTER_LOCAL:
+                mSnapshotLocalPath = JContentCodec.readString(reader);
+                return true;
+            case HEIGHT:
+                mHeight = JContentCodec.readInt(reader);
+                return true;
+            case WIDTH:
+                mWidth = JContentCodec.readInt(reader);
+                return true;
+            case DURATION:
+                mDuration = JContentCodec.readInt(reader);
+                return true;
+            case SIZE:
+                mSize = JContentCodec.readLong(reader);
+                return true;
+            case EXTRA:
+                mExtra = JContentCodec.readString(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public String conversationDigest() {
         return DIGEST;
@@ -1,13 +1,16 @@
 package com.juggle.im.model.messages;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
 
+import com.juggle.im.internal.util.JContentCodec;
 import com.juggle.im.internal.util.JLogger;
 import com.juggle.im.model.MediaMessageContent;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 public class VoiceMessage extends MediaMessageContent {
@@ -17,22 +20,18 @@ public class VoiceMessage extends MediaMessageContent {
 
     @Override
     public byte[] encode() {
-        JSONObject jsonObject = new JSONObject();
-        try {
+        return JContentCodec.write(writer -> {
             if (!TextUtils.isEmpty(getUrl())) {
-                jsonObject.put(URL, getUrl());
+                writer.name(URL).value(getUrl());
             }
             if (!TextUtils.isEmpty(getLocalPath())) {
-                jsonObject.put(LOCAL, getLocalPath());
+                writer.name(LOCAL).value(getLocalPath());
             }
-            jsonObject.put(DURATION, mDuration);
+            writer.name(DURATION).value(mDuration);
             if (!TextUtils.isEmpty(mExtra)) {
-                jsonObject.put(EXTRA, mExtra);
+                writer.name(EXTRA).value(mExtra);
             }
-        } catch (JSONException e) {
-            JLogger.e("MSG-Encode", "VoiceMessage JSONException " + e.getMessage());
-        }
-        return jsonObject.toString().getBytes(StandardCharsets.UTF_8);
+        });
     }
 
     @Override
@@ -41,6 +40,10 @@ public class VoiceMessage extends MediaMessageContent {
             JLogger.e("MSG-Decode", "VoiceMessage decode data is null");
             return;
         }
+        if (JContentCodec.read(data, this::readField)) {
+            return;
+        }
+        //流式解析失败（字段值是对象、数组等）时按原来的方式解析
         String jsonStr = new String(data, StandardCharsets.UTF_8);
 
         try {
@@ -62,6 +65,25 @@ public class VoiceMessage extends MediaMessageContent {
         }
     }
 
+    private boolean readField(String name, JsonReader reader) throws IOException {
+        switch (name) {
+            case URL:
+                setUrl(JContentCodec.readString(reader));
+                return true;
+            case LOCAL:
+                setLocalPath(JContentCodec.readString(reader));
+                return true;
+            case DURATION:
+                mDuration = JContentCodec.readInt(reader);
+                return true;
+            case EXTRA:
+                mExtra = JContentCodec.readString(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public String conversationDigest() {
         return DIGEST;
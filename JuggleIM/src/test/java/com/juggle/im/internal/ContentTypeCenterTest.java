@@ -0,0 +1,186 @@
+package com.juggle.im.internal;
+
+import com.juggle.im.internal.model.messages.AddConvMessage;
+import com.juggle.im.internal.model.messages.CleanMsgMessage;
+import com.juggle.im.internal.model.messages.ClearTotalUnreadMessage;
+import com.juggle.im.internal.model.messages.ClearUnreadMessage;
+import com.juggle.im.internal.model.messages.DeleteConvMessage;
+import com.juggle.im.internal.model.messages.DeleteMsgMessage;
+import com.juggle.im.internal.model.messages.GroupReadNtfMessage;
+import com.juggle.im.internal.model.messages.LogCommandMessage;
+import com.juggle.im.internal.model.messages.ReadNtfMessage;
+import com.juggle.im.internal.model.messages.RecallCmdMessage;
+import com.juggle.im.internal.model.messages.TopConvMessage;
+import com.juggle.im.internal.model.messages.UnDisturbConvMessage;
+import com.juggle.im.model.Conversation;
+import com.juggle.im.model.MessageContent;
+import com.juggle.im.model.messages.FileMessage;
+import com.juggle.im.model.messages.ImageMessage;
+import com.juggle.im.model.messages.MergeMessage;
+import com.juggle.im.model.messages.RecallInfoMessage;
+import com.juggle.im.model.messages.SnapshotPackedVideoMessage;
+import com.juggle.im.model.messages.TextMessage;
+import com.juggle.im.model.messages.ThumbnailPackedImageMessage;
+import com.juggle.im.model.messages.VideoMessage;
+import com.juggle.im.model.messages.VoiceMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 内置消息类型的注册都能通过 getContent 还原出同一类型的新对象
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContentTypeCenterTest {
+    private ContentTypeCenter mCenter;
+
+    @Before
+    public void setUp() {
+        mCenter = new ContentTypeCenter();
+        mCenter.registerBuiltinContentTypes();
+    }
+
+    @Test
+    public void contentMessagesRoundTrip() {
+        for (MessageContent content : contentSamples()) {
+            byte[] data = content.encode();
+            MessageContent decoded = assertDecoded(content, data);
+            assertEquals(content.getContentType(), new String(data, StandardCharsets.UTF_8), new String(decoded.encode(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void commandMessagesDecode() {
+        //命令消息只接收不发送，encode 为空，这里用空 JSON 确认注册的工厂能创建并解码
+        byte[] data = "{}".getBytes(StandardCharsets.UTF_8);
+        for (MessageContent content : commandSamples()) {
+            assertDecoded(content, data);
+        }
+    }
+
+    @Test
+    public void unknownTypeReturnsNull() {
+        assertNull(mCenter.getContent("{}".getBytes(StandardCharsets.UTF_8), "jg:unknown"));
+        assertEquals(-1, mCenter.flagsWithType("jg:unknown"));
+    }
+
+    @Test
+    public void benchmarkDecodeThroughput() {
+        int count = 100000;
+        byte[] data = new TextMessage("benchmark text").encode();
+        String type = new TextMessage().getContentType();
+
+        ContentTypeCenter reflection = new ContentTypeCenter();
+        reflection.registerContentType(TextMessage.class);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            reflection.getContent(data, type);
+        }
+        long reflectionNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            mCenter.getContent(data, type);
+        }
+        long factoryNanos = System.nanoTime() - start;
+        System.out.println(String.format("getContent %s: Class registration %.0f decodes/s, factory registration %.0f decodes/s",
+                type, count * 1e9 / reflectionNanos, count * 1e9 / factoryNanos));
+    }
+
+    private MessageContent assertDecoded(MessageContent content, byte[] data) {
+        String type = content.getContentType();
+        MessageContent decoded = mCenter.getContent(data, type);
+        assertNotNull(type, decoded);
+        assertSame(type, content.getClass(), decoded.getClass());
+        assertEquals(type, decoded.getContentType());
+        assertEquals(type, content.getFlags(), mCenter.flagsWithType(type));
+        //每次解码都是新对象
+        assertNotSame(type, decoded, mCenter.getContent(data, type));
+        return decoded;
+    }
+
+    private List<MessageContent> contentSamples() {
+        List<MessageContent> list = new ArrayList<>();
+        TextMessage text = new TextMessage("hello");
+        text.setExtra("extra");
+        list.add(text);
+
+        ImageMessage image = new ImageMessage();
+        image.setUrl("https://example.com/a.jpg");
+        image.setThumbnailUrl("https://example.com/a_thumb.jpg");
+        image.setWidth(640);
+        image.setHeight(480);
+        image.setSize(1024);
+        list.add(image);
+
+        FileMessage file = new FileMessage();
+        file.setUrl("https://example.com/a.pdf");
+        file.setName("a.pdf");
+        file.setSize(2048);
+        file.setType("pdf");
+        list.add(file);
+
+        VoiceMessage voice = new VoiceMessage();
+        voice.setUrl("https://example.com/a.amr");
+        voice.setDuration(12);
+        list.add(voice);
+
+        VideoMessage video = new VideoMessage();
+        video.setUrl("https://example.com/a.mp4");
+        video.setSnapshotUrl("https://example.com/a.jpg");
+        video.setWidth(1280);
+        video.setHeight(720);
+        video.setSize(4096);
+        video.setDuration(30);
+        list.add(video);
+
+        RecallInfoMessage recallInfo = new RecallInfoMessage();
+        recallInfo.setExtra(Collections.singletonMap("key", "value"));
+        list.add(recallInfo);
+
+        MergeMessage merge = new MergeMessage("title", new Conversation(Conversation.ConversationType.GROUP, "g1"),
+                Arrays.asList("m1", "m2"), new ArrayList<>());
+        merge.setContainerMsgId("container");
+        list.add(merge);
+
+        ThumbnailPackedImageMessage thumbnailImage = new ThumbnailPackedImageMessage();
+        thumbnailImage.setUrl("https://example.com/b.jpg");
+        thumbnailImage.setWidth(320);
+        thumbnailImage.setHeight(240);
+        list.add(thumbnailImage);
+
+        SnapshotPackedVideoMessage snapshotVideo = new SnapshotPackedVideoMessage();
+        snapshotVideo.setUrl("https://example.com/b.mp4");
+        snapshotVideo.setWidth(640);
+        snapshotVideo.setHeight(360);
+        snapshotVideo.setDuration(15);
+        list.add(snapshotVideo);
+        return list;
+    }
+
+    private List<MessageContent> commandSamples() {
+        return Arrays.asList(
+                new RecallCmdMessage(),
+                new DeleteConvMessage(),
+                new ReadNtfMessage(),
+                new GroupReadNtfMessage(),
+                new CleanMsgMessage(),
+                new DeleteMsgMessage(),
+                new ClearUnreadMessage(),
+                new TopConvMessage(),
+                new UnDisturbConvMessage(),
+                new LogCommandMessage(),
+                new AddConvMessage(),
+                new ClearTotalUnreadMessage());
+    }
+}
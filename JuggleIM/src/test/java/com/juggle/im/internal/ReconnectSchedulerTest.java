@@ -0,0 +1,52 @@
+package com.juggle.im.internal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 重连退避间隔的范围和随机抖动
+ */
+public class ReconnectSchedulerTest {
+    @Test
+    public void intervalDoublesUpToMax() {
+        assertEquals(ReconnectScheduler.RECONNECT_BASE_INTERVAL, ReconnectScheduler.backoffInterval(0));
+        for (int level = 1; level < 40; level++) {
+            long previous = ReconnectScheduler.backoffInterval(level - 1);
+            long interval = ReconnectScheduler.backoffInterval(level);
+            assertEquals(Math.min(ReconnectScheduler.RECONNECT_MAX_INTERVAL, previous * 2), interval);
+        }
+        assertEquals(ReconnectScheduler.RECONNECT_MAX_INTERVAL, ReconnectScheduler.backoffInterval(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void delayStaysInLowerHalfOpenRange() {
+        for (int level = 0; level < 40; level++) {
+            long interval = ReconnectScheduler.backoffInterval(level);
+            assertEquals(interval / 2, ReconnectScheduler.backoffDelay(level, 0));
+            long max = ReconnectScheduler.backoffDelay(level, Math.nextDown(1.0));
+            assertTrue(max < interval);
+            assertTrue(max >= interval / 2);
+        }
+    }
+
+    @Test
+    public void delayIsJittered() {
+        // 同一级别的延迟分布在整个区间内，不会集中在一个值上
+        Random random = new Random(1);
+        int level = 3;
+        long interval = ReconnectScheduler.backoffInterval(level);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long delay = ReconnectScheduler.backoffDelay(level, random.nextDouble());
+            assertTrue(delay >= interval / 2 && delay < interval);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min < interval / 2 + interval / 8);
+        assertTrue(max > interval - interval / 8);
+    }
+}
@@ -0,0 +1,139 @@
+package com.juggle.im.internal.core.db;
+
+import com.juggle.im.JIMConst;
+import com.juggle.im.internal.model.ConcreteConversationInfo;
+import com.juggle.im.model.Conversation;
+import com.juggle.im.model.ConversationChange;
+import com.juggle.im.model.ConversationInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 会话列表缓存的排序和位置变化
+ */
+public class ConversationCacheTest {
+    private ConversationCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new ConversationCache();
+        mCache.load(Arrays.asList(
+                createInfo("a", 100, false, 0),
+                createInfo("b", 300, false, 0),
+                createInfo("c", 200, true, 10)), mCache.getVersion());
+        assertTrue(mCache.isLoaded());
+    }
+
+    @Test
+    public void loadSortsTopFirstThenByTime() {
+        assertEquals(Arrays.asList("c", "b", "a"), ids(mCache.getAll()));
+    }
+
+    @Test
+    public void loadIsDroppedWhenUpdatedDuringLoad() {
+        ConversationCache cache = new ConversationCache();
+        long version = cache.getVersion();
+        cache.update(conversation("a"), createInfo("a", 100, false, 0), cache.nextTicket());
+        cache.load(new ArrayList<>(), version);
+        assertFalse(cache.isLoaded());
+    }
+
+    @Test
+    public void updateReportsIndexes() {
+        ConversationChange change = mCache.update(conversation("a"), createInfo("a", 400, false, 0), mCache.nextTicket());
+        assertEquals(ConversationChange.ChangeType.MOVE, change.getType());
+        assertEquals(2, change.getFromIndex());
+        assertEquals(1, change.getToIndex());
+
+        change = mCache.update(conversation("a"), createInfo("a", 400, false, 0), mCache.nextTicket());
+        assertEquals(ConversationChange.ChangeType.UPDATE, change.getType());
+        assertEquals(1, change.getFromIndex());
+        assertEquals(1, change.getToIndex());
+
+        change = mCache.update(conversation("d"), createInfo("d", 50, false, 0), mCache.nextTicket());
+        assertEquals(ConversationChange.ChangeType.INSERT, change.getType());
+        assertEquals(-1, change.getFromIndex());
+        assertEquals(3, change.getToIndex());
+
+        change = mCache.update(conversation("c"), null, mCache.nextTicket());
+        assertEquals(ConversationChange.ChangeType.REMOVE, change.getType());
+        assertEquals(0, change.getFromIndex());
+        assertEquals(-1, change.getToIndex());
+
+        assertNull(mCache.update(conversation("x"), null, mCache.nextTicket()));
+        assertEquals(Arrays.asList("a", "b", "d"), ids(mCache.getAll()));
+    }
+
+    @Test
+    public void olderTicketIsIgnored() {
+        long older = mCache.nextTicket();
+        long newer = mCache.nextTicket();
+        assertNotNull(mCache.update(conversation("a"), createInfo("a", 400, false, 0), newer));
+        assertNull(mCache.update(conversation("a"), createInfo("a", 1, false, 0), older));
+        assertEquals(Arrays.asList("c", "a", "b"), ids(mCache.getAll()));
+    }
+
+    @Test
+    public void mutatingReturnedInfoKeepsCacheConsistent() {
+        // 调用方修改返回的对象不能影响缓存中的排序
+        for (ConversationInfo info : mCache.getAll()) {
+            info.setSortTime(0);
+            info.setTop(false);
+        }
+        ConversationChange change = mCache.update(conversation("b"), createInfo("b", 500, false, 0), mCache.nextTicket());
+        assertEquals(ConversationChange.ChangeType.UPDATE, change.getType());
+        change.getConversationInfo().setTop(true);
+
+        List<ConversationInfo> all = mCache.getAll();
+        assertEquals(Arrays.asList("c", "b", "a"), ids(all));
+        assertEquals(3, all.size());
+        assertNotSame(all.get(0), mCache.getAll().get(0));
+        assertEquals(500, all.get(1).getSortTime());
+    }
+
+    @Test
+    public void queryFiltersByDirectionAndTop() {
+        List<ConversationInfo> older = mCache.query(null, 10, 300, JIMConst.PullDirection.OLDER, false);
+        assertEquals(Arrays.asList("c", "a"), ids(older));
+
+        List<ConversationInfo> newer = mCache.query(new int[]{Conversation.ConversationType.GROUP.getValue()}, 1, 100, JIMConst.PullDirection.NEWER, false);
+        assertEquals(Arrays.asList("c"), ids(newer));
+
+        List<ConversationInfo> top = mCache.query(null, 10, Long.MAX_VALUE, JIMConst.PullDirection.OLDER, true);
+        assertEquals(Arrays.asList("c"), ids(top));
+    }
+
+    @Test
+    public void getConversationsByFilter() {
+        List<Conversation> conversations = mCache.getConversations(ConversationInfo::isTop);
+        assertEquals(Arrays.asList(conversation("c")), conversations);
+    }
+
+    private static Conversation conversation(String id) {
+        return new Conversation(Conversation.ConversationType.GROUP, id);
+    }
+
+    private static ConcreteConversationInfo createInfo(String id, long sortTime, boolean isTop, long topTime) {
+        ConcreteConversationInfo info = new ConcreteConversationInfo();
+        info.setConversation(conversation(id));
+        info.setSortTime(sortTime);
+        info.setTop(isTop);
+        info.setTopTime(topTime);
+        return info;
+    }
+
+    private static List<String> ids(List<ConversationInfo> list) {
+        List<String> result = new ArrayList<>();
+        for (ConversationInfo info : list) {
+            result.add(info.getConversation().getConversationId());
+        }
+        return result;
+    }
+}
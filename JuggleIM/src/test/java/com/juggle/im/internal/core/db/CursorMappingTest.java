@@ -0,0 +1,225 @@
+package com.juggle.im.internal.core.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.juggle.im.internal.model.ConcreteConversationInfo;
+import com.juggle.im.internal.model.ConcreteMessage;
+import com.juggle.im.model.Conversation;
+import com.juggle.im.model.ConversationMentionInfo;
+import com.juggle.im.model.Message;
+import com.juggle.im.model.MessageMentionInfo;
+import com.juggle.im.model.messages.TextMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * MessageSql、ConversationSql 中 INDEX_* 常量与 COLUMNS 的顺序一致：每一列写入不同的值，按下标读出后逐个字段核对
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CursorMappingTest {
+    private DBHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mHelper = new DBHelper(RuntimeEnvironment.getApplication(), null, false);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void messageIndexesMatchColumns() {
+        insertMessage(1004, "uid", 1001);
+        Cursor cursor = mDb.rawQuery("SELECT " + MessageSql.PROJECTION + " FROM message", null);
+        assertTrue(cursor.moveToFirst());
+        ConcreteMessage message = MessageSql.messageWithCursor(cursor, MessageSql.columnIndexes(cursor));
+        cursor.close();
+        assertMessage(message);
+        assertEquals("text", ((TextMessage) message.getContent()).getContent());
+
+        //只查询元数据时没有 content 列，其余字段不受影响
+        cursor = mDb.rawQuery("SELECT " + MessageSql.METADATA_PROJECTION + " FROM message", null);
+        assertTrue(cursor.moveToFirst());
+        message = MessageSql.messageWithCursor(cursor, MessageSql.columnIndexes(cursor));
+        cursor.close();
+        assertMessage(message);
+        assertNull(message.getContent());
+    }
+
+    @Test
+    public void conversationIndexesMatchColumns() {
+        //两行的布尔列取值不同，任意两个布尔列对调都能发现
+        insertConversation("c1", true, false, true, false);
+        insertConversation("c2", false, true, true, false);
+        Cursor cursor = mDb.rawQuery("SELECT " + ConversationSql.PROJECTION + " FROM conversation_info ORDER BY conversation_id", null);
+        CursorHelper.ColumnIndexes columns = ConversationSql.columnIndexes(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertConversation(ConversationSql.conversationInfoWithCursor(cursor, columns), "c1", true, false, true, false);
+        assertTrue(cursor.moveToNext());
+        assertConversation(ConversationSql.conversationInfoWithCursor(cursor, columns), "c2", false, true, true, false);
+        cursor.close();
+    }
+
+    @Test
+    public void benchmarkReadRowsPerSecond() {
+        int count = 10000;
+        mDb.beginTransaction();
+        for (int i = 0; i < count; i++) {
+            insertMessage(i + 1, "uid" + i, i);
+        }
+        mDb.setTransactionSuccessful();
+        mDb.endTransaction();
+
+        //每行按列名查找下标，与原来 CursorHelper.readXxx(cursor, key) 的方式相当
+        long start = System.nanoTime();
+        Cursor cursor = mDb.rawQuery("SELECT " + MessageSql.PROJECTION + " FROM message", null);
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            MessageSql.messageWithCursor(cursor);
+            rows++;
+        }
+        cursor.close();
+        long byNameNanos = System.nanoTime() - start;
+        assertEquals(count, rows);
+
+        start = System.nanoTime();
+        cursor = mDb.rawQuery("SELECT " + MessageSql.PROJECTION + " FROM message", null);
+        CursorHelper.ColumnIndexes columns = MessageSql.columnIndexes(cursor);
+        while (cursor.moveToNext()) {
+            MessageSql.messageWithCursor(cursor, columns);
+        }
+        cursor.close();
+        long byIndexNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("messageWithCursor %d rows: by name %.0f rows/s, by index %.0f rows/s",
+                count, count * 1e9 / byNameNanos, count * 1e9 / byIndexNanos));
+    }
+
+    private void insertMessage(long id, String messageUid, long timestamp) {
+        MessageMentionInfo mentionInfo = new MessageMentionInfo();
+        mentionInfo.setType(MessageMentionInfo.MentionType.ALL);
+        ContentValues cv = new ContentValues();
+        cv.put(MessageSql.COL_MESSAGE_ID, id);
+        cv.put(MessageSql.COL_CONVERSATION_TYPE, Conversation.ConversationType.GROUP.getValue());
+        cv.put(MessageSql.COL_CONVERSATION_ID, "conv");
+        cv.put(MessageSql.COL_CONTENT_TYPE, "jg:text");
+        cv.put(MessageSql.COL_MESSAGE_UID, messageUid);
+        cv.put(MessageSql.COL_MESSAGE_CLIENT_UID, "client-uid");
+        cv.put(MessageSql.COL_DIRECTION, Message.MessageDirection.SEND.getValue());
+        cv.put(MessageSql.COL_STATE, Message.MessageState.FAIL.getValue());
+        cv.put(MessageSql.COL_HAS_READ, 1);
+        cv.put(MessageSql.COL_TIMESTAMP, timestamp);
+        cv.put(MessageSql.COL_SENDER, "sender");
+        cv.put(MessageSql.COL_CONTENT, new String(new TextMessage("text").encode()));
+        cv.put(MessageSql.COL_SEQ_NO, 1002);
+        cv.put(MessageSql.COL_MESSAGE_INDEX, 1003);
+        cv.put(MessageSql.COL_READ_COUNT, 4);
+        cv.put(MessageSql.COL_MEMBER_COUNT, 5);
+        cv.put(MessageSql.COL_LOCAL_ATTRIBUTE, "attribute");
+        cv.put(MessageSql.COL_IS_DELETED, 0);
+        cv.put(MessageSql.COL_MENTION_INFO, mentionInfo.encodeToJson());
+        cv.put(MessageSql.COL_REFER_MSG_ID, "refer");
+        assertTrue(mDb.insert(MessageSql.TABLE, null, cv) > 0);
+    }
+
+    private void assertMessage(ConcreteMessage message) {
+        assertEquals(Conversation.ConversationType.GROUP, message.getConversation().getConversationType());
+        assertEquals("conv", message.getConversation().getConversationId());
+        assertEquals("jg:text", message.getContentType());
+        assertEquals(1004, message.getClientMsgNo());
+        assertEquals("uid", message.getMessageId());
+        assertEquals("client-uid", message.getClientUid());
+        assertEquals(Message.MessageDirection.SEND, message.getDirection());
+        assertEquals(Message.MessageState.FAIL, message.getState());
+        assertTrue(message.isHasRead());
+        assertEquals(1001, message.getTimestamp());
+        assertEquals("sender", message.getSenderUserId());
+        assertEquals(1002, message.getSeqNo());
+        assertEquals(1003, message.getMsgIndex());
+        assertEquals(4, message.getGroupMessageReadInfo().getReadCount());
+        assertEquals(5, message.getGroupMessageReadInfo().getMemberCount());
+        assertEquals("attribute", message.getLocalAttribute());
+        assertFalse(message.isDelete());
+        assertEquals(MessageMentionInfo.MentionType.ALL, message.getMentionInfo().getType());
+        assertEquals("refer", message.getReferMsgId());
+    }
+
+    private void insertConversation(String conversationId, boolean isTop, boolean mute, boolean hasRead, boolean unreadTag) {
+        ConversationMentionInfo.MentionMsg mentionMsg = new ConversationMentionInfo.MentionMsg();
+        mentionMsg.setMsgId("mention");
+        ConversationMentionInfo mentionInfo = new ConversationMentionInfo();
+        mentionInfo.setMentionMsgList(Collections.singletonList(mentionMsg));
+        MessageMentionInfo lastMentionInfo = new MessageMentionInfo();
+        lastMentionInfo.setType(MessageMentionInfo.MentionType.SOMEONE);
+        ContentValues cv = new ContentValues();
+        cv.put(ConversationSql.COL_CONVERSATION_TYPE, Conversation.ConversationType.PRIVATE.getValue());
+        cv.put(ConversationSql.COL_CONVERSATION_ID, conversationId);
+        cv.put(ConversationSql.COL_DRAFT, "draft");
+        cv.put(ConversationSql.COL_TIMESTAMP, 2001);
+        cv.put(ConversationSql.COL_LAST_MESSAGE_ID, "last-uid");
+        cv.put(ConversationSql.COL_LAST_READ_MESSAGE_INDEX, 2002);
+        cv.put(ConversationSql.COL_LAST_MESSAGE_INDEX, 2010);
+        cv.put(ConversationSql.COL_IS_TOP, isTop ? 1 : 0);
+        cv.put(ConversationSql.COL_TOP_TIME, 2003);
+        cv.put(ConversationSql.COL_MUTE, mute ? 1 : 0);
+        cv.put(ConversationSql.COL_MENTION_INFO, mentionInfo.encodeToJson());
+        cv.put(ConversationSql.COL_LAST_MESSAGE_TYPE, "jg:text");
+        cv.put(ConversationSql.COL_LAST_MESSAGE_CLIENT_UID, "last-client-uid");
+        cv.put(ConversationSql.COL_LAST_MESSAGE_CLIENT_MSG_NO, 2004);
+        cv.put(ConversationSql.COL_LAST_MESSAGE_DIRECTION, Message.MessageDirection.RECEIVE.getValue());
+        cv.put(ConversationSql.COL_LAST_MESSAGE_STATE, Message.MessageState.FAIL.getValue());
+        cv.put(ConversationSql.COL_LAST_MESSAGE_HAS_READ, hasRead ? 1 : 0);
+        cv.put(ConversationSql.COL_LAST_MESSAGE_TIMESTAMP, 2005);
+        cv.put(ConversationSql.COL_LAST_MESSAGE_SENDER, "last-sender");
+        cv.put(ConversationSql.COL_LAST_MESSAGE_CONTENT, new String(new TextMessage("last").encode()));
+        cv.put(ConversationSql.COL_LAST_MESSAGE_SEQ_NO, 2006);
+        cv.put(ConversationSql.COL_LAST_MESSAGE_MENTION_INFO, lastMentionInfo.encodeToJson());
+        cv.put(ConversationSql.COL_UNREAD_TAG, unreadTag ? 1 : 0);
+        assertTrue(mDb.insert("conversation_info", null, cv) > 0);
+    }
+
+    private void assertConversation(ConcreteConversationInfo info, String conversationId, boolean isTop, boolean mute, boolean hasRead, boolean unreadTag) {
+        assertEquals(Conversation.ConversationType.PRIVATE, info.getConversation().getConversationType());
+        assertEquals(conversationId, info.getConversation().getConversationId());
+        assertEquals("draft", info.getDraft());
+        assertEquals(2001, info.getSortTime());
+        assertEquals(2002, info.getLastReadMessageIndex());
+        assertEquals(2010, info.getLastMessageIndex());
+        assertEquals(8, info.getUnreadCount());
+        assertEquals(isTop, info.isTop());
+        assertEquals(2003, info.getTopTime());
+        assertEquals(mute, info.isMute());
+        assertEquals("mention", info.getMentionInfo().getMentionMsgList().get(0).getMsgId());
+        assertEquals(unreadTag, info.hasUnread());
+
+        ConcreteMessage lastMessage = (ConcreteMessage) info.getLastMessage();
+        assertEquals("jg:text", lastMessage.getContentType());
+        assertEquals("last-uid", lastMessage.getMessageId());
+        assertEquals("last-client-uid", lastMessage.getClientUid());
+        assertEquals(2004, lastMessage.getClientMsgNo());
+        assertEquals(Message.MessageDirection.RECEIVE, lastMessage.getDirection());
+        assertEquals(Message.MessageState.FAIL, lastMessage.getState());
+        assertEquals(hasRead, lastMessage.isHasRead());
+        assertEquals(2005, lastMessage.getTimestamp());
+        assertEquals("last-sender", lastMessage.getSenderUserId());
+        assertEquals("last", ((TextMessage) lastMessage.getContent()).getContent());
+        assertEquals(2006, lastMessage.getSeqNo());
+        assertEquals(2010, lastMessage.getMsgIndex());
+        assertEquals(MessageMentionInfo.MentionType.SOMEONE, lastMessage.getMentionInfo().getType());
+    }
+}
@@ -0,0 +1,129 @@
+package com.juggle.im.internal.core.db;
+
+import com.juggle.im.internal.model.ConcreteMessage;
+import com.juggle.im.model.Conversation;
+import com.juggle.im.model.Message;
+import com.juggle.im.model.messages.TextMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * 批量插入消息时按 MAX_IN_ARGS_COUNT 分批查询已存在的消息
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InsertMessagesTest {
+    private static final int MAX = MessageSql.MAX_IN_ARGS_COUNT;
+    private DBManager mDbManager;
+    private int mTimestamp;
+
+    @Before
+    public void setUp() {
+        mDbManager = new DBManager();
+        mDbManager.openIMDB(RuntimeEnvironment.getApplication(), "appkey", "user" + System.nanoTime());
+        assertTrue(mDbManager.isOpen());
+    }
+
+    @After
+    public void tearDown() {
+        mDbManager.closeDB();
+    }
+
+    @Test
+    public void existedMessagesAreFoundAcrossChunkBoundary() {
+        int[] sizes = new int[]{MAX - 1, MAX, MAX + 1, MAX * 2 + 1};
+        for (int size : sizes) {
+            String prefix = "b" + size + "-";
+            List<ConcreteMessage> first = createMessages(prefix, 0, size);
+            mDbManager.insertMessages(first);
+            assertCounts(first, 0, size);
+
+            //前一半已存在，后一半是新消息，已存在的部分跨越多个分批
+            List<ConcreteMessage> second = createMessages(prefix, size / 2, size);
+            mDbManager.insertMessages(second);
+            int existed = size - size / 2;
+            assertCounts(second, existed, size / 2);
+            for (int i = 0; i < existed; i++) {
+                assertEquals(first.get(size / 2 + i).getClientMsgNo(), second.get(i).getClientMsgNo());
+            }
+        }
+    }
+
+    @Test
+    public void duplicatesInSameBatchAreExisted() {
+        List<ConcreteMessage> list = createMessages("dup-", 0, MAX + 1);
+        list.addAll(createMessages("dup-", MAX - 1, 2));
+        mDbManager.insertMessages(list);
+        assertCounts(list, 2, MAX + 1);
+        assertEquals(list.get(MAX - 1).getClientMsgNo(), list.get(MAX + 1).getClientMsgNo());
+        assertEquals(list.get(MAX).getClientMsgNo(), list.get(MAX + 2).getClientMsgNo());
+    }
+
+    @Test
+    public void benchmarkInsertRowsPerSecond() {
+        int[] sizes = new int[]{100, 1000, 10000};
+        for (int size : sizes) {
+            String prefix = "bench" + size + "-";
+            List<ConcreteMessage> list = createMessages(prefix, 0, size);
+            long start = System.nanoTime();
+            mDbManager.insertMessages(list);
+            long insertNanos = System.nanoTime() - start;
+            assertCounts(list, 0, size);
+
+            //全部重复时只走分批查询
+            list = createMessages(prefix, 0, size);
+            start = System.nanoTime();
+            mDbManager.insertMessages(list);
+            long probeNanos = System.nanoTime() - start;
+            assertCounts(list, size, 0);
+
+            System.out.println(String.format("insertMessages %d rows: insert %.0f rows/s, existed probe %.0f rows/s",
+                    size, size * 1e9 / insertNanos, size * 1e9 / probeNanos));
+        }
+    }
+
+    private void assertCounts(List<ConcreteMessage> list, int existed, int inserted) {
+        int existedCount = 0;
+        Set<Long> clientMsgNos = new HashSet<>();
+        for (ConcreteMessage message : list) {
+            assertTrue(message.getClientMsgNo() > 0);
+            if (message.isExisted()) {
+                existedCount++;
+            } else {
+                assertTrue(clientMsgNos.add(message.getClientMsgNo()));
+            }
+        }
+        assertEquals(existed, existedCount);
+        assertEquals(inserted, list.size() - existedCount);
+    }
+
+    private List<ConcreteMessage> createMessages(String prefix, int from, int count) {
+        List<ConcreteMessage> list = new ArrayList<>();
+        Conversation conversation = new Conversation(Conversation.ConversationType.PRIVATE, "c1");
+        for (int i = from; i < from + count; i++) {
+            ConcreteMessage message = new ConcreteMessage();
+            TextMessage content = new TextMessage("text " + i);
+            message.setConversation(conversation);
+            message.setContentType(content.getContentType());
+            message.setContent(content);
+            message.setMessageId(prefix + i);
+            message.setDirection(Message.MessageDirection.RECEIVE);
+            message.setState(Message.MessageState.SENT);
+            message.setTimestamp(++mTimestamp);
+            message.setSenderUserId("u1");
+            list.add(message);
+        }
+        return list;
+    }
+}
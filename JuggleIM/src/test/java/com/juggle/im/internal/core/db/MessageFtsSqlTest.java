@@ -0,0 +1,62 @@
+package com.juggle.im.internal.core.db;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 搜索索引的 bigram 切分和 MATCH 表达式
+ */
+public class MessageFtsSqlTest {
+    @Test
+    public void tokenizeEmpty() {
+        assertEquals("", MessageFtsSql.tokenize(null));
+        assertEquals("", MessageFtsSql.tokenize(""));
+        assertEquals("", MessageFtsSql.tokenize(" ,.!"));
+    }
+
+    @Test
+    public void tokenizeSplitsIntoLowerCaseBigrams() {
+        assertEquals("he el ll lo wo or rl ld", MessageFtsSql.tokenize("Hello, WORLD"));
+        assertEquals("你好 好世 世界", MessageFtsSql.tokenize("你好世界"));
+        // 单个字符的片段整体作为一个词
+        assertEquals("a 12 23", MessageFtsSql.tokenize("a-123"));
+    }
+
+    @Test
+    public void tokenizeKeepsSupplementaryCharacters() {
+        String text = "\uD840\uDC00\uD840\uDC01x";
+        assertEquals("\uD840\uDC00\uD840\uDC01 \uD840\uDC01x", MessageFtsSql.tokenize(text));
+    }
+
+    @Test
+    public void matchQueryBuildsPhrasePerSegment() {
+        assertEquals("\"he el ll lo\"", MessageFtsSql.matchQuery("hello"));
+        assertEquals("\"ab\" \"你好 好吗\"", MessageFtsSql.matchQuery("AB 你好吗"));
+        // 单字符片段不能用 bigram 表达，被跳过
+        assertEquals("\"cd\"", MessageFtsSql.matchQuery("a cd"));
+    }
+
+    @Test
+    public void matchQueryReturnsNullWithoutBigram() {
+        assertNull(MessageFtsSql.matchQuery(null));
+        assertNull(MessageFtsSql.matchQuery(""));
+        assertNull(MessageFtsSql.matchQuery("a b 中"));
+        assertNull(MessageFtsSql.matchQuery("\"*\""));
+    }
+
+    @Test
+    public void matchQueryIsCoveredByTokenize() {
+        // 查询中的每个 bigram 都出现在包含该子串的文本的索引中
+        String tokens = " " + MessageFtsSql.tokenize("今天一起去 Shopping 吧") + " ";
+        String query = MessageFtsSql.matchQuery("起去 shop");
+        assertNotNull(query);
+        for (String phrase : query.split("\"")) {
+            for (String token : phrase.trim().split(" ")) {
+                if (!token.isEmpty()) {
+                    assertTrue(token, tokens.contains(" " + token + " "));
+                }
+            }
+        }
+    }
+}
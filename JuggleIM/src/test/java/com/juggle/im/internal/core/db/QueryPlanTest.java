@@ -0,0 +1,182 @@
+package com.juggle.im.internal.core.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.juggle.im.JIMConst;
+import com.juggle.im.model.Conversation;
+import com.juggle.im.model.Message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * 消息表和会话表上的语句都应该走索引，不出现对 message 的全表扫描
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+    //新版 SQLite 输出 "SCAN message"，旧版输出 "SCAN TABLE message"，message_fts 不算
+    private static final Pattern SCAN_MESSAGE = Pattern.compile("SCAN (TABLE )?message( |$)");
+    private static final Pattern SCAN_CONVERSATION = Pattern.compile("SCAN (TABLE )?conversation_info( |$)");
+    private static final List<Conversation> ONE_CONVERSATION = Collections.singletonList(
+            new Conversation(Conversation.ConversationType.PRIVATE, "c1"));
+    private static final List<Conversation> TWO_CONVERSATIONS = Arrays.asList(
+            new Conversation(Conversation.ConversationType.PRIVATE, "c1"),
+            new Conversation(Conversation.ConversationType.GROUP, "g1"));
+
+    private DBHelper mHelper;
+    private SQLiteDatabase mDb;
+    private boolean mHasSearchIndex;
+
+    @Before
+    public void setUp() {
+        mHelper = new DBHelper(RuntimeEnvironment.getApplication(), null, false);
+        mDb = mHelper.getWritableDatabase();
+        Cursor cursor = mDb.rawQuery(MessageFtsSql.SQL_CHECK_TABLE, null);
+        mHasSearchIndex = cursor.moveToFirst();
+        cursor.close();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void getMessagesUsesIndexForEveryFilter() {
+        for (JIMConst.PullDirection pullDirection : JIMConst.PullDirection.values()) {
+            assertGetMessagesNoScan(pullDirection, null, null, null, null, null, null, false);
+            assertGetMessagesNoScan(pullDirection, null, Message.MessageDirection.SEND, null, null, null, null, false);
+            assertGetMessagesNoScan(pullDirection, null, null, Arrays.asList("jg:text", "jg:img"), null, null, null, false);
+            assertGetMessagesNoScan(pullDirection, null, null, null, Arrays.asList("u1", "u2"), null, null, false);
+            assertGetMessagesNoScan(pullDirection, null, null, null, null, Collections.singletonList(Message.MessageState.FAIL), null, false);
+            assertGetMessagesNoScan(pullDirection, null, null, null, null, null, ONE_CONVERSATION, false);
+            assertGetMessagesNoScan(pullDirection, null, null, null, null, null, TWO_CONVERSATIONS, false);
+            assertGetMessagesNoScan(pullDirection, null, null, Collections.singletonList("jg:text"), null, null, ONE_CONVERSATION, true);
+            assertGetMessagesNoScan(pullDirection, null, Message.MessageDirection.RECEIVE, null, Collections.singletonList("u1"), null, ONE_CONVERSATION, false);
+            //单字符搜索无法使用全文索引，退回 LIKE，也要沿索引过滤
+            assertGetMessagesNoScan(pullDirection, "a", null, null, null, null, null, false);
+            assertGetMessagesNoScan(pullDirection, "a", null, null, null, null, ONE_CONVERSATION, false);
+            if (mHasSearchIndex) {
+                assertGetMessagesNoScan(pullDirection, "hello", null, null, null, null, null, false);
+                assertGetMessagesNoScan(pullDirection, "hello", null, Collections.singletonList("jg:text"), null, null, null, false);
+                assertGetMessagesNoScan(pullDirection, "hello", null, null, null, null, ONE_CONVERSATION, false);
+            }
+        }
+    }
+
+    @Test
+    public void messageStatementsUseIndex() {
+        assertNoMessageScan(MessageSql.sqlGetExistedMessages(3), null);
+        assertNoMessageScan(MessageSql.SQL_GET_LAST_MESSAGE_IN_CONVERSATION, null);
+        assertNoMessageScan(MessageSql.SQL_GET_MESSAGE_WITH_MESSAGE_ID, null);
+        assertNoMessageScan(MessageSql.sqlGetMessagesByMessageIds(3), null);
+        assertNoMessageScan(MessageSql.sqlGetReferredMessages(3), null);
+        assertNoMessageScan(MessageSql.sqlGetMessagesByClientMsgNos(3), null);
+        assertNoMessageScan(MessageSql.sqlSetMessagesRead(3), null);
+        assertNoMessageScan(MessageSql.sqlDeleteMessagesByMessageId(3), null);
+        assertNoMessageScan(MessageSql.sqlDeleteMessagesByClientMsgNo(3), null);
+        assertNoMessageScan(MessageSql.sqlClearMessages(false), null);
+        assertNoMessageScan(MessageSql.sqlClearMessages(true), null);
+        assertNoMessageScan(MessageSql.SQL_UPDATE_MESSAGE_STATE, null);
+        assertNoMessageScan(MessageSql.SQL_SET_GROUP_READ_INFO, null);
+        assertNoMessageScan(MessageSql.SQL_UPDATE_MESSAGE_AFTER_SEND, null);
+        assertNoMessageScan(MessageSql.SQL_UPDATE_MESSAGE_CONTENT_WITH_MESSAGE_ID, null);
+        assertNoMessageScan(MessageSql.SQL_UPDATE_MESSAGE_CONTENT_WITH_MESSAGE_NO, null);
+        assertNoMessageScan(MessageSql.SQL_UPDATE_LOCAL_ATTRIBUTE_WITH_MESSAGE_ID, null);
+        assertNoMessageScan(MessageSql.SQL_UPDATE_LOCAL_ATTRIBUTE_WITH_MESSAGE_NO, null);
+        assertNoMessageScan(MessageSql.SQL_GET_LOCAL_ATTRIBUTE_WITH_MESSAGE_ID, null);
+        assertNoMessageScan(MessageSql.SQL_GET_LOCAL_ATTRIBUTE_WITH_MESSAGE_NO, null);
+        assertNoMessageScan(MessageFtsSql.SQL_GET_BACKFILL_MESSAGES, null);
+        if (mHasSearchIndex) {
+            assertNoMessageScan(MessageFtsSql.SQL_INSERT_WITH_MESSAGE_ID, null);
+            assertNoMessageScan(MessageFtsSql.SQL_DELETE_WITH_MESSAGE_ID, null);
+            assertNoMessageScan(MessageFtsSql.sqlDeleteByMessageIds(3), null);
+            assertNoMessageScan(MessageFtsSql.sqlDeleteByClear(false), null);
+            assertNoMessageScan(MessageFtsSql.sqlDeleteByClear(true), null);
+        }
+    }
+
+    @Test
+    public void conversationStatementsUseIndex() {
+        //会话列表本身按 is_top/top_time/timestamp 排序，只检查不会牵连到 message 表
+        int[] types = new int[]{Conversation.ConversationType.PRIVATE.getValue(), Conversation.ConversationType.GROUP.getValue()};
+        for (JIMConst.PullDirection pullDirection : JIMConst.PullDirection.values()) {
+            List<String> whereArgs = new ArrayList<>();
+            assertNoMessageScan(ConversationSql.sqlGetConversationsBy(types, 20, 0, pullDirection, whereArgs), whereArgs);
+            whereArgs = new ArrayList<>();
+            assertNoMessageScan(ConversationSql.sqlGetTopConversationsBy(types, 20, 0, pullDirection, whereArgs), whereArgs);
+        }
+        assertNoMessageScan(ConversationSql.SQL_GET_CONVERSATIONS, null);
+        assertNoMessageScan(ConversationUnreadSql.sqlGetUnreadCountWithTypes(2), null);
+        //按会话主键定位的语句必须走 idx_conversation
+        String[] keyed = new String[]{
+                ConversationSql.SQL_GET_CONVERSATION,
+                ConversationSql.SQL_DELETE_CONVERSATION,
+                ConversationSql.SQL_SET_DRAFT,
+                ConversationSql.SQL_CLEAR_UNREAD_COUNT,
+                ConversationSql.SQL_UPDATE_LAST_MESSAGE_HAS_READ,
+                ConversationSql.SQL_UPDATE_LAST_MESSAGE_STATE,
+                ConversationSql.SQL_SET_MUTE,
+                ConversationSql.SQL_SET_TOP,
+                ConversationSql.SQL_SET_UNREAD,
+                ConversationSql.SQL_SET_TOP_TIME,
+                ConversationSql.SQL_SET_MENTION,
+                ConversationSql.SQL_UPDATE_SORT_TIME
+        };
+        for (String sql : keyed) {
+            for (String detail : explain(sql, null)) {
+                assertFalse(sql + " -> " + detail, SCAN_CONVERSATION.matcher(detail).find());
+            }
+            assertNoMessageScan(sql, null);
+        }
+    }
+
+    private void assertGetMessagesNoScan(JIMConst.PullDirection pullDirection,
+                                         String searchContent,
+                                         Message.MessageDirection direction,
+                                         List<String> contentTypes,
+                                         List<String> senderUserIds,
+                                         List<Message.MessageState> messageStates,
+                                         List<Conversation> conversations,
+                                         boolean metadataOnly) {
+        List<String> whereArgs = new ArrayList<>();
+        String sql = MessageSql.sqlGetMessages(20, 1000, pullDirection, searchContent, direction, contentTypes,
+                senderUserIds, messageStates, conversations, mHasSearchIndex, metadataOnly, whereArgs);
+        assertNoMessageScan(sql, whereArgs);
+    }
+
+    private void assertNoMessageScan(String sql, List<String> whereArgs) {
+        for (String detail : explain(sql, whereArgs)) {
+            assertFalse(sql + " -> " + detail, SCAN_MESSAGE.matcher(detail).find());
+        }
+    }
+
+    private List<String> explain(String sql, List<String> whereArgs) {
+        String[] args = whereArgs == null ? null : whereArgs.toArray(new String[0]);
+        List<String> details = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int index = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(index));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertFalse(sql, details.isEmpty());
+        return details;
+    }
+}
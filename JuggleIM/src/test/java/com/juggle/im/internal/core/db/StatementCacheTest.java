@@ -0,0 +1,174 @@
+package com.juggle.im.internal.core.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 语句缓存的 LRU 淘汰、关闭以及同一语句不会同时交给两个调用方
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StatementCacheTest {
+    private DBHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mHelper = new DBHelper(RuntimeEnvironment.getApplication(), null, false);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void releasedStatementIsReused() {
+        StatementCache cache = new StatementCache(2);
+        cache.reset(mDb);
+        SQLiteStatement statement = cache.acquire(mDb, "SELECT 1");
+        cache.release(mDb, "SELECT 1", statement);
+        assertSame(statement, cache.acquire(mDb, "SELECT 1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void statementInUseIsNotHandedOutAgain() {
+        StatementCache cache = new StatementCache(2);
+        cache.reset(mDb);
+        SQLiteStatement first = cache.acquire(mDb, "SELECT 1");
+        SQLiteStatement second = cache.acquire(mDb, "SELECT 1");
+        assertNotSame(first, second);
+        cache.release(mDb, "SELECT 1", first);
+        //同一形状已经有缓存时，后归还的语句直接关闭
+        cache.release(mDb, "SELECT 1", second);
+        assertEquals(1, cache.size());
+        assertClosed(second);
+        assertSame(first, cache.acquire(mDb, "SELECT 1"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedAndClosed() {
+        StatementCache cache = new StatementCache(2);
+        cache.reset(mDb);
+        SQLiteStatement s1 = cache.acquire(mDb, "SELECT 1");
+        SQLiteStatement s2 = cache.acquire(mDb, "SELECT 2");
+        SQLiteStatement s3 = cache.acquire(mDb, "SELECT 3");
+        cache.release(mDb, "SELECT 1", s1);
+        cache.release(mDb, "SELECT 2", s2);
+        cache.release(mDb, "SELECT 3", s3);
+        assertEquals(2, cache.size());
+        assertClosed(s1);
+        assertEquals(2, s2.simpleQueryForLong());
+        assertEquals(3, s3.simpleQueryForLong());
+        assertNotSame(s1, cache.acquire(mDb, "SELECT 1"));
+    }
+
+    @Test
+    public void resetClosesCachedAndDropsStaleStatements() {
+        StatementCache cache = new StatementCache(2);
+        cache.reset(mDb);
+        SQLiteStatement cached = cache.acquire(mDb, "SELECT 1");
+        SQLiteStatement inUse = cache.acquire(mDb, "SELECT 2");
+        cache.release(mDb, "SELECT 1", cached);
+        cache.reset(null);
+        assertEquals(0, cache.size());
+        assertClosed(cached);
+        //数据库关闭后归还的语句不再放回缓存
+        cache.release(mDb, "SELECT 2", inUse);
+        assertEquals(0, cache.size());
+        assertClosed(inUse);
+    }
+
+    @Test
+    public void concurrentCallersNeverShareStatement() throws InterruptedException {
+        final StatementCache cache = new StatementCache(48);
+        cache.reset(mDb);
+        final Set<SQLiteStatement> inUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<SQLiteStatement, Boolean>()));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final int threadCount = 8;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        String sql = "SELECT " + (i % 4);
+                        SQLiteStatement statement = cache.acquire(mDb, sql);
+                        if (!inUse.add(statement)) {
+                            throw new AssertionError("statement handed out twice");
+                        }
+                        assertEquals(i % 4, statement.simpleQueryForLong());
+                        inUse.remove(statement);
+                        cache.release(mDb, sql, statement);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertTrue(cache.size() <= 4);
+    }
+
+    @Test
+    public void benchmarkCompileCountAndLatency() {
+        int executions = 20000;
+        //工作集小于、等于、大于缓存容量
+        int[] shapeCounts = new int[]{16, 48, 64};
+        for (int shapeCount : shapeCounts) {
+            StatementCache cache = new StatementCache(48);
+            cache.reset(mDb);
+            Set<SQLiteStatement> compiled = Collections.newSetFromMap(new IdentityHashMap<SQLiteStatement, Boolean>());
+            long start = System.nanoTime();
+            for (int i = 0; i < executions; i++) {
+                String sql = "SELECT " + (i % shapeCount);
+                SQLiteStatement statement = cache.acquire(mDb, sql);
+                compiled.add(statement);
+                statement.simpleQueryForLong();
+                cache.release(mDb, sql, statement);
+            }
+            long cachedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < executions; i++) {
+                SQLiteStatement statement = mDb.compileStatement("SELECT " + (i % shapeCount));
+                statement.simpleQueryForLong();
+                statement.close();
+            }
+            long uncachedNanos = System.nanoTime() - start;
+            cache.reset(null);
+
+            if (shapeCount <= 48) {
+                assertEquals(shapeCount, compiled.size());
+            }
+            System.out.println(String.format("statement cache %d shapes: %d compiles, %.2f us/exec cached, %d compiles, %.2f us/exec uncached",
+                    shapeCount, compiled.size(), cachedNanos / 1000.0 / executions, executions, uncachedNanos / 1000.0 / executions));
+        }
+    }
+
+    private void assertClosed(SQLiteStatement statement) {
+        try {
+            statement.simpleQueryForLong();
+            fail("statement is not closed");
+        } catch (IllegalStateException ignored) {
+        }
+    }
+}
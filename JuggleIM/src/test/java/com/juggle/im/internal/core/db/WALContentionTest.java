@@ -0,0 +1,111 @@
+package com.juggle.im.internal.core.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.juggle.im.JIMConst;
+import com.juggle.im.model.Conversation;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 同步写入期间读取会话消息的延迟，分别在 WAL 和回滚日志模式下统计 p50/p99
+ * Robolectric 的 SQLite 实现与设备上的连接池不同，数值只用于前后对比
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WALContentionTest {
+    private static final int READ_COUNT = 500;
+    private static final int WRITE_BATCH = 200;
+
+    @Test
+    public void benchmarkReadLatencyUnderWrites() throws InterruptedException {
+        long[] rollback = measure(false);
+        long[] wal = measure(true);
+        System.out.println(String.format("read latency under writes: rollback p50 %.2f ms p99 %.2f ms, wal p50 %.2f ms p99 %.2f ms",
+                rollback[0] / 1e6, rollback[1] / 1e6, wal[0] / 1e6, wal[1] / 1e6));
+    }
+
+    //返回读延迟的 {p50, p99}，单位纳秒
+    private long[] measure(boolean enableWAL) throws InterruptedException {
+        Context context = RuntimeEnvironment.getApplication();
+        File file = new File(context.getFilesDir(), "wal_" + enableWAL + "_" + System.nanoTime() + ".db");
+        DBHelper helper = new DBHelper(context, file.getAbsolutePath(), enableWAL);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(enableWAL, helper.isWALEnabled());
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            long timestamp = 0;
+            try {
+                while (!stop.get()) {
+                    //与同步消息一样，每批在一个事务中写入
+                    db.beginTransaction();
+                    try {
+                        SQLiteStatement statement = db.compileStatement(MessageSql.SQL_INSERT_MESSAGE);
+                        for (int i = 0; i < WRITE_BATCH; i++) {
+                            timestamp++;
+                            statement.clearBindings();
+                            statement.bindLong(1, Conversation.ConversationType.PRIVATE.getValue());
+                            statement.bindString(2, "c" + (timestamp % 10));
+                            statement.bindString(3, "jg:text");
+                            statement.bindString(4, "m" + enableWAL + timestamp);
+                            statement.bindLong(6, 2);
+                            statement.bindLong(7, 2);
+                            statement.bindLong(8, 0);
+                            statement.bindLong(9, timestamp);
+                            statement.bindString(10, "u1");
+                            statement.bindString(11, "{\"content\":\"text " + timestamp + "\"}");
+                            statement.executeInsert();
+                        }
+                        statement.close();
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        writer.start();
+
+        List<Conversation> conversations = Collections.singletonList(new Conversation(Conversation.ConversationType.PRIVATE, "c1"));
+        long[] latencies = new long[READ_COUNT];
+        try {
+            for (int i = 0; i < READ_COUNT; i++) {
+                List<String> whereArgs = new ArrayList<>();
+                String sql = MessageSql.sqlGetMessages(20, Long.MAX_VALUE, JIMConst.PullDirection.OLDER, null, null, null,
+                        null, null, conversations, false, false, whereArgs);
+                long start = System.nanoTime();
+                Cursor cursor = db.rawQuery(sql, whereArgs.toArray(new String[0]));
+                while (cursor.moveToNext()) {
+                    cursor.getString(0);
+                }
+                cursor.close();
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+            helper.close();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+        Arrays.sort(latencies);
+        return new long[]{latencies[READ_COUNT / 2], latencies[READ_COUNT * 99 / 100]};
+    }
+}
@@ -0,0 +1,213 @@
+package com.juggle.im.internal.core.network;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.UnsafeByteOperations;
+import com.juggle.im.internal.model.ConcreteMessage;
+import com.juggle.im.model.messages.TextMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import app_messages.Appmessages;
+import app_messages.Connect;
+
+import static org.junit.Assert.*;
+
+/**
+ * 原地混淆 + unsafeWrap 的编解码路径与原来复制数组的路径结果一致
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PBDataTest {
+    //与 PBData.CmdType、Qos 一致
+    private static final int CMD_PUBLISH = 3;
+    private static final int CMD_PUBLISH_ACK = 4;
+    private static final int CMD_QUERY_ACK = 6;
+    private static final int QOS_NO = 0;
+    private static final int QOS_YES = 1;
+    private static final String SYNC_MSG = "sync_msgs";
+
+    private SimpleDataConverter mConverter;
+    private WebSocketCommandManager mCommandManager;
+    private PBData mPBData;
+    private int mIndex;
+
+    @Before
+    public void setUp() {
+        mConverter = new SimpleDataConverter();
+        mCommandManager = new WebSocketCommandManager(null, new Handler(Looper.getMainLooper()));
+        mPBData = new PBData(mCommandManager, mConverter);
+    }
+
+    @Test
+    public void inPlaceEncodeMatchesCopyPath() {
+        Connect.PublishMsgBody body = publishBody(downMsg("m1", "hello", 0));
+        assertArrayEquals(copyPathFrame(CMD_PUBLISH, QOS_YES, body), inPlaceFrame(CMD_PUBLISH, QOS_YES, body));
+        Connect.QueryAckMsgBody ack = syncAckBody(1, 3, 10);
+        assertArrayEquals(copyPathFrame(CMD_QUERY_ACK, QOS_NO, ack), inPlaceFrame(CMD_QUERY_ACK, QOS_NO, ack));
+    }
+
+    @Test
+    public void outgoingPayloadDecodesWithCopyPath() throws Exception {
+        byte[] frame = mPBData.publishAckData(42);
+        Connect.ImWebsocketMsg msg = Connect.ImWebsocketMsg.parseFrom(frame);
+        assertEquals(CMD_PUBLISH_ACK, msg.getCmd());
+        Connect.PublishAckMsgBody body = Connect.PublishAckMsgBody.parseFrom(mConverter.decode(msg.getPayload().toByteArray()));
+        assertEquals(42, body.getIndex());
+    }
+
+    @Test
+    public void publishDecodesLikeCopyPath() throws Exception {
+        Appmessages.DownMsg downMsg = downMsg("m1", "hello", 0);
+        byte[] frame = inPlaceFrame(CMD_PUBLISH, QOS_YES, publishBody(downMsg));
+        assertEquals(publishBody(downMsg), Connect.PublishMsgBody.parseFrom(copyPathDecode(frame)));
+
+        PBRcvObj obj = mPBData.rcvObjWithBytes(ByteBuffer.wrap(frame));
+        assertEquals(PBRcvObj.PBRcvType.publishMsg, obj.getRcvType());
+        assertEquals(QOS_YES, obj.mPublishMsgBody.qos);
+        assertMessage(downMsg, obj.mPublishMsgBody.rcvMessage);
+    }
+
+    @Test
+    public void syncAckDecodesLikeCopyPath() throws Exception {
+        //超过并行解码阈值，大于初始缓冲区、大于可复用缓冲区上限，最后再解一个小帧确认缓冲区复用正确
+        int[][] cases = new int[][]{{3, 10}, {40, 200}, {8, 40 * 1024}, {2, 10}};
+        for (int[] c : cases) {
+            int index = ++mIndex;
+            Connect.QueryAckMsgBody body = syncAckBody(index, c[0], c[1]);
+            byte[] frame = inPlaceFrame(CMD_QUERY_ACK, QOS_NO, body);
+            assertEquals(body, Connect.QueryAckMsgBody.parseFrom(copyPathDecode(frame)));
+
+            mCommandManager.putTopic(index, SYNC_MSG, 10000);
+            PBRcvObj obj = mPBData.rcvObjWithBytes(ByteBuffer.wrap(frame));
+            assertEquals(PBRcvObj.PBRcvType.syncMessagesAck, obj.getRcvType());
+            assertEquals(index, obj.mQryHisMsgAck.index);
+            List<Appmessages.DownMsg> expected = Appmessages.DownMsgSet.parseFrom(body.getData()).getMsgsList();
+            List<ConcreteMessage> messages = obj.mQryHisMsgAck.msgList;
+            assertEquals(expected.size(), messages.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertMessage(expected.get(i), messages.get(i));
+            }
+            mCommandManager.removeCommand(index);
+        }
+    }
+
+    @Test
+    public void benchmarkSyncAckDecode() throws Exception {
+        int frames = 500;
+        int index = ++mIndex;
+        byte[] frame = inPlaceFrame(CMD_QUERY_ACK, QOS_NO, syncAckBody(index, 100, 60));
+        mCommandManager.putTopic(index, SYNC_MSG, 10000);
+
+        //只比较 payload 还原和 QueryAckMsgBody 解析这一段
+        Connect.ImWebsocketMsg msg = Connect.ImWebsocketMsg.parseFrom(frame);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            Connect.QueryAckMsgBody.parseFrom(mConverter.decode(msg.getPayload().toByteArray()));
+        }
+        long copyNanos = System.nanoTime() - start;
+        byte[] buffer = new byte[msg.getPayload().size()];
+        start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            msg.getPayload().copyTo(buffer, 0);
+            mConverter.decode(buffer, 0, buffer.length);
+            Connect.QueryAckMsgBody.parseFrom(CodedInputStream.newInstance(buffer, 0, buffer.length));
+        }
+        long inPlaceNanos = System.nanoTime() - start;
+
+        //整帧解析，包含消息内容解码
+        start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            mPBData.rcvObjWithBytes(ByteBuffer.wrap(frame));
+        }
+        long frameNanos = System.nanoTime() - start;
+        System.out.println(String.format("sync ack %d bytes/frame: payload copy path %.0f frames/s, in place %.0f frames/s, rcvObjWithBytes %.0f frames/s",
+                frame.length, frames * 1e9 / copyNanos, frames * 1e9 / inPlaceNanos, frames * 1e9 / frameNanos));
+    }
+
+    private void assertMessage(Appmessages.DownMsg expected, ConcreteMessage message) {
+        assertEquals(expected.getMsgId(), message.getMessageId());
+        assertEquals(expected.getTargetId(), message.getConversation().getConversationId());
+        assertEquals(expected.getSenderId(), message.getSenderUserId());
+        assertEquals(expected.getMsgTime(), message.getTimestamp());
+        assertEquals(expected.getMsgSeqNo(), message.getSeqNo());
+        assertEquals(expected.getMsgType(), message.getContentType());
+        TextMessage content = new TextMessage();
+        content.decode(expected.getMsgContent().toByteArray());
+        assertEquals(content.getContent(), ((TextMessage) message.getContent()).getContent());
+    }
+
+    //原来的路径：toByteArray 后混淆到新数组，再 copyFrom
+    private byte[] copyPathFrame(int cmd, int qos, MessageLite body) {
+        return Connect.ImWebsocketMsg.newBuilder()
+                .setVersion(1)
+                .setCmd(cmd)
+                .setQos(qos)
+                .setPayload(ByteString.copyFrom(mConverter.encode(body.toByteArray())))
+                .build()
+                .toByteArray();
+    }
+
+    private byte[] inPlaceFrame(int cmd, int qos, MessageLite body) {
+        byte[] payload = body.toByteArray();
+        mConverter.encode(payload, 0, payload.length);
+        return Connect.ImWebsocketMsg.newBuilder()
+                .setVersion(1)
+                .setCmd(cmd)
+                .setQos(qos)
+                .setPayload(UnsafeByteOperations.unsafeWrap(payload))
+                .build()
+                .toByteArray();
+    }
+
+    private byte[] copyPathDecode(byte[] frame) throws Exception {
+        return mConverter.decode(Connect.ImWebsocketMsg.parseFrom(frame).getPayload().toByteArray());
+    }
+
+    private Connect.PublishMsgBody publishBody(Appmessages.DownMsg downMsg) {
+        return Connect.PublishMsgBody.newBuilder()
+                .setIndex(1)
+                .setTopic("msg")
+                .setData(downMsg.toByteString())
+                .build();
+    }
+
+    private Connect.QueryAckMsgBody syncAckBody(int index, int count, int textLength) {
+        Appmessages.DownMsgSet.Builder set = Appmessages.DownMsgSet.newBuilder().setIsFinished(true);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < textLength; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < count; i++) {
+            set.addMsgs(downMsg("m" + index + "-" + i, text.toString(), i));
+        }
+        return Connect.QueryAckMsgBody.newBuilder()
+                .setIndex(index)
+                .setTimestamp(1000)
+                .setData(set.build().toByteString())
+                .build();
+    }
+
+    private Appmessages.DownMsg downMsg(String msgId, String text, int i) {
+        TextMessage content = new TextMessage(text);
+        return Appmessages.DownMsg.newBuilder()
+                .setTargetId("u2")
+                .setChannelType(Appmessages.ChannelType.Private)
+                .setMsgType(content.getContentType())
+                .setSenderId("u2")
+                .setMsgId(msgId)
+                .setMsgSeqNo(i + 1)
+                .setMsgContent(ByteString.copyFrom(content.encode()))
+                .setMsgTime(1000 + i)
+                .build();
+    }
+}
@@ -0,0 +1,206 @@
+package com.juggle.im.internal.core.network;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 发送队列的优先级、in-flight 上限、字节上限，以及 socket 忙时高优先级帧不等待退避
+ * 每个帧只有一个字节，作为写出顺序里的标识
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SendQueueTest {
+    //写出和 handler 上其它任务的执行顺序
+    private final List<String> mEvents = new ArrayList<>();
+    private FakeClient mClient;
+    private FakeListener mListener;
+    private Handler mHandler;
+    private SendQueue mQueue;
+    private ShadowLooper mLooper;
+
+    @Before
+    public void setUp() {
+        mClient = new FakeClient();
+        mListener = new FakeListener();
+        mHandler = new Handler(Looper.getMainLooper());
+        mQueue = new SendQueue(mHandler, mListener);
+        mLooper = shadowOf(Looper.getMainLooper());
+    }
+
+    @Test
+    public void highLaneIsWrittenFirst() {
+        mQueue.offer(frame('l'), SendQueue.LANE_LOW, 1);
+        mQueue.offer(frame('n'), SendQueue.LANE_NORMAL, 2);
+        mQueue.offer(frame('h'), SendQueue.LANE_HIGH, -1);
+        mLooper.idle();
+        assertEquals(Arrays.asList("send h", "send n", "send l"), mEvents);
+        assertEquals(Arrays.asList(2, 1), mListener.mSentIndexes);
+        assertEquals(0, mQueue.getDepth());
+    }
+
+    @Test
+    public void inFlightCapHoldsCommandsUntilFinish() {
+        mQueue.setLimits(2, 0);
+        mQueue.offer(frame('a'), SendQueue.LANE_NORMAL, 1);
+        mQueue.offer(frame('b'), SendQueue.LANE_NORMAL, 2);
+        mQueue.offer(frame('c'), SendQueue.LANE_NORMAL, 3);
+        mLooper.idle();
+        assertEquals(Arrays.asList("send a", "send b"), mEvents);
+        assertEquals(1, mQueue.getDepth());
+
+        //被阻塞时不轮询，高优先级的帧不受上限限制
+        mLooper.idleFor(Duration.ofSeconds(10));
+        assertEquals(2, mEvents.size());
+        mQueue.offer(frame('h'), SendQueue.LANE_HIGH, -1);
+        mLooper.idle();
+        assertEquals(Arrays.asList("send a", "send b", "send h"), mEvents);
+
+        //收到一个 ack 后继续发送
+        mListener.mInFlightCount--;
+        mQueue.onCommandFinish();
+        mLooper.idle();
+        assertEquals(Arrays.asList("send a", "send b", "send h", "send c"), mEvents);
+        assertEquals(Arrays.asList(1, 2, 3), mListener.mSentIndexes);
+        assertEquals(0, mQueue.getDepth());
+    }
+
+    @Test
+    public void byteBudgetRejectsNormalAndLowLanes() {
+        mQueue.setLimits(0, 10);
+        assertTrue(mQueue.offer(new byte[6], SendQueue.LANE_NORMAL, 1));
+        //被拒绝的信令由 JWebSocket 回调 SEND_QUEUE_FULL
+        assertFalse(mQueue.offer(new byte[6], SendQueue.LANE_NORMAL, 2));
+        assertFalse(mQueue.offer(new byte[6], SendQueue.LANE_LOW, 3));
+        assertEquals(1, mQueue.getDepth());
+        assertEquals(6, mQueue.getQueuedBytes());
+
+        //高优先级不受字节上限限制
+        assertTrue(mQueue.offer(new byte[6], SendQueue.LANE_HIGH, -1));
+        assertEquals(12, mQueue.getQueuedBytes());
+
+        //写出后释放额度
+        mLooper.idle();
+        assertEquals(0, mQueue.getQueuedBytes());
+        assertTrue(mQueue.offer(new byte[6], SendQueue.LANE_NORMAL, 2));
+    }
+
+    @Test
+    public void highLanePreemptsDelayedFlush() {
+        mClient.mBusy = true;
+        mQueue.offer(frame('n'), SendQueue.LANE_NORMAL, 1);
+        //socket 忙，普通帧留在队列里，写任务按退避延迟执行
+        mLooper.idle();
+        assertTrue(mEvents.isEmpty());
+
+        //与 sendDisconnectMsg 一样，放入断开信令后紧接着 post 重置连接的任务
+        mQueue.offer(frame('d'), SendQueue.LANE_HIGH, -1);
+        mHandler.post(() -> {
+            mEvents.add("reset");
+            mQueue.clear();
+        });
+        mLooper.idle();
+        assertEquals(Arrays.asList("send d", "reset"), mEvents);
+    }
+
+    @Test
+    public void busySocketBacksOff() {
+        mClient.mBusy = true;
+        mQueue.offer(frame('n'), SendQueue.LANE_NORMAL, 1);
+        mLooper.idle();
+        //20、40、80ms 的退避都还在忙
+        mLooper.idleFor(Duration.ofMillis(20 + 40 + 80));
+        assertEquals(4, mClient.mBusyChecks);
+        assertTrue(mEvents.isEmpty());
+
+        //socket 写完后在下一次重试时发送
+        mClient.mBusy = false;
+        mLooper.idleFor(Duration.ofMillis(159));
+        assertTrue(mEvents.isEmpty());
+        mLooper.idleFor(Duration.ofMillis(1));
+        assertEquals(Arrays.asList("send n"), mEvents);
+    }
+
+    @Test
+    public void unavailableConnectionClearsQueue() {
+        mListener.mConnected = false;
+        mQueue.offer(frame('n'), SendQueue.LANE_NORMAL, 1);
+        mQueue.offer(frame('h'), SendQueue.LANE_HIGH, -1);
+        mLooper.idle();
+        assertEquals(1, mListener.mSendFailCount);
+        assertEquals(0, mQueue.getDepth());
+        assertEquals(0, mQueue.getQueuedBytes());
+    }
+
+    private static byte[] frame(char tag) {
+        return new byte[]{(byte) tag};
+    }
+
+    private class FakeClient extends JWebSocketClient {
+        FakeClient() {
+            super(URI.create("ws://127.0.0.1"), null);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean hasBufferedData() {
+            mBusyChecks++;
+            return mBusy;
+        }
+
+        @Override
+        void sendFrames(List<byte[]> frames) {
+            for (byte[] bytes : frames) {
+                mEvents.add("send " + (char) bytes[0]);
+            }
+        }
+
+        private boolean mBusy;
+        private int mBusyChecks;
+    }
+
+    private class FakeListener implements SendQueue.ISendQueueListener {
+        @Override
+        public JWebSocketClient getClient() {
+            return mConnected ? mClient : null;
+        }
+
+        @Override
+        public int getInFlightCount() {
+            return mInFlightCount;
+        }
+
+        @Override
+        public void onFrameSent(int index) {
+            mSentIndexes.add(index);
+            mInFlightCount++;
+        }
+
+        @Override
+        public void onSendFail() {
+            mSendFailCount++;
+        }
+
+        private boolean mConnected = true;
+        private int mInFlightCount;
+        private int mSendFailCount;
+        private final List<Integer> mSentIndexes = new ArrayList<>();
+    }
+}
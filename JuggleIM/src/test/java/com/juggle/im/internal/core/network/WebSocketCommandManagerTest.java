@@ -0,0 +1,153 @@
+package com.juggle.im.internal.core.network;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 信令在写出后按截止时间超时，已完成的记录在出队时跳过，ack 和超时都会移除 topic
+ * 主线程 Looper 处于暂停模式，idleFor 推进 SystemClock 并执行到期的任务
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WebSocketCommandManagerTest {
+    private static final long TIMEOUT = 5000;
+
+    private final List<IWebSocketCallback> mTimeouts = new ArrayList<>();
+    private int mFinishCount;
+    private WebSocketCommandManager mManager;
+    private ShadowLooper mLooper;
+
+    @Before
+    public void setUp() {
+        mManager = new WebSocketCommandManager(new WebSocketCommandManager.CommandTimeoutListener() {
+            @Override
+            public void onCommandTimeOut(IWebSocketCallback callback) {
+                mTimeouts.add(callback);
+            }
+
+            @Override
+            public void onCommandFinish() {
+                mFinishCount++;
+            }
+        }, new Handler(Looper.getMainLooper()));
+        mLooper = shadowOf(Looper.getMainLooper());
+        mManager.start(false);
+    }
+
+    @Test
+    public void commandTimesOutAtDeadline() {
+        IWebSocketCallback callback = send(1, "p_msg", TIMEOUT);
+        assertEquals(1, mManager.getInFlightCount());
+
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT - 1));
+        assertTrue(mTimeouts.isEmpty());
+        assertEquals("p_msg", mManager.getTopic(1));
+
+        mLooper.idleFor(Duration.ofMillis(1));
+        assertEquals(1, mTimeouts.size());
+        assertSame(callback, mTimeouts.get(0));
+        assertEquals(1, mFinishCount);
+        assertEquals(0, mManager.getInFlightCount());
+        assertEquals(0, mManager.size());
+        assertNull(mManager.getTopic(1));
+    }
+
+    @Test
+    public void queuedTimeIsNotCounted() {
+        mManager.putTopic(1, "p_msg", TIMEOUT);
+        mManager.putCommand(1, new IWebSocketCallback() {
+        });
+        //在发送队列中排队，还没有写出
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT * 2));
+        assertTrue(mTimeouts.isEmpty());
+        assertEquals(0, mManager.getInFlightCount());
+
+        mManager.markSent(1);
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT - 1));
+        assertTrue(mTimeouts.isEmpty());
+        mLooper.idleFor(Duration.ofMillis(1));
+        assertEquals(1, mTimeouts.size());
+    }
+
+    @Test
+    public void completedRecordsAreSkipped() {
+        send(1, "p_msg", TIMEOUT);
+        IWebSocketCallback second = send(2, "p_msg", TIMEOUT * 2);
+        send(3, "qry_hismsgs", TIMEOUT);
+
+        //1 收到 ack；3 被同一 index 的新信令替换，新记录还没有写出
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT / 2));
+        assertNotNull(mManager.removeCommand(1));
+        mManager.putTopic(3, "sync_msgs", TIMEOUT);
+        assertEquals(1, mManager.getInFlightCount());
+
+        //旧的截止时间到了，队列里的两条旧记录都被跳过
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT / 2));
+        assertTrue(mTimeouts.isEmpty());
+        assertEquals("sync_msgs", mManager.getTopic(3));
+        assertEquals(2, mManager.size());
+
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT));
+        assertEquals(1, mTimeouts.size());
+        assertSame(second, mTimeouts.get(0));
+        assertEquals("sync_msgs", mManager.getTopic(3));
+        assertEquals(1, mManager.size());
+    }
+
+    @Test
+    public void topicIsRemovedOnAckAndTimeout() {
+        IWebSocketCallback acked = send(1, "p_msg", TIMEOUT);
+        send(2, "sync_msgs", TIMEOUT);
+        assertEquals(2, mManager.size());
+
+        assertSame(acked, mManager.removeCommand(1));
+        assertNull(mManager.getTopic(1));
+        assertEquals("sync_msgs", mManager.getTopic(2));
+        assertEquals(1, mFinishCount);
+        //重复的 ack 不再回调
+        assertNull(mManager.removeCommand(1));
+        assertEquals(1, mFinishCount);
+
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT));
+        assertNull(mManager.getTopic(2));
+        assertEquals(0, mManager.size());
+        assertEquals(0, mManager.getInFlightCount());
+        //超时后迟到的 ack 找不到记录
+        assertNull(mManager.removeCommand(2));
+    }
+
+    @Test
+    public void stoppedManagerDoesNotTimeOut() {
+        send(1, "p_msg", TIMEOUT);
+        mManager.stop();
+        mLooper.idleFor(Duration.ofMillis(TIMEOUT * 2));
+        assertTrue(mTimeouts.isEmpty());
+
+        //重新启动后立即检查，已经过期的信令马上超时
+        mManager.start(true);
+        mLooper.idle();
+        assertEquals(1, mTimeouts.size());
+        assertEquals(0, mManager.size());
+    }
+
+    private IWebSocketCallback send(int index, String topic, long timeout) {
+        IWebSocketCallback callback = new IWebSocketCallback() {
+        };
+        mManager.putTopic(index, topic, timeout);
+        mManager.putCommand(index, callback);
+        mManager.markSent(index);
+        return callback;
+    }
+}
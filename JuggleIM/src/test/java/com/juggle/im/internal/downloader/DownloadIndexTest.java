@@ -0,0 +1,133 @@
+package com.juggle.im.internal.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分片下载信息和断点索引的读写
+ */
+public class DownloadIndexTest {
+    private static final String TAG = "msg1";
+    private static final String URL = "https://example.com/a.mp4";
+    private static final long LENGTH = 1000;
+
+    private File mDir;
+    private File mIndexFile;
+    private String mFilePath;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("download", "");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdirs());
+        mIndexFile = new File(mDir, TAG + ".idx");
+        mFilePath = new File(mDir, "a.mp4").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void indexRoundTrip() throws IOException {
+        DownloadInfo info = createInfo();
+        info.getSliceInfoList().get(0).setPersistedLength(250);
+        info.getSliceInfoList().get(1).setPersistedLength(100);
+
+        MediaDownloadEngine.writeIndex(info, mIndexFile);
+        DownloadInfo read = MediaDownloadEngine.readIndex(mIndexFile, TAG, LENGTH, mFilePath, URL);
+
+        assertNotNull(read);
+        assertEquals(TAG, read.getTag());
+        assertEquals(URL, read.getUrl());
+        assertEquals(LENGTH, read.getLength());
+        assertEquals(mFilePath, read.getFilePath());
+        assertEquals(mFilePath + ".download", read.getDownloadPath());
+        assertEquals(2, read.getSliceInfoList().size());
+        DownloadInfo.SliceInfo first = read.getSliceInfoList().get(0);
+        assertEquals(0, first.getPartNumber());
+        assertEquals(0, first.getStartRange());
+        assertEquals(249, first.getEndRange());
+        assertEquals(250, first.getMaxLength());
+        assertEquals(250, first.getCurrentLength());
+        assertTrue(first.isFinish());
+        assertTrue(first.isPersisted());
+        DownloadInfo.SliceInfo second = read.getSliceInfoList().get(1);
+        assertEquals(350, second.getCurrentRange());
+        assertEquals(750, second.getMaxLength());
+        assertEquals(mFilePath + ".download", second.getSavePath());
+        assertFalse(read.isPersisted());
+        assertEquals(35, read.currentProgress());
+    }
+
+    @Test
+    public void indexMismatchReturnsNull() throws IOException {
+        MediaDownloadEngine.writeIndex(createInfo(), mIndexFile);
+
+        assertNull(MediaDownloadEngine.readIndex(mIndexFile, TAG, LENGTH + 1, mFilePath, URL));
+        assertNull(MediaDownloadEngine.readIndex(mIndexFile, TAG, LENGTH, mFilePath, URL + "?v=2"));
+    }
+
+    @Test
+    public void corruptIndexReturnsNull() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mIndexFile)) {
+            out.write(new byte[]{'{', '"', 'u', 'r', 'l', '"', ':', '1', '}'});
+        }
+
+        assertNull(MediaDownloadEngine.readIndex(mIndexFile, TAG, LENGTH, mFilePath, URL));
+    }
+
+    @Test
+    public void persistedLagsBufferedProgress() {
+        DownloadInfo info = createInfo();
+        for (DownloadInfo.SliceInfo sliceInfo : info.getSliceInfoList()) {
+            sliceInfo.setCurrentLength(sliceInfo.getMaxLength());
+        }
+        // 数据已经全部读取但还在缓冲区中时不能完成下载
+        assertTrue(info.isFinished());
+        assertFalse(info.isPersisted());
+
+        for (DownloadInfo.SliceInfo sliceInfo : info.getSliceInfoList()) {
+            sliceInfo.setPersistedLength(sliceInfo.getMaxLength());
+        }
+        assertTrue(info.isPersisted());
+        assertEquals(LENGTH, info.currentFileLength());
+    }
+
+    private DownloadInfo createInfo() {
+        DownloadInfo info = new DownloadInfo(mFilePath, URL, TAG);
+        info.setLength(LENGTH);
+        info.setDownloadPath(mFilePath + ".download");
+        info.setInfoPath(mIndexFile.getPath());
+        info.addSliceInfo(createSlice(0, 0, 249, 50));
+        info.addSliceInfo(createSlice(1, 250, 999, 50));
+        return info;
+    }
+
+    private DownloadInfo.SliceInfo createSlice(int partNumber, long start, long end, int proportion) {
+        DownloadInfo.SliceInfo sliceInfo = new DownloadInfo.SliceInfo();
+        sliceInfo.setPartNumber(partNumber);
+        sliceInfo.setStartRange(start);
+        sliceInfo.setEndRange(end);
+        sliceInfo.setMaxLength(end - start + 1);
+        sliceInfo.setProportion(proportion);
+        sliceInfo.setUrl(URL);
+        sliceInfo.setTag(TAG);
+        sliceInfo.setSavePath(mFilePath + ".download");
+        return sliceInfo;
+    }
+}
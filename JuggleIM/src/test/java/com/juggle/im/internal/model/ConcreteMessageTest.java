@@ -0,0 +1,199 @@
+package com.juggle.im.internal.model;
+
+import com.juggle.im.JIMConst;
+import com.juggle.im.internal.ContentTypeCenter;
+import com.juggle.im.internal.core.db.DBManager;
+import com.juggle.im.model.Conversation;
+import com.juggle.im.model.Message;
+import com.juggle.im.model.MessageContent;
+import com.juggle.im.model.messages.MergeMessage;
+import com.juggle.im.model.messages.TextMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 原始内容延迟解码：并发只解码一次、setContent 覆盖、copy 保留未解码状态以及只查询元数据
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConcreteMessageTest {
+    private static final String RAW = "{\"content\":\"counting\"}";
+
+    @Before
+    public void setUp() {
+        ContentTypeCenter.getInstance().registerContentType(MergeMessage::new);
+        ContentTypeCenter.getInstance().registerContentType(CountingMessage::new);
+        CountingMessage.sDecodeCount.set(0);
+    }
+
+    @Test
+    public void concurrentGetContentDecodesOnce() throws InterruptedException {
+        final ConcreteMessage message = countingMessage();
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final MessageContent[] results = new MessageContent[threadCount];
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int index = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    results[index] = message.getContent();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertEquals(1, CountingMessage.sDecodeCount.get());
+        assertEquals("counting", ((CountingMessage) results[0]).mContent);
+        for (MessageContent result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    @Test
+    public void setContentOverridesPendingRawContent() {
+        ConcreteMessage message = countingMessage();
+        CountingMessage content = new CountingMessage();
+        message.setContent(content);
+        assertSame(content, message.getContent());
+        assertEquals(0, CountingMessage.sDecodeCount.get());
+
+        //再次写入原始内容后重新解码
+        message.setRawContent(RAW);
+        assertNotSame(content, message.getContent());
+        assertEquals(1, CountingMessage.sDecodeCount.get());
+    }
+
+    @Test
+    public void copyKeepsContentUndecoded() {
+        ConcreteMessage message = countingMessage();
+        ConcreteMessage copy = message.copy();
+        assertEquals(0, CountingMessage.sDecodeCount.get());
+
+        //两边各自解码，得到不同的对象
+        MessageContent copied = copy.getContent();
+        assertEquals(1, CountingMessage.sDecodeCount.get());
+        assertNotSame(copied, message.getContent());
+        assertEquals(2, CountingMessage.sDecodeCount.get());
+
+        //已经解码的内容对象是共用的
+        assertSame(message.getContent(), message.copy().getContent());
+        assertEquals(2, CountingMessage.sDecodeCount.get());
+    }
+
+    @Test
+    public void mergeMessageContainerIdIsFilled() {
+        Conversation conversation = new Conversation(Conversation.ConversationType.GROUP, "g1");
+        MergeMessage merge = new MergeMessage("title", conversation, Arrays.asList("m1", "m2"), new ArrayList<>());
+        ConcreteMessage message = rawMessage("merge-1", merge.getContentType(), new String(merge.encode(), StandardCharsets.UTF_8));
+        assertEquals("merge-1", ((MergeMessage) message.getContent()).getContainerMsgId());
+
+        //内容里已经有 containerMsgId 时保持不变
+        merge.setContainerMsgId("container");
+        message = rawMessage("merge-2", merge.getContentType(), new String(merge.encode(), StandardCharsets.UTF_8));
+        assertEquals("container", ((MergeMessage) message.getContent()).getContainerMsgId());
+    }
+
+    @Test
+    public void metadataOnlyQueryReturnsNullContent() {
+        DBManager dbManager = new DBManager();
+        dbManager.openIMDB(RuntimeEnvironment.getApplication(), "appkey", "user" + System.nanoTime());
+        try {
+            Conversation conversation = new Conversation(Conversation.ConversationType.PRIVATE, "c1");
+            List<ConcreteMessage> list = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                ConcreteMessage message = new ConcreteMessage();
+                TextMessage content = new TextMessage("text " + i);
+                message.setConversation(conversation);
+                message.setContentType(content.getContentType());
+                message.setContent(content);
+                message.setMessageId("m" + i);
+                message.setDirection(Message.MessageDirection.RECEIVE);
+                message.setState(Message.MessageState.SENT);
+                message.setTimestamp(i + 1);
+                message.setSenderUserId("u1");
+                list.add(message);
+            }
+            dbManager.insertMessages(list);
+
+            List<Message> metadata = queryMessages(dbManager, conversation, true);
+            List<Message> full = queryMessages(dbManager, conversation, false);
+            assertEquals(3, metadata.size());
+            assertEquals(3, full.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals("m" + i, metadata.get(i).getMessageId());
+                assertEquals(i + 1, metadata.get(i).getTimestamp());
+                assertEquals("jg:text", metadata.get(i).getContentType());
+                assertNull(metadata.get(i).getContent());
+                assertEquals("text " + i, ((TextMessage) full.get(i).getContent()).getContent());
+            }
+        } finally {
+            dbManager.closeDB();
+        }
+    }
+
+    private List<Message> queryMessages(DBManager dbManager, Conversation conversation, boolean metadataOnly) {
+        return dbManager.getMessages(10, 0, JIMConst.PullDirection.OLDER, null, null, null, null, null,
+                Collections.singletonList(conversation), metadataOnly);
+    }
+
+    private ConcreteMessage countingMessage() {
+        return rawMessage("counting-1", CountingMessage.TYPE, RAW);
+    }
+
+    private ConcreteMessage rawMessage(String messageId, String contentType, String rawContent) {
+        ConcreteMessage message = new ConcreteMessage();
+        message.setMessageId(messageId);
+        message.setContentType(contentType);
+        message.setRawContent(rawContent);
+        return message;
+    }
+
+    //记录解码次数，解码时稍作停顿，让并发的 getContent 有机会同时进入
+    static class CountingMessage extends MessageContent {
+        static final String TYPE = "test:counting";
+        static final AtomicInteger sDecodeCount = new AtomicInteger();
+
+        CountingMessage() {
+            mContentType = TYPE;
+        }
+
+        @Override
+        public byte[] encode() {
+            return RAW.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void decode(byte[] data) {
+            sDecodeCount.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignored) {
+            }
+            mContent = "counting";
+        }
+
+        String mContent;
+    }
+}
@@ -0,0 +1,232 @@
+package com.juggle.im.internal.util;
+
+import com.juggle.im.model.messages.ImageMessage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 内置消息的流式 JSON 编解码
+ * JsonReader / JsonWriter 是 Android 框架类，使用 Robolectric 运行
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JContentCodecTest {
+    @Test
+    public void readKnownFieldsAndSkipUnknown() {
+        Map<String, Object> fields = new HashMap<>();
+        boolean result = JContentCodec.read(bytes("{\"content\":\"hi\",\"ext\":{\"a\":[1,2]},\"duration\":12,\"size\":\"9007199254740993\"}"), (name, reader) -> {
+            switch (name) {
+                case "content":
+                    fields.put(name, JContentCodec.readString(reader));
+                    return true;
+                case "duration":
+                    fields.put(name, JContentCodec.readInt(reader));
+                    return true;
+                case "size":
+                    fields.put(name, JContentCodec.readLong(reader));
+                    return true;
+                default:
+                    return false;
+            }
+        });
+        assertTrue(result);
+        assertEquals("hi", fields.get("content"));
+        assertEquals(12, fields.get("duration"));
+        assertEquals(9007199254740993L, fields.get("size"));
+        assertFalse(fields.containsKey("ext"));
+    }
+
+    @Test
+    public void readStringFollowsOptString() {
+        Map<String, Object> fields = readAllAsString("{\"n\":1.5,\"b\":true,\"z\":null,\"s\":\"\"}");
+        assertEquals("1.5", fields.get("n"));
+        assertEquals("true", fields.get("b"));
+        assertEquals("null", fields.get("z"));
+        assertEquals("", fields.get("s"));
+    }
+
+    @Test
+    public void readIntFollowsOptInt() {
+        Map<String, Object> fields = new HashMap<>();
+        assertTrue(JContentCodec.read(bytes("{\"a\":3.9,\"b\":\" 7 \",\"c\":\"x\",\"d\":true,\"e\":null,\"f\":4294967297}"), (name, reader) -> {
+            fields.put(name, JContentCodec.readInt(reader));
+            return true;
+        }));
+        assertEquals(3, fields.get("a"));
+        assertEquals(7, fields.get("b"));
+        assertEquals(0, fields.get("c"));
+        assertEquals(0, fields.get("d"));
+        assertEquals(0, fields.get("e"));
+        // 与 optInt 一致，超出范围时截断
+        assertEquals(1, fields.get("f"));
+    }
+
+    @Test
+    public void nestedValueFallsBack() {
+        // 已知字段的值是对象或数组时返回 false，由调用方回退到 JSONObject
+        assertFalse(JContentCodec.read(bytes("{\"content\":{\"text\":\"hi\"}}"), (name, reader) -> {
+            JContentCodec.readString(reader);
+            return true;
+        }));
+        assertFalse(JContentCodec.read(bytes("{\"duration\":[1]}"), (name, reader) -> {
+            JContentCodec.readInt(reader);
+            return true;
+        }));
+    }
+
+    @Test
+    public void malformedDataFails() {
+        assertFalse(JContentCodec.read(bytes(""), (name, reader) -> false));
+        assertFalse(JContentCodec.read(bytes("[1,2]"), (name, reader) -> false));
+        assertFalse(JContentCodec.read(bytes("{\"content\":\"hi\""), (name, reader) -> {
+            JContentCodec.readString(reader);
+            return true;
+        }));
+    }
+
+    @Test
+    public void writeThenRead() {
+        String text = "你好 \uD83D\uDE00 \"quoted\"\n";
+        byte[] data = JContentCodec.write(writer -> {
+            writer.name("content").value(text);
+            writer.name("duration").value(30);
+        });
+        assertEquals("{\"content\":\"你好 \uD83D\uDE00 \\\"quoted\\\"\\n\",\"duration\":30}", new String(data, StandardCharsets.UTF_8));
+
+        Map<String, Object> fields = readAllAsString(new String(data, StandardCharsets.UTF_8));
+        assertEquals(text, fields.get("content"));
+        assertEquals("30", fields.get("duration"));
+    }
+
+    @Test
+    public void utf8ReaderMatchesStringDecoding() throws IOException {
+        String text = "a\u00e9\u4e2d\uD83D\uDE00z";
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        assertEquals(text, readAll(new JContentCodec.Utf8Reader(data), 64));
+        // 每次只读一个字符，四字节字符的低代理项留到下一次返回
+        assertEquals(text, readAll(new JContentCodec.Utf8Reader(data), 1));
+    }
+
+    @Test
+    public void utf8ReaderReplacesMalformedSequences() throws IOException {
+        // 非法首字节
+        assertEquals("a\uFFFDb", decode(0x61, 0xC0, 0x62));
+        // 缺少后续字节
+        assertEquals("\uFFFDb", decode(0xE4, 0xBD, 0x62));
+        assertEquals("\uFFFD", decode(0xF0, 0x9F, 0x98));
+        // 过长编码和代理项编码
+        assertEquals("\uFFFD", decode(0xE0, 0x80, 0x80));
+        assertEquals("\uFFFD", decode(0xED, 0xA0, 0x80));
+        // 超出 Unicode 范围
+        assertEquals("\uFFFD", decode(0xF4, 0x90, 0x80, 0x80));
+    }
+
+    @Test
+    public void utf8ReaderEmptyData() throws IOException {
+        Reader reader = new JContentCodec.Utf8Reader(new byte[0]);
+        assertEquals(-1, reader.read(new char[4], 0, 4));
+        assertEquals(0, reader.read(new char[4], 0, 0));
+    }
+
+    @Test
+    public void benchmarkDecodeLatencyAndAllocation() throws JSONException {
+        int count = 20000;
+        ImageMessage sample = new ImageMessage();
+        sample.setUrl("https://example.com/image/a.jpg");
+        sample.setThumbnailUrl("https://example.com/image/a_thumb.jpg");
+        sample.setWidth(1080);
+        sample.setHeight(1920);
+        sample.setSize(1024 * 1024);
+        sample.setExtra("extra");
+        byte[] data = sample.encode();
+
+        //预热两条路径
+        for (int i = 0; i < count; i++) {
+            new ImageMessage().decode(data);
+            decodeWithJSONObject(data);
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long[] streamLatencies = new long[count];
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            new ImageMessage().decode(data);
+            streamLatencies[i] = System.nanoTime() - start;
+        }
+        long streamBytes = bean.getThreadAllocatedBytes(threadId) - allocated;
+
+        long[] jsonLatencies = new long[count];
+        allocated = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            decodeWithJSONObject(data);
+            jsonLatencies[i] = System.nanoTime() - start;
+        }
+        long jsonBytes = bean.getThreadAllocatedBytes(threadId) - allocated;
+
+        Arrays.sort(streamLatencies);
+        Arrays.sort(jsonLatencies);
+        System.out.println(String.format("decode ImageMessage %d bytes: JContentCodec p50 %.2f us p99 %.2f us %d B/decode, JSONObject p50 %.2f us p99 %.2f us %d B/decode",
+                data.length, streamLatencies[count / 2] / 1000.0, streamLatencies[count * 99 / 100] / 1000.0, streamBytes / count,
+                jsonLatencies[count / 2] / 1000.0, jsonLatencies[count * 99 / 100] / 1000.0, jsonBytes / count));
+    }
+
+    //原来的解码路径：整段转成 String 后用 JSONObject 解析
+    private static ImageMessage decodeWithJSONObject(byte[] data) throws JSONException {
+        ImageMessage message = new ImageMessage();
+        JSONObject jsonObject = new JSONObject(new String(data, StandardCharsets.UTF_8));
+        message.setUrl(jsonObject.optString("url"));
+        message.setThumbnailUrl(jsonObject.optString("thumbnail"));
+        message.setWidth(jsonObject.optInt("width"));
+        message.setHeight(jsonObject.optInt("height"));
+        message.setSize(jsonObject.optLong("size"));
+        message.setExtra(jsonObject.optString("extra"));
+        return message;
+    }
+
+    private static Map<String, Object> readAllAsString(String json) {
+        Map<String, Object> fields = new HashMap<>();
+        assertTrue(JContentCodec.read(bytes(json), (name, reader) -> {
+            fields.put(name, JContentCodec.readString(reader));
+            return true;
+        }));
+        return fields;
+    }
+
+    private static String decode(int... values) throws IOException {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return readAll(new JContentCodec.Utf8Reader(data), 64);
+    }
+
+    private static String readAll(Reader reader, int bufferSize) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[bufferSize];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            sb.append(buffer, 0, count);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}